@@ -22,6 +22,7 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LiveLatencyController;
 import com.google.android.exoplayer2.RendererCapabilities;
 import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.audio.AudioRendererEventListener;
@@ -38,6 +39,7 @@ import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector.TrackInfo;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
@@ -54,7 +56,8 @@ import java.util.Locale;
 /* package */ final class EventLogger implements ExoPlayer.EventListener,
     AudioRendererEventListener, VideoRendererEventListener, AdaptiveMediaSourceEventListener,
     ExtractorMediaSource.EventListener, StreamingDrmSessionManager.EventListener,
-    MappingTrackSelector.EventListener, MetadataRenderer.Output<List<Id3Frame>> {
+    MappingTrackSelector.EventListener, MetadataRenderer.Output<List<Id3Frame>>,
+    HlsMediaSource.VariantSwitchListener, LiveLatencyController.EventListener {
 
   private static final String TAG = "EventLogger";
   private static final int MAX_TIMELINE_ITEM_LINES = 3;
@@ -415,6 +418,29 @@ import java.util.Locale;
     LogService.logDrmKeysLoaded();
   }
 
+  // HlsMediaSource.VariantSwitchListener
+
+  @Override
+  public void onVariantSwitched(Format format, Format previousFormat, long switchLatencyMs,
+      boolean playlistLoadRequired) {
+    Log.d(TAG, "variantSwitched [" + getSessionTimeString() + ", " + previousFormat.bitrate
+        + " -> " + format.bitrate + ", " + switchLatencyMs + "ms"
+        + (playlistLoadRequired ? ", playlistLoad" : "") + "]");
+  }
+
+  // LiveLatencyController.EventListener
+
+  @Override
+  public void onLiveLatencyUpdated(long latencyMs, float playbackSpeed) {
+    Log.d(TAG, "liveLatency [" + getSessionTimeString() + ", " + latencyMs + "ms, "
+        + playbackSpeed + "x]");
+  }
+
+  @Override
+  public void onLiveEdgeRejoined(long latencyMs) {
+    Log.d(TAG, "liveEdgeRejoined [" + getSessionTimeString() + ", " + latencyMs + "ms]");
+  }
+
   // Internal methods
 
   @Override
@@ -4,6 +4,7 @@ import java.sql.Array;
 import java.sql.DatabaseMetaData;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.List;
 import java.lang.Thread;
 
 /* OML libraries */
@@ -42,8 +43,23 @@ public class LogService extends Service {
 
     public static boolean logServiceIsRunning = false;
 
+    // Indices de los measure points en measure_points.
+    private static final int MP_VIDEO_FORMAT = 0;
+    private static final int MP_VIDEO_DROPPED = 1;
+    private static final int MP_VIDEO_EVENTS = 2;
+    private static final int MP_AUDIO_FORMAT = 3;
+    private static final int MP_AUDIO_TRACK_UNDERRUN = 4;
+    private static final int MP_AUDIO_EVENTS = 5;
+
+    // Configuracion de la cola de muestras. La politica se puede cambiar con el extra QUEUE_POLICY
+    // ("drop_newest", "drop_oldest" o "block").
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int QUEUE_MAX_FIELD_COUNT = 5;
+    private static final int QUEUE_BATCH_SIZE = 64;
+    private static final long QUEUE_MAX_BATCH_DELAY_MS = 500;
+
     static SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyyHH.mm.ss.SSS");
-    private static String timestamp;
+    private static volatile MeasurementQueue measurementQueue;
     private static String video_format;
     private static String resolution = "";
     IBinder mBinder = new LocalBinder();
@@ -77,93 +93,30 @@ public class LogService extends Service {
     // Tabla audio_events
     // Idea: eventos con parametros en json anidado
     public static void logAudioEnabled() {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "audioEnabled"};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(5).inject(data); // audio_events field
-                    Log.d("[LogService]", "audioEnabled at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_AUDIO_EVENTS, "audioEnabled");
     }
     public static void logAudioSessionId(int audioSessionId) {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "AudioSessionId " + String.valueOf(audioSessionId)};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(5).inject(data); // audio_events field
-                    Log.d("[LogService]", "audioSessionId at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_AUDIO_EVENTS, "AudioSessionId " + audioSessionId);
     }
     public static void logAudioDecoderInitialized(String decoderName) {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "AudioDecoderInitialized " + decoderName};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(5).inject(data); // audio_events field
-                    Log.d("[LogService]", "AudioDecoderInitialized at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_AUDIO_EVENTS, "AudioDecoderInitialized " + decoderName);
     }
     public static void logAudioDisabled() {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "AudioDisabled"};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(5).inject(data); // audio_events field
-                    Log.d("[LogService]", "AudioDisabled at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_AUDIO_EVENTS, "AudioDisabled");
     }
 
     // Tabla audio_trackunderrun
     public static void logAudioTrackUnderrun(int bufferSize, long bufferSizeMs) {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), String.valueOf(bufferSize), String.valueOf(bufferSizeMs)};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(4).inject(data); // audio_track_underrun field
-                    Log.d("[LogService]", "AudioTrackUnderrun at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
+        MeasurementQueue queue = measurementQueue;
+        if (isOmlRunning && queue != null) {
+            queue.add(MP_AUDIO_TRACK_UNDERRUN, String.valueOf(bufferSize),
+                    String.valueOf(bufferSizeMs));
         }
     }
 
     // Tabla audio_format
     public static void logAudioInputFormatChanged(String mimetype, String bitrate, String channels, String sample_rate, String language) {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), mimetype, bitrate, channels, sample_rate, language};
-        Log.d("[LogService]", "AudioInputFormatChanged at " + data[0] + "; Format: " + data[1]);
+        Log.d("[LogService]", "AudioInputFormatChanged; Format: " + mimetype);
     }
 
     /*
@@ -173,126 +126,43 @@ public class LogService extends Service {
 
     // Tabla video_events
     public static void logVideoEnabled() {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "videoEnabled"};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(2).inject(data); // video_events field
-                    Log.d("[LogService]", "videoEnabled at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_VIDEO_EVENTS, "videoEnabled");
     }
     public static void logVideoDecoderInitialized(String decoder) {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "VideoDecoderInitialized: " + decoder};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(2).inject(data); // video_events field
-                    Log.d("[LogService]", "VideoDecoderInitialized at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_VIDEO_EVENTS, "VideoDecoderInitialized: " + decoder);
     }
     public static void logVideoDisabled() {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "videoDisabled"};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(2).inject(data); // video_events field
-                    Log.d("[LogService]", "videoDisabled at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_VIDEO_EVENTS, "videoDisabled");
     }
     public static void logRenderedFirstFrame() {
         // Do nothing.
     }
     public static void logDrmSessionManagerError() {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "DrmSessionManagerError"};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(2).inject(data); // video_events field
-                    Log.d("[LogService]", "DrmSessionManagerError at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_VIDEO_EVENTS, "DrmSessionManagerError");
     }
     public static void logDrmKeysLoaded() {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), "DrmKeysLoaded"};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(2).inject(data); // video_events field
-                    Log.d("[LogService]", "DrmKeysLoaded at " + data[0]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
-        }
+        addSample(MP_VIDEO_EVENTS, "DrmKeysLoaded");
     }
 
     // Tabla video_format
     public static void logVideoInputFormatChanged(String mimetype, String bitrate, String resolution, String fps) {
-        timestamp = formatter.format(System.currentTimeMillis());
-        final String[] data = {String.valueOf(timestamp), mimetype, bitrate, resolution, fps};
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(0).inject(data); // video_format field
-                    Log.d("[LogService]", "VideoInputFormatChanged at " + data[0] + "; mimetype: " + data[1] + "; bitrate: " + data[2] + "; resolution: " + data[3] + "; fps: " + data[4]);
-                    Log.d("[TrackSelection]", "VideoInputFormatChanged at " + data[0] + "; mimetype: " + data[1] + "; bitrate: " + data[2] + "; resolution: " + data[3] + "; fps: " + data[4]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
+        MeasurementQueue queue = measurementQueue;
+        if (isOmlRunning && queue != null) {
+            queue.add(MP_VIDEO_FORMAT, mimetype, bitrate, resolution, fps);
         }
     }
 
     // Tabla video_dropped_frames
     public static void logDroppedFrames(String count) {
-        timestamp = formatter.format(System.currentTimeMillis());
-
-        // data = {timestamp, count}
-        final String[] data = {String.valueOf(timestamp), count};
+        addSample(MP_VIDEO_DROPPED, count);
+    }
 
-        if (isOmlRunning) {
-            // hay que injectar en un thread para no bloquear
-            Thread t = new Thread(new Runnable() {
-                public void run() {
-                    measure_points.get(1).inject(data); // video_dropped field
-                    Log.d("[LogService]", "DroppedFrames at " + data[0] + "; count: " + data[1]);
-                }
-            });
-            t.start();
-        } else {
-            Log.d("[LogService]", "OML Server not running yet.");
+    // Las muestras se encolan sin crear threads ni formatear el timestamp; el thread consumidor de
+    // MeasurementQueue las inyecta en OML por lotes.
+    private static void addSample(int measurePoint, String field) {
+        MeasurementQueue queue = measurementQueue;
+        if (isOmlRunning && queue != null) {
+            queue.add(measurePoint, field);
         }
     }
 
@@ -383,6 +253,19 @@ public class LogService extends Service {
             Log.d("[LogService]","not null, using: " + server_address);
         }
 
+        int queuePolicy = MeasurementQueue.POLICY_DROP_OLDEST;
+        String queuePolicyName = (String) extras.get("QUEUE_POLICY");
+        if ("drop_newest".equals(queuePolicyName)) {
+            queuePolicy = MeasurementQueue.POLICY_DROP_NEWEST;
+        } else if ("block".equals(queuePolicyName)) {
+            queuePolicy = MeasurementQueue.POLICY_BLOCK;
+        }
+        if (measurementQueue != null) {
+            measurementQueue.release();
+        }
+        measurementQueue = new MeasurementQueue(QUEUE_CAPACITY, QUEUE_MAX_FIELD_COUNT,
+                QUEUE_BATCH_SIZE, QUEUE_MAX_BATCH_DELAY_MS, queuePolicy);
+
         Log.d("[LogService]", "Iniciando servicio");
         Log.d("[LogService]", "Escribiendo en " + dbname);
         super.onStartCommand(intent, flags, startId);
@@ -393,8 +276,23 @@ public class LogService extends Service {
 
     @Override
     public void onDestroy() {
-        if (oml != null) oml.close();
-        Log.d("[LogService]", "OML close");
+        isOmlRunning = false;
+        MeasurementQueue queue = measurementQueue;
+        measurementQueue = null;
+        final OMLBase omlToClose = oml;
+        Runnable closeOml = new Runnable() {
+            @Override
+            public void run() {
+                if (omlToClose != null) omlToClose.close();
+                Log.d("[LogService]", "OML close");
+            }
+        };
+        if (queue != null) {
+            // No bloquea: el hilo consumidor inyecta las muestras pendientes y despues cierra OML.
+            queue.release(closeOml);
+        } else {
+            closeOml.run();
+        }
     }
 
     public class LocalBinder extends Binder {
@@ -412,9 +310,20 @@ public class LogService extends Service {
         }
 
         @Override
-        protected void onPostExecute(ArrayList<OmlMP> result) {
-            isOmlRunning = true;
+        protected void onPostExecute(final ArrayList<OmlMP> result) {
             measure_points = result;
+            MeasurementQueue queue = measurementQueue;
+            if (queue != null) {
+                queue.start(new MeasurementQueue.Sink() {
+                    @Override
+                    public void onSamples(int measurementPoint, List<String[]> samples) {
+                        result.get(measurementPoint).inject_mass(samples);
+                        Log.d("[LogService]", "Injected " + samples.size() + " samples in "
+                                + "measure point " + measurementPoint);
+                    }
+                });
+            }
+            isOmlRunning = true;
         }
 
         @Override
@@ -582,7 +491,7 @@ public class LogService extends Service {
             measurePoints.add(video_events); // measure_points[2] measure_points.get(2)
             measurePoints.add(audio_format); // measure_points[3] measure_points.get(3)
             measurePoints.add(audio_track_underrun); // measure_points[4] measure_points.get(4)
-            measurePoints.add(audio_events); // measure_points[4] measure_points.get(5)
+            measurePoints.add(audio_events); // measure_points[5] measure_points.get(5)
 
             return measurePoints;
         }
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.demo;
+
+import android.os.SystemClock;
+import android.util.Log;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded queue of measurement samples, drained in batches by a single consumer thread.
+ * <p>
+ * Producers only write into preallocated slots of a ring buffer, timestamping each sample with
+ * {@link SystemClock#elapsedRealtime()}. The consumer thread converts timestamps to wall clock
+ * strings and passes samples to a {@link Sink} in batches, grouped by measurement point. When the
+ * buffer is full the behavior is determined by the queue's policy.
+ */
+/* package */ final class MeasurementQueue {
+
+  /**
+   * Receives batches of samples on the consumer thread.
+   */
+  public interface Sink {
+
+    /**
+     * Called with a batch of samples for a measurement point.
+     *
+     * @param measurementPoint The measurement point of the samples.
+     * @param samples The samples, each consisting of a timestamp followed by the sample's fields.
+     *     The list is reused after this method returns.
+     */
+    void onSamples(int measurementPoint, List<String[]> samples);
+
+  }
+
+  /**
+   * Discard the sample being added if the buffer is full.
+   */
+  public static final int POLICY_DROP_NEWEST = 0;
+  /**
+   * Discard the oldest queued sample if the buffer is full.
+   */
+  public static final int POLICY_DROP_OLDEST = 1;
+  /**
+   * Block the producer until there is space in the buffer.
+   */
+  public static final int POLICY_BLOCK = 2;
+
+  private static final String TAG = "MeasurementQueue";
+  private static final String TIMESTAMP_FORMAT = "dd.MM.yyyyHH.mm.ss.SSS";
+  private static final int INDEX_UNSET = -1;
+
+  private final int policy;
+  private final int batchSize;
+  private final long maxBatchDelayMs;
+  private final int maxFieldCount;
+
+  // Ring buffer, guarded by this.
+  private final int[] measurementPoints;
+  private final long[] timestampsMs;
+  private final int[] fieldCounts;
+  private final String[] fields;
+  private int readIndex;
+  private int size;
+  private long droppedSampleCount;
+  private long injectedSampleCount;
+  private boolean released;
+  private boolean consumerFinished;
+  private Runnable releaseCallback;
+
+  private final long wallClockBaseMs;
+  private final long elapsedRealtimeBaseMs;
+  private Thread consumerThread;
+
+  /**
+   * @param capacity The maximum number of queued samples.
+   * @param maxFieldCount The maximum number of fields in a sample, excluding the timestamp.
+   * @param batchSize The number of samples at which a batch is passed to the sink immediately.
+   * @param maxBatchDelayMs The maximum time a sample waits for its batch to fill.
+   * @param policy The policy to apply when the buffer is full. One of {@link #POLICY_DROP_NEWEST},
+   *     {@link #POLICY_DROP_OLDEST} and {@link #POLICY_BLOCK}.
+   */
+  public MeasurementQueue(int capacity, int maxFieldCount, int batchSize, long maxBatchDelayMs,
+      int policy) {
+    this.maxFieldCount = maxFieldCount;
+    this.batchSize = batchSize;
+    this.maxBatchDelayMs = maxBatchDelayMs;
+    this.policy = policy;
+    measurementPoints = new int[capacity];
+    timestampsMs = new long[capacity];
+    fieldCounts = new int[capacity];
+    fields = new String[capacity * maxFieldCount];
+    wallClockBaseMs = System.currentTimeMillis();
+    elapsedRealtimeBaseMs = SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Starts the consumer thread. Samples added before this method is called are queued.
+   *
+   * @param sink The sink to receive batches of samples.
+   */
+  public synchronized void start(final Sink sink) {
+    if (consumerThread != null || released) {
+      return;
+    }
+    consumerThread = new Thread("MeasurementQueue") {
+      @Override
+      public void run() {
+        consume(sink);
+      }
+    };
+    consumerThread.start();
+  }
+
+  /**
+   * Equivalent to {@code release(null)}.
+   */
+  public void release() {
+    release(null);
+  }
+
+  /**
+   * Releases the queue. Samples added after this method is called are discarded. Any queued
+   * samples are passed to the sink on the consumer thread, which then exits. This method does not
+   * wait for the consumer thread, so it may be called from the main thread.
+   *
+   * @param onReleased Run once all queued samples have been passed to the sink, on the consumer
+   *     thread, or on the calling thread if the consumer thread is not running. This is where
+   *     resources used by the sink can be closed. May be null.
+   */
+  public void release(Runnable onReleased) {
+    synchronized (this) {
+      released = true;
+      notifyAll();
+      if (consumerThread != null && !consumerFinished) {
+        if (onReleased != null) {
+          releaseCallback = onReleased;
+        }
+        return;
+      }
+    }
+    if (onReleased != null) {
+      onReleased.run();
+    }
+  }
+
+  /**
+   * Returns the number of samples discarded because the buffer was full.
+   */
+  public synchronized long getDroppedSampleCount() {
+    return droppedSampleCount;
+  }
+
+  /**
+   * Returns the number of samples passed to the sink.
+   */
+  public synchronized long getInjectedSampleCount() {
+    return injectedSampleCount;
+  }
+
+  /**
+   * Adds a sample with a single field.
+   *
+   * @return Whether the sample was queued.
+   */
+  public synchronized boolean add(int measurementPoint, String field) {
+    int index = obtainSlot(measurementPoint, 1);
+    if (index == INDEX_UNSET) {
+      return false;
+    }
+    fields[index * maxFieldCount] = field;
+    return true;
+  }
+
+  /**
+   * Adds a sample with two fields.
+   *
+   * @return Whether the sample was queued.
+   */
+  public synchronized boolean add(int measurementPoint, String field0, String field1) {
+    int index = obtainSlot(measurementPoint, 2);
+    if (index == INDEX_UNSET) {
+      return false;
+    }
+    int offset = index * maxFieldCount;
+    fields[offset] = field0;
+    fields[offset + 1] = field1;
+    return true;
+  }
+
+  /**
+   * Adds a sample with an arbitrary number of fields. The fields are copied.
+   *
+   * @return Whether the sample was queued.
+   */
+  public synchronized boolean add(int measurementPoint, String... sampleFields) {
+    int index = obtainSlot(measurementPoint, sampleFields.length);
+    if (index == INDEX_UNSET) {
+      return false;
+    }
+    System.arraycopy(sampleFields, 0, fields, index * maxFieldCount, sampleFields.length);
+    return true;
+  }
+
+  /**
+   * Claims the slot for a new sample, applying the policy if the buffer is full.
+   *
+   * @return The index of the slot, or {@link #INDEX_UNSET} if the sample should be discarded.
+   */
+  private int obtainSlot(int measurementPoint, int fieldCount) {
+    if (fieldCount > maxFieldCount) {
+      throw new IllegalArgumentException("Too many fields: " + fieldCount);
+    }
+    long timestampMs = SystemClock.elapsedRealtime();
+    int capacity = timestampsMs.length;
+    if (size == capacity) {
+      if (policy == POLICY_BLOCK) {
+        while (size == capacity && !released) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      } else if (policy == POLICY_DROP_OLDEST) {
+        readIndex = (readIndex + 1) % capacity;
+        size--;
+        droppedSampleCount++;
+      }
+      if (size == capacity || released) {
+        droppedSampleCount++;
+        return INDEX_UNSET;
+      }
+    } else if (released) {
+      droppedSampleCount++;
+      return INDEX_UNSET;
+    }
+    int index = (readIndex + size) % capacity;
+    measurementPoints[index] = measurementPoint;
+    timestampsMs[index] = timestampMs;
+    fieldCounts[index] = fieldCount;
+    size++;
+    if (size == batchSize) {
+      notifyAll();
+    }
+    return index;
+  }
+
+  private void consume(Sink sink) {
+    // The formatter is only accessed from this thread.
+    SimpleDateFormat formatter = new SimpleDateFormat(TIMESTAMP_FORMAT);
+    List<List<String[]>> batches = new ArrayList<>();
+    boolean finished = false;
+    while (!finished) {
+      int batchSampleCount = 0;
+      synchronized (this) {
+        try {
+          waitForBatch();
+        } catch (InterruptedException e) {
+          released = true;
+        }
+        finished = released;
+        int capacity = timestampsMs.length;
+        while (size > 0) {
+          int offset = readIndex * maxFieldCount;
+          int fieldCount = fieldCounts[readIndex];
+          String[] sample = new String[fieldCount + 1];
+          sample[0] = formatter.format(wallClockBaseMs + timestampsMs[readIndex]
+              - elapsedRealtimeBaseMs);
+          for (int i = 0; i < fieldCount; i++) {
+            sample[i + 1] = fields[offset + i];
+            fields[offset + i] = null;
+          }
+          int measurementPoint = measurementPoints[readIndex];
+          while (batches.size() <= measurementPoint) {
+            batches.add(new ArrayList<String[]>());
+          }
+          batches.get(measurementPoint).add(sample);
+          readIndex = (readIndex + 1) % capacity;
+          size--;
+          batchSampleCount++;
+        }
+        injectedSampleCount += batchSampleCount;
+        notifyAll();
+      }
+      for (int i = 0; i < batches.size(); i++) {
+        List<String[]> batch = batches.get(i);
+        if (!batch.isEmpty()) {
+          try {
+            sink.onSamples(i, batch);
+          } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to inject " + batch.size() + " samples", e);
+          }
+          batch.clear();
+        }
+      }
+    }
+    Log.d(TAG, "Released. Samples injected: " + getInjectedSampleCount() + "; dropped: "
+        + getDroppedSampleCount());
+    Runnable onReleased;
+    synchronized (this) {
+      consumerFinished = true;
+      onReleased = releaseCallback;
+      releaseCallback = null;
+    }
+    if (onReleased != null) {
+      onReleased.run();
+    }
+  }
+
+  /**
+   * Waits until a batch is full, the oldest queued sample has waited for the maximum batch delay,
+   * or the queue is released.
+   */
+  private void waitForBatch() throws InterruptedException {
+    while (size == 0 && !released) {
+      wait();
+    }
+    long deadlineMs = timestampsMs[readIndex] + maxBatchDelayMs;
+    long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+    while (size < batchSize && !released && remainingMs > 0) {
+      wait(remainingMs);
+      remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+    }
+  }
+
+}
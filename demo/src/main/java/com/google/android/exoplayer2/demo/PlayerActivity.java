@@ -33,6 +33,7 @@ import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.LiveLatencyController;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.drm.DrmSessionManager;
@@ -107,6 +108,7 @@ public class PlayerActivity extends Activity implements OnClickListener, ExoPlay
   public static final String VIDEO_GINDEX = "video_gindex";  // Video GroupIndex
   public static final String AUDIO_TINDEX = "audio_tindex";  // Audio TrackIndex
   public static final String AUDIO_GINDEX = "audio_gindex";  // Audio GroupIndex
+  public static final String LIVE_LATENCY_MS = "live_latency_ms"; // Latencia objetivo en directo
 
   public static final String ACTION_VIEW = "com.google.android.exoplayer.demo.action.VIEW";
   public static final String EXTENSION_EXTRA = "extension";
@@ -128,6 +130,7 @@ public class PlayerActivity extends Activity implements OnClickListener, ExoPlay
 
   private Handler mainHandler;
   private EventLogger eventLogger;
+  private LiveLatencyController liveLatencyController;
   private SimpleExoPlayerView simpleExoPlayerView;
   private LinearLayout debugRootView;
   private TextView debugTextView;
@@ -384,6 +387,13 @@ public class PlayerActivity extends Activity implements OnClickListener, ExoPlay
       player.setVideoDebugListener(eventLogger);
       player.setId3Output(eventLogger);
 
+      // Control de latencia en directo (DASH/HLS) si se indica una latencia objetivo
+      String liveLatencyMs = intent.getStringExtra(LIVE_LATENCY_MS);
+      if (liveLatencyMs != null) {
+        liveLatencyController = new LiveLatencyController(player, Long.parseLong(liveLatencyMs),
+            eventLogger);
+      }
+
       simpleExoPlayerView.setPlayer(player);
       if (shouldRestorePosition) {
         if (playerPosition == C.TIME_UNSET) {
@@ -456,9 +466,14 @@ public class PlayerActivity extends Activity implements OnClickListener, ExoPlay
             new DefaultSsChunkSource.Factory(mediaDataSourceFactory), mainHandler, eventLogger);
       case Util.TYPE_DASH:
         return new DashMediaSource(uri, buildDataSourceFactory(false),
-            new DefaultDashChunkSource.Factory(mediaDataSourceFactory), mainHandler, eventLogger);
+            new DefaultDashChunkSource.Factory(mediaDataSourceFactory),
+            DashMediaSource.DEFAULT_MIN_LOADABLE_RETRY_COUNT,
+            DashMediaSource.DEFAULT_LIVE_PRESENTATION_DELAY_PREFER_MANIFEST_MS, false,
+            liveLatencyController, mainHandler, eventLogger);
       case Util.TYPE_HLS:
-        return new HlsMediaSource(uri, mediaDataSourceFactory, mainHandler, eventLogger);
+        return new HlsMediaSource(uri, mediaDataSourceFactory,
+            HlsMediaSource.DEFAULT_MIN_LOADABLE_RETRY_COUNT, false, 1, liveLatencyController,
+            mainHandler, eventLogger, eventLogger);
       case Util.TYPE_OTHER:
         return new ExtractorMediaSource(uri, mediaDataSourceFactory, new DefaultExtractorsFactory(),
             mainHandler, eventLogger);
@@ -495,6 +510,10 @@ public class PlayerActivity extends Activity implements OnClickListener, ExoPlay
           playerPosition = window.isSeekable ? player.getCurrentPosition() : C.TIME_UNSET;
         }
       }
+      if (liveLatencyController != null) {
+        liveLatencyController.release();
+        liveLatencyController = null;
+      }
       player.release();
       player = null;
       trackSelector = null;
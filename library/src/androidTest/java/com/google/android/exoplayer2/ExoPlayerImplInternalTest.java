@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Pair;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.SampleStream;
+import com.google.android.exoplayer2.source.SinglePeriodTimeline;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.trackselection.TrackSelector;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.util.MimeTypes;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for the rendering interval computed by {@link ExoPlayerImplInternal}, and for the
+ * number of iterations of the playback loop that result from it.
+ */
+public final class ExoPlayerImplInternalTest extends TestCase {
+
+  private static final long DURATION_US = 60 * C.MICROS_PER_SECOND;
+  private static final long WARM_UP_MS = 500;
+  private static final long MEASUREMENT_MS = 2000;
+  // A full audio track buffer of 200ms, which the audio renderer asks to top up when half empty.
+  private static final long AUDIO_RENDER_DELAY_US = 100000;
+
+  public void testNoRenderersUsesDefaultInterval() {
+    assertEquals(ExoPlayerImplInternal.RENDERING_INTERVAL_MS,
+        ExoPlayerImplInternal.getRenderingIntervalMs(new Renderer[0], 0, 0));
+  }
+
+  public void testUnsetDelayUsesDefaultInterval() {
+    Renderer[] renderers = new Renderer[] {
+        new FakeRenderer(50000), new FakeRenderer(C.TIME_UNSET)};
+    assertEquals(ExoPlayerImplInternal.RENDERING_INTERVAL_MS,
+        ExoPlayerImplInternal.getRenderingIntervalMs(renderers, 0, 0));
+  }
+
+  public void testUsesMinimumRendererDelay() {
+    Renderer[] renderers = new Renderer[] {
+        new FakeRenderer(50000), new FakeRenderer(33000), new FakeRenderer(Long.MAX_VALUE)};
+    assertEquals(33, ExoPlayerImplInternal.getRenderingIntervalMs(renderers, 0, 0));
+  }
+
+  public void testIntervalIsConstrained() {
+    Renderer[] renderers = new Renderer[] {new FakeRenderer(2000)};
+    assertEquals(ExoPlayerImplInternal.RENDERING_INTERVAL_MS,
+        ExoPlayerImplInternal.getRenderingIntervalMs(renderers, 0, 0));
+    renderers = new Renderer[] {new FakeRenderer(Long.MAX_VALUE)};
+    assertEquals(ExoPlayerImplInternal.MAX_RENDERING_INTERVAL_MS,
+        ExoPlayerImplInternal.getRenderingIntervalMs(renderers, 0, 0));
+  }
+
+  public void testPlayingWithUnpredictableRendererRendersAtDefaultInterval()
+      throws InterruptedException {
+    FakeRenderer renderer = new FakeRenderer(C.TIME_UNSET);
+    double iterationsPerSecond = measureWorkIterationsPerSecond(renderer, true,
+        C.TIME_END_OF_SOURCE);
+    // Nominally 100 per second.
+    assertTrue(iterationsPerSecond > 50);
+  }
+
+  public void testPlayingAudioOnlyRendersLessOften() throws InterruptedException {
+    FakeRenderer renderer = new FakeRenderer(AUDIO_RENDER_DELAY_US);
+    double iterationsPerSecond = measureWorkIterationsPerSecond(renderer, true,
+        C.TIME_END_OF_SOURCE);
+    // Nominally 10 per second.
+    assertTrue(iterationsPerSecond < 20);
+  }
+
+  public void testPausedBufferingWithRendererNotReadyRendersAtDefaultInterval()
+      throws InterruptedException {
+    // A MediaCodecRenderer that isn't ready cannot predict when it will next make progress.
+    FakeRenderer renderer = new FakeRenderer(C.TIME_UNSET);
+    renderer.ready = false;
+    double iterationsPerSecond = measureWorkIterationsPerSecond(renderer, false,
+        C.TIME_END_OF_SOURCE);
+    // Nominally 100 per second.
+    assertTrue(iterationsPerSecond > 50);
+  }
+
+  public void testPausedBufferingWithRenderersReadyRendersLessOften()
+      throws InterruptedException {
+    // A MediaCodecRenderer that's ready but not started cannot make progress until it's started.
+    FakeRenderer renderer = new FakeRenderer(Long.MAX_VALUE);
+    // Nothing is buffered, so the player remains buffering even though the renderer is ready.
+    double iterationsPerSecond = measureWorkIterationsPerSecond(renderer, false, 0);
+    // Nominally 10 per second.
+    assertTrue(iterationsPerSecond < 20);
+  }
+
+  /**
+   * Plays a {@link FakeMediaSource} with a single renderer, and returns the number of iterations of
+   * the playback loop per second once the player has settled.
+   */
+  private static double measureWorkIterationsPerSecond(FakeRenderer renderer,
+      boolean playWhenReady, long bufferedPositionUs) throws InterruptedException {
+    HandlerThread eventThread = new HandlerThread("ExoPlayerImplInternalTest:Events");
+    eventThread.start();
+    ExoPlayerImplInternal internalPlayer = new ExoPlayerImplInternal(new Renderer[] {renderer},
+        new FakeTrackSelector(), new DefaultLoadControl(), playWhenReady,
+        new Handler(eventThread.getLooper()), new ExoPlayerImplInternal.PlaybackInfo(0, 0));
+    WorkLoopProfiler profiler = new WorkLoopProfiler(1);
+    try {
+      internalPlayer.setWorkLoopProfiler(profiler);
+      internalPlayer.setMediaSource(new FakeMediaSource(bufferedPositionUs), true);
+      Thread.sleep(WARM_UP_MS);
+      long startCount = getWorkIterationCount(profiler);
+      long startTimeMs = System.currentTimeMillis();
+      Thread.sleep(MEASUREMENT_MS);
+      long iterations = getWorkIterationCount(profiler) - startCount;
+      long elapsedMs = System.currentTimeMillis() - startTimeMs;
+      return iterations * 1000d / elapsedMs;
+    } finally {
+      internalPlayer.release();
+      eventThread.quit();
+    }
+  }
+
+  private static long getWorkIterationCount(WorkLoopProfiler profiler) {
+    return profiler.getPhaseHistogram(WorkLoopProfiler.PHASE_WORK).getTotalCount();
+  }
+
+  private static final class FakeRenderer extends BaseRenderer {
+
+    private final long maxRenderDelayUs;
+
+    public volatile boolean ready;
+
+    public FakeRenderer(long maxRenderDelayUs) {
+      super(C.TRACK_TYPE_AUDIO);
+      this.maxRenderDelayUs = maxRenderDelayUs;
+      ready = true;
+    }
+
+    @Override
+    public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+      return maxRenderDelayUs;
+    }
+
+    @Override
+    public int supportsFormat(Format format) {
+      return FORMAT_UNSUPPORTED_TYPE;
+    }
+
+    @Override
+    public void render(long positionUs, long elapsedRealtimeUs) {
+      // Do nothing.
+    }
+
+    @Override
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public boolean isEnded() {
+      return false;
+    }
+
+  }
+
+  private static final class FakeTrackSelector extends TrackSelector {
+
+    @Override
+    public Pair<TrackSelectionArray, Object> selectTracks(
+        RendererCapabilities[] rendererCapabilities, TrackGroupArray trackGroups) {
+      TrackSelection[] selections = new TrackSelection[rendererCapabilities.length];
+      for (int i = 0; i < selections.length; i++) {
+        selections[i] = new FixedTrackSelection(trackGroups.get(i), 0);
+      }
+      return Pair.<TrackSelectionArray, Object>create(new TrackSelectionArray(selections), null);
+    }
+
+    @Override
+    public void onSelectionActivated(Object selectionInfo) {
+      // Do nothing.
+    }
+
+  }
+
+  private static final class FakeMediaSource implements MediaSource {
+
+    private final long bufferedPositionUs;
+
+    public FakeMediaSource(long bufferedPositionUs) {
+      this.bufferedPositionUs = bufferedPositionUs;
+    }
+
+    @Override
+    public void prepareSource(Listener listener) {
+      listener.onSourceInfoRefreshed(new SinglePeriodTimeline(DURATION_US, false), null);
+    }
+
+    @Override
+    public void maybeThrowSourceInfoRefreshError() {
+      // Do nothing.
+    }
+
+    @Override
+    public MediaPeriod createPeriod(int index, MediaPeriod.Callback callback, Allocator allocator,
+        long positionUs) {
+      MediaPeriod mediaPeriod = new FakeMediaPeriod(bufferedPositionUs);
+      callback.onPrepared(mediaPeriod);
+      return mediaPeriod;
+    }
+
+    @Override
+    public void releasePeriod(MediaPeriod mediaPeriod) {
+      // Do nothing.
+    }
+
+    @Override
+    public void releaseSource() {
+      // Do nothing.
+    }
+
+  }
+
+  private static final class FakeMediaPeriod implements MediaPeriod {
+
+    private final long bufferedPositionUs;
+
+    public FakeMediaPeriod(long bufferedPositionUs) {
+      this.bufferedPositionUs = bufferedPositionUs;
+    }
+
+    @Override
+    public void maybeThrowPrepareError() {
+      // Do nothing.
+    }
+
+    @Override
+    public TrackGroupArray getTrackGroups() {
+      return new TrackGroupArray(new TrackGroup(
+          Format.createSampleFormat(null, MimeTypes.AUDIO_RAW, null, Format.NO_VALUE, null)));
+    }
+
+    @Override
+    public long selectTracks(TrackSelection[] selections, boolean[] mayRetainStreamFlags,
+        SampleStream[] streams, boolean[] streamResetFlags, long positionUs) {
+      for (int i = 0; i < selections.length; i++) {
+        if (streams[i] == null && selections[i] != null) {
+          streams[i] = new FakeSampleStream();
+          streamResetFlags[i] = true;
+        }
+      }
+      return positionUs;
+    }
+
+    @Override
+    public long readDiscontinuity() {
+      return C.TIME_UNSET;
+    }
+
+    @Override
+    public long getBufferedPositionUs() {
+      return bufferedPositionUs;
+    }
+
+    @Override
+    public long seekToUs(long positionUs) {
+      return positionUs;
+    }
+
+    @Override
+    public long getNextLoadPositionUs() {
+      return C.TIME_END_OF_SOURCE;
+    }
+
+    @Override
+    public boolean continueLoading(long positionUs) {
+      return false;
+    }
+
+  }
+
+  private static final class FakeSampleStream implements SampleStream {
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void maybeThrowError() {
+      // Do nothing.
+    }
+
+    @Override
+    public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer) {
+      return C.RESULT_NOTHING_READ;
+    }
+
+    @Override
+    public void skipToKeyframeBefore(long timeUs) {
+      // Do nothing.
+    }
+
+  }
+
+}
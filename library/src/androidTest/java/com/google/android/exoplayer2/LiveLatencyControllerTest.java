@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link LiveLatencyController}.
+ */
+public class LiveLatencyControllerTest extends TestCase {
+
+  private static final long TARGET_LATENCY_MS = 5000;
+  private static final float MAX_SPEED_ADJUSTMENT = 0.05f;
+
+  public void testSpeedWithinTolerance() {
+    assertEquals(1f, getTargetPlaybackSpeed(TARGET_LATENCY_MS));
+    assertEquals(1f, getTargetPlaybackSpeed(TARGET_LATENCY_MS + 250));
+    assertEquals(1f, getTargetPlaybackSpeed(TARGET_LATENCY_MS - 250));
+  }
+
+  public void testSpeedUpWhenBehind() {
+    assertEquals(1.03f, getTargetPlaybackSpeed(TARGET_LATENCY_MS + 300), 0.001f);
+    assertEquals(1.05f, getTargetPlaybackSpeed(TARGET_LATENCY_MS + 500), 0.001f);
+    // The adjustment is limited.
+    assertEquals(1.05f, getTargetPlaybackSpeed(TARGET_LATENCY_MS + 20000), 0.001f);
+  }
+
+  public void testSlowDownWhenAhead() {
+    assertEquals(0.97f, getTargetPlaybackSpeed(TARGET_LATENCY_MS - 300), 0.001f);
+    assertEquals(0.95f, getTargetPlaybackSpeed(0), 0.001f);
+  }
+
+  public void testNoSpeedAdjustment() {
+    assertEquals(1f, LiveLatencyController.getTargetPlaybackSpeed(TARGET_LATENCY_MS + 20000,
+        TARGET_LATENCY_MS, 0));
+  }
+
+  private static float getTargetPlaybackSpeed(long latencyMs) {
+    return LiveLatencyController.getTargetPlaybackSpeed(latencyMs, TARGET_LATENCY_MS,
+        MAX_SPEED_ADJUSTMENT);
+  }
+
+}
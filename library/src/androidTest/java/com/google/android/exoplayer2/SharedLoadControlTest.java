@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.SharedAllocator;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SharedLoadControl}.
+ */
+public class SharedLoadControlTest extends TestCase {
+
+  private static final int ALLOCATION_SIZE = 100;
+  private static final int BUDGET = 10 * ALLOCATION_SIZE;
+  private static final int MIN_BUFFER_MS = 1000;
+  private static final int MAX_BUFFER_MS = 5000;
+  private static final long MIN_BUFFER_US = MIN_BUFFER_MS * 1000L;
+
+  private SharedAllocator sharedAllocator;
+  private SharedLoadControl prefetchLoadControl;
+  private SharedAllocator.Client prefetch;
+
+  @Override
+  protected void setUp() {
+    sharedAllocator = new SharedAllocator(ALLOCATION_SIZE, BUDGET);
+    prefetchLoadControl = new SharedLoadControl(sharedAllocator,
+        SharedAllocator.PRIORITY_PREFETCH, MIN_BUFFER_MS, MAX_BUFFER_MS, 0, 0);
+    prefetch = prefetchLoadControl.getClient();
+    prefetch.setTargetBufferSize(BUDGET);
+  }
+
+  public void testReclaimSuspendsLoadingUntilBufferDrains() {
+    Allocation[] prefetchAllocations = allocate(prefetch, 10);
+    assertFalse(prefetchLoadControl.isReclaimRequested());
+
+    SharedAllocator.Client foreground = sharedAllocator.register(
+        SharedAllocator.PRIORITY_FOREGROUND);
+    foreground.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    Allocation[] foregroundAllocations = allocate(foreground, 2);
+    assertTrue(prefetchLoadControl.isReclaimRequested());
+    assertFalse(prefetchLoadControl.shouldContinueLoading(MIN_BUFFER_US - 1));
+
+    // Playback consumes media, bringing the prefetching player back within its share.
+    for (int i = 0; i < 5; i++) {
+      prefetch.release(prefetchAllocations[i]);
+    }
+    assertEquals(0, prefetch.getBytesOverShare());
+    // The buffer is still above the minimum, so loading remains suspended even though there's
+    // space available within the share.
+    assertFalse(prefetchLoadControl.shouldContinueLoading(MIN_BUFFER_US));
+    assertTrue(prefetchLoadControl.isReclaimRequested());
+
+    // Once the buffer has drained below the minimum, loading resumes.
+    assertTrue(prefetchLoadControl.shouldContinueLoading(MIN_BUFFER_US - 1));
+    assertFalse(prefetchLoadControl.isReclaimRequested());
+
+    for (int i = 5; i < prefetchAllocations.length; i++) {
+      prefetch.release(prefetchAllocations[i]);
+    }
+    foreground.release(foregroundAllocations);
+  }
+
+  public void testReclaimIsForwardedToListener() {
+    final int[] bytesOverShare = new int[1];
+    prefetchLoadControl.setReclaimListener(new SharedAllocator.ReclaimListener() {
+      @Override
+      public void onReclaimRequested(SharedAllocator.Client client, int bytes) {
+        bytesOverShare[0] = bytes;
+      }
+    });
+    Allocation[] prefetchAllocations = allocate(prefetch, 10);
+    SharedAllocator.Client foreground = sharedAllocator.register(
+        SharedAllocator.PRIORITY_FOREGROUND);
+    foreground.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    Allocation[] foregroundAllocations = allocate(foreground, 1);
+    assertTrue(prefetchLoadControl.isReclaimRequested());
+    assertEquals(4 * ALLOCATION_SIZE, bytesOverShare[0]);
+    prefetch.release(prefetchAllocations);
+    foreground.release(foregroundAllocations);
+  }
+
+  public void testTracksDisabledClearsReclaim() {
+    Allocation[] prefetchAllocations = allocate(prefetch, 10);
+    SharedAllocator.Client foreground = sharedAllocator.register(
+        SharedAllocator.PRIORITY_FOREGROUND);
+    foreground.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    Allocation[] foregroundAllocations = allocate(foreground, 1);
+    assertTrue(prefetchLoadControl.isReclaimRequested());
+    prefetch.release(prefetchAllocations);
+    prefetchLoadControl.onTracksDisabled();
+    assertFalse(prefetchLoadControl.isReclaimRequested());
+    foreground.release(foregroundAllocations);
+  }
+
+  private static Allocation[] allocate(Allocator allocator, int count) {
+    Allocation[] allocations = new Allocation[count];
+    for (int i = 0; i < count; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    return allocations;
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link WorkLoopProfiler}.
+ */
+public final class WorkLoopProfilerTest extends TestCase {
+
+  public void testRecordsLatenciesInMicroseconds() {
+    WorkLoopProfiler profiler = new WorkLoopProfiler(2, 10000);
+    profiler.recordPhase(WorkLoopProfiler.PHASE_WORK, 9000000);
+    profiler.recordPhase(WorkLoopProfiler.PHASE_WORK, 10000000);
+    profiler.recordPhase(WorkLoopProfiler.PHASE_WORK, 10001000);
+    profiler.recordPhase(WorkLoopProfiler.PHASE_RENDER, 25000000);
+    profiler.recordRender(1, 3000);
+
+    assertEquals(3, profiler.getPhaseHistogram(WorkLoopProfiler.PHASE_WORK).getTotalCount());
+    assertEquals(10001, profiler.getPhaseHistogram(WorkLoopProfiler.PHASE_WORK).getMaxValue());
+    assertEquals(0, profiler.getPhaseHistogram(WorkLoopProfiler.PHASE_UPDATE_PERIODS)
+        .getTotalCount());
+    assertEquals(0, profiler.getRendererHistogram(0).getTotalCount());
+    assertEquals(3, profiler.getRendererHistogram(1).getMaxValue());
+    // Only iterations of the work loop that exceed the budget are overruns.
+    assertEquals(1, profiler.getOverrunCount());
+  }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.analytics;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.WallClock;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link PlaybackStatsCollector}.
+ */
+public final class PlaybackStatsCollectorTest extends TestCase {
+
+  private static final Format VIDEO_FORMAT_LOW = createVideoFormat("low", 500000);
+  private static final Format VIDEO_FORMAT_HIGH = createVideoFormat("high", 2000000);
+
+  private FakeClock clock;
+  private PlaybackStatsCollector collector;
+  private List<PlaybackStats> exportedStats;
+
+  @Override
+  public void setUp() {
+    clock = new FakeClock();
+    collector = new PlaybackStatsCollector(clock, clock);
+    exportedStats = new ArrayList<>();
+    collector.addExporter(new PlaybackStatsExporter() {
+      @Override
+      public void export(PlaybackStats stats) {
+        exportedStats.add(stats);
+      }
+    });
+  }
+
+  public void testSessionTimes() {
+    assertNull(collector.getCurrentStats());
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_BUFFERING);
+    clock.advance(800);
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_READY);
+    clock.advance(10000);
+    // Rebuffer.
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_BUFFERING);
+    clock.advance(1500);
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_READY);
+    clock.advance(5000);
+    // Seek, which is not a rebuffer.
+    collector.onPositionDiscontinuity();
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_BUFFERING);
+    clock.advance(300);
+    collector.onPositionDiscontinuity();
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_READY);
+    clock.advance(2000);
+    // Paused.
+    collector.onPlayerStateChanged(false, ExoPlayer.STATE_READY);
+    clock.advance(4000);
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_READY);
+    clock.advance(3000);
+    assertEquals(0, exportedStats.size());
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_ENDED);
+
+    assertEquals(1, exportedStats.size());
+    PlaybackStats stats = exportedStats.get(0);
+    assertEquals(FakeClock.WALL_CLOCK_OFFSET_MS, stats.sessionStartTimeMs);
+    assertEquals(26600, stats.sessionDurationMs);
+    assertEquals(800, stats.startupTimeMs);
+    assertEquals(20000, stats.playingTimeMs);
+    assertEquals(1, stats.rebufferCount);
+    assertEquals(1500, stats.rebufferTimeMs);
+    assertNull(collector.getCurrentStats());
+  }
+
+  public void testFormatTimesAndBitrateSwitches() {
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_BUFFERING);
+    collector.onDownstreamFormatChanged(C.TRACK_TYPE_VIDEO, VIDEO_FORMAT_LOW,
+        C.SELECTION_REASON_INITIAL, null, 0);
+    collector.onVideoInputFormatChanged(VIDEO_FORMAT_LOW);
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_READY);
+    clock.advance(4000);
+    collector.onDownstreamFormatChanged(C.TRACK_TYPE_VIDEO, VIDEO_FORMAT_HIGH,
+        C.SELECTION_REASON_ADAPTIVE, null, 4000);
+    // Audio format changes are not bitrate switches.
+    collector.onDownstreamFormatChanged(C.TRACK_TYPE_AUDIO, VIDEO_FORMAT_LOW,
+        C.SELECTION_REASON_ADAPTIVE, null, 4000);
+    clock.advance(1000);
+    collector.onVideoInputFormatChanged(VIDEO_FORMAT_HIGH);
+    clock.advance(3000);
+    collector.onDownstreamFormatChanged(C.TRACK_TYPE_VIDEO, VIDEO_FORMAT_LOW,
+        C.SELECTION_REASON_ADAPTIVE, null, 8000);
+    collector.onDroppedFrames(10, 1000);
+    collector.onDroppedFrames(2, 1000);
+
+    PlaybackStats stats = collector.getCurrentStats();
+    assertEquals(2, stats.bitrateSwitchCount);
+    assertEquals(12, stats.droppedFrameCount);
+    assertEquals(90f, stats.getDroppedFramesPerMinute(), 0.001f);
+    assertEquals(2, stats.formatPlayingTimesMs.size());
+    assertEquals(5000L, (long) stats.formatPlayingTimesMs.get(VIDEO_FORMAT_LOW));
+    assertEquals(3000L, (long) stats.formatPlayingTimesMs.get(VIDEO_FORMAT_HIGH));
+  }
+
+  public void testBytesLoadedAndBandwidth() {
+    assertEquals(BandwidthMeter.NO_ESTIMATE, startSessionAndGetStats().meanBandwidth);
+    onLoadCompleted(C.TRACK_TYPE_VIDEO, 1000);
+    onLoadCompleted(C.TRACK_TYPE_VIDEO, 500);
+    onLoadCompleted(C.TRACK_TYPE_AUDIO, 200);
+    // Manifest loads have an unknown track type.
+    onLoadCompleted(C.TRACK_TYPE_UNKNOWN, 100);
+    collector.onBandwidthSample(1000, 100000, 800000);
+    collector.onBandwidthSample(1000, 300000, 2400000);
+
+    PlaybackStats stats = collector.getCurrentStats();
+    assertEquals(1500, stats.getBytesLoaded(C.TRACK_TYPE_VIDEO));
+    assertEquals(200, stats.getBytesLoaded(C.TRACK_TYPE_AUDIO));
+    assertEquals(0, stats.getBytesLoaded(C.TRACK_TYPE_TEXT));
+    assertEquals(1600000, stats.meanBandwidth);
+  }
+
+  public void testNewSessionResetsStats() {
+    startSessionAndGetStats();
+    onLoadCompleted(C.TRACK_TYPE_VIDEO, 1000);
+    collector.onDroppedFrames(5, 1000);
+    clock.advance(1000);
+    collector.endSession();
+    assertEquals(1, exportedStats.size());
+    assertEquals(5, exportedStats.get(0).droppedFrameCount);
+
+    // Events outside of a session are ignored.
+    onLoadCompleted(C.TRACK_TYPE_VIDEO, 1000);
+    PlaybackStats stats = startSessionAndGetStats();
+    assertEquals(0, stats.getBytesLoaded(C.TRACK_TYPE_VIDEO));
+    assertEquals(0, stats.droppedFrameCount);
+    assertEquals(0, stats.playingTimeMs);
+    assertEquals(C.TIME_UNSET, stats.startupTimeMs);
+    assertEquals(0, stats.formatPlayingTimesMs.size());
+  }
+
+  public void testOmlSamples() {
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_BUFFERING);
+    collector.onVideoInputFormatChanged(VIDEO_FORMAT_HIGH);
+    collector.onPlayerStateChanged(true, ExoPlayer.STATE_READY);
+    clock.advance(3000);
+    PlaybackStats stats = collector.getCurrentStats();
+
+    String[] statsSample = OmlPlaybackStatsExporter.createStatsSample(stats);
+    assertEquals(15, statsSample.length);
+    assertEquals(String.valueOf(FakeClock.WALL_CLOCK_OFFSET_MS), statsSample[0]);
+    assertEquals("3000", statsSample[3]);
+    List<String[]> formatTimesSamples = OmlPlaybackStatsExporter.createFormatTimesSamples(stats);
+    assertEquals(1, formatTimesSamples.size());
+    String[] formatTimesSample = formatTimesSamples.get(0);
+    assertEquals("high", formatTimesSample[1]);
+    assertEquals("2000000", formatTimesSample[3]);
+    assertEquals("3000", formatTimesSample[6]);
+  }
+
+  private PlaybackStats startSessionAndGetStats() {
+    collector.onPlayerStateChanged(false, ExoPlayer.STATE_BUFFERING);
+    return collector.getCurrentStats();
+  }
+
+  private void onLoadCompleted(int trackType, long bytesLoaded) {
+    collector.onLoadCompleted(null, C.DATA_TYPE_MEDIA, trackType, null,
+        C.SELECTION_REASON_UNKNOWN, null, 0, 0, clock.elapsedRealtime(), 100, bytesLoaded);
+  }
+
+  private static Format createVideoFormat(String id, int bitrate) {
+    return Format.createVideoSampleFormat(id, MimeTypes.VIDEO_H264, null, bitrate,
+        Format.NO_VALUE, 1280, 720, Format.NO_VALUE, null, null);
+  }
+
+  private static final class FakeClock implements Clock, WallClock {
+
+    public static final long WALL_CLOCK_OFFSET_MS = 1000000000000L;
+
+    private long elapsedRealtimeMs;
+
+    public void advance(long timeMs) {
+      elapsedRealtimeMs += timeMs;
+    }
+
+    @Override
+    public long elapsedRealtime() {
+      return elapsedRealtimeMs;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return WALL_CLOCK_OFFSET_MS + elapsedRealtimeMs;
+    }
+
+  }
+
+}
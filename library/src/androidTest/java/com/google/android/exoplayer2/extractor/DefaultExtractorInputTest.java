@@ -18,9 +18,14 @@ package com.google.android.exoplayer2.extractor;
 import android.net.Uri;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.MappedFileDataSource;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import junit.framework.TestCase;
 
@@ -58,6 +63,57 @@ public class DefaultExtractorInputTest extends TestCase {
     assertEquals(C.RESULT_END_OF_INPUT, expectedEndOfInput);
   }
 
+  public void testReadIntoByteBuffer() throws IOException, InterruptedException {
+    DefaultExtractorInput input = createDefaultExtractorInput();
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length);
+    // The data source doesn't support reading into buffers, so the same reads are performed.
+    assertEquals(3, input.read(target, TEST_DATA.length));
+    assertEquals(3, input.read(target, TEST_DATA.length - 3));
+    assertEquals(3, input.read(target, TEST_DATA.length - 6));
+    assertEquals(TEST_DATA.length, input.getPosition());
+    assertEquals(C.RESULT_END_OF_INPUT, input.read(target, 0));
+    assertByteBufferContents(TEST_DATA, target);
+  }
+
+  public void testReadPeekedIntoByteBuffer() throws IOException, InterruptedException {
+    DefaultExtractorInput input = createDefaultExtractorInput();
+    ByteBuffer target = ByteBuffer.allocateDirect(TEST_DATA.length);
+    input.advancePeekPosition(5);
+
+    // The peeked data is read first, and then data is read from the source.
+    assertEquals(5, input.read(target, TEST_DATA.length));
+    assertEquals(1, input.read(target, TEST_DATA.length - 5));
+    assertEquals(3, input.read(target, TEST_DATA.length - 6));
+    assertByteBufferContents(TEST_DATA, target);
+  }
+
+  public void testReadIntoByteBufferFromByteBufferDataSource()
+      throws IOException, InterruptedException {
+    byte[] data = TestUtil.buildTestData(LARGE_TEST_DATA_LENGTH);
+    File file = File.createTempFile("DefaultExtractorInputTest", null);
+    try {
+      FileOutputStream outputStream = new FileOutputStream(file);
+      outputStream.write(data);
+      outputStream.close();
+      MappedFileDataSource dataSource = new MappedFileDataSource();
+      dataSource.open(new DataSpec(Uri.fromFile(file)));
+      DefaultExtractorInput input = new DefaultExtractorInput(dataSource, 0, data.length);
+      ByteBuffer target = ByteBuffer.allocateDirect(data.length);
+      byte[] peekTarget = new byte[10];
+      input.peekFully(peekTarget, 0, peekTarget.length);
+
+      assertEquals(peekTarget.length, input.read(target, data.length));
+      // Once the peeked data has been read, the rest is read from the mapping in one go.
+      assertEquals(data.length - peekTarget.length,
+          input.read(target, data.length - peekTarget.length));
+      assertEquals(C.RESULT_END_OF_INPUT, input.read(target, 0));
+      assertByteBufferContents(data, target);
+      dataSource.close();
+    } finally {
+      file.delete();
+    }
+  }
+
   public void testReadPeeked() throws IOException, InterruptedException {
     DefaultExtractorInput input = createDefaultExtractorInput();
     byte[] target = new byte[TEST_DATA.length];
@@ -382,6 +438,14 @@ public class DefaultExtractorInputTest extends TestCase {
     }
   }
 
+  private static void assertByteBufferContents(byte[] expected, ByteBuffer buffer) {
+    assertEquals(expected.length, buffer.position());
+    byte[] actual = new byte[expected.length];
+    buffer.flip();
+    buffer.get(actual);
+    assertTrue(Arrays.equals(expected, actual));
+  }
+
   private static FakeDataSource buildDataSource() throws IOException {
     FakeDataSource.Builder builder = new FakeDataSource.Builder();
     builder.appendReadData(Arrays.copyOfRange(TEST_DATA, 0, 3));
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.testutil.FakeExtractorInput;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.ConcurrentAllocator;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DefaultTrackOutput}.
+ */
+public class DefaultTrackOutputTest extends TestCase {
+
+  private static final int ALLOCATION_SIZE = 16;
+  private static final Format FORMAT = Format.createSampleFormat(null, MimeTypes.VIDEO_H264, null,
+      Format.NO_VALUE, null);
+  private static final int[] SAMPLE_SIZES = new int[] {1, 15, 16, 17, 40, 3, 64};
+
+  public void testReadWrittenSamplesFromHeapAllocations() throws Exception {
+    assertSamplesReadBack(new DefaultAllocator(ALLOCATION_SIZE),
+        DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+  }
+
+  public void testReadWrittenSamplesFromDirectAllocations() throws Exception {
+    assertSamplesReadBack(new ConcurrentAllocator(ALLOCATION_SIZE, 1, 4, true),
+        DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+  }
+
+  public void testReadWrittenSamplesFromDirectAllocationsIntoDirectBuffers() throws Exception {
+    assertSamplesReadBack(new ConcurrentAllocator(ALLOCATION_SIZE, 1, 4, true),
+        DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT);
+  }
+
+  public void testDiscardUpstreamSamples() throws Exception {
+    DefaultTrackOutput trackOutput = new DefaultTrackOutput(new DefaultAllocator(ALLOCATION_SIZE));
+    byte[][] samples = writeSamples(trackOutput);
+    trackOutput.discardUpstreamSamples(3);
+    assertEquals(3, trackOutput.getWriteIndex());
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer =
+        new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_NORMAL);
+    assertEquals(C.RESULT_FORMAT_READ, trackOutput.readData(formatHolder, buffer, false, 0));
+    for (int i = 0; i < 3; i++) {
+      assertSampleRead(trackOutput, formatHolder, buffer, samples[i], i);
+    }
+    assertEquals(C.RESULT_NOTHING_READ, trackOutput.readData(formatHolder, buffer, false, 0));
+    assertEquals(2, trackOutput.getLargestQueuedTimestampUs());
+  }
+
+  private static void assertSamplesReadBack(Allocator allocator, int bufferReplacementMode)
+      throws IOException, InterruptedException {
+    DefaultTrackOutput trackOutput = new DefaultTrackOutput(allocator);
+    byte[][] samples = writeSamples(trackOutput);
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer = new DecoderInputBuffer(bufferReplacementMode);
+    assertEquals(C.RESULT_FORMAT_READ, trackOutput.readData(formatHolder, buffer, false, 0));
+    assertSame(FORMAT, formatHolder.format);
+    for (int i = 0; i < samples.length; i++) {
+      assertSampleRead(trackOutput, formatHolder, buffer, samples[i], i);
+    }
+    assertTrue(trackOutput.isEmpty());
+    trackOutput.disable();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  private static byte[][] writeSamples(DefaultTrackOutput trackOutput)
+      throws IOException, InterruptedException {
+    trackOutput.format(FORMAT);
+    byte[][] samples = new byte[SAMPLE_SIZES.length][];
+    for (int i = 0; i < SAMPLE_SIZES.length; i++) {
+      samples[i] = TestUtil.buildTestData(SAMPLE_SIZES[i], i);
+      if (i % 2 == 0) {
+        trackOutput.sampleData(new ParsableByteArray(samples[i]), samples[i].length);
+      } else {
+        FakeExtractorInput input = new FakeExtractorInput.Builder().setData(samples[i])
+            .setSimulatePartialReads(true).build();
+        int bytesWritten = 0;
+        while (bytesWritten < samples[i].length) {
+          bytesWritten += trackOutput.sampleData(input, samples[i].length - bytesWritten, false);
+        }
+      }
+      trackOutput.sampleMetadata(i, C.BUFFER_FLAG_KEY_FRAME, samples[i].length, 0, null);
+    }
+    return samples;
+  }
+
+  private static void assertSampleRead(DefaultTrackOutput trackOutput, FormatHolder formatHolder,
+      DecoderInputBuffer buffer, byte[] expectedData, long expectedTimeUs) {
+    buffer.clear();
+    assertEquals(C.RESULT_BUFFER_READ, trackOutput.readData(formatHolder, buffer, false, 0));
+    assertEquals(expectedTimeUs, buffer.timeUs);
+    buffer.flip();
+    byte[] data = new byte[buffer.data.remaining()];
+    buffer.data.get(data);
+    assertTrue(Arrays.equals(expectedData, data));
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor;
+
+import android.util.Log;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Microbenchmark comparing {@link SampleMetadataQueue} against the synchronized
+ * {@link LockingSampleMetadataQueue} it replaced. A producer thread commits samples while the
+ * test thread reads them, and the throughput and tail latency of {@code readData} are logged.
+ */
+public class SampleMetadataQueueBenchmark extends TestCase {
+
+  private static final String TAG = "SampleMetadataQueueBenchmark";
+
+  private static final Format FORMAT = Format.createSampleFormat("id", MimeTypes.VIDEO_H264, null,
+      Format.NO_VALUE, null);
+  private static final int WARMUP_SAMPLE_COUNT = 50000;
+  private static final int SAMPLE_COUNT = 200000;
+  private static final int MAX_QUEUED_SAMPLES = 1000;
+
+  /**
+   * The operations exercised by the benchmark.
+   */
+  private interface Queue {
+
+    void format(Format format);
+
+    void commitSample(long timeUs, long offset);
+
+    int readData(FormatHolder formatHolder, DecoderInputBuffer buffer, Format downstreamFormat);
+
+    int getWriteIndex();
+
+    int getReadIndex();
+
+  }
+
+  public void testReadDataThroughput() throws InterruptedException {
+    runBenchmark("Locking", newLockingQueue(), WARMUP_SAMPLE_COUNT);
+    runBenchmark("Lock-free", newLockFreeQueue(), WARMUP_SAMPLE_COUNT);
+    runBenchmark("Locking", newLockingQueue(), SAMPLE_COUNT);
+    runBenchmark("Lock-free", newLockFreeQueue(), SAMPLE_COUNT);
+  }
+
+  private static void runBenchmark(String name, final Queue queue, final int sampleCount)
+      throws InterruptedException {
+    queue.format(FORMAT);
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < sampleCount; i++) {
+          // Apply backpressure, as the loader would when the buffer is full.
+          while (queue.getWriteIndex() - queue.getReadIndex() >= MAX_QUEUED_SAMPLES) {
+            Thread.yield();
+          }
+          queue.commitSample(i, i);
+        }
+      }
+    };
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer =
+        new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DISABLED);
+    long[] latenciesNs = new long[sampleCount];
+    int readCount = 0;
+    long startTimeNs = System.nanoTime();
+    producer.start();
+    while (readCount < sampleCount) {
+      long readStartTimeNs = System.nanoTime();
+      int result = queue.readData(formatHolder, buffer, FORMAT);
+      if (result == C.RESULT_BUFFER_READ) {
+        latenciesNs[readCount++] = System.nanoTime() - readStartTimeNs;
+      }
+    }
+    long elapsedNs = System.nanoTime() - startTimeNs;
+    producer.join();
+    assertEquals(sampleCount - 1, buffer.timeUs);
+
+    Arrays.sort(latenciesNs);
+    Log.i(TAG, name + ": " + (sampleCount * 1000000000L / elapsedNs) + " samples/s, readData"
+        + " p50=" + percentile(latenciesNs, 0.5) + "ns"
+        + " p99=" + percentile(latenciesNs, 0.99) + "ns"
+        + " p99.9=" + percentile(latenciesNs, 0.999) + "ns"
+        + " max=" + latenciesNs[sampleCount - 1] + "ns");
+  }
+
+  private static long percentile(long[] sortedValues, double fraction) {
+    return sortedValues[(int) (fraction * (sortedValues.length - 1))];
+  }
+
+  private static Queue newLockFreeQueue() {
+    final SampleMetadataQueue queue = new SampleMetadataQueue();
+    final SampleMetadataQueue.SampleExtrasHolder extrasHolder =
+        new SampleMetadataQueue.SampleExtrasHolder();
+    return new Queue() {
+
+      @Override
+      public void format(Format format) {
+        queue.format(format);
+      }
+
+      @Override
+      public void commitSample(long timeUs, long offset) {
+        queue.commitSample(timeUs, C.BUFFER_FLAG_KEY_FRAME, offset, 1, null);
+      }
+
+      @Override
+      public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
+          Format downstreamFormat) {
+        return queue.readData(formatHolder, buffer, downstreamFormat, extrasHolder);
+      }
+
+      @Override
+      public int getWriteIndex() {
+        return queue.getWriteIndex();
+      }
+
+      @Override
+      public int getReadIndex() {
+        return queue.getReadIndex();
+      }
+
+    };
+  }
+
+  private static Queue newLockingQueue() {
+    final LockingSampleMetadataQueue queue = new LockingSampleMetadataQueue();
+    final SampleMetadataQueue.SampleExtrasHolder extrasHolder =
+        new SampleMetadataQueue.SampleExtrasHolder();
+    return new Queue() {
+
+      @Override
+      public void format(Format format) {
+        queue.format(format);
+      }
+
+      @Override
+      public void commitSample(long timeUs, long offset) {
+        queue.commitSample(timeUs, C.BUFFER_FLAG_KEY_FRAME, offset, 1, null);
+      }
+
+      @Override
+      public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
+          Format downstreamFormat) {
+        return queue.readData(formatHolder, buffer, downstreamFormat, extrasHolder);
+      }
+
+      @Override
+      public int getWriteIndex() {
+        // The index getters aren't synchronized, since they were only called on the loading thread.
+        synchronized (queue) {
+          return queue.getWriteIndex();
+        }
+      }
+
+      @Override
+      public int getReadIndex() {
+        synchronized (queue) {
+          return queue.getReadIndex();
+        }
+      }
+
+    };
+  }
+
+}
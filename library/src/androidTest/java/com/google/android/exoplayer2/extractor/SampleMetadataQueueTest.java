@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SampleMetadataQueue}.
+ */
+public class SampleMetadataQueueTest extends TestCase {
+
+  private static final Format FORMAT_1 = Format.createSampleFormat("1", MimeTypes.VIDEO_H264, null,
+      Format.NO_VALUE, null);
+  private static final Format FORMAT_2 = Format.createSampleFormat("2", MimeTypes.VIDEO_H264, null,
+      Format.NO_VALUE, null);
+  private static final int SAMPLE_SIZE = 10;
+
+  private SampleMetadataQueue queue;
+  private FormatHolder formatHolder;
+  private DecoderInputBuffer buffer;
+  private SampleMetadataQueue.SampleExtrasHolder extrasHolder;
+
+  @Override
+  public void setUp() {
+    queue = new SampleMetadataQueue();
+    formatHolder = new FormatHolder();
+    buffer = new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DISABLED);
+    extrasHolder = new SampleMetadataQueue.SampleExtrasHolder();
+  }
+
+  public void testReadFormatThenSamples() {
+    assertEquals(C.RESULT_NOTHING_READ, queue.readData(formatHolder, buffer, null, extrasHolder));
+    queue.format(FORMAT_1);
+    assertEquals(C.RESULT_FORMAT_READ, queue.readData(formatHolder, buffer, null, extrasHolder));
+    assertSame(FORMAT_1, formatHolder.format);
+    commitSamples(0, 3, 0);
+    queue.format(FORMAT_2);
+    commitSamples(3, 2, 0);
+    assertEquals(5, queue.getWriteIndex());
+    assertEquals(40, queue.getLargestQueuedTimestampUs());
+    for (int i = 0; i < 3; i++) {
+      assertSampleRead(FORMAT_1, i);
+    }
+    assertEquals(C.RESULT_FORMAT_READ,
+        queue.readData(formatHolder, buffer, FORMAT_1, extrasHolder));
+    assertSame(FORMAT_2, formatHolder.format);
+    assertSampleRead(FORMAT_2, 3);
+    assertSampleRead(FORMAT_2, 4);
+    assertTrue(queue.isEmpty());
+    assertEquals(5, queue.getReadIndex());
+  }
+
+  public void testGrowsBeyondInitialCapacity() {
+    queue.format(FORMAT_1);
+    commitSamples(0, 1500, 0);
+    for (int i = 0; i < 700; i++) {
+      assertSampleRead(FORMAT_1, i);
+    }
+    // Wrap around the end of the storage, and then grow again.
+    commitSamples(1500, 1500, 0);
+    for (int i = 700; i < 3000; i++) {
+      assertSampleRead(FORMAT_1, i);
+    }
+    assertTrue(queue.isEmpty());
+  }
+
+  public void testDiscardUpstreamSamples() {
+    queue.format(FORMAT_1);
+    commitSamples(0, 5, 0);
+    assertSampleRead(FORMAT_1, 0);
+    assertEquals(3 * SAMPLE_SIZE, queue.discardUpstreamSamples(3));
+    assertEquals(3, queue.getWriteIndex());
+    assertEquals(20, queue.getLargestQueuedTimestampUs());
+    // Discarding nothing returns the end of the last sample.
+    assertEquals(3 * SAMPLE_SIZE, queue.discardUpstreamSamples(3));
+    assertSampleRead(FORMAT_1, 1);
+    assertSampleRead(FORMAT_1, 2);
+    assertEquals(C.RESULT_NOTHING_READ,
+        queue.readData(formatHolder, buffer, FORMAT_1, extrasHolder));
+  }
+
+  public void testSplice() {
+    queue.format(FORMAT_1);
+    commitSamples(0, 5, 0);
+    assertSampleRead(FORMAT_1, 0);
+    // Samples with timestamps at or after the splice point should be discarded.
+    assertTrue(queue.attemptSplice(25));
+    assertEquals(3, queue.getWriteIndex());
+    // It's not possible to splice before a sample that's already been read.
+    assertFalse(queue.attemptSplice(0));
+    assertEquals(3, queue.getWriteIndex());
+  }
+
+  public void testSkipToKeyframeBefore() {
+    queue.format(FORMAT_1);
+    // Keyframes every 3 samples.
+    commitSamples(0, 9, 3);
+    assertEquals(C.POSITION_UNSET, queue.skipToKeyframeBefore(100));
+    assertEquals(6 * SAMPLE_SIZE, queue.skipToKeyframeBefore(75));
+    assertEquals(6, queue.getReadIndex());
+    assertSampleRead(FORMAT_1, 6);
+    // There's no keyframe between the read position and the requested time.
+    assertEquals(C.POSITION_UNSET, queue.skipToKeyframeBefore(75));
+  }
+
+  public void testConcurrentReadWithSplices() throws InterruptedException {
+    final int sampleCount = 200000;
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    queue.format(FORMAT_1);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          long timeUs = 0;
+          for (int i = 0; i < sampleCount; i++) {
+            if (i % 100 == 99) {
+              // Splice slightly in the past, which fails if the reader has caught up.
+              queue.attemptSplice(timeUs - 5);
+            }
+            queue.commitSample(timeUs, C.BUFFER_FLAG_KEY_FRAME, timeUs * SAMPLE_SIZE,
+                SAMPLE_SIZE, null);
+            timeUs++;
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    };
+    writer.start();
+    long lastTimeUs = -1;
+    FormatHolder formatHolder = new FormatHolder();
+    DecoderInputBuffer buffer =
+        new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DISABLED);
+    SampleMetadataQueue.SampleExtrasHolder extrasHolder =
+        new SampleMetadataQueue.SampleExtrasHolder();
+    while (writer.isAlive() || !queue.isEmpty()) {
+      int result = queue.readData(formatHolder, buffer, FORMAT_1, extrasHolder);
+      if (result == C.RESULT_BUFFER_READ) {
+        // Timestamps are read in increasing order, and metadata is consistent.
+        assertTrue(buffer.timeUs > lastTimeUs);
+        assertEquals(buffer.timeUs * SAMPLE_SIZE, extrasHolder.offset);
+        lastTimeUs = buffer.timeUs;
+      } else {
+        assertEquals(C.RESULT_NOTHING_READ, result);
+      }
+    }
+    writer.join();
+    assertNull(error.get());
+    assertEquals(sampleCount - 1, lastTimeUs);
+  }
+
+  private void commitSamples(int firstIndex, int count, int keyframeInterval) {
+    for (int i = firstIndex; i < firstIndex + count; i++) {
+      int flags = keyframeInterval == 0 || i % keyframeInterval == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      queue.commitSample(i * 10, flags, i * SAMPLE_SIZE, SAMPLE_SIZE, null);
+    }
+  }
+
+  private void assertSampleRead(Format downstreamFormat, int index) {
+    assertEquals(C.RESULT_BUFFER_READ,
+        queue.readData(formatHolder, buffer, downstreamFormat, extrasHolder));
+    assertEquals(index * 10, buffer.timeUs);
+    assertEquals(index * SAMPLE_SIZE, extrasHolder.offset);
+    assertEquals(SAMPLE_SIZE, extrasHolder.size);
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mkv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ClusterIndex}.
+ */
+public final class ClusterIndexTest extends TestCase {
+
+  public void testAddKeepsClustersSortedByTime() {
+    ClusterIndex clusterIndex = new ClusterIndex();
+    clusterIndex.add(2000, 300, 400);
+    clusterIndex.add(0, 100, 200);
+    clusterIndex.add(1000, 200, 300);
+    clusterIndex.add(1000, 200, 300);
+
+    assertEquals(3, clusterIndex.size());
+    assertEquals(0, clusterIndex.getTimeUs(0));
+    assertEquals(100, clusterIndex.getContentPosition(0));
+    assertEquals(1000, clusterIndex.getTimeUs(1));
+    assertEquals(300, clusterIndex.getContentEndPosition(1));
+    assertEquals(2000, clusterIndex.getTimeUs(2));
+    assertEquals(-1, clusterIndex.getIndexOfEarlierOrEqualCluster(-1));
+    assertEquals(1, clusterIndex.getIndexOfEarlierOrEqualCluster(1000));
+    assertEquals(1, clusterIndex.getIndexOfEarlierOrEqualCluster(1999));
+    assertEquals(2, clusterIndex.getIndexOfEarlierOrEqualCluster(5000));
+  }
+
+  public void testSetSegmentClearsIndexForDifferentSegment() {
+    ClusterIndex clusterIndex = new ClusterIndex();
+    clusterIndex.setSegment(50, 1000);
+    clusterIndex.add(0, 100, 200);
+    clusterIndex.setSegment(50, 1000);
+    assertEquals(1, clusterIndex.size());
+    clusterIndex.setSegment(50, 2000);
+    assertEquals(0, clusterIndex.size());
+  }
+
+  public void testModificationCount() {
+    ClusterIndex clusterIndex = new ClusterIndex();
+    clusterIndex.setSegment(50, 1000);
+    assertEquals(0, clusterIndex.getModificationCount());
+    clusterIndex.add(0, 100, 200);
+    clusterIndex.add(0, 100, 200);
+    assertEquals(1, clusterIndex.getModificationCount());
+    clusterIndex.setSegment(50, 1000);
+    assertEquals(1, clusterIndex.getModificationCount());
+    clusterIndex.setSegment(50, 2000);
+    assertEquals(2, clusterIndex.getModificationCount());
+  }
+
+  public void testWriteAndRead() throws Exception {
+    ClusterIndex clusterIndex = new ClusterIndex();
+    clusterIndex.setSegment(50, 100000);
+    for (int i = 0; i < 100; i++) {
+      clusterIndex.add(i * 1000, 100 + i * 1000, i == 99 ? -1 : 1100 + i * 1000);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    clusterIndex.writeTo(outputStream);
+
+    ClusterIndex restoredClusterIndex =
+        ClusterIndex.readFrom(new ByteArrayInputStream(outputStream.toByteArray()));
+    assertEquals(clusterIndex.size(), restoredClusterIndex.size());
+    for (int i = 0; i < clusterIndex.size(); i++) {
+      assertEquals(clusterIndex.getTimeUs(i), restoredClusterIndex.getTimeUs(i));
+      assertEquals(clusterIndex.getContentPosition(i), restoredClusterIndex.getContentPosition(i));
+      assertEquals(clusterIndex.getContentEndPosition(i),
+          restoredClusterIndex.getContentEndPosition(i));
+    }
+    // The restored index belongs to the same segment.
+    restoredClusterIndex.setSegment(50, 100000);
+    assertEquals(100, restoredClusterIndex.size());
+  }
+
+}
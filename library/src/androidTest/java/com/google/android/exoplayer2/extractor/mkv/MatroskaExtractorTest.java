@@ -17,13 +17,25 @@ package com.google.android.exoplayer2.extractor.mkv;
 
 import android.test.InstrumentationTestCase;
 import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.testutil.FakeExtractorInput;
+import com.google.android.exoplayer2.testutil.FakeExtractorOutput;
 import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
 
 /**
  * Tests for {@link MatroskaExtractor}.
  */
 public final class MatroskaExtractorTest extends InstrumentationTestCase {
 
+  private static final String CACHE_KEY = "key";
+
   public void testMkvSample() throws Exception {
     TestUtil.assertOutput(new TestUtil.ExtractorFactory() {
       @Override
@@ -51,4 +63,196 @@ public final class MatroskaExtractorTest extends InstrumentationTestCase {
     }, "mkv/subsample_encrypted_altref.webm", getInstrumentation());
   }
 
+  public void testMkvSampleWithoutCuesSeeksUsingClusterIndex() throws Exception {
+    byte[] data = getSampleDataWithoutCues();
+    ClusterIndex clusterIndex = new ClusterIndex();
+    FakeExtractorOutput output =
+        TestUtil.consumeTestData(new MatroskaExtractor(clusterIndex), data);
+    SeekMap seekMap = output.seekMap;
+    assertTrue(seekMap.isSeekable());
+    assertEquals(30, clusterIndex.size());
+    for (int i = 0; i < clusterIndex.size(); i++) {
+      long timeUs = clusterIndex.getTimeUs(i);
+      assertEquals(clusterIndex.getContentPosition(i), seekMap.getPosition(timeUs));
+      if (i > 0) {
+        assertEquals(clusterIndex.getContentPosition(i - 1), seekMap.getPosition(timeUs - 1));
+      }
+    }
+  }
+
+  public void testMkvSampleWithoutCuesIsSeekableByDefault() throws Exception {
+    FakeExtractorOutput output =
+        TestUtil.consumeTestData(new MatroskaExtractor(), getSampleDataWithoutCues());
+    assertTrue(output.seekMap.isSeekable());
+  }
+
+  public void testMkvSampleWithCuesDoesNotIndexClusters() throws Exception {
+    byte[] data = TestUtil.getByteArray(getInstrumentation(), "mkv/sample.mkv");
+    ClusterIndex clusterIndex = new ClusterIndex();
+    FakeExtractorOutput output =
+        TestUtil.consumeTestData(new MatroskaExtractor(clusterIndex), data);
+    assertTrue(output.seekMap.isSeekable());
+    assertEquals(0, clusterIndex.size());
+  }
+
+  public void testClusterIndexIsPersistedInCache() throws Exception {
+    byte[] data = getSampleDataWithoutCues();
+    File cacheDir = File.createTempFile("MatroskaExtractorTest", null);
+    assertTrue(cacheDir.delete());
+    assertTrue(cacheDir.mkdir());
+    try {
+      SimpleCache cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+      CacheSpan holeSpan = cache.startReadWrite(CACHE_KEY, 0);
+      File file = cache.startFile(CACHE_KEY, 0, data.length);
+      FileOutputStream outputStream = new FileOutputStream(file);
+      outputStream.write(data);
+      outputStream.close();
+      cache.commitFile(file);
+      cache.releaseHoleSpan(holeSpan);
+
+      MatroskaExtractor extractor = new MatroskaExtractor(cache, CACHE_KEY);
+      TestUtil.consumeTestData(extractor, data);
+      extractor.release();
+      cache.release();
+
+      // A new extractor restores the index, so indexed clusters are seekable before being parsed.
+      cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+      ClusterIndex clusterIndex = ClusterIndex.readFrom(cache, CACHE_KEY);
+      assertEquals(30, clusterIndex.size());
+      extractor = new MatroskaExtractor(cache, CACHE_KEY);
+      FakeExtractorOutput output = new FakeExtractorOutput();
+      extractor.init(output);
+      FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
+      PositionHolder seekPositionHolder = new PositionHolder();
+      while (output.seekMap == null) {
+        assertEquals(Extractor.RESULT_CONTINUE, extractor.read(input, seekPositionHolder));
+      }
+      for (int i = 0; i < clusterIndex.size(); i++) {
+        assertEquals(clusterIndex.getContentPosition(i),
+            output.seekMap.getPosition(clusterIndex.getTimeUs(i)));
+      }
+      cache.release();
+    } finally {
+      TestUtil.recursiveDelete(cacheDir);
+    }
+  }
+
+  public void testWebmWithoutCuesBisectsUnindexedClusters() throws Exception {
+    byte[] data = createWebmWithoutCues(new Random(0), 50);
+    ClusterIndex fullClusterIndex = new ClusterIndex();
+    FakeExtractorOutput fullOutput =
+        TestUtil.consumeTestData(new MatroskaExtractor(fullClusterIndex), data);
+    assertEquals(50, fullClusterIndex.size());
+    long durationUs = fullOutput.seekMap.getDurationUs();
+
+    PositionHolder seekPositionHolder = new PositionHolder();
+    for (long timeUs = 0; timeUs < durationUs; timeUs += durationUs / 17) {
+      // Prepare a new extractor, which indexes only the first cluster.
+      ClusterIndex clusterIndex = new ClusterIndex();
+      MatroskaExtractor extractor =
+          new MatroskaExtractor(new DefaultEbmlReader(), clusterIndex, null, null, 1);
+      FakeExtractorOutput output = new FakeExtractorOutput();
+      extractor.init(output);
+      FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
+      while (clusterIndex.size() == 0) {
+        assertEquals(Extractor.RESULT_CONTINUE, extractor.read(input, seekPositionHolder));
+      }
+
+      long position = output.seekMap.getPosition(timeUs);
+      extractor.seek(position);
+      input.setPosition((int) position);
+      int probeCount = 0;
+      while (extractor.read(input, seekPositionHolder) == Extractor.RESULT_SEEK) {
+        position = seekPositionHolder.position;
+        input.setPosition((int) position);
+        probeCount++;
+      }
+
+      // Parsing should resume from the last cluster that starts at or before the seek time.
+      int expectedIndex = fullClusterIndex.getIndexOfEarlierOrEqualCluster(timeUs);
+      assertEquals(fullClusterIndex.getContentPosition(expectedIndex), position);
+      // Probes are bounded by the logarithm of the file size, not the number of clusters.
+      assertTrue(probeCount < 50);
+    }
+  }
+
+  /**
+   * Returns the data of mkv/sample.mkv with its Cues element, and the SeekHead entry that refers to
+   * it, changed to an unknown element ID.
+   */
+  private byte[] getSampleDataWithoutCues() throws Exception {
+    byte[] data = TestUtil.getByteArray(getInstrumentation(), "mkv/sample.mkv");
+    for (int i = 0; i + 4 <= data.length; i++) {
+      if (data[i] == 0x1C && data[i + 1] == 0x53 && data[i + 2] == (byte) 0xBB
+          && data[i + 3] == 0x6B) {
+        data[i + 3] = 0x6C;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Returns a WebM file without Cues holding a single VP9 track, with one key frame of random
+   * size in each of {@code clusterCount} clusters.
+   */
+  private static byte[] createWebmWithoutCues(Random random, int clusterCount) {
+    byte[] ebmlHeader = createElement(0x1A45DFA3, TestUtil.joinByteArrays(
+        createElement(0x42F7, new byte[] {1}),
+        createElement(0x4282, "webm".getBytes()),
+        createElement(0x4285, new byte[] {2})));
+    long durationMs = clusterCount * 500;
+    byte[] info = createElement(0x1549A966, TestUtil.joinByteArrays(
+        createElement(0x2AD7B1, createUnsignedInt(1000000)),
+        createElement(0x4489, createUnsignedInt(Double.doubleToLongBits(durationMs)))));
+    byte[] tracks = createElement(0x1654AE6B, createElement(0xAE, TestUtil.joinByteArrays(
+        createElement(0xD7, new byte[] {1}),
+        createElement(0x83, new byte[] {1}),
+        createElement(0x86, "V_VP9".getBytes()),
+        createElement(0xE0, TestUtil.joinByteArrays(
+            createElement(0xB0, createUnsignedInt(320)),
+            createElement(0xBA, createUnsignedInt(240)))))));
+    byte[][] segmentChildren = new byte[clusterCount + 2][];
+    segmentChildren[0] = info;
+    segmentChildren[1] = tracks;
+    for (int i = 0; i < clusterCount; i++) {
+      // A SimpleBlock for track 1, with a relative timecode of 0 and the key frame flag set.
+      byte[] block = new byte[4 + 500 + random.nextInt(5000)];
+      random.nextBytes(block);
+      block[0] = (byte) 0x81;
+      block[1] = 0;
+      block[2] = 0;
+      block[3] = (byte) 0x80;
+      segmentChildren[i + 2] = createElement(0x1F43B675, TestUtil.joinByteArrays(
+          createElement(0xE7, createUnsignedInt(i * 500)),
+          createElement(0xA3, block)));
+    }
+    byte[] segment = createElement(0x18538067, TestUtil.joinByteArrays(segmentChildren));
+    return TestUtil.joinByteArrays(ebmlHeader, segment);
+  }
+
+  /**
+   * Returns an EBML element with the specified ID and content, using an eight byte size.
+   */
+  private static byte[] createElement(int id, byte[] content) {
+    int idLength = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+    byte[] element = new byte[idLength + 8 + content.length];
+    for (int i = 0; i < idLength; i++) {
+      element[i] = (byte) (id >> (8 * (idLength - 1 - i)));
+    }
+    element[idLength] = 0x01;
+    for (int i = 1; i < 8; i++) {
+      element[idLength + i] = (byte) ((long) content.length >> (8 * (7 - i)));
+    }
+    System.arraycopy(content, 0, element, idLength + 8, content.length);
+    return element;
+  }
+
+  private static byte[] createUnsignedInt(long value) {
+    byte[] bytes = new byte[8];
+    for (int i = 0; i < 8; i++) {
+      bytes[i] = (byte) (value >> (8 * (7 - i)));
+    }
+    return bytes;
+  }
+
 }
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.GaplessInfoHolder;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LazyTrackSampleTable}.
+ */
+public final class LazyTrackSampleTableTest extends TestCase {
+
+  private static final long TIMESCALE = 90000;
+  private static final int SAMPLE_COUNT = 1000;
+
+  private Track track;
+
+  @Override
+  public void setUp() {
+    Format format = Format.createVideoSampleFormat(null, MimeTypes.VIDEO_H264, null,
+        Format.NO_VALUE, Format.NO_VALUE, 1280, 720, Format.NO_VALUE, null, null);
+    track = new Track(1, C.TRACK_TYPE_VIDEO, TIMESCALE, 1000, C.TIME_UNSET, format,
+        Track.TRANSFORMATION_NONE, null, 4, null, null);
+  }
+
+  public void testMatchesEagerTable() throws Exception {
+    Random random = new Random(0);
+    for (int i = 0; i < 5; i++) {
+      assertTablesEqual(createStblAtom(random, false, false), 7);
+    }
+  }
+
+  public void testMatchesEagerTableWithLongOffsetsAndCompactSizes() throws Exception {
+    Random random = new Random(1);
+    for (int i = 0; i < 5; i++) {
+      assertTablesEqual(createStblAtom(random, true, true), 16);
+    }
+  }
+
+  public void testMatchesEagerTableWithDefaultBlockSize() throws Exception {
+    assertTablesEqual(createStblAtom(new Random(2), false, false),
+        LazyTrackSampleTable.DEFAULT_BLOCK_SIZE);
+  }
+
+  private void assertTablesEqual(Atom.ContainerAtom stblAtom, int blockSize) throws Exception {
+    TrackSampleTable expected = AtomParsers.parseStbl(track, stblAtom, new GaplessInfoHolder());
+    LazyTrackSampleTable actual = new LazyTrackSampleTable(stblAtom, TIMESCALE, blockSize);
+    assertEquals(expected.sampleCount, actual.getSampleCount());
+    assertEquals(expected.maximumSize, actual.getMaximumSize());
+    // Read backwards so that every block is decoded more than once.
+    for (int i = expected.sampleCount - 1; i >= 0; i--) {
+      assertEquals(expected.offsets[i], actual.getOffset(i));
+      assertEquals(expected.sizes[i], actual.getSize(i));
+      assertEquals(expected.timestampsUs[i], actual.getTimestampUs(i));
+      assertEquals(expected.flags[i], actual.getFlags(i));
+    }
+    long lastTimestampUs = expected.timestampsUs[expected.sampleCount - 1];
+    for (long timeUs = -1000; timeUs < lastTimestampUs + 100000; timeUs += 1777) {
+      assertEquals(expected.getIndexOfEarlierOrEqualSynchronizationSample(timeUs),
+          actual.getIndexOfEarlierOrEqualSynchronizationSample(timeUs));
+      assertEquals(expected.getIndexOfLaterOrEqualSynchronizationSample(timeUs),
+          actual.getIndexOfLaterOrEqualSynchronizationSample(timeUs));
+    }
+  }
+
+  /**
+   * Creates an stbl atom with random sample sizes, chunking, durations, composition offsets and
+   * synchronization samples.
+   */
+  private static Atom.ContainerAtom createStblAtom(Random random, boolean longChunkOffsets,
+      boolean compactSampleSizes) {
+    ParsableByteArray sampleSizes;
+    if (compactSampleSizes) {
+      // A 4-bit stz2, with an odd sample count so that the last byte is half used.
+      int sampleCount = SAMPLE_COUNT + 1;
+      sampleSizes = createFullAtom(Atom.TYPE_stz2, 8 + (sampleCount + 1) / 2);
+      sampleSizes.data[Atom.FULL_HEADER_SIZE + 3] = 4;
+      writeInt(sampleSizes, Atom.FULL_HEADER_SIZE + 4, sampleCount);
+      for (int i = 0; i < (sampleCount + 1) / 2; i++) {
+        sampleSizes.data[Atom.FULL_HEADER_SIZE + 8 + i] = (byte) random.nextInt(256);
+      }
+    } else {
+      sampleSizes = createFullAtom(Atom.TYPE_stsz, 8 + 4 * SAMPLE_COUNT);
+      writeInt(sampleSizes, Atom.FULL_HEADER_SIZE + 4, SAMPLE_COUNT);
+      for (int i = 0; i < SAMPLE_COUNT; i++) {
+        writeInt(sampleSizes, Atom.FULL_HEADER_SIZE + 8 + 4 * i, 1 + random.nextInt(50000));
+      }
+    }
+    int sampleCount = compactSampleSizes ? SAMPLE_COUNT + 1 : SAMPLE_COUNT;
+
+    // Split the samples into chunks, changing the number of samples per chunk occasionally.
+    int[] chunkSampleCounts = new int[sampleCount];
+    int chunkCount = 0;
+    int stscEntryCount = 0;
+    int[] stscEntries = new int[3 * sampleCount];
+    int samplesPerChunk = 0;
+    int remainingSamples = sampleCount;
+    while (remainingSamples > 0) {
+      if (samplesPerChunk == 0 || random.nextInt(4) == 0) {
+        samplesPerChunk = 1 + random.nextInt(12);
+        stscEntries[3 * stscEntryCount] = chunkCount + 1;
+        stscEntries[3 * stscEntryCount + 1] = samplesPerChunk;
+        stscEntries[3 * stscEntryCount + 2] = 1;
+        stscEntryCount++;
+      }
+      if (samplesPerChunk > remainingSamples) {
+        // Use a new entry for a final, shorter chunk, replacing any entry starting at that chunk.
+        samplesPerChunk = remainingSamples;
+        if (stscEntries[3 * (stscEntryCount - 1)] == chunkCount + 1) {
+          stscEntryCount--;
+        }
+        stscEntries[3 * stscEntryCount] = chunkCount + 1;
+        stscEntries[3 * stscEntryCount + 1] = samplesPerChunk;
+        stscEntries[3 * stscEntryCount + 2] = 1;
+        stscEntryCount++;
+      }
+      chunkSampleCounts[chunkCount++] = samplesPerChunk;
+      remainingSamples -= samplesPerChunk;
+    }
+    ParsableByteArray stsc = createFullAtom(Atom.TYPE_stsc, 4 + 12 * stscEntryCount);
+    writeInt(stsc, Atom.FULL_HEADER_SIZE, stscEntryCount);
+    for (int i = 0; i < 3 * stscEntryCount; i++) {
+      writeInt(stsc, Atom.FULL_HEADER_SIZE + 4 + 4 * i, stscEntries[i]);
+    }
+
+    int chunkOffsetSize = longChunkOffsets ? 8 : 4;
+    ParsableByteArray chunkOffsets = createFullAtom(longChunkOffsets ? Atom.TYPE_co64
+        : Atom.TYPE_stco, 4 + chunkOffsetSize * chunkCount);
+    writeInt(chunkOffsets, Atom.FULL_HEADER_SIZE, chunkCount);
+    long chunkOffset = longChunkOffsets ? 0x100000000L : 1000;
+    for (int i = 0; i < chunkCount; i++) {
+      int position = Atom.FULL_HEADER_SIZE + 4 + chunkOffsetSize * i;
+      if (longChunkOffsets) {
+        writeInt(chunkOffsets, position, (int) (chunkOffset >>> 32));
+        position += 4;
+      }
+      writeInt(chunkOffsets, position, (int) chunkOffset);
+      chunkOffset += chunkSampleCounts[i] * 50000 + random.nextInt(1000);
+    }
+
+    ParsableByteArray stts = createRunLengthAtom(Atom.TYPE_stts, random, sampleCount, 3000);
+    ParsableByteArray ctts = createRunLengthAtom(Atom.TYPE_ctts, random, sampleCount, 6000);
+
+    int[] synchronizationSamples = new int[sampleCount];
+    int synchronizationSampleCount = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      if (i == 0 || random.nextInt(30) == 0) {
+        synchronizationSamples[synchronizationSampleCount++] = i + 1;
+      }
+    }
+    ParsableByteArray stss = createFullAtom(Atom.TYPE_stss, 4 + 4 * synchronizationSampleCount);
+    writeInt(stss, Atom.FULL_HEADER_SIZE, synchronizationSampleCount);
+    for (int i = 0; i < synchronizationSampleCount; i++) {
+      writeInt(stss, Atom.FULL_HEADER_SIZE + 4 + 4 * i, synchronizationSamples[i]);
+    }
+
+    Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, 0);
+    stblAtom.add(new Atom.LeafAtom(compactSampleSizes ? Atom.TYPE_stz2 : Atom.TYPE_stsz,
+        sampleSizes));
+    stblAtom.add(new Atom.LeafAtom(longChunkOffsets ? Atom.TYPE_co64 : Atom.TYPE_stco,
+        chunkOffsets));
+    stblAtom.add(new Atom.LeafAtom(Atom.TYPE_stsc, stsc));
+    stblAtom.add(new Atom.LeafAtom(Atom.TYPE_stts, stts));
+    stblAtom.add(new Atom.LeafAtom(Atom.TYPE_ctts, ctts));
+    stblAtom.add(new Atom.LeafAtom(Atom.TYPE_stss, stss));
+    return stblAtom;
+  }
+
+  /**
+   * Creates an atom whose entries are (sample count, value) runs covering {@code sampleCount}
+   * samples, as in stts and ctts atoms.
+   */
+  private static ParsableByteArray createRunLengthAtom(int type, Random random, int sampleCount,
+      int maximumValue) {
+    int[] runs = new int[2 * sampleCount];
+    int runCount = 0;
+    int remainingSamples = sampleCount;
+    while (remainingSamples > 0) {
+      int runLength = Math.min(remainingSamples, 1 + random.nextInt(20));
+      runs[2 * runCount] = runLength;
+      runs[2 * runCount + 1] = 1 + random.nextInt(maximumValue);
+      runCount++;
+      remainingSamples -= runLength;
+    }
+    ParsableByteArray atom = createFullAtom(type, 4 + 8 * runCount);
+    writeInt(atom, Atom.FULL_HEADER_SIZE, runCount);
+    for (int i = 0; i < 2 * runCount; i++) {
+      writeInt(atom, Atom.FULL_HEADER_SIZE + 4 + 4 * i, runs[i]);
+    }
+    return atom;
+  }
+
+  private static ParsableByteArray createFullAtom(int type, int payloadSize) {
+    ParsableByteArray atom = new ParsableByteArray(Atom.FULL_HEADER_SIZE + payloadSize);
+    writeInt(atom, 0, atom.limit());
+    writeInt(atom, 4, type);
+    return atom;
+  }
+
+  private static void writeInt(ParsableByteArray atom, int position, int value) {
+    atom.data[position] = (byte) (value >> 24);
+    atom.data[position + 1] = (byte) (value >> 16);
+    atom.data[position + 2] = (byte) (value >> 8);
+    atom.data[position + 3] = (byte) value;
+  }
+
+}
@@ -35,4 +35,13 @@ public final class Mp4ExtractorTest extends InstrumentationTestCase {
     }, "mp4/sample.mp4", getInstrumentation());
   }
 
+  public void testMp4SampleWithLazySampleTables() throws Exception {
+    TestUtil.assertOutput(new TestUtil.ExtractorFactory() {
+      @Override
+      public Extractor create() {
+        return new Mp4Extractor(Mp4Extractor.FLAG_LAZY_SAMPLE_TABLES);
+      }
+    }, "mp4/sample.mp4", getInstrumentation());
+  }
+
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.ts;
+
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import com.google.android.exoplayer2.extractor.DummyTrackOutput;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.testutil.FakeExtractorInput;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import java.io.IOException;
+
+/**
+ * Benchmark for {@link TsExtractor}.
+ * <p>
+ * Extracts a stream formed by repeating a sample transport stream, reading elementary streams on
+ * the loading thread only and on worker threads, and logs the throughput of each in MB/s. Samples
+ * are discarded, so that the cost of storing them doesn't dominate.
+ */
+public final class TsExtractorBenchmark extends InstrumentationTestCase {
+
+  private static final String TAG = "TsExtractorBenchmark";
+
+  private static final String SAMPLE_TS = "ts/sample.ts";
+  private static final int SAMPLE_REPEAT_COUNT = 100;
+  private static final int WARMUP_RUN_COUNT = 5;
+  private static final int RUN_COUNT = 20;
+
+  public void testThroughput() throws IOException, InterruptedException {
+    byte[] sampleData = TestUtil.getByteArray(getInstrumentation(), SAMPLE_TS);
+    byte[] data = new byte[sampleData.length * SAMPLE_REPEAT_COUNT];
+    for (int i = 0; i < SAMPLE_REPEAT_COUNT; i++) {
+      System.arraycopy(sampleData, 0, data, i * sampleData.length, sampleData.length);
+    }
+    Log.i(TAG, "Available processors: " + Runtime.getRuntime().availableProcessors());
+    runBenchmark("Loading thread", data, 1);
+    runBenchmark("Two threads", data, 2);
+  }
+
+  private static void runBenchmark(String name, byte[] data, int threadCount)
+      throws IOException, InterruptedException {
+    long elapsedNs = 0;
+    for (int i = 0; i < WARMUP_RUN_COUNT + RUN_COUNT; i++) {
+      TsExtractor extractor = new TsExtractor(new TimestampAdjuster(0), 0, threadCount);
+      FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
+      PositionHolder positionHolder = new PositionHolder();
+      long startTimeNs = System.nanoTime();
+      extractor.init(new DiscardingExtractorOutput());
+      while (extractor.read(input, positionHolder) != Extractor.RESULT_END_OF_INPUT) {
+        // Continue reading.
+      }
+      long runTimeNs = System.nanoTime() - startTimeNs;
+      extractor.release();
+      if (i >= WARMUP_RUN_COUNT) {
+        elapsedNs += runTimeNs;
+      }
+    }
+    double megabytesPerSecond = ((double) data.length * RUN_COUNT / (1024 * 1024))
+        / (elapsedNs / 1e9);
+    Log.i(TAG, name + ": " + String.format("%.1f", megabytesPerSecond) + " MB/s");
+  }
+
+  private static final class DiscardingExtractorOutput implements ExtractorOutput {
+
+    @Override
+    public TrackOutput track(int trackId) {
+      return new DummyTrackOutput();
+    }
+
+    @Override
+    public void endTracks() {
+      // Do nothing.
+    }
+
+    @Override
+    public void seekMap(SeekMap seekMap) {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -39,6 +39,15 @@ public final class TsExtractorTest extends InstrumentationTestCase {
     }, "ts/sample.ts", getInstrumentation());
   }
 
+  public void testSampleWithParallelReading() throws Exception {
+    TestUtil.assertOutput(new TestUtil.ExtractorFactory() {
+      @Override
+      public Extractor create() {
+        return new TsExtractor(new TimestampAdjuster(0), 0, 2);
+      }
+    }, "ts/sample.ts", getInstrumentation());
+  }
+
   public void testIncompleteSample() throws Exception {
     Random random = new Random(0);
     byte[] fileData = TestUtil.getByteArray(getInstrumentation(), "ts/sample.ts");
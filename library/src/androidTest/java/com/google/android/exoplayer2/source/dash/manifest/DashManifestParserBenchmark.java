@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import android.net.Uri;
+import android.util.Log;
+import com.google.android.exoplayer2.source.dash.manifest.Representation.MultiSegmentRepresentation;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Benchmarks for {@link DashManifestParser} and {@link IncrementalDashManifestParser}.
+ * <p>
+ * The refresh benchmark parses a live manifest whose segment timelines slide forward by one
+ * segment on each refresh, and logs parse times and the number of segments newly stored per
+ * refresh. The heap benchmark parses a long manifest in which every representation declares the
+ * same segment timeline, and logs the heap occupied by the parsed manifest against the heap that
+ * one {@link SegmentTimelineElement} per segment and representation would occupy.
+ */
+public class DashManifestParserBenchmark extends TestCase {
+
+  private static final String TAG = "DashManifestParserBenchmark";
+
+  private static final Uri MANIFEST_URI = Uri.parse("https://example.com/live.mpd");
+  // One hour of two second segments.
+  private static final int SEGMENT_COUNT = 1800;
+  private static final int WARMUP_REFRESH_COUNT = 20;
+  private static final int REFRESH_COUNT = 50;
+
+  // Six hours of two second segments, in eight representations.
+  private static final int LARGE_SEGMENT_COUNT = 10800;
+  private static final int LARGE_REPRESENTATION_COUNT = 8;
+
+  public void testRefreshParseTime() throws IOException {
+    String[] manifests = new String[WARMUP_REFRESH_COUNT + REFRESH_COUNT];
+    for (int i = 0; i < manifests.length; i++) {
+      manifests[i] = IncrementalDashManifestParserTest.buildLiveManifest(i, SEGMENT_COUNT,
+          1000000);
+    }
+    runBenchmark("Full", new DashManifestParser(), manifests);
+    runBenchmark("Incremental", new IncrementalDashManifestParser(), manifests);
+  }
+
+  public void testTimelineHeapSize() throws IOException {
+    measureHeap("Uniform durations", buildLargeManifest(false));
+    measureHeap("Alternating durations", buildLargeManifest(true));
+  }
+
+  private static void runBenchmark(String name, DashManifestParser parser, String[] manifests)
+      throws IOException {
+    DashManifest previousManifest = null;
+    long elapsedNs = 0;
+    long storedSegmentCount = 0;
+    for (int i = 0; i < manifests.length; i++) {
+      byte[] manifestBytes = manifests[i].getBytes();
+      long startTimeNs = System.nanoTime();
+      DashManifest manifest = parser.parse(MANIFEST_URI, new ByteArrayInputStream(manifestBytes));
+      long parseTimeNs = System.nanoTime() - startTimeNs;
+      if (i >= WARMUP_REFRESH_COUNT) {
+        elapsedNs += parseTimeNs;
+        storedSegmentCount += countNewlyStoredSegments(previousManifest, manifest);
+      }
+      previousManifest = manifest;
+    }
+    Log.i(TAG, name + ": " + (elapsedNs / REFRESH_COUNT / 1000) + "us/refresh, "
+        + (storedSegmentCount / REFRESH_COUNT) + " segments stored/refresh");
+  }
+
+  private static void measureHeap(String name, String manifestString) throws IOException {
+    byte[] manifestBytes = manifestString.getBytes();
+    long initialHeapBytes = getUsedHeapBytes();
+    DashManifest manifest = new DashManifestParser().parse(MANIFEST_URI,
+        new ByteArrayInputStream(manifestBytes));
+    long manifestHeapBytes = getUsedHeapBytes() - initialHeapBytes;
+
+    // The equivalent timelines with an element object per segment and representation.
+    List<List<SegmentTimelineElement>> elementTimelines = new ArrayList<>();
+    for (SegmentTimeline timeline : getTimelines(manifest).keySet()) {
+      for (int i = 0; i < LARGE_REPRESENTATION_COUNT; i++) {
+        elementTimelines.add(new ArrayList<>(timeline));
+      }
+    }
+    long elementHeapBytes = getUsedHeapBytes() - initialHeapBytes - manifestHeapBytes;
+
+    Log.i(TAG, name + ": " + getTimelines(manifest).size() + " distinct timeline(s), manifest "
+        + (manifestHeapBytes / 1024) + "KB, timeline elements alone "
+        + (elementHeapBytes / 1024) + "KB");
+    assertEquals(LARGE_REPRESENTATION_COUNT, elementTimelines.size());
+  }
+
+  /**
+   * Returns the number of segments stored for the timelines of {@code manifest} that were not
+   * already stored for the timelines of {@code previousManifest}.
+   */
+  private static int countNewlyStoredSegments(DashManifest previousManifest,
+      DashManifest manifest) {
+    IdentityHashMap<SegmentTimeline.Storage, Integer> previousStorageSizes =
+        new IdentityHashMap<>();
+    if (previousManifest != null) {
+      for (SegmentTimeline timeline : getTimelines(previousManifest).keySet()) {
+        previousStorageSizes.put(timeline.storage, timeline.getToIndex());
+      }
+    }
+    IdentityHashMap<SegmentTimeline.Storage, Integer> storageSizes = new IdentityHashMap<>();
+    for (SegmentTimeline timeline : getTimelines(manifest).keySet()) {
+      Integer size = storageSizes.get(timeline.storage);
+      if (size == null || size < timeline.getToIndex()) {
+        storageSizes.put(timeline.storage, timeline.getToIndex());
+      }
+    }
+    int newSegmentCount = 0;
+    for (SegmentTimeline.Storage storage : storageSizes.keySet()) {
+      Integer previousSize = previousStorageSizes.get(storage);
+      newSegmentCount += storageSizes.get(storage) - (previousSize == null ? 0 : previousSize);
+    }
+    return newSegmentCount;
+  }
+
+  private static IdentityHashMap<SegmentTimeline, Boolean> getTimelines(DashManifest manifest) {
+    IdentityHashMap<SegmentTimeline, Boolean> timelines = new IdentityHashMap<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      List<AdaptationSet> adaptationSets = manifest.getPeriod(i).adaptationSets;
+      for (int j = 0; j < adaptationSets.size(); j++) {
+        List<Representation> representations = adaptationSets.get(j).representations;
+        for (int k = 0; k < representations.size(); k++) {
+          timelines.put(((MultiSegmentRepresentation) representations.get(k)).segmentBase
+              .segmentTimeline, Boolean.TRUE);
+        }
+      }
+    }
+    return timelines;
+  }
+
+  private static long getUsedHeapBytes() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      System.runFinalization();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Builds a manifest with a single adaptation set, in which each representation declares its own
+   * copy of the same segment timeline.
+   *
+   * @param alternatingDurations Whether segment durations should alternate, as happens when
+   *     segments are aligned to frames at 29.97fps, rather than being uniform.
+   */
+  private static String buildLargeManifest(boolean alternatingDurations) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<MPD xmlns=\"urn:mpeg:DASH:schema:MPD:2011\" type=\"static\"")
+        .append(" mediaPresentationDuration=\"PT6H\" minBufferTime=\"PT2S\">\n")
+        .append("<Period id=\"0\" start=\"PT0S\">\n")
+        .append("<AdaptationSet id=\"0\" mimeType=\"video/mp4\" codecs=\"avc1.4d401f\">\n");
+    for (int i = 0; i < LARGE_REPRESENTATION_COUNT; i++) {
+      builder.append("<Representation id=\"v").append(i).append("\" bandwidth=\"")
+          .append(500000 * (i + 1)).append("\">\n")
+          .append("<SegmentTemplate timescale=\"90000\" media=\"$Time$.m4s\">\n")
+          .append("<SegmentTimeline>\n");
+      for (int j = 0; j < LARGE_SEGMENT_COUNT; j++) {
+        builder.append("<S d=\"")
+            .append(alternatingDurations && j % 2 == 1 ? 180180 : 180000).append("\"/>\n");
+      }
+      builder.append("</SegmentTimeline>\n")
+          .append("</SegmentTemplate>\n")
+          .append("</Representation>\n");
+    }
+    builder.append("</AdaptationSet>\n")
+        .append("</Period>\n")
+        .append("</MPD>\n");
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation.MultiSegmentRepresentation;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link IncrementalDashManifestParser}.
+ */
+public class IncrementalDashManifestParserTest extends TestCase {
+
+  private static final Uri MANIFEST_URI = Uri.parse("https://example.com/live.mpd");
+  private static final int SEGMENT_COUNT = 100;
+
+  public void testReparseUnchangedManifestReusesPeriods() throws IOException {
+    IncrementalDashManifestParser parser = new IncrementalDashManifestParser();
+    String manifestString = buildLiveManifest(0, SEGMENT_COUNT, 1000000);
+    DashManifest manifest = parse(parser, manifestString);
+    DashManifest refreshedManifest = parse(parser, manifestString);
+
+    assertNotSame(manifest, refreshedManifest);
+    assertSame(manifest.getPeriod(0), refreshedManifest.getPeriod(0));
+  }
+
+  public void testSlidingWindowSharesTimelineStorage() throws IOException {
+    IncrementalDashManifestParser parser = new IncrementalDashManifestParser();
+    DashManifest manifest = parse(parser, buildLiveManifest(0, SEGMENT_COUNT, 1000000));
+    DashManifest refreshedManifest = parse(parser, buildLiveManifest(1, SEGMENT_COUNT, 1000000));
+
+    SegmentTimeline timeline = getSegmentTimeline(manifest, 0, 0);
+    SegmentTimeline refreshedTimeline = getSegmentTimeline(refreshedManifest, 0, 0);
+    assertEquals(SEGMENT_COUNT, refreshedTimeline.size());
+    assertSame(timeline.storage, refreshedTimeline.storage);
+    assertEquals(timeline.fromIndex + 1, refreshedTimeline.fromIndex);
+    assertEquals(SEGMENT_COUNT + 1, timeline.storage.size());
+    // The appended segment is not visible through the previous timeline.
+    assertEquals(SEGMENT_COUNT, timeline.size());
+
+    // The result should be equivalent to a full parse.
+    DashManifest fullManifest = parse(new DashManifestParser(),
+        buildLiveManifest(1, SEGMENT_COUNT, 1000000));
+    for (int i = 0; i < fullManifest.getPeriod(0).adaptationSets.size(); i++) {
+      SegmentTimeline fullTimeline = getSegmentTimeline(fullManifest, i, 0);
+      refreshedTimeline = getSegmentTimeline(refreshedManifest, i, 0);
+      assertEquals(fullTimeline.size(), refreshedTimeline.size());
+      assertEquals(fullTimeline, refreshedTimeline);
+      for (int j = 0; j < fullTimeline.size(); j++) {
+        assertEquals(fullTimeline.getStartTime(j), refreshedTimeline.getStartTime(j));
+        assertEquals(fullTimeline.getDuration(j), refreshedTimeline.getDuration(j));
+      }
+    }
+  }
+
+  public void testChangedRepresentationIsNotReused() throws IOException {
+    IncrementalDashManifestParser parser = new IncrementalDashManifestParser();
+    DashManifest manifest = parse(parser, buildLiveManifest(0, SEGMENT_COUNT, 1000000));
+    DashManifest refreshedManifest = parse(parser, buildLiveManifest(0, SEGMENT_COUNT, 1500000));
+
+    AdaptationSet videoAdaptationSet = manifest.getPeriod(0).adaptationSets.get(0);
+    AdaptationSet refreshedVideoAdaptationSet =
+        refreshedManifest.getPeriod(0).adaptationSets.get(0);
+    assertNotSame(videoAdaptationSet, refreshedVideoAdaptationSet);
+    assertSame(videoAdaptationSet.representations.get(0),
+        refreshedVideoAdaptationSet.representations.get(0));
+    assertNotSame(videoAdaptationSet.representations.get(1),
+        refreshedVideoAdaptationSet.representations.get(1));
+    assertEquals(1500000, refreshedVideoAdaptationSet.representations.get(1).format.bitrate);
+    assertSame(manifest.getPeriod(0).adaptationSets.get(1),
+        refreshedManifest.getPeriod(0).adaptationSets.get(1));
+  }
+
+  public void testOverriddenSegmentTimelineElementHookIsApplied() throws IOException {
+    DashManifestParser parser = new DashManifestParser() {
+      @Deprecated
+      @Override
+      protected SegmentTimelineElement buildSegmentTimelineElement(long elapsedTime,
+          long duration) {
+        return new SegmentTimelineElement(elapsedTime * 2, duration * 2);
+      }
+    };
+    DashManifest manifest = parse(parser, buildLiveManifest(0, SEGMENT_COUNT, 1000000));
+    DashManifest defaultManifest = parse(new DashManifestParser(),
+        buildLiveManifest(0, SEGMENT_COUNT, 1000000));
+
+    SegmentTimeline timeline = getSegmentTimeline(manifest, 0, 0);
+    SegmentTimeline defaultTimeline = getSegmentTimeline(defaultManifest, 0, 0);
+    assertEquals(defaultTimeline.size(), timeline.size());
+    for (int i = 0; i < timeline.size(); i++) {
+      assertEquals(defaultTimeline.getStartTime(i) * 2, timeline.getStartTime(i));
+      assertEquals(defaultTimeline.getDuration(i) * 2, timeline.getDuration(i));
+    }
+  }
+
+  private static DashManifest parse(DashManifestParser parser, String manifestString)
+      throws IOException {
+    return parser.parse(MANIFEST_URI, new ByteArrayInputStream(manifestString.getBytes()));
+  }
+
+  private static SegmentTimeline getSegmentTimeline(DashManifest manifest,
+      int adaptationSetIndex, int representationIndex) {
+    Representation representation = manifest.getPeriod(0).adaptationSets.get(adaptationSetIndex)
+        .representations.get(representationIndex);
+    return ((MultiSegmentRepresentation) representation).segmentBase.segmentTimeline;
+  }
+
+  /**
+   * Builds a live manifest with a video and an audio adaptation set, each with a segment timeline
+   * of two second segments.
+   *
+   * @param firstSegmentIndex The index of the first segment in the timelines.
+   * @param segmentCount The number of segments in the timelines.
+   * @param secondVideoBitrate The bitrate of the second video representation.
+   * @return The manifest.
+   */
+  /* package */ static String buildLiveManifest(int firstSegmentIndex, int segmentCount,
+      int secondVideoBitrate) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<MPD xmlns=\"urn:mpeg:DASH:schema:MPD:2011\" type=\"dynamic\"")
+        .append(" availabilityStartTime=\"2016-01-01T00:00:00Z\" minimumUpdatePeriod=\"PT2S\"")
+        .append(" timeShiftBufferDepth=\"PT1H\" minBufferTime=\"PT2S\">\n")
+        .append("<Period id=\"0\" start=\"PT0S\">\n");
+    builder.append("<AdaptationSet id=\"0\" mimeType=\"video/mp4\" codecs=\"avc1.4d401f\">\n");
+    appendSegmentTemplate(builder, firstSegmentIndex, segmentCount);
+    builder.append("<Representation id=\"v0\" bandwidth=\"500000\"")
+        .append(" width=\"640\" height=\"360\"/>\n")
+        .append("<Representation id=\"v1\" bandwidth=\"").append(secondVideoBitrate)
+        .append("\" width=\"1280\" height=\"720\"/>\n")
+        .append("</AdaptationSet>\n");
+    builder.append("<AdaptationSet id=\"1\" mimeType=\"audio/mp4\" codecs=\"mp4a.40.2\"")
+        .append(" audioSamplingRate=\"48000\">\n");
+    appendSegmentTemplate(builder, firstSegmentIndex, segmentCount);
+    builder.append("<Representation id=\"a0\" bandwidth=\"128000\"/>\n")
+        .append("</AdaptationSet>\n")
+        .append("</Period>\n")
+        .append("</MPD>\n");
+    return builder.toString();
+  }
+
+  private static void appendSegmentTemplate(StringBuilder builder, int firstSegmentIndex,
+      int segmentCount) {
+    builder.append("<SegmentTemplate timescale=\"1000\"")
+        .append(" initialization=\"$RepresentationID$/init.mp4\"")
+        .append(" media=\"$RepresentationID$/$Time$.m4s\">\n")
+        .append("<SegmentTimeline>\n")
+        .append("<S t=\"").append(firstSegmentIndex * 2000L).append("\" d=\"2000\"/>\n");
+    for (int i = 1; i < segmentCount; i++) {
+      builder.append("<S d=\"2000\"/>\n");
+    }
+    builder.append("</SegmentTimeline>\n")
+        .append("</SegmentTemplate>\n");
+  }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTemplate;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link SegmentTimeline}.
+ */
+public class SegmentTimelineTest extends TestCase {
+
+  public void testContiguousSegmentsOfEqualDurationShareRun() {
+    SegmentTimeline.Storage storage = new SegmentTimeline.Storage();
+    for (int i = 0; i < 1000; i++) {
+      storage.append(i * 2000L, 2000);
+    }
+    // A gap, then a change of duration.
+    storage.append(2010000, 2000);
+    storage.append(2012000, 1000);
+    SegmentTimeline timeline = new SegmentTimeline(storage, 0, storage.size());
+
+    assertEquals(1002, timeline.size());
+    assertEquals(3, countRuns(timeline));
+    assertEquals(1998000, timeline.getStartTime(999));
+    assertEquals(2010000, timeline.getStartTime(1000));
+    assertEquals(2000, timeline.getDuration(1000));
+    assertEquals(2012000, timeline.getStartTime(1001));
+    assertEquals(1000, timeline.getDuration(1001));
+    SegmentTimelineElement element = timeline.get(500);
+    assertEquals(1000000, element.startTime);
+    assertEquals(2000, element.duration);
+  }
+
+  public void testGetIndexOfTimeFloor() {
+    SegmentTimeline timeline = buildTimeline(new long[] {1000, 3000, 5000, 9000, 10000},
+        new long[] {2000, 2000, 2000, 1000, 1000});
+
+    assertEquals(-1, timeline.getIndexOfTimeFloor(999));
+    assertEquals(0, timeline.getIndexOfTimeFloor(1000));
+    assertEquals(0, timeline.getIndexOfTimeFloor(2999));
+    assertEquals(1, timeline.getIndexOfTimeFloor(3000));
+    assertEquals(2, timeline.getIndexOfTimeFloor(6999));
+    // The time falls within a gap.
+    assertEquals(2, timeline.getIndexOfTimeFloor(8000));
+    assertEquals(3, timeline.getIndexOfTimeFloor(9000));
+    assertEquals(4, timeline.getIndexOfTimeFloor(100000));
+  }
+
+  public void testWindowOntoStorage() {
+    SegmentTimeline.Storage storage = new SegmentTimeline.Storage();
+    for (int i = 0; i < 10; i++) {
+      storage.append(i * 1000L, i < 5 ? 1000 : 500);
+    }
+    SegmentTimeline timeline = new SegmentTimeline(storage, 3, 7);
+
+    assertEquals(4, timeline.size());
+    assertEquals(3000, timeline.getStartTime(0));
+    assertEquals(1000, timeline.getDuration(1));
+    assertEquals(5000, timeline.getStartTime(2));
+    assertEquals(500, timeline.getDuration(2));
+    assertEquals(-1, timeline.getIndexOfTimeFloor(2999));
+    assertEquals(3, timeline.getIndexOfTimeFloor(9000));
+    try {
+      timeline.getStartTime(4);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+
+    // Appending doesn't affect the timeline.
+    storage.append(10000, 500);
+    assertEquals(4, timeline.size());
+    assertEquals(3, timeline.getIndexOfTimeFloor(10000));
+  }
+
+  public void testEquals() {
+    SegmentTimeline.Storage storage = new SegmentTimeline.Storage();
+    for (int i = 0; i < 10; i++) {
+      storage.append(i * 1000L, 1000);
+    }
+    SegmentTimeline timeline = new SegmentTimeline(storage, 2, 8);
+    SegmentTimeline copy = new SegmentTimeline(storage.copyRange(2, 8), 0, 6);
+    SegmentTimeline shifted = new SegmentTimeline(storage, 3, 9);
+
+    assertNotSame(timeline.storage, copy.storage);
+    assertEquals(1, countRuns(copy));
+    assertEquals(timeline, copy);
+    assertEquals(timeline.hashCode(), copy.hashCode());
+    assertFalse(timeline.equals(shifted));
+  }
+
+  public void testCopyOfList() {
+    List<SegmentTimelineElement> elements = new ArrayList<>();
+    elements.add(new SegmentTimelineElement(0, 1000));
+    elements.add(new SegmentTimelineElement(1000, 1000));
+    elements.add(new SegmentTimelineElement(3000, 500));
+    SegmentTimeline timeline = SegmentTimeline.copyOf(elements);
+
+    assertEquals(3, timeline.size());
+    assertEquals(1000, timeline.getStartTime(1));
+    assertEquals(3000, timeline.getStartTime(2));
+    assertEquals(500, timeline.getDuration(2));
+    assertSame(timeline, SegmentTimeline.copyOf(timeline));
+  }
+
+  public void testSegmentNumMatchesLinearSearch() {
+    long[] startTimes = new long[200];
+    long[] durations = new long[200];
+    long time = 0;
+    for (int i = 0; i < startTimes.length; i++) {
+      // Durations alternate between runs, with occasional gaps.
+      durations[i] = (i / 10) % 2 == 0 ? 1001 : 1002;
+      startTimes[i] = time + (i % 37 == 0 ? 3 : 0);
+      time = startTimes[i] + durations[i];
+    }
+    SegmentTemplate segmentBase = new SegmentTemplate(null, 30000, 900, 5, C.TIME_UNSET,
+        buildTimeline(startTimes, durations), null, null, null);
+
+    for (long timeUs = -1000; timeUs < 7000000; timeUs += 997) {
+      assertEquals(getSegmentNumLinear(segmentBase, timeUs),
+          segmentBase.getSegmentNum(timeUs, C.TIME_UNSET));
+    }
+  }
+
+  public void testParsedTimelinesAreShared() throws IOException {
+    String manifestString = IncrementalDashManifestParserTest.buildLiveManifest(0, 100, 1000000);
+    DashManifest manifest = new DashManifestParser().parse(Uri.parse("https://example.com/a.mpd"),
+        new ByteArrayInputStream(manifestString.getBytes()));
+
+    List<AdaptationSet> adaptationSets = manifest.getPeriod(0).adaptationSets;
+    SegmentTimeline videoTimeline = getSegmentTimeline(adaptationSets.get(0));
+    SegmentTimeline audioTimeline = getSegmentTimeline(adaptationSets.get(1));
+    assertEquals(100, videoTimeline.size());
+    assertSame(videoTimeline, audioTimeline);
+  }
+
+  private static int getSegmentNumLinear(SegmentTemplate segmentBase, long timeUs) {
+    int segmentNum = segmentBase.getFirstSegmentNum();
+    int lastSegmentNum = segmentBase.getLastSegmentNum(C.TIME_UNSET);
+    while (segmentNum < lastSegmentNum && segmentBase.getSegmentTimeUs(segmentNum + 1) <= timeUs) {
+      segmentNum++;
+    }
+    return segmentNum;
+  }
+
+  private static SegmentTimeline getSegmentTimeline(AdaptationSet adaptationSet) {
+    Representation representation = adaptationSet.representations.get(0);
+    return ((Representation.MultiSegmentRepresentation) representation).segmentBase
+        .segmentTimeline;
+  }
+
+  private static SegmentTimeline buildTimeline(long[] startTimes, long[] durations) {
+    SegmentTimeline.Storage storage = new SegmentTimeline.Storage();
+    for (int i = 0; i < startTimes.length; i++) {
+      storage.append(startTimes[i], durations[i]);
+    }
+    return new SegmentTimeline(storage, 0, storage.size());
+  }
+
+  private static int countRuns(SegmentTimeline timeline) {
+    int runCount = timeline.size() == 0 ? 0 : 1;
+    for (int i = 1; i < timeline.size(); i++) {
+      if (timeline.getDuration(i) != timeline.getDuration(i - 1)
+          || timeline.getStartTime(i) != timeline.getStartTime(i - 1)
+          + timeline.getDuration(i - 1)) {
+        runCount++;
+      }
+    }
+    return runCount;
+  }
+
+}
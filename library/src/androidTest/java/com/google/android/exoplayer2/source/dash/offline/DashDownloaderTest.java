@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.offline;
+
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.offline.Downloader;
+import com.google.android.exoplayer2.testutil.FakeHttpServer;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link DashDownloader}.
+ */
+public class DashDownloaderTest extends InstrumentationTestCase {
+
+  private static final String MANIFEST_PATH = "/test.mpd";
+  private static final String MANIFEST =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<MPD xmlns=\"urn:mpeg:DASH:schema:MPD:2011\" type=\"static\" "
+      + "mediaPresentationDuration=\"PT8S\" minBufferTime=\"PT2S\">\n"
+      + "  <Period start=\"PT0S\">\n"
+      + "    <AdaptationSet mimeType=\"video/mp4\">\n"
+      + "      <SegmentTemplate timescale=\"1\" duration=\"2\" startNumber=\"1\" "
+      + "initialization=\"$RepresentationID$/init.mp4\" "
+      + "media=\"$RepresentationID$/$Number$.m4s\"/>\n"
+      + "      <Representation id=\"low\" bandwidth=\"100000\" codecs=\"avc1.42c01e\" "
+      + "width=\"320\" height=\"180\"/>\n"
+      + "      <Representation id=\"high\" bandwidth=\"400000\" codecs=\"avc1.42c01e\" "
+      + "width=\"640\" height=\"360\"/>\n"
+      + "    </AdaptationSet>\n"
+      + "  </Period>\n"
+      + "</MPD>\n";
+  private static final String[] REPRESENTATION_IDS = new String[] {"low", "high"};
+  private static final int SEGMENT_COUNT = 4;
+  private static final int SEGMENT_LENGTH = 50000;
+  private static final int INIT_LENGTH = 100;
+
+  private FakeHttpServer server;
+  private File cacheDir;
+  private SimpleCache cache;
+  private long totalMediaLength;
+
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = File.createTempFile("DashDownloaderTest", null);
+    assertTrue(cacheDir.delete());
+    assertTrue(cacheDir.mkdir());
+    cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+
+    server = new FakeHttpServer();
+    server.setResource(MANIFEST_PATH, MANIFEST.getBytes("UTF-8"));
+    Random random = new Random(0);
+    for (String id : REPRESENTATION_IDS) {
+      server.setResource(getInitPath(id), TestUtil.buildTestData(INIT_LENGTH, random));
+      totalMediaLength += INIT_LENGTH;
+      for (int i = 1; i <= SEGMENT_COUNT; i++) {
+        server.setResource(getSegmentPath(id, i), TestUtil.buildTestData(SEGMENT_LENGTH, random));
+        totalMediaLength += SEGMENT_LENGTH;
+      }
+    }
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    TestUtil.recursiveDelete(cacheDir);
+  }
+
+  public void testDownload() throws Exception {
+    DashDownloader downloader = createDownloader();
+    downloader.download(null);
+
+    assertEquals(1, server.getRequestCount(MANIFEST_PATH));
+    for (String id : REPRESENTATION_IDS) {
+      assertEquals(1, server.getRequestCount(getInitPath(id)));
+      for (int i = 1; i <= SEGMENT_COUNT; i++) {
+        assertEquals(1, server.getRequestCount(getSegmentPath(id, i)));
+        assertTrue(cache.isCached(server.getUri(getSegmentPath(id, i)).toString(), 0,
+            SEGMENT_LENGTH));
+      }
+    }
+    assertEquals(REPRESENTATION_IDS.length * (SEGMENT_COUNT + 1), downloader.getTotalSegments());
+    assertEquals(100f, downloader.getDownloadPercentage());
+    assertEquals(totalMediaLength, downloader.getDownloadedBytes());
+  }
+
+  public void testNotInitialized() throws Exception {
+    DashDownloader downloader = createDownloader();
+    assertEquals(C.LENGTH_UNSET, downloader.getDownloadedBytes());
+    assertTrue(Float.isNaN(downloader.getDownloadPercentage()));
+  }
+
+  public void testProgressIsReported() throws Exception {
+    final int[] progressCount = new int[1];
+    final float[] lastPercentage = new float[] {-1};
+    DashDownloader downloader = createDownloader();
+    downloader.download(new Downloader.ProgressListener() {
+      @Override
+      public void onDownloadProgress(Downloader downloader, float downloadPercentage,
+          long downloadedBytes) {
+        assertTrue(downloadPercentage >= lastPercentage[0]);
+        lastPercentage[0] = downloadPercentage;
+        progressCount[0]++;
+      }
+    });
+    // One initial report, and one per segment.
+    assertEquals(REPRESENTATION_IDS.length * (SEGMENT_COUNT + 1) + 1, progressCount[0]);
+    assertEquals(100f, lastPercentage[0]);
+  }
+
+  public void testDurationLimit() throws Exception {
+    DashDownloader downloader = createDownloader();
+    downloader.setDurationLimitUs(4000000);
+    downloader.download(null);
+
+    for (String id : REPRESENTATION_IDS) {
+      assertEquals(1, server.getRequestCount(getInitPath(id)));
+      assertEquals(1, server.getRequestCount(getSegmentPath(id, 1)));
+      assertEquals(1, server.getRequestCount(getSegmentPath(id, 2)));
+      assertEquals(0, server.getRequestCount(getSegmentPath(id, 3)));
+      assertEquals(0, server.getRequestCount(getSegmentPath(id, 4)));
+    }
+  }
+
+  public void testResumeDownloadsOnlyMissingData() throws Exception {
+    DashDownloader downloader = createDownloader();
+    downloader.setDurationLimitUs(4000000);
+    downloader.download(null);
+    int requestCount = server.getTotalRequestCount();
+
+    downloader = createDownloader();
+    downloader.init();
+    assertEquals(REPRESENTATION_IDS.length * 3, downloader.getDownloadedSegments());
+    downloader.download(null);
+
+    // Only the remaining segments are requested. The manifest is read from the cache.
+    assertEquals(requestCount + REPRESENTATION_IDS.length * 2, server.getTotalRequestCount());
+    assertEquals(1, server.getRequestCount(MANIFEST_PATH));
+    assertEquals(totalMediaLength, downloader.getDownloadedBytes());
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testFailedDownloadCanBeResumed() throws Exception {
+    String missingPath = getSegmentPath(REPRESENTATION_IDS[1], SEGMENT_COUNT);
+    byte[] missingData = TestUtil.buildTestData(SEGMENT_LENGTH);
+    server.removeResource(missingPath);
+    DashDownloader downloader = createDownloader();
+    try {
+      downloader.download(null);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(downloader.getDownloadPercentage() < 100f);
+
+    server.setResource(missingPath, missingData);
+    downloader.download(null);
+    assertEquals(100f, downloader.getDownloadPercentage());
+    for (String id : REPRESENTATION_IDS) {
+      for (int i = 1; i <= SEGMENT_COUNT; i++) {
+        String path = getSegmentPath(id, i);
+        assertEquals(SEGMENT_LENGTH, server.getServedBytes(path));
+      }
+    }
+  }
+
+  public void testRemove() throws Exception {
+    DashDownloader downloader = createDownloader();
+    downloader.download(null);
+    downloader.remove();
+
+    assertTrue(cache.getKeys().isEmpty());
+    assertEquals(0, cache.getCacheSpace());
+  }
+
+  private DashDownloader createDownloader() {
+    return new DashDownloader(server.getUri(MANIFEST_PATH), cache,
+        new DefaultHttpDataSourceFactory("ExoPlayerTest"), 2);
+  }
+
+  private static String getInitPath(String representationId) {
+    return "/" + representationId + "/init.mp4";
+  }
+
+  private static String getSegmentPath(String representationId, int segmentNumber) {
+    return "/" + representationId + "/" + segmentNumber + ".m4s";
+  }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist.HlsUrl;
+import com.google.android.exoplayer2.testutil.FakeHttpServer;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the background loading of variant playlists in {@link HlsChunkSource}.
+ */
+public class HlsChunkSourceTest extends TestCase {
+
+  private static final String[] VARIANTS = new String[] {"low", "mid", "high"};
+  private static final String MASTER_PLAYLIST_PATH = "/master.m3u8";
+  private static final String PLAYLIST_HEADER = "#EXTM3U\n"
+      + "#EXT-X-VERSION:3\n"
+      + "#EXT-X-TARGETDURATION:1\n"
+      + "#EXT-X-MEDIA-SEQUENCE:0\n"
+      + "#EXTINF:1.0,\n"
+      + "0.ts\n"
+      + "#EXTINF:1.0,\n"
+      + "1.ts\n";
+  private static final String VOD_PLAYLIST = PLAYLIST_HEADER + "#EXT-X-ENDLIST\n";
+  // Live playlists with a target duration of one second are refreshed every 500ms.
+  private static final String LIVE_PLAYLIST = PLAYLIST_HEADER;
+  private static final long LIVE_REFRESH_INTERVAL_MS = 500;
+  private static final long TIMEOUT_MS = 10000;
+
+  private FakeHttpServer server;
+  private HandlerThread playbackThread;
+  private Handler playbackHandler;
+  private HlsChunkSource chunkSource;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = new FakeHttpServer();
+    server.start();
+    playbackThread = new HandlerThread("HlsChunkSourceTest");
+    playbackThread.start();
+    playbackHandler = new Handler(playbackThread.getLooper());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (chunkSource != null) {
+      runOnPlaybackThread(new Runnable() {
+        @Override
+        public void run() {
+          chunkSource.release();
+        }
+      });
+    }
+    playbackThread.quit();
+    server.stop();
+  }
+
+  public void testLoadsAdjacentVariantPlaylists() throws Exception {
+    setPlaylists(VOD_PLAYLIST);
+    chunkSource = createChunkSource(1);
+
+    HlsChunkSource.HlsChunkHolder holder = getNextChunk();
+
+    // The selected variant's playlist is loaded as a chunk, and only the adjacent one is loaded in
+    // the background.
+    assertNotNull(holder.chunk);
+    waitForRequestCount(getPlaylistPath(VARIANTS[1]), 1);
+    assertEquals(0, server.getRequestCount(getPlaylistPath(VARIANTS[0])));
+    assertEquals(0, server.getRequestCount(getPlaylistPath(VARIANTS[2])));
+  }
+
+  public void testDoesNotRefreshVodPlaylists() throws Exception {
+    setPlaylists(VOD_PLAYLIST);
+    chunkSource = createChunkSource(1);
+
+    getNextChunk();
+    waitForRequestCount(getPlaylistPath(VARIANTS[1]), 1);
+    Thread.sleep(2 * LIVE_REFRESH_INTERVAL_MS);
+    getNextChunk();
+    Thread.sleep(LIVE_REFRESH_INTERVAL_MS);
+
+    assertEquals(1, server.getRequestCount(getPlaylistPath(VARIANTS[1])));
+  }
+
+  public void testRefreshesLivePlaylistsOnlyWhilstLoading() throws Exception {
+    setPlaylists(LIVE_PLAYLIST);
+    chunkSource = createChunkSource(1);
+
+    getNextChunk();
+    waitForRequestCount(getPlaylistPath(VARIANTS[1]), 1);
+    // No chunks are requested, as when the buffer is full or playback is paused, so the playlist
+    // is not refreshed even though it's due.
+    Thread.sleep(3 * LIVE_REFRESH_INTERVAL_MS);
+    assertEquals(1, server.getRequestCount(getPlaylistPath(VARIANTS[1])));
+
+    // Requesting a chunk refreshes the playlist that is due.
+    getNextChunk();
+    waitForRequestCount(getPlaylistPath(VARIANTS[1]), 2);
+  }
+
+  public void testDisabledWhenPrefetchCountIsZero() throws Exception {
+    setPlaylists(LIVE_PLAYLIST);
+    chunkSource = createChunkSource(0);
+
+    getNextChunk();
+    Thread.sleep(LIVE_REFRESH_INTERVAL_MS);
+
+    assertEquals(0, server.getTotalRequestCount());
+  }
+
+  private void setPlaylists(String playlist) throws Exception {
+    for (String variant : VARIANTS) {
+      server.setResource(getPlaylistPath(variant), playlist.getBytes("UTF-8"));
+    }
+  }
+
+  private HlsChunkSource createChunkSource(int variantPlaylistPrefetchCount) {
+    HlsUrl[] variants = new HlsUrl[VARIANTS.length];
+    for (int i = 0; i < VARIANTS.length; i++) {
+      // Variants are ordered by decreasing bitrate, as in the track selection.
+      Format format = Format.createVideoContainerFormat(VARIANTS[i], MimeTypes.APPLICATION_M3U8,
+          null, null, (VARIANTS.length - i) * 1000000, 1280, 720, Format.NO_VALUE, null);
+      variants[i] = new HlsUrl(VARIANTS[i], VARIANTS[i] + "/playlist.m3u8", format, null, null,
+          null);
+    }
+    DefaultHttpDataSourceFactory dataSourceFactory =
+        new DefaultHttpDataSourceFactory("ExoPlayerTest");
+    return new HlsChunkSource(server.getUri(MASTER_PLAYLIST_PATH).toString(), variants,
+        dataSourceFactory.createDataSource(), new TimestampAdjusterProvider(), false,
+        dataSourceFactory, variantPlaylistPrefetchCount, null, null, null);
+  }
+
+  private HlsChunkSource.HlsChunkHolder getNextChunk() throws InterruptedException {
+    final HlsChunkSource.HlsChunkHolder holder = new HlsChunkSource.HlsChunkHolder();
+    runOnPlaybackThread(new Runnable() {
+      @Override
+      public void run() {
+        chunkSource.getNextChunk(null, 0, holder);
+      }
+    });
+    return holder;
+  }
+
+  private void runOnPlaybackThread(final Runnable runnable) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    playbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        runnable.run();
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+
+  private void waitForRequestCount(String path, int count) throws InterruptedException {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (server.getRequestCount(path) < count && System.currentTimeMillis() < deadlineMs) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, server.getRequestCount(path));
+  }
+
+  private static String getPlaylistPath(String variant) {
+    return "/" + variant + "/playlist.m3u8";
+  }
+
+}
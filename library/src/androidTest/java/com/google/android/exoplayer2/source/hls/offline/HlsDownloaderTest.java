@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.offline;
+
+import android.test.InstrumentationTestCase;
+import com.google.android.exoplayer2.testutil.FakeHttpServer;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link HlsDownloader}.
+ */
+public class HlsDownloaderTest extends InstrumentationTestCase {
+
+  private static final String[] VARIANTS = new String[] {"low", "high"};
+  private static final int SEGMENT_LENGTH = 20000;
+  private static final int KEY_LENGTH = 16;
+  private static final String MASTER_PLAYLIST_PATH = "/master.m3u8";
+  private static final String MASTER_PLAYLIST = "#EXTM3U\n"
+      + "#EXT-X-STREAM-INF:BANDWIDTH=1280000,CODECS=\"mp4a.40.2,avc1.66.30\",RESOLUTION=304x128\n"
+      + "low/playlist.m3u8\n"
+      + "#EXT-X-STREAM-INF:BANDWIDTH=2560000,CODECS=\"mp4a.40.2,avc1.66.30\",RESOLUTION=608x256\n"
+      + "high/playlist.m3u8\n";
+  private static final String MEDIA_PLAYLIST = "#EXTM3U\n"
+      + "#EXT-X-VERSION:4\n"
+      + "#EXT-X-TARGETDURATION:4\n"
+      + "#EXT-X-MEDIA-SEQUENCE:0\n"
+      + "#EXT-X-KEY:METHOD=AES-128,URI=\"key\"\n"
+      + "#EXTINF:4.0,\n"
+      + "0.ts\n"
+      + "#EXTINF:4.0,\n"
+      + "1.ts\n"
+      + "#EXT-X-KEY:METHOD=NONE\n"
+      + "#EXTINF:4.0,\n"
+      + "#EXT-X-BYTERANGE:" + (SEGMENT_LENGTH / 2) + "@0\n"
+      + "2.ts\n"
+      + "#EXTINF:4.0,\n"
+      + "#EXT-X-BYTERANGE:" + (SEGMENT_LENGTH / 2) + "\n"
+      + "2.ts\n"
+      + "#EXT-X-ENDLIST\n";
+
+  private FakeHttpServer server;
+  private File cacheDir;
+  private SimpleCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = File.createTempFile("HlsDownloaderTest", null);
+    assertTrue(cacheDir.delete());
+    assertTrue(cacheDir.mkdir());
+    cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+
+    server = new FakeHttpServer();
+    server.setResource(MASTER_PLAYLIST_PATH, MASTER_PLAYLIST.getBytes("UTF-8"));
+    Random random = new Random(0);
+    for (String variant : VARIANTS) {
+      server.setResource(getPath(variant, "playlist.m3u8"), MEDIA_PLAYLIST.getBytes("UTF-8"));
+      server.setResource(getPath(variant, "key"), TestUtil.buildTestData(KEY_LENGTH, random));
+      for (int i = 0; i < 3; i++) {
+        server.setResource(getPath(variant, i + ".ts"),
+            TestUtil.buildTestData(SEGMENT_LENGTH, random));
+      }
+    }
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    TestUtil.recursiveDelete(cacheDir);
+  }
+
+  public void testDownloadMasterPlaylist() throws Exception {
+    HlsDownloader downloader = createDownloader(MASTER_PLAYLIST_PATH);
+    downloader.download(null);
+
+    assertEquals(1, server.getRequestCount(MASTER_PLAYLIST_PATH));
+    for (String variant : VARIANTS) {
+      assertEquals(1, server.getRequestCount(getPath(variant, "playlist.m3u8")));
+      // The key is shared by two segments, but is only requested once.
+      assertEquals(1, server.getRequestCount(getPath(variant, "key")));
+      assertEquals(1, server.getRequestCount(getPath(variant, "0.ts")));
+      assertEquals(1, server.getRequestCount(getPath(variant, "1.ts")));
+      // The byte ranges of the last resource are requested separately.
+      assertEquals(2, server.getRequestCount(getPath(variant, "2.ts")));
+      assertTrue(cache.isCached(server.getUri(getPath(variant, "2.ts")).toString(), 0,
+          SEGMENT_LENGTH));
+    }
+    // A key and four segments per variant.
+    assertEquals(VARIANTS.length * 5, downloader.getTotalSegments());
+    assertEquals(VARIANTS.length * (KEY_LENGTH + 3 * SEGMENT_LENGTH),
+        downloader.getDownloadedBytes());
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testDownloadMediaPlaylist() throws Exception {
+    HlsDownloader downloader = createDownloader(getPath(VARIANTS[0], "playlist.m3u8"));
+    downloader.download(null);
+
+    assertEquals(0, server.getRequestCount(MASTER_PLAYLIST_PATH));
+    assertEquals(1, server.getRequestCount(getPath(VARIANTS[0], "0.ts")));
+    assertEquals(0, server.getRequestCount(getPath(VARIANTS[1], "0.ts")));
+    assertEquals(5, downloader.getTotalSegments());
+  }
+
+  public void testDurationLimit() throws Exception {
+    HlsDownloader downloader = createDownloader(MASTER_PLAYLIST_PATH);
+    downloader.setDurationLimitUs(8000000);
+    downloader.download(null);
+
+    for (String variant : VARIANTS) {
+      assertEquals(1, server.getRequestCount(getPath(variant, "0.ts")));
+      assertEquals(1, server.getRequestCount(getPath(variant, "1.ts")));
+      assertEquals(0, server.getRequestCount(getPath(variant, "2.ts")));
+    }
+  }
+
+  public void testResumeDownloadsOnlyMissingData() throws Exception {
+    HlsDownloader downloader = createDownloader(MASTER_PLAYLIST_PATH);
+    downloader.setDurationLimitUs(8000000);
+    downloader.download(null);
+    int requestCount = server.getTotalRequestCount();
+
+    downloader = createDownloader(MASTER_PLAYLIST_PATH);
+    downloader.download(null);
+
+    // Only the byte ranges of the last resource are requested. The playlists are read from the
+    // cache.
+    assertEquals(requestCount + VARIANTS.length * 2, server.getTotalRequestCount());
+    assertEquals(1, server.getRequestCount(MASTER_PLAYLIST_PATH));
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testRemove() throws Exception {
+    HlsDownloader downloader = createDownloader(MASTER_PLAYLIST_PATH);
+    downloader.download(null);
+    downloader.remove();
+
+    assertTrue(cache.getKeys().isEmpty());
+    assertEquals(0, cache.getCacheSpace());
+  }
+
+  private HlsDownloader createDownloader(String playlistPath) {
+    return new HlsDownloader(server.getUri(playlistPath), cache,
+        new DefaultHttpDataSourceFactory("ExoPlayerTest"), 2);
+  }
+
+  private static String getPath(String variant, String name) {
+    return "/" + variant + "/" + name;
+  }
+
+}
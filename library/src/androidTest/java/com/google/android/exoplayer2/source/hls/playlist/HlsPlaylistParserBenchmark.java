@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import android.net.Uri;
+import android.util.Log;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import junit.framework.TestCase;
+
+/**
+ * Benchmark comparing {@link IncrementalHlsPlaylistParser} against {@link HlsPlaylistParser} for
+ * a large live playlist that grows by one segment on each reload, as a 24 hour DVR event playlist
+ * does. The time taken by the initial load and by each subsequent reload is logged.
+ */
+public class HlsPlaylistParserBenchmark extends TestCase {
+
+  private static final String TAG = "HlsPlaylistParserBenchmark";
+
+  private static final Uri PLAYLIST_URI = Uri.parse("https://example.com/event.m3u8");
+  // 24 hours of four second segments.
+  private static final int SEGMENT_COUNT = 21600;
+  private static final int WARMUP_RELOAD_COUNT = 10;
+  private static final int RELOAD_COUNT = 20;
+
+  public void testReloadParseTime() throws IOException {
+    byte[][] playlists = new byte[1 + WARMUP_RELOAD_COUNT + RELOAD_COUNT][];
+    for (int i = 0; i < playlists.length; i++) {
+      playlists[i] = IncrementalHlsPlaylistParserTest.buildLivePlaylist(0, SEGMENT_COUNT + i)
+          .getBytes(Charset.forName(C.UTF8_NAME));
+    }
+    runBenchmark("Regex", new HlsPlaylistParser(), playlists);
+    runBenchmark("Incremental", new IncrementalHlsPlaylistParser(), playlists);
+  }
+
+  private static void runBenchmark(String name, ParsingLoadable.Parser<HlsPlaylist> parser,
+      byte[][] playlists) throws IOException {
+    long initialLoadTimeNs = 0;
+    long reloadTimeNs = 0;
+    for (int i = 0; i < playlists.length; i++) {
+      long startTimeNs = System.nanoTime();
+      HlsMediaPlaylist playlist = (HlsMediaPlaylist) parser.parse(PLAYLIST_URI,
+          new ByteArrayInputStream(playlists[i]));
+      long parseTimeNs = System.nanoTime() - startTimeNs;
+      assertEquals(SEGMENT_COUNT + i, playlist.segments.size());
+      if (i == 0) {
+        initialLoadTimeNs = parseTimeNs;
+      } else if (i > WARMUP_RELOAD_COUNT) {
+        reloadTimeNs += parseTimeNs;
+      }
+    }
+    Log.i(TAG, name + ": initial load " + (initialLoadTimeNs / 1000) + "us, reload "
+        + (reloadTimeNs / RELOAD_COUNT / 1000) + "us");
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link IncrementalHlsPlaylistParser}.
+ */
+public class IncrementalHlsPlaylistParserTest extends TestCase {
+
+  private static final Uri PLAYLIST_URI = Uri.parse("https://example.com/test.m3u8");
+  private static final int SEGMENT_COUNT = 50;
+
+  public void testParseMediaPlaylistMatchesHlsPlaylistParser() throws IOException {
+    String playlistString = "#EXTM3U\n"
+        + "#EXT-X-VERSION:3\n"
+        + "#EXT-X-TARGETDURATION:8\n"
+        + "#EXT-X-MEDIA-SEQUENCE:2679\n"
+        + "#EXT-X-DISCONTINUITY-SEQUENCE:4\n"
+        + "#EXT-X-ALLOW-CACHE:YES\n"
+        + "\n"
+        + "#EXTINF:7.975,\n"
+        + "#EXT-X-BYTERANGE:51370@0\n"
+        + "https://priv.example.com/fileSequence2679.ts\n"
+        + "\n"
+        + "#EXT-X-KEY:METHOD=AES-128,URI=\"https://priv.example.com/key.php?r=2680\",IV=0x1566B\n"
+        + "#EXTINF:7.975,\n"
+        + "#EXT-X-BYTERANGE:51501@2147483648\n"
+        + "https://priv.example.com/fileSequence2680.ts\n"
+        + "\n"
+        + "#EXT-X-KEY:METHOD=NONE\n"
+        + "#EXTINF:7.941,\n"
+        + "#EXT-X-BYTERANGE:51501\n"
+        + "https://priv.example.com/fileSequence2681.ts\n"
+        + "\n"
+        + "#EXT-X-DISCONTINUITY\n"
+        + "#EXT-X-KEY:METHOD=AES-128,URI=\"https://priv.example.com/key.php?r=2682\"\n"
+        + "#EXTINF:7.975,\n"
+        + "#EXT-X-BYTERANGE:51740\n"
+        + "https://priv.example.com/fileSequence2682.ts\n"
+        + "\n"
+        + "#EXTINF:7.975,\n"
+        + "https://priv.example.com/fileSequence2683.ts\n"
+        + "#EXT-X-ENDLIST";
+    HlsMediaPlaylist playlist = parse(new IncrementalHlsPlaylistParser(), playlistString);
+    assertPlaylistsEqual(parse(new HlsPlaylistParser(), playlistString), playlist);
+    assertFalse(playlist.live);
+    assertEquals(7.941, playlist.getSegmentDurationSecs(2));
+  }
+
+  public void testReloadParsesOnlyAppendedSegments() throws IOException {
+    IncrementalHlsPlaylistParser parser = new IncrementalHlsPlaylistParser();
+    HlsMediaPlaylist previousPlaylist = null;
+    // Slide the window far enough to pass discontinuities and to trigger storage compaction.
+    for (int i = 0; i < SEGMENT_COUNT * 3; i += 3) {
+      String playlistString = buildLivePlaylist(i, SEGMENT_COUNT);
+      HlsMediaPlaylist playlist = parse(parser, playlistString);
+      assertPlaylistsEqual(parse(new HlsPlaylistParser(), playlistString), playlist);
+      if (previousPlaylist != null) {
+        // The segments in common with the previous playlist should not have been parsed again.
+        for (int j = 0; j < SEGMENT_COUNT - 3; j++) {
+          assertSame(previousPlaylist.segments.get(j + 3).url, playlist.segments.get(j).url);
+        }
+      }
+      previousPlaylist = playlist;
+    }
+  }
+
+  public void testReloadWithEarlierMediaSequenceMatchesHlsPlaylistParser() throws IOException {
+    IncrementalHlsPlaylistParser parser = new IncrementalHlsPlaylistParser();
+    parse(parser, buildLivePlaylist(100, SEGMENT_COUNT));
+    String playlistString = buildLivePlaylist(0, SEGMENT_COUNT);
+    assertPlaylistsEqual(parse(new HlsPlaylistParser(), playlistString),
+        parse(parser, playlistString));
+  }
+
+  public void testReloadWithChangedSegmentsMatchesHlsPlaylistParser() throws IOException {
+    IncrementalHlsPlaylistParser parser = new IncrementalHlsPlaylistParser();
+    parse(parser, buildLivePlaylist(0, SEGMENT_COUNT));
+    // Simulate a restarted stream, whose segments have the same media sequence numbers but
+    // different urls.
+    String playlistString = buildLivePlaylist(1, SEGMENT_COUNT).replace("segment", "restarted");
+    assertPlaylistsEqual(parse(new HlsPlaylistParser(), playlistString),
+        parse(parser, playlistString));
+    // A shorter playlist must not overwrite the segments of the previous one.
+    HlsMediaPlaylist playlist = parse(parser, playlistString);
+    playlistString = buildLivePlaylist(1, SEGMENT_COUNT - 1);
+    assertPlaylistsEqual(parse(new HlsPlaylistParser(), playlistString),
+        parse(parser, playlistString));
+    parse(parser, buildLivePlaylist(1, SEGMENT_COUNT + 1));
+    assertEquals("restarted" + SEGMENT_COUNT + ".ts",
+        playlist.segments.get(SEGMENT_COUNT - 1).url);
+  }
+
+  public void testReloadWithRemovedKeyMatchesHlsPlaylistParser() throws IOException {
+    IncrementalHlsPlaylistParser parser = new IncrementalHlsPlaylistParser();
+    parse(parser, buildLivePlaylist(0, SEGMENT_COUNT));
+    // Without the key tag, the segments that precede the next key tag are not encrypted.
+    String playlistString = buildLivePlaylist(1, SEGMENT_COUNT)
+        .replaceFirst("#EXT-X-KEY:.*\n", "");
+    assertPlaylistsEqual(parse(new HlsPlaylistParser(), playlistString),
+        parse(parser, playlistString));
+  }
+
+  private static HlsMediaPlaylist parse(HlsPlaylistParser parser, String playlistString)
+      throws IOException {
+    return (HlsMediaPlaylist) parser.parse(PLAYLIST_URI, new ByteArrayInputStream(
+        playlistString.getBytes(Charset.forName(C.UTF8_NAME))));
+  }
+
+  private static HlsMediaPlaylist parse(IncrementalHlsPlaylistParser parser,
+      String playlistString) throws IOException {
+    return (HlsMediaPlaylist) parser.parse(PLAYLIST_URI, new ByteArrayInputStream(
+        playlistString.getBytes(Charset.forName(C.UTF8_NAME))));
+  }
+
+  private static void assertPlaylistsEqual(HlsMediaPlaylist expected, HlsMediaPlaylist actual) {
+    assertEquals(expected.baseUri, actual.baseUri);
+    assertEquals(expected.mediaSequence, actual.mediaSequence);
+    assertEquals(expected.targetDurationSecs, actual.targetDurationSecs);
+    assertEquals(expected.version, actual.version);
+    assertEquals(expected.live, actual.live);
+    assertEquals(expected.durationUs, actual.durationUs);
+    List<HlsMediaPlaylist.Segment> expectedSegments = expected.segments;
+    List<HlsMediaPlaylist.Segment> actualSegments = actual.segments;
+    assertEquals(expectedSegments.size(), actualSegments.size());
+    for (int i = 0; i < expectedSegments.size(); i++) {
+      HlsMediaPlaylist.Segment expectedSegment = expectedSegments.get(i);
+      HlsMediaPlaylist.Segment actualSegment = actualSegments.get(i);
+      assertEquals(expectedSegment.url, actualSegment.url);
+      assertEquals(expectedSegment.durationSecs, actualSegment.durationSecs);
+      assertEquals(expectedSegment.discontinuitySequenceNumber,
+          actualSegment.discontinuitySequenceNumber);
+      assertEquals(expectedSegment.startTimeUs, actualSegment.startTimeUs);
+      assertEquals(expectedSegment.isEncrypted, actualSegment.isEncrypted);
+      assertEquals(expectedSegment.encryptionKeyUri, actualSegment.encryptionKeyUri);
+      assertEquals(expectedSegment.encryptionIV, actualSegment.encryptionIV);
+      assertEquals(expectedSegment.byterangeOffset, actualSegment.byterangeOffset);
+      assertEquals(expectedSegment.byterangeLength, actualSegment.byterangeLength);
+    }
+  }
+
+  /**
+   * Builds a live media playlist with encryption key rotations, byte ranges and discontinuities.
+   *
+   * @param mediaSequence The media sequence number of the first segment.
+   * @param segmentCount The number of segments.
+   * @return The playlist.
+   */
+  /* package */ static String buildLivePlaylist(int mediaSequence, int segmentCount) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("#EXTM3U\n")
+        .append("#EXT-X-VERSION:4\n")
+        .append("#EXT-X-TARGETDURATION:5\n")
+        .append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append('\n');
+    for (int i = mediaSequence; i < mediaSequence + segmentCount; i++) {
+      if (i % 7 == 0) {
+        builder.append("#EXT-X-DISCONTINUITY\n");
+      }
+      // The key and byte range offset are specified for the first segment, as the server would if
+      // the tags that specified them had been removed from the sliding window.
+      if (i % 5 == 0 || i == mediaSequence) {
+        builder.append("#EXT-X-KEY:METHOD=AES-128,URI=\"https://example.com/key?n=")
+            .append(i / 5).append("\"\n");
+      }
+      builder.append("#EXTINF:").append(4 + (i % 3) * 0.333).append(",\n");
+      if (i % 2 == 0) {
+        builder.append("#EXT-X-BYTERANGE:1000@0\n");
+      } else if (i == mediaSequence) {
+        builder.append("#EXT-X-BYTERANGE:2000@1000\n");
+      } else {
+        builder.append("#EXT-X-BYTERANGE:2000\n");
+      }
+      builder.append("segment").append(i).append(".ts\n");
+    }
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.smoothstreaming.manifest;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.StreamElement;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link IncrementalSsManifestParser}.
+ */
+public class IncrementalSsManifestParserTest extends TestCase {
+
+  private static final Uri MANIFEST_URI = Uri.parse("https://example.com/live.isml/Manifest");
+  private static final int CHUNK_COUNT = 100;
+  private static final long CHUNK_DURATION = 20000000;
+
+  public void testSlidingWindowSharesChunkStorage() throws IOException {
+    IncrementalSsManifestParser parser = new IncrementalSsManifestParser();
+    SsManifest manifest = parse(parser, buildLiveManifest(0, CHUNK_COUNT, 0));
+    SsManifest refreshedManifest = parse(parser, buildLiveManifest(1, CHUNK_COUNT, 0));
+
+    for (int i = 0; i < manifest.streamElements.length; i++) {
+      StreamElement element = manifest.streamElements[i];
+      StreamElement refreshedElement = refreshedManifest.streamElements[i];
+      assertSame(element.chunkStorage, refreshedElement.chunkStorage);
+      assertEquals(element.chunkStorageIndex + 1, refreshedElement.chunkStorageIndex);
+      assertEquals(CHUNK_COUNT + 1, element.chunkStorage.size());
+      assertEquals(1, refreshedElement.getChunkIndexOffset(element));
+      // The appended chunk is not visible through the previous element.
+      assertEquals(CHUNK_COUNT, element.chunkCount);
+      assertEquals(CHUNK_COUNT * CHUNK_DURATION / 10, element.getStartTimeUs(CHUNK_COUNT - 1)
+          + element.getChunkDurationUs(CHUNK_COUNT - 1));
+    }
+
+    // The result should be equivalent to a full parse.
+    SsManifest fullManifest = parse(new SsManifestParser(), buildLiveManifest(1, CHUNK_COUNT, 0));
+    for (int i = 0; i < fullManifest.streamElements.length; i++) {
+      assertEquivalent(fullManifest.streamElements[i], refreshedManifest.streamElements[i]);
+    }
+  }
+
+  public void testFullParsesDoNotShareChunkIndices() throws IOException {
+    SsManifestParser parser = new SsManifestParser();
+    SsManifest manifest = parse(parser, buildLiveManifest(0, CHUNK_COUNT, 0));
+    SsManifest refreshedManifest = parse(parser, buildLiveManifest(1, CHUNK_COUNT, 0));
+
+    assertEquals(C.INDEX_UNSET,
+        refreshedManifest.streamElements[0].getChunkIndexOffset(manifest.streamElements[0]));
+  }
+
+  public void testDivergingChunksAreCopied() throws IOException {
+    IncrementalSsManifestParser parser = new IncrementalSsManifestParser();
+    SsManifest manifest = parse(parser, buildLiveManifest(0, CHUNK_COUNT, 0));
+    // Shift the start times of the chunks after the 50th.
+    SsManifest refreshedManifest = parse(parser, buildLiveManifest(2, CHUNK_COUNT, 50));
+
+    StreamElement element = manifest.streamElements[0];
+    StreamElement refreshedElement = refreshedManifest.streamElements[0];
+    assertNotSame(element.chunkStorage, refreshedElement.chunkStorage);
+    assertEquals(2, refreshedElement.getChunkIndexOffset(element));
+    // The previous element is unaffected.
+    assertEquals(CHUNK_COUNT, element.chunkCount);
+    assertEquals(CHUNK_COUNT, element.chunkStorage.size());
+    assertEquals((CHUNK_COUNT - 1) * CHUNK_DURATION / 10, element.getStartTimeUs(CHUNK_COUNT - 1));
+
+    SsManifest fullManifest = parse(new SsManifestParser(), buildLiveManifest(2, CHUNK_COUNT, 50));
+    assertEquivalent(fullManifest.streamElements[0], refreshedElement);
+  }
+
+  public void testTrimmedChunksAreCompacted() throws IOException {
+    IncrementalSsManifestParser parser = new IncrementalSsManifestParser();
+    SsManifest manifest = parse(parser, buildLiveManifest(0, CHUNK_COUNT, 0));
+    StreamElement firstElement = manifest.streamElements[0];
+    for (int i = 1; i <= 10 * CHUNK_COUNT; i++) {
+      manifest = parse(parser, buildLiveManifest(i, CHUNK_COUNT, 0));
+      StreamElement element = manifest.streamElements[0];
+      assertTrue(element.chunkStorage.size() <= 2 * CHUNK_COUNT + 1);
+      assertEquals(i, element.getChunkIndexOffset(firstElement));
+    }
+    SsManifest fullManifest = parse(new SsManifestParser(),
+        buildLiveManifest(10 * CHUNK_COUNT, CHUNK_COUNT, 0));
+    assertEquivalent(fullManifest.streamElements[0], manifest.streamElements[0]);
+  }
+
+  private static void assertEquivalent(StreamElement expected, StreamElement actual) {
+    assertEquals(expected.chunkCount, actual.chunkCount);
+    for (int i = 0; i < expected.chunkCount; i++) {
+      assertEquals(expected.getStartTimeUs(i), actual.getStartTimeUs(i));
+      assertEquals(expected.getChunkDurationUs(i), actual.getChunkDurationUs(i));
+      assertEquals(expected.buildRequestUri(0, i), actual.buildRequestUri(0, i));
+    }
+    assertEquals(expected.getChunkIndex(expected.getStartTimeUs(expected.chunkCount / 2) + 1),
+        actual.getChunkIndex(expected.getStartTimeUs(expected.chunkCount / 2) + 1));
+  }
+
+  private static SsManifest parse(SsManifestParser parser, String manifestString)
+      throws IOException {
+    return parser.parse(MANIFEST_URI, new ByteArrayInputStream(manifestString.getBytes()));
+  }
+
+  /**
+   * Builds a live manifest with a video and an audio stream element, each with two second chunks.
+   *
+   * @param firstChunkIndex The index of the first chunk in the stream elements.
+   * @param chunkCount The number of chunks in the stream elements.
+   * @param shiftedChunkCount The number of chunks from the end of the stream elements whose start
+   *     times are shifted by one unit.
+   * @return The manifest.
+   */
+  private static String buildLiveManifest(int firstChunkIndex, int chunkCount,
+      int shiftedChunkCount) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+        .append("<SmoothStreamingMedia MajorVersion=\"2\" MinorVersion=\"2\" Duration=\"0\"")
+        .append(" TimeScale=\"10000000\" IsLive=\"TRUE\" DVRWindowLength=\"2000000000\">\n");
+    builder.append("<StreamIndex Type=\"video\" Name=\"video\" Url=\"")
+        .append("QualityLevels({bitrate})/Fragments(video={start time})\">\n")
+        .append("<QualityLevel Index=\"0\" Bitrate=\"1000000\" FourCC=\"H264\"")
+        .append(" MaxWidth=\"1280\" MaxHeight=\"720\" CodecPrivateData=\"00000001674D401F\"/>\n");
+    appendChunks(builder, firstChunkIndex, chunkCount, shiftedChunkCount);
+    builder.append("</StreamIndex>\n");
+    builder.append("<StreamIndex Type=\"audio\" Name=\"audio\" Url=\"")
+        .append("QualityLevels({bitrate})/Fragments(audio={start time})\">\n")
+        .append("<QualityLevel Index=\"0\" Bitrate=\"128000\" FourCC=\"AACL\"")
+        .append(" SamplingRate=\"48000\" Channels=\"2\" CodecPrivateData=\"1190\"/>\n");
+    appendChunks(builder, firstChunkIndex, chunkCount, shiftedChunkCount);
+    builder.append("</StreamIndex>\n");
+    builder.append("</SmoothStreamingMedia>\n");
+    return builder.toString();
+  }
+
+  private static void appendChunks(StringBuilder builder, int firstChunkIndex, int chunkCount,
+      int shiftedChunkCount) {
+    for (int i = 0; i < chunkCount; i++) {
+      long startTime = (firstChunkIndex + i) * CHUNK_DURATION;
+      if (i >= chunkCount - shiftedChunkCount) {
+        startTime++;
+      }
+      builder.append("<c t=\"").append(startTime).append("\" d=\"").append(CHUNK_DURATION)
+          .append("\"/>\n");
+    }
+  }
+
+}
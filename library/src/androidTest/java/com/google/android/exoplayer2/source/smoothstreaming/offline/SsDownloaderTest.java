@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.smoothstreaming.offline;
+
+import android.test.InstrumentationTestCase;
+import com.google.android.exoplayer2.testutil.FakeHttpServer;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link SsDownloader}.
+ */
+public class SsDownloaderTest extends InstrumentationTestCase {
+
+  private static final String BASE_PATH = "/ss";
+  private static final String MANIFEST_PATH = BASE_PATH + "/Manifest";
+  private static final String MANIFEST =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<SmoothStreamingMedia MajorVersion=\"2\" MinorVersion=\"0\" Duration=\"60000000\" "
+      + "TimeScale=\"10000000\">\n"
+      + "  <StreamIndex Type=\"video\" Chunks=\"3\" QualityLevels=\"2\" "
+      + "Url=\"QualityLevels({bitrate})/Fragments(video={start time})\" Name=\"video\">\n"
+      + "    <QualityLevel Index=\"0\" Bitrate=\"100000\" FourCC=\"H264\" MaxWidth=\"320\" "
+      + "MaxHeight=\"180\" CodecPrivateData=\"00000001674D40200000000168EE3C80\"/>\n"
+      + "    <QualityLevel Index=\"1\" Bitrate=\"400000\" FourCC=\"H264\" MaxWidth=\"640\" "
+      + "MaxHeight=\"360\" CodecPrivateData=\"00000001674D40200000000168EE3C80\"/>\n"
+      + "    <c t=\"0\" d=\"20000000\" r=\"3\"/>\n"
+      + "  </StreamIndex>\n"
+      + "  <StreamIndex Type=\"audio\" Chunks=\"3\" QualityLevels=\"1\" "
+      + "Url=\"QualityLevels({bitrate})/Fragments(audio={start time})\" Name=\"audio\">\n"
+      + "    <QualityLevel Index=\"0\" Bitrate=\"64000\" FourCC=\"AACL\" SamplingRate=\"44100\" "
+      + "Channels=\"2\" CodecPrivateData=\"1210\"/>\n"
+      + "    <c t=\"0\" d=\"20000000\" r=\"3\"/>\n"
+      + "  </StreamIndex>\n"
+      + "</SmoothStreamingMedia>\n";
+  private static final int[] VIDEO_BITRATES = new int[] {100000, 400000};
+  private static final int AUDIO_BITRATE = 64000;
+  private static final int CHUNK_COUNT = 3;
+  private static final long CHUNK_DURATION = 20000000;
+  private static final int SEGMENT_LENGTH = 30000;
+
+  private FakeHttpServer server;
+  private File cacheDir;
+  private SimpleCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    cacheDir = File.createTempFile("SsDownloaderTest", null);
+    assertTrue(cacheDir.delete());
+    assertTrue(cacheDir.mkdir());
+    cache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+
+    server = new FakeHttpServer();
+    server.setResource(MANIFEST_PATH, MANIFEST.getBytes("UTF-8"));
+    Random random = new Random(0);
+    for (int i = 0; i < CHUNK_COUNT; i++) {
+      for (int bitrate : VIDEO_BITRATES) {
+        server.setResource(getChunkPath("video", bitrate, i),
+            TestUtil.buildTestData(SEGMENT_LENGTH, random));
+      }
+      server.setResource(getChunkPath("audio", AUDIO_BITRATE, i),
+          TestUtil.buildTestData(SEGMENT_LENGTH, random));
+    }
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    TestUtil.recursiveDelete(cacheDir);
+  }
+
+  public void testDownload() throws Exception {
+    SsDownloader downloader = createDownloader(MANIFEST_PATH);
+    downloader.download(null);
+
+    assertEquals(1, server.getRequestCount(MANIFEST_PATH));
+    for (int i = 0; i < CHUNK_COUNT; i++) {
+      for (int bitrate : VIDEO_BITRATES) {
+        String path = getChunkPath("video", bitrate, i);
+        assertEquals(1, server.getRequestCount(path));
+        assertTrue(cache.isCached(server.getUri(path).toString(), 0, SEGMENT_LENGTH));
+      }
+      assertEquals(1, server.getRequestCount(getChunkPath("audio", AUDIO_BITRATE, i)));
+    }
+    int totalSegments = (VIDEO_BITRATES.length + 1) * CHUNK_COUNT;
+    assertEquals(totalSegments, downloader.getTotalSegments());
+    assertEquals(totalSegments * SEGMENT_LENGTH, downloader.getDownloadedBytes());
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testManifestPathIsAppended() throws Exception {
+    SsDownloader downloader = createDownloader(BASE_PATH);
+    downloader.download(null);
+
+    assertEquals(1, server.getRequestCount(MANIFEST_PATH));
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testDurationLimit() throws Exception {
+    SsDownloader downloader = createDownloader(MANIFEST_PATH);
+    downloader.setDurationLimitUs(4000000);
+    downloader.download(null);
+
+    for (int bitrate : VIDEO_BITRATES) {
+      assertEquals(1, server.getRequestCount(getChunkPath("video", bitrate, 0)));
+      assertEquals(1, server.getRequestCount(getChunkPath("video", bitrate, 1)));
+      assertEquals(0, server.getRequestCount(getChunkPath("video", bitrate, 2)));
+    }
+  }
+
+  public void testResumeDownloadsOnlyMissingData() throws Exception {
+    SsDownloader downloader = createDownloader(MANIFEST_PATH);
+    downloader.setDurationLimitUs(4000000);
+    downloader.download(null);
+    int requestCount = server.getTotalRequestCount();
+
+    downloader = createDownloader(MANIFEST_PATH);
+    downloader.download(null);
+
+    // Only the last chunk of each track is requested. The manifest is read from the cache.
+    assertEquals(requestCount + VIDEO_BITRATES.length + 1, server.getTotalRequestCount());
+    assertEquals(1, server.getRequestCount(MANIFEST_PATH));
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testFailedDownloadCanBeResumed() throws Exception {
+    String missingPath = getChunkPath("audio", AUDIO_BITRATE, CHUNK_COUNT - 1);
+    byte[] missingData = TestUtil.buildTestData(SEGMENT_LENGTH);
+    server.removeResource(missingPath);
+    SsDownloader downloader = createDownloader(MANIFEST_PATH);
+    try {
+      downloader.download(null);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(downloader.getDownloadPercentage() < 100f);
+
+    server.setResource(missingPath, missingData);
+    downloader.download(null);
+    assertEquals(100f, downloader.getDownloadPercentage());
+    assertEquals(SEGMENT_LENGTH, server.getServedBytes(missingPath));
+  }
+
+  public void testInterruptedDownloadCanBeResumed() throws Exception {
+    SsDownloader downloader = createDownloader(MANIFEST_PATH);
+    Thread.currentThread().interrupt();
+    try {
+      downloader.download(null);
+      fail();
+    } catch (InterruptedException e) {
+      // Expected.
+    } finally {
+      // Clear the interrupted status if it wasn't consumed.
+      Thread.interrupted();
+    }
+
+    downloader.download(null);
+    assertEquals(100f, downloader.getDownloadPercentage());
+  }
+
+  public void testRemove() throws Exception {
+    SsDownloader downloader = createDownloader(MANIFEST_PATH);
+    downloader.download(null);
+    downloader.remove();
+
+    assertTrue(cache.getKeys().isEmpty());
+    assertEquals(0, cache.getCacheSpace());
+  }
+
+  private SsDownloader createDownloader(String manifestPath) {
+    return new SsDownloader(server.getUri(manifestPath), cache,
+        new DefaultHttpDataSourceFactory("ExoPlayerTest"), 2);
+  }
+
+  private static String getChunkPath(String type, int bitrate, int chunkIndex) {
+    return BASE_PATH + "/QualityLevels(" + bitrate + ")/Fragments(" + type + "="
+        + (chunkIndex * CHUNK_DURATION) + ")";
+  }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.MimeTypes;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link BufferBasedAdaptiveTrackSelection}.
+ */
+public final class BufferBasedAdaptiveTrackSelectionTest extends TestCase {
+
+  private static final int[] LADDER_BITRATES = new int[] {
+      4000000, 2500000, 1500000, 1000000, 600000, 300000};
+  private static final int[] TRACKS = new int[] {0, 1, 2, 3, 4, 5};
+  private static final TrackGroup TRACK_GROUP = createTrackGroup(LADDER_BITRATES);
+
+  private static final int CHUNK_DURATION_MS = 4000;
+  private static final int MAX_BUFFER_MS = 30000;
+  private static final int CHUNK_COUNT = 300;
+
+  private FakeBandwidthMeter bandwidthMeter;
+  private FakeClock clock;
+
+  @Override
+  public void setUp() {
+    bandwidthMeter = new FakeBandwidthMeter();
+    clock = new FakeClock();
+  }
+
+  public void testInitialSelectionUsesMaxInitialBitrate() {
+    BufferBasedAdaptiveTrackSelection selection = createTrackSelection(bandwidthMeter, clock);
+    assertEquals(600000, selection.getSelectedFormat().bitrate);
+    assertEquals(C.SELECTION_REASON_INITIAL, selection.getSelectionReason());
+  }
+
+  public void testLowBufferOnlySwitchesDown() {
+    BufferBasedAdaptiveTrackSelection selection = createTrackSelection(bandwidthMeter, clock);
+    bandwidthMeter.bitrateEstimate = 2500000;
+    selection.updateSelectedTrack(0);
+    assertEquals(600000, selection.getSelectedFormat().bitrate);
+    assertEquals(C.SELECTION_REASON_INITIAL, selection.getSelectionReason());
+    bandwidthMeter.bitrateEstimate = 500000;
+    selection.updateSelectedTrack(0);
+    assertEquals(300000, selection.getSelectedFormat().bitrate);
+    assertEquals(C.SELECTION_REASON_ADAPTIVE, selection.getSelectionReason());
+  }
+
+  public void testBufferLevelSelectsQuality() {
+    BufferBasedAdaptiveTrackSelection selection = createTrackSelection(bandwidthMeter, clock);
+    bandwidthMeter.bitrateEstimate = 100000000;
+    selection.updateSelectedTrack(10000000);
+    assertEquals(300000, selection.getSelectedFormat().bitrate);
+    selection.updateSelectedTrack(20000000);
+    int midBufferBitrate = selection.getSelectedFormat().bitrate;
+    assertTrue(midBufferBitrate > 300000 && midBufferBitrate < 4000000);
+    selection.updateSelectedTrack(30000000);
+    assertEquals(4000000, selection.getSelectedFormat().bitrate);
+  }
+
+  public void testSwitchUpIsLimitedByBandwidth() {
+    BufferBasedAdaptiveTrackSelection selection = createTrackSelection(bandwidthMeter, clock);
+    bandwidthMeter.bitrateEstimate = 1500000;
+    selection.updateSelectedTrack(30000000);
+    // The buffer level alone would select the highest quality.
+    assertEquals(1000000, selection.getSelectedFormat().bitrate);
+  }
+
+  public void testStepsDownWhenNextChunkWouldDrainBuffer() {
+    BufferBasedAdaptiveTrackSelection selection = createTrackSelection(bandwidthMeter, clock);
+    bandwidthMeter.bitrateEstimate = 100000000;
+    selection.updateSelectedTrack(30000000);
+    assertEquals(4000000, selection.getSelectedFormat().bitrate);
+    // A 4s chunk at 4Mbps takes over 40s to load at 375kbps, but 4s chunks at up to 2.5Mbps load
+    // within the 28s that are buffered.
+    bandwidthMeter.bitrateEstimate = 500000;
+    selection.setChunkDurationUs(4000000);
+    selection.updateSelectedTrack(28000000);
+    assertEquals(2500000, selection.getSelectedFormat().bitrate);
+    // Longer chunks take longer to load, so a lower quality is required.
+    selection.setChunkDurationUs(10000000);
+    selection.updateSelectedTrack(28000000);
+    assertEquals(1000000, selection.getSelectedFormat().bitrate);
+  }
+
+  public void testSimulatedStableTrace() {
+    TrackSelectionSimulator simulator = new TrackSelectionSimulator(new long[] {60000},
+        new long[] {6000000}, CHUNK_DURATION_MS, MAX_BUFFER_MS);
+    TrackSelectionSimulator.Result result =
+        simulator.simulate(createTrackSelection(simulator, simulator), CHUNK_COUNT);
+    assertEquals(0, result.rebufferCount);
+    assertTrue(result.toString(), result.averageBitrate > 3500000);
+  }
+
+  public void testSimulatedOscillatingTraceSwitchesLessThanBandwidthBasedSelection() {
+    // The bandwidth alternates between 2.5Mbps and 500kbps every 5 seconds.
+    TrackSelectionSimulator simulator = new TrackSelectionSimulator(new long[] {5000, 5000},
+        new long[] {2500000, 500000}, CHUNK_DURATION_MS, MAX_BUFFER_MS);
+    TrackSelectionSimulator.Result bufferBasedResult =
+        simulator.simulate(createTrackSelection(simulator, simulator), CHUNK_COUNT);
+    TrackSelectionSimulator.Result bandwidthBasedResult = simulator.simulate(
+        new AdaptiveVideoTrackSelection(TRACK_GROUP, TRACKS, simulator,
+            AdaptiveVideoTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+            AdaptiveVideoTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+            AdaptiveVideoTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+            AdaptiveVideoTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+            AdaptiveVideoTrackSelection.DEFAULT_BANDWIDTH_FRACTION, simulator), CHUNK_COUNT);
+    String message = "buffer based: " + bufferBasedResult + "; bandwidth based: "
+        + bandwidthBasedResult;
+    assertTrue(message, bufferBasedResult.rebufferRatio <= bandwidthBasedResult.rebufferRatio);
+    assertTrue(message, bufferBasedResult.switchCount < bandwidthBasedResult.switchCount / 2);
+    assertTrue(message, bufferBasedResult.averageBitrate >= bandwidthBasedResult.averageBitrate);
+  }
+
+  private static BufferBasedAdaptiveTrackSelection createTrackSelection(
+      BandwidthMeter bandwidthMeter, Clock clock) {
+    return new BufferBasedAdaptiveTrackSelection(TRACK_GROUP, TRACKS, bandwidthMeter,
+        BufferBasedAdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+        BufferBasedAdaptiveTrackSelection.DEFAULT_MIN_BUFFER_MS, MAX_BUFFER_MS, CHUNK_DURATION_MS,
+        BufferBasedAdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION, clock);
+  }
+
+  private static TrackGroup createTrackGroup(int[] bitrates) {
+    Format[] formats = new Format[bitrates.length];
+    for (int i = 0; i < bitrates.length; i++) {
+      formats[i] = Format.createVideoSampleFormat(Integer.toString(i), MimeTypes.VIDEO_H264,
+          null, bitrates[i], Format.NO_VALUE, Format.NO_VALUE, Format.NO_VALUE, Format.NO_VALUE,
+          null, null);
+    }
+    return new TrackGroup(formats);
+  }
+
+  private static final class FakeBandwidthMeter implements BandwidthMeter {
+
+    public long bitrateEstimate = NO_ESTIMATE;
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+  }
+
+  private static final class FakeClock implements Clock {
+
+    @Override
+    public long elapsedRealtime() {
+      return 0;
+    }
+
+  }
+
+}
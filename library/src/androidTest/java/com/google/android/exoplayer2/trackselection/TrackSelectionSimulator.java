@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.SlidingPercentile;
+
+/**
+ * Offline simulator that replays a bandwidth trace against a {@link TrackSelection}, loading
+ * fixed duration chunks one at a time as a chunk source would.
+ * <p>
+ * The simulator also acts as the {@link BandwidthMeter} for the selection under test, estimating
+ * bandwidth from the simulated downloads in the same way as
+ * {@link com.google.android.exoplayer2.upstream.DefaultBandwidthMeter}, and as its {@link Clock},
+ * reporting the simulated time. Playback starts when the first chunk has loaded, and resumes as
+ * soon as a chunk loads after a rebuffer.
+ */
+/* package */ final class TrackSelectionSimulator implements BandwidthMeter, Clock {
+
+  /**
+   * The outcome of a simulation.
+   */
+  public static final class Result {
+
+    /**
+     * The mean bitrate of the loaded chunks, in bits per second.
+     */
+    public final long averageBitrate;
+    /**
+     * The fraction of the session spent rebuffering after playback started.
+     */
+    public final double rebufferRatio;
+    /**
+     * The number of times playback rebuffered.
+     */
+    public final int rebufferCount;
+    /**
+     * The number of times the selected format changed between consecutive chunks.
+     */
+    public final int switchCount;
+    /**
+     * The time taken to load the first chunk, in milliseconds.
+     */
+    public final long startupDelayMs;
+
+    private Result(long averageBitrate, double rebufferRatio, int rebufferCount,
+        int switchCount, long startupDelayMs) {
+      this.averageBitrate = averageBitrate;
+      this.rebufferRatio = rebufferRatio;
+      this.rebufferCount = rebufferCount;
+      this.switchCount = switchCount;
+      this.startupDelayMs = startupDelayMs;
+    }
+
+    @Override
+    public String toString() {
+      return "averageBitrate=" + averageBitrate + ", rebufferRatio=" + rebufferRatio
+          + ", rebufferCount=" + rebufferCount + ", switchCount=" + switchCount
+          + ", startupDelayMs=" + startupDelayMs;
+    }
+
+  }
+
+  private static final int MAX_WEIGHT = 2000;
+  private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
+  private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+
+  private final long[] traceDurationsUs;
+  private final long[] traceBitrates;
+  private final long traceDurationUs;
+  private final long chunkDurationUs;
+  private final long maxBufferUs;
+
+  private long timeUs;
+  private SlidingPercentile slidingPercentile;
+  private long totalElapsedTimeMs;
+  private long totalBytesTransferred;
+  private long bitrateEstimate;
+
+  /**
+   * @param traceDurationsMs The durations of the segments of the bandwidth trace, in milliseconds.
+   *     The trace is repeated if the simulation outlasts it.
+   * @param traceBitrates The available bandwidth during each segment of the trace, in bits per
+   *     second. At least one segment must have a non-zero bandwidth.
+   * @param chunkDurationMs The duration of each chunk, in milliseconds.
+   * @param maxBufferMs The maximum duration of media to buffer, in milliseconds. Loading pauses
+   *     whilst there is insufficient space in the buffer for another chunk.
+   */
+  public TrackSelectionSimulator(long[] traceDurationsMs, long[] traceBitrates,
+      int chunkDurationMs, int maxBufferMs) {
+    Assertions.checkArgument(traceDurationsMs.length == traceBitrates.length);
+    Assertions.checkArgument(maxBufferMs >= chunkDurationMs);
+    this.traceDurationsUs = new long[traceDurationsMs.length];
+    this.traceBitrates = traceBitrates;
+    long traceDurationUs = 0;
+    boolean hasBandwidth = false;
+    for (int i = 0; i < traceDurationsMs.length; i++) {
+      traceDurationsUs[i] = traceDurationsMs[i] * 1000;
+      traceDurationUs += traceDurationsUs[i];
+      hasBandwidth |= traceDurationsMs[i] > 0 && traceBitrates[i] > 0;
+    }
+    Assertions.checkArgument(hasBandwidth);
+    this.traceDurationUs = traceDurationUs;
+    this.chunkDurationUs = chunkDurationMs * 1000L;
+    this.maxBufferUs = maxBufferMs * 1000L;
+    resetEstimate();
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    return bitrateEstimate;
+  }
+
+  @Override
+  public long elapsedRealtime() {
+    return timeUs / 1000;
+  }
+
+  /**
+   * Loads and plays {@code chunkCount} chunks using the given selection, which should have been
+   * created with this simulator as its {@link BandwidthMeter} and {@link Clock}. The bandwidth
+   * estimate and time are reset on completion, so that the simulator can be reused for a new
+   * selection.
+   *
+   * @param trackSelection The selection under test.
+   * @param chunkCount The number of chunks to load.
+   * @return The {@link Result} of the simulation.
+   */
+  public Result simulate(TrackSelection trackSelection, int chunkCount) {
+    timeUs = 0;
+    long bufferedDurationUs = 0;
+    long rebufferDurationUs = 0;
+    long startupTimeUs = C.TIME_UNSET;
+    long bitrateSum = 0;
+    int rebufferCount = 0;
+    int switchCount = 0;
+    Format previousFormat = null;
+    for (int i = 0; i < chunkCount; i++) {
+      if (bufferedDurationUs > maxBufferUs - chunkDurationUs) {
+        // Wait for playback to make space for the next chunk.
+        long waitDurationUs = bufferedDurationUs - (maxBufferUs - chunkDurationUs);
+        timeUs += waitDurationUs;
+        bufferedDurationUs -= waitDurationUs;
+      }
+      if (previousFormat != null && trackSelection instanceof TrackSelection.ChunkDurationAware) {
+        ((TrackSelection.ChunkDurationAware) trackSelection).setChunkDurationUs(chunkDurationUs);
+      }
+      trackSelection.updateSelectedTrack(bufferedDurationUs);
+      Format format = trackSelection.getSelectedFormat();
+      if (previousFormat != null && format != previousFormat) {
+        switchCount++;
+      }
+      previousFormat = format;
+      bitrateSum += format.bitrate;
+
+      long bytes = format.bitrate * chunkDurationUs / (8 * C.MICROS_PER_SECOND);
+      long downloadDurationUs = getDownloadDurationUs(bytes * 8, timeUs);
+      timeUs += downloadDurationUs;
+      onChunkLoaded(bytes, downloadDurationUs);
+      if (startupTimeUs == C.TIME_UNSET) {
+        startupTimeUs = timeUs;
+      } else if (downloadDurationUs > bufferedDurationUs) {
+        rebufferDurationUs += downloadDurationUs - bufferedDurationUs;
+        rebufferCount++;
+        bufferedDurationUs = 0;
+      } else {
+        bufferedDurationUs -= downloadDurationUs;
+      }
+      bufferedDurationUs += chunkDurationUs;
+    }
+    resetEstimate();
+    timeUs = 0;
+    long playbackDurationUs = chunkCount * chunkDurationUs;
+    return new Result(chunkCount == 0 ? 0 : bitrateSum / chunkCount,
+        (double) rebufferDurationUs / (playbackDurationUs + rebufferDurationUs), rebufferCount,
+        switchCount, startupTimeUs == C.TIME_UNSET ? 0 : startupTimeUs / 1000);
+  }
+
+  /**
+   * Returns the time taken to download {@code bits} starting at {@code startTimeUs}.
+   */
+  private long getDownloadDurationUs(long bits, long startTimeUs) {
+    double remainingBits = bits;
+    long timeUs = startTimeUs;
+    while (remainingBits > 0) {
+      // Find the segment of the trace containing timeUs.
+      long segmentTimeUs = timeUs % traceDurationUs;
+      int segmentIndex = 0;
+      while (segmentTimeUs >= traceDurationsUs[segmentIndex]) {
+        segmentTimeUs -= traceDurationsUs[segmentIndex];
+        segmentIndex++;
+      }
+      long segmentRemainingUs = traceDurationsUs[segmentIndex] - segmentTimeUs;
+      long bitrate = traceBitrates[segmentIndex];
+      double segmentBits = (double) bitrate * segmentRemainingUs / C.MICROS_PER_SECOND;
+      if (segmentBits >= remainingBits) {
+        timeUs += (long) Math.ceil(remainingBits * C.MICROS_PER_SECOND / bitrate);
+        remainingBits = 0;
+      } else {
+        timeUs += segmentRemainingUs;
+        remainingBits -= segmentBits;
+      }
+    }
+    return timeUs - startTimeUs;
+  }
+
+  private void onChunkLoaded(long bytes, long durationUs) {
+    int elapsedMs = (int) (durationUs / 1000);
+    totalElapsedTimeMs += elapsedMs;
+    totalBytesTransferred += bytes;
+    if (elapsedMs > 0) {
+      float bitsPerSecond = (bytes * 8000) / elapsedMs;
+      slidingPercentile.addSample((int) Math.sqrt(bytes), bitsPerSecond);
+      if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
+          || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
+        float bitrateEstimateFloat = slidingPercentile.getPercentile(0.5f);
+        bitrateEstimate = Float.isNaN(bitrateEstimateFloat) ? NO_ESTIMATE
+            : (long) bitrateEstimateFloat;
+      }
+    }
+  }
+
+  private void resetEstimate() {
+    slidingPercentile = new SlidingPercentile(MAX_WEIGHT);
+    totalElapsedTimeMs = 0;
+    totalBytesTransferred = 0;
+    bitrateEstimate = NO_ESTIMATE;
+  }
+
+}
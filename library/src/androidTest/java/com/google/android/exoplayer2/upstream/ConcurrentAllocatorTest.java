@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ConcurrentAllocator}.
+ */
+public class ConcurrentAllocatorTest extends TestCase {
+
+  private static final int ALLOCATION_SIZE = 1024;
+
+  public void testAllocateAndRelease() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, 3, 2);
+    Allocation allocation1 = allocator.allocate();
+    Allocation allocation2 = allocator.allocate();
+    assertEquals(ALLOCATION_SIZE, allocation1.data.length);
+    assertEquals(2 * ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+    allocator.release(allocation1);
+    assertEquals(ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+    // The most recently released allocation should be reused.
+    assertSame(allocation1, allocator.allocate());
+    allocator.release(new Allocation[] {allocation1, allocation2});
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  public void testSizeClasses() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, 3, 2);
+    assertEquals(ALLOCATION_SIZE, allocator.allocate(ALLOCATION_SIZE).data.length);
+    assertEquals(ALLOCATION_SIZE, allocator.allocate(ALLOCATION_SIZE / 2 + 1).data.length);
+    assertEquals(ALLOCATION_SIZE / 2, allocator.allocate(ALLOCATION_SIZE / 2).data.length);
+    assertEquals(ALLOCATION_SIZE / 4, allocator.allocate(1).data.length);
+    assertEquals(ALLOCATION_SIZE * 2 + ALLOCATION_SIZE / 2 + ALLOCATION_SIZE / 4,
+        allocator.getTotalBytesAllocated());
+    Allocation small = allocator.allocate(1);
+    allocator.release(small);
+    // Size classes are pooled separately.
+    assertNotSame(small, allocator.allocate());
+    assertSame(small, allocator.allocate(1));
+  }
+
+  public void testReleaseForeignAllocationFails() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, 2, 2);
+    try {
+      allocator.release(new Allocation(new byte[ALLOCATION_SIZE - 1], 0));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  public void testTrim() {
+    ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, 1, 2);
+    allocator.setTargetBufferSize(3 * ALLOCATION_SIZE);
+    Allocation[] allocations = new Allocation[8];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    allocator.release(allocations);
+    allocator.trim();
+    assertEquals(3 * ALLOCATION_SIZE, allocator.getTotalBytesPooled());
+    // Holding allocations reduces the number that should be pooled.
+    Allocation allocation = allocator.allocate();
+    allocator.trim();
+    assertEquals(2 * ALLOCATION_SIZE, allocator.getTotalBytesPooled());
+    allocator.release(allocation);
+    allocator.setTargetBufferSize(0);
+    assertEquals(0, allocator.getTotalBytesPooled());
+  }
+
+  public void testConcurrentProducerConsumer() throws InterruptedException {
+    final ConcurrentAllocator allocator = new ConcurrentAllocator(ALLOCATION_SIZE, 2, 4);
+    final BlockingQueue<Allocation> queue = new ArrayBlockingQueue<>(64);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final int allocationCount = 100000;
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < allocationCount; i++) {
+            Allocation allocation = allocator.allocate(i % 2 == 0 ? ALLOCATION_SIZE : 1);
+            // Writing a marker allows the consumer to detect allocations handed out twice.
+            allocation.data[0] = (byte) i;
+            queue.put(allocation);
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    };
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < allocationCount; i++) {
+            Allocation allocation = queue.take();
+            assertEquals((byte) i, allocation.data[0]);
+            allocator.release(allocation);
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    };
+    producer.start();
+    consumer.start();
+    producer.join();
+    consumer.join();
+    assertNull(error.get());
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MappedFileDataSource}.
+ */
+public class MappedFileDataSourceTest extends TestCase {
+
+  private static final int TEST_DATA_LENGTH = 1000;
+  private static final int SMALL_MAPPING_SIZE = 64;
+
+  private byte[] testData;
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    testData = TestUtil.buildTestData(TEST_DATA_LENGTH);
+    file = File.createTempFile("MappedFileDataSourceTest", null);
+    FileOutputStream outputStream = new FileOutputStream(file);
+    outputStream.write(testData);
+    outputStream.close();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  public void testReadFully() throws IOException {
+    assertReadIntoArray(new MappedFileDataSource(), 0, C.LENGTH_UNSET, 100);
+  }
+
+  public void testReadRange() throws IOException {
+    assertReadIntoArray(new MappedFileDataSource(), 123, 456, 100);
+  }
+
+  public void testReadAcrossMappings() throws IOException {
+    assertReadIntoArray(new MappedFileDataSource(null, SMALL_MAPPING_SIZE), 10, C.LENGTH_UNSET,
+        100);
+  }
+
+  public void testReadIntoByteBuffer() throws IOException {
+    assertReadIntoByteBuffer(new MappedFileDataSource(), 0, C.LENGTH_UNSET, 100);
+  }
+
+  public void testReadRangeIntoByteBufferAcrossMappings() throws IOException {
+    assertReadIntoByteBuffer(new MappedFileDataSource(null, SMALL_MAPPING_SIZE), 123, 456, 100);
+  }
+
+  public void testReadIntoByteBufferDoesNotExceedLength() throws IOException {
+    MappedFileDataSource dataSource = new MappedFileDataSource();
+    dataSource.open(new DataSpec(Uri.fromFile(file)));
+    ByteBuffer target = ByteBuffer.allocate(TEST_DATA_LENGTH);
+    target.limit(10);
+    assertEquals(10, dataSource.read(target, 10));
+    assertEquals(10, target.position());
+    dataSource.close();
+  }
+
+  public void testOpenPastEndOfFileFails() throws IOException {
+    MappedFileDataSource dataSource = new MappedFileDataSource();
+    try {
+      dataSource.open(new DataSpec(Uri.fromFile(file), TEST_DATA_LENGTH - 10, 11, null));
+      fail();
+    } catch (FileDataSource.FileDataSourceException e) {
+      // Expected.
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private void assertReadIntoArray(MappedFileDataSource dataSource, int position, int length,
+      int readLength) throws IOException {
+    int expectedLength = length == C.LENGTH_UNSET ? TEST_DATA_LENGTH - position : length;
+    assertEquals(expectedLength, dataSource.open(new DataSpec(Uri.fromFile(file), position,
+        length, null)));
+    byte[] target = new byte[expectedLength];
+    int totalBytesRead = 0;
+    while (true) {
+      int bytesRead = dataSource.read(target, totalBytesRead,
+          Math.min(readLength, expectedLength - totalBytesRead));
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+      totalBytesRead += bytesRead;
+    }
+    dataSource.close();
+    assertEquals(expectedLength, totalBytesRead);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(testData, position, position + expectedLength),
+        target));
+  }
+
+  private void assertReadIntoByteBuffer(MappedFileDataSource dataSource, int position, int length,
+      int readLength) throws IOException {
+    int expectedLength = length == C.LENGTH_UNSET ? TEST_DATA_LENGTH - position : length;
+    dataSource.open(new DataSpec(Uri.fromFile(file), position, length, null));
+    ByteBuffer target = ByteBuffer.allocateDirect(expectedLength);
+    while (true) {
+      int bytesRead = dataSource.read(target, Math.min(readLength, target.remaining()));
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+    }
+    dataSource.close();
+    assertEquals(expectedLength, target.position());
+    byte[] actual = new byte[expectedLength];
+    target.flip();
+    target.get(actual);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(testData, position, position + expectedLength),
+        actual));
+  }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.FakeDataSource;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link PrefetchingDataSource}.
+ */
+public class PrefetchingDataSourceTest extends TestCase {
+
+  private static final Uri TEST_URI = Uri.parse("test://prefetch");
+  private static final int ALLOCATION_LENGTH = 1024;
+  private static final int MAX_PREFETCH_BYTES = 10 * ALLOCATION_LENGTH;
+  private static final long TIMEOUT_MS = 10000;
+
+  private byte[] testData;
+  private DefaultAllocator allocator;
+  private PrefetchingDataSource.Budget budget;
+
+  @Override
+  protected void setUp() throws Exception {
+    testData = TestUtil.buildTestData(100000);
+    allocator = new DefaultAllocator(ALLOCATION_LENGTH);
+    budget = new PrefetchingDataSource.Budget(MAX_PREFETCH_BYTES);
+  }
+
+  public void testReadPrefetchedData() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    prefetch.setReading();
+    startLoading(prefetch).join();
+    assertEquals(testData.length, prefetch.blockUntilOpened());
+    assertTrue(Arrays.equals(testData, readFully(prefetch)));
+  }
+
+  public void testReadWhilstLoading() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(true);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    prefetch.setReading();
+    Thread loadThread = startLoading(prefetch);
+    assertEquals(C.LENGTH_UNSET, prefetch.blockUntilOpened());
+    assertTrue(Arrays.equals(testData, readFully(prefetch)));
+    loadThread.join();
+  }
+
+  public void testReadBoundedRequest() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    DataSpec dataSpec = new DataSpec(TEST_URI, 1000, 5000, null);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(dataSpec, upstream);
+    prefetch.setReading();
+    startLoading(prefetch).join();
+    assertEquals(5000, prefetch.blockUntilOpened());
+    assertTrue(Arrays.equals(Arrays.copyOfRange(testData, 1000, 6000), readFully(prefetch)));
+  }
+
+  public void testFailedOpen() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    DataSpec dataSpec = new DataSpec(TEST_URI, testData.length, C.LENGTH_UNSET, null);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(dataSpec, upstream);
+    prefetch.setReading();
+    startLoading(prefetch).join();
+    assertEquals(PrefetchingDataSource.Prefetch.OPEN_FAILED, prefetch.blockUntilOpened());
+  }
+
+  public void testReadErrorIsPropagatedAfterPrefetchedData() throws Exception {
+    FakeDataSource upstream = new FakeDataSource.Builder()
+        .appendReadData(Arrays.copyOf(testData, 1000))
+        .appendReadError(new IOException())
+        .appendReadData(Arrays.copyOfRange(testData, 1000, testData.length))
+        .build();
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    prefetch.setReading();
+    startLoading(prefetch).join();
+    byte[] buffer = new byte[testData.length];
+    assertEquals(1000, prefetch.read(0, buffer, 0, buffer.length));
+    try {
+      prefetch.read(1000, buffer, 1000, buffer.length - 1000);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testReadCanceledPrefetchFails() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    prefetch.cancelLoad();
+    startLoading(prefetch).join();
+    try {
+      prefetch.read(0, new byte[1], 0, 1);
+      fail();
+    } catch (InterruptedIOException e) {
+      // Expected.
+    }
+  }
+
+  public void testOpenWithoutPrefetchReadsUpstream() throws IOException {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    DataSource.Factory unusedFactory = new DataSource.Factory() {
+      @Override
+      public DataSource createDataSource() {
+        throw new IllegalStateException();
+      }
+    };
+    PrefetchingDataSource dataSource = new PrefetchingDataSource(upstream, unusedFactory, 2,
+        allocator, MAX_PREFETCH_BYTES);
+    assertEquals(testData.length, dataSource.open(new DataSpec(TEST_URI)));
+    byte[] buffer = new byte[testData.length];
+    int position = 0;
+    int bytesRead;
+    while ((bytesRead = dataSource.read(buffer, position, buffer.length - position))
+        != C.RESULT_END_OF_INPUT) {
+      position += bytesRead;
+    }
+    dataSource.close();
+    dataSource.release();
+    assertTrue(Arrays.equals(testData, buffer));
+    assertEquals(1, upstream.getAndClearOpenedDataSpecs().length);
+  }
+
+  public void testConsumedDataIsReturnedToAllocator() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    prefetch.setReading();
+    startLoading(prefetch).join();
+    assertTrue(Arrays.equals(testData, readFully(prefetch)));
+    // Only the allocation holding the end of the data is still held.
+    assertEquals(ALLOCATION_LENGTH, allocator.getTotalBytesAllocated());
+    prefetch.discard();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    assertEquals(0, budget.getBytes());
+  }
+
+  public void testDiscardAfterLoadReturnsDataToAllocator() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    prefetch.setReading();
+    startLoading(prefetch).join();
+    assertTrue(allocator.getTotalBytesAllocated() >= testData.length);
+    prefetch.discard();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    assertEquals(0, budget.getBytes());
+  }
+
+  public void testLoadPausesAtCapUntilRead() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    Thread loadThread = startLoading(prefetch);
+    waitForBytesAllocated(MAX_PREFETCH_BYTES);
+    // Give the load the chance to exceed the cap, which it shouldn't.
+    Thread.sleep(100);
+    assertTrue(loadThread.isAlive());
+    assertEquals(MAX_PREFETCH_BYTES, allocator.getTotalBytesAllocated());
+    // Once the prefetch is being read, the whole request can be loaded.
+    prefetch.setReading();
+    assertTrue(Arrays.equals(testData, readFully(prefetch)));
+    loadThread.join();
+    prefetch.discard();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  public void testDiscardWhilstPausedAtCap() throws Exception {
+    FakeDataSource upstream = buildFakeDataSource(false);
+    PrefetchingDataSource.Prefetch prefetch = newPrefetch(new DataSpec(TEST_URI), upstream);
+    Thread loadThread = startLoading(prefetch);
+    waitForBytesAllocated(MAX_PREFETCH_BYTES);
+    prefetch.discard();
+    loadThread.join();
+    assertEquals(0, allocator.getTotalBytesAllocated());
+    assertEquals(0, budget.getBytes());
+  }
+
+  private PrefetchingDataSource.Prefetch newPrefetch(DataSpec dataSpec, DataSource upstream) {
+    return new PrefetchingDataSource.Prefetch(dataSpec, upstream, allocator, budget);
+  }
+
+  private void waitForBytesAllocated(int bytes) throws InterruptedException {
+    long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (allocator.getTotalBytesAllocated() < bytes && System.currentTimeMillis() < deadlineMs) {
+      Thread.sleep(10);
+    }
+    assertEquals(bytes, allocator.getTotalBytesAllocated());
+  }
+
+  private FakeDataSource buildFakeDataSource(boolean simulateUnknownLength) {
+    FakeDataSource.Builder builder = new FakeDataSource.Builder()
+        .setSimulateUnknownLength(simulateUnknownLength);
+    // Split the data into several segments, so that the prefetch is loaded in several reads.
+    for (int i = 0; i < testData.length; i += 7000) {
+      builder.appendReadData(Arrays.copyOfRange(testData, i, Math.min(i + 7000, testData.length)));
+    }
+    return builder.build();
+  }
+
+  private static Thread startLoading(final PrefetchingDataSource.Prefetch prefetch) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          prefetch.load();
+        } catch (IOException | InterruptedException e) {
+          // Reported to the reader.
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static byte[] readFully(PrefetchingDataSource.Prefetch prefetch) throws IOException {
+    byte[] buffer = new byte[4096];
+    byte[] result = new byte[0];
+    int position = 0;
+    int bytesRead;
+    while ((bytesRead = prefetch.read(position, buffer, 0, buffer.length))
+        != C.RESULT_END_OF_INPUT) {
+      result = Arrays.copyOf(result, position + bytesRead);
+      System.arraycopy(buffer, 0, result, position, bytesRead);
+      position += bytesRead;
+    }
+    return result;
+  }
+
+}
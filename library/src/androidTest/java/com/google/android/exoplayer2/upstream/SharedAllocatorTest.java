@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SharedAllocator}.
+ */
+public class SharedAllocatorTest extends TestCase {
+
+  private static final int ALLOCATION_SIZE = 100;
+  private static final int BUDGET = 10 * ALLOCATION_SIZE;
+
+  public void testHigherPriorityIsSatisfiedFirst() {
+    SharedAllocator allocator = new SharedAllocator(ALLOCATION_SIZE, BUDGET);
+    SharedAllocator.Client prefetch = allocator.register(SharedAllocator.PRIORITY_PREFETCH);
+    SharedAllocator.Client foreground = allocator.register(SharedAllocator.PRIORITY_FOREGROUND);
+    prefetch.setTargetBufferSize(BUDGET);
+    assertEquals(BUDGET, prefetch.getShareBytes());
+    foreground.setTargetBufferSize(7 * ALLOCATION_SIZE);
+    assertEquals(7 * ALLOCATION_SIZE, foreground.getShareBytes());
+    assertEquals(3 * ALLOCATION_SIZE, prefetch.getShareBytes());
+    foreground.release();
+    assertEquals(BUDGET, prefetch.getShareBytes());
+  }
+
+  public void testEqualPrioritySplitsFairly() {
+    SharedAllocator allocator = new SharedAllocator(ALLOCATION_SIZE, BUDGET);
+    SharedAllocator.Client client1 = allocator.register(SharedAllocator.PRIORITY_PREFETCH);
+    SharedAllocator.Client client2 = allocator.register(SharedAllocator.PRIORITY_PREFETCH);
+    SharedAllocator.Client client3 = allocator.register(SharedAllocator.PRIORITY_PREFETCH);
+    client1.setTargetBufferSize(BUDGET);
+    client2.setTargetBufferSize(BUDGET);
+    client3.setTargetBufferSize(2 * ALLOCATION_SIZE);
+    // client3 needs less than a fair split, so the remainder is split between the others.
+    assertEquals(2 * ALLOCATION_SIZE, client3.getShareBytes());
+    assertEquals(4 * ALLOCATION_SIZE, client1.getShareBytes());
+    assertEquals(4 * ALLOCATION_SIZE, client2.getShareBytes());
+  }
+
+  public void testUsageCountersAndReclaim() {
+    SharedAllocator allocator = new SharedAllocator(ALLOCATION_SIZE, BUDGET);
+    SharedAllocator.Client prefetch = allocator.register(SharedAllocator.PRIORITY_PREFETCH);
+    final List<Integer> reclaimRequests = new ArrayList<>();
+    prefetch.setReclaimListener(new SharedAllocator.ReclaimListener() {
+      @Override
+      public void onReclaimRequested(SharedAllocator.Client client, int bytesOverShare) {
+        reclaimRequests.add(bytesOverShare);
+      }
+    });
+    prefetch.setTargetBufferSize(BUDGET);
+    Allocation[] prefetchAllocations = allocate(prefetch, 10);
+    assertEquals(BUDGET, prefetch.getTotalBytesAllocated());
+    assertTrue(prefetch.isShareExhausted());
+
+    SharedAllocator.Client foreground = allocator.register(SharedAllocator.PRIORITY_FOREGROUND);
+    foreground.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    assertFalse(foreground.isShareExhausted());
+    assertEquals(0, reclaimRequests.size());
+    Allocation[] foregroundAllocations = allocate(foreground, 2);
+    // The budget is exceeded, so the prefetching client should be asked to give up memory.
+    assertEquals(1, reclaimRequests.size());
+    assertEquals(4 * ALLOCATION_SIZE, (int) reclaimRequests.get(0));
+    assertEquals(1, prefetch.getReclaimRequestCount());
+    assertEquals(12 * ALLOCATION_SIZE, allocator.getTotalBytesAllocated());
+
+    prefetch.release(prefetchAllocations);
+    assertEquals(0, prefetch.getTotalBytesAllocated());
+    assertEquals(BUDGET, prefetch.getPeakBytesAllocated());
+    foreground.release(foregroundAllocations);
+    assertEquals(0, allocator.getTotalBytesAllocated());
+  }
+
+  public void testReclaimListenerIsInvokedWithoutLock() {
+    final SharedAllocator allocator = new SharedAllocator(ALLOCATION_SIZE, BUDGET);
+    SharedAllocator.Client prefetch = allocator.register(SharedAllocator.PRIORITY_PREFETCH);
+    final List<Boolean> lockHeld = new ArrayList<>();
+    prefetch.setReclaimListener(new SharedAllocator.ReclaimListener() {
+      @Override
+      public void onReclaimRequested(SharedAllocator.Client client, int bytesOverShare) {
+        lockHeld.add(Thread.holdsLock(allocator));
+      }
+    });
+    prefetch.setTargetBufferSize(BUDGET);
+    Allocation[] prefetchAllocations = allocate(prefetch, 10);
+    SharedAllocator.Client foreground = allocator.register(SharedAllocator.PRIORITY_FOREGROUND);
+    foreground.setTargetBufferSize(4 * ALLOCATION_SIZE);
+    // Exceeding the budget requests reclaim from the allocating thread.
+    Allocation[] foregroundAllocations = allocate(foreground, 2);
+    assertEquals(1, lockHeld.size());
+    // Changing the shares while over budget requests reclaim again.
+    foreground.setTargetBufferSize(5 * ALLOCATION_SIZE);
+    assertEquals(2, lockHeld.size());
+    assertFalse(lockHeld.get(0));
+    assertFalse(lockHeld.get(1));
+    prefetch.release(prefetchAllocations);
+    foreground.release(foregroundAllocations);
+  }
+
+  private static Allocation[] allocate(Allocator allocator, int count) {
+    Allocation[] allocations = new Allocation[count];
+    for (int i = 0; i < count; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    return allocations;
+  }
+
+}
@@ -25,6 +25,7 @@ import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2.upstream.DataSpec;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -35,6 +36,12 @@ public class CacheDataSourceTest extends InstrumentationTestCase {
   private static final int MAX_CACHE_FILE_SIZE = 3;
   private static final String KEY_1 = "key 1";
   private static final String KEY_2 = "key 2";
+  private static final FileFilter CACHE_FILE_FILTER = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      return !SimpleCacheIndex.isIndexFile(file);
+    }
+  };
 
   private File cacheDir;
   private SimpleCache simpleCache;
@@ -58,7 +65,7 @@ public class CacheDataSourceTest extends InstrumentationTestCase {
     CacheDataSource cacheDataSource = createCacheDataSource(false, false);
     assertReadDataContentLength(cacheDataSource, false, false);
     assertEquals((int) Math.ceil((double) TEST_DATA.length / MAX_CACHE_FILE_SIZE),
-        cacheDir.listFiles().length);
+        cacheDir.listFiles(CACHE_FILE_FILTER).length);
   }
 
   public void testCacheAndRead() throws Exception {
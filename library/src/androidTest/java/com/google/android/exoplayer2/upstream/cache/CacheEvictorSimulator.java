@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.util.WallClock;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Replays traces of cache span accesses against {@link CacheEvictor}s, so that eviction policies
+ * can be compared by hit ratio and by the number of bytes read from the network.
+ * <p>
+ * Each line of a trace describes one access, in the form {@code timestampMs key position length}.
+ * Keys must not contain whitespace. Blank lines and lines starting with '#' are ignored. Traces can
+ * be recorded from a real cache by wrapping its evictor in a {@link RecordingCacheEvictor}.
+ * <p>
+ * The simulation models whole spans: an access is a hit if a span starting at the same position is
+ * cached and is at least as long, and is otherwise a miss that writes a new span.
+ */
+public final class CacheEvictorSimulator {
+
+  /**
+   * An access to a cache span.
+   */
+  public static final class Access {
+
+    public final long timestampMs;
+    public final String key;
+    public final long position;
+    public final long length;
+
+    public Access(long timestampMs, String key, long position, long length) {
+      this.timestampMs = timestampMs;
+      this.key = key;
+      this.position = position;
+      this.length = length;
+    }
+
+  }
+
+  /**
+   * The result of a simulation.
+   */
+  public static final class Result {
+
+    public int requests;
+    public int hits;
+    public long bytesRequested;
+    public long bytesFromNetwork;
+    public long maxCacheSpace;
+
+    public double getHitRatio() {
+      return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public double getByteHitRatio() {
+      return bytesRequested == 0 ? 0 : 1 - (double) bytesFromNetwork / bytesRequested;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("hitRatio=%.3f, byteHitRatio=%.3f, networkBytes=%d, maxCacheSpace=%d",
+          getHitRatio(), getByteHitRatio(), bytesFromNetwork, maxCacheSpace);
+    }
+
+  }
+
+  /**
+   * Wraps a {@link CacheEvictor}, writing each access that it observes to a trace.
+   */
+  public static final class RecordingCacheEvictor implements CacheEvictor {
+
+    private final CacheEvictor evictor;
+    private final Writer writer;
+
+    /**
+     * @param evictor The evictor to which events are forwarded.
+     * @param writer The writer to which the trace is written.
+     */
+    public RecordingCacheEvictor(CacheEvictor evictor, Writer writer) {
+      this.evictor = evictor;
+      this.writer = writer;
+    }
+
+    @Override
+    public void onCacheInitialized() {
+      evictor.onCacheInitialized();
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long maxLength) {
+      evictor.onStartFile(cache, key, position, maxLength);
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+      record(span);
+      evictor.onSpanAdded(cache, span);
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+      evictor.onSpanRemoved(cache, span);
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+      record(newSpan);
+      evictor.onSpanTouched(cache, oldSpan, newSpan);
+    }
+
+    private void record(CacheSpan span) {
+      try {
+        writer.write(span.lastAccessTimestamp + " " + span.key + " " + span.position + " "
+            + span.length + "\n");
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+  }
+
+  private final TraceClock clock;
+
+  public CacheEvictorSimulator() {
+    clock = new TraceClock();
+  }
+
+  /**
+   * Returns a {@link WallClock} that reports the time of the access being simulated, for evictors
+   * that depend on the current time.
+   */
+  public WallClock getClock() {
+    return clock;
+  }
+
+  /**
+   * Replays a trace against an evictor, starting from an empty cache.
+   *
+   * @param trace The accesses to replay.
+   * @param evictor The evictor.
+   * @return The result of the simulation.
+   */
+  public Result simulate(List<Access> trace, CacheEvictor evictor) {
+    SimulatedCache cache = new SimulatedCache(evictor);
+    evictor.onCacheInitialized();
+    Result result = new Result();
+    for (int i = 0; i < trace.size(); i++) {
+      Access access = trace.get(i);
+      clock.nowMs = access.timestampMs;
+      result.requests++;
+      result.bytesRequested += access.length;
+      if (cache.access(access)) {
+        result.hits++;
+      } else {
+        result.bytesFromNetwork += access.length;
+      }
+      result.maxCacheSpace = Math.max(result.maxCacheSpace, cache.getCacheSpace());
+    }
+    return result;
+  }
+
+  /**
+   * Reads a trace.
+   *
+   * @param reader The reader from which to read.
+   * @return The accesses in the trace.
+   * @throws IOException If an error occurs reading the trace.
+   */
+  public static List<Access> readTrace(Reader reader) throws IOException {
+    BufferedReader bufferedReader = new BufferedReader(reader);
+    ArrayList<Access> trace = new ArrayList<>();
+    String line;
+    while ((line = bufferedReader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      if (fields.length != 4) {
+        throw new IOException("Malformed trace line: " + line);
+      }
+      try {
+        trace.add(new Access(Long.parseLong(fields[0]), fields[1], Long.parseLong(fields[2]),
+            Long.parseLong(fields[3])));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed trace line: " + line);
+      }
+    }
+    return trace;
+  }
+
+  private static final class TraceClock implements WallClock {
+
+    private long nowMs;
+
+    @Override
+    public long currentTimeMillis() {
+      return nowMs;
+    }
+
+  }
+
+  /**
+   * An in-memory {@link Cache} that tracks spans without storing any data.
+   */
+  private final class SimulatedCache implements Cache {
+
+    private final CacheEvictor evictor;
+    private final HashMap<String, TreeMap<Long, CacheSpan>> spansByKey;
+
+    private long cacheSpace;
+
+    public SimulatedCache(CacheEvictor evictor) {
+      this.evictor = evictor;
+      spansByKey = new HashMap<>();
+    }
+
+    /**
+     * Simulates an access, returning whether it was a hit.
+     */
+    public boolean access(Access access) {
+      TreeMap<Long, CacheSpan> spans = spansByKey.get(access.key);
+      if (spans == null) {
+        spans = new TreeMap<>();
+        spansByKey.put(access.key, spans);
+      }
+      CacheSpan span = spans.get(access.position);
+      if (span != null && span.length >= access.length) {
+        CacheSpan newSpan = new CacheSpan(span.key, span.position, span.length, true,
+            clock.nowMs, null);
+        spans.put(newSpan.position, newSpan);
+        evictor.onSpanTouched(this, span, newSpan);
+        return true;
+      }
+      if (span != null) {
+        removeSpan(span);
+      }
+      evictor.onStartFile(this, access.key, access.position, access.length);
+      CacheSpan newSpan = new CacheSpan(access.key, access.position, access.length, true,
+          clock.nowMs, null);
+      spans.put(newSpan.position, newSpan);
+      cacheSpace += newSpan.length;
+      evictor.onSpanAdded(this, newSpan);
+      return false;
+    }
+
+    @Override
+    public void removeSpan(CacheSpan span) {
+      TreeMap<Long, CacheSpan> spans = spansByKey.get(span.key);
+      CacheSpan currentSpan = spans == null ? null : spans.get(span.position);
+      if (currentSpan == null || currentSpan.lastAccessTimestamp != span.lastAccessTimestamp) {
+        return;
+      }
+      spans.remove(span.position);
+      cacheSpace -= currentSpan.length;
+      evictor.onSpanRemoved(this, currentSpan);
+    }
+
+    @Override
+    public long getCacheSpace() {
+      return cacheSpace;
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeListener(String key, Listener listener) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NavigableSet<CacheSpan> getCachedSpans(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getKeys() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CacheSpan startReadWrite(String key, long position) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CacheSpan startReadWriteNonBlocking(String key, long position) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public File startFile(String key, long position, long maxLength) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void commitFile(File file) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void releaseHoleSpan(CacheSpan holeSpan) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isCached(String key, long position, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean setContentLength(String key, long length) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getContentLength(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean setContentMetadata(String key, String name, byte[] value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte[] getContentMetadata(String key, String name) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.util.Log;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictorSimulator.Access;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictorSimulator.RecordingCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictorSimulator.Result;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Compares {@link CacheEvictor}s using {@link CacheEvictorSimulator}.
+ */
+public class CacheEvictorSimulatorTest extends TestCase {
+
+  private static final String TAG = "CacheEvictorSimulatorTest";
+
+  private static final long MB = 1024 * 1024;
+  private static final long MAX_BYTES = 64 * MB;
+  private static final long ACCESS_INTERVAL_MS = 2000;
+
+  public void testFrequencyAwareEvictionKeepsPopularSpans() {
+    List<Access> trace = buildBingeWithAdsTrace();
+    CacheEvictorSimulator simulator = new CacheEvictorSimulator();
+    Result lruResult = simulator.simulate(trace, new LeastRecentlyUsedCacheEvictor(MAX_BYTES));
+    Result lfuResult = simulator.simulate(trace, new LeastFrequentlyUsedCacheEvictor(MAX_BYTES));
+    Log.i(TAG, "LRU: " + lruResult);
+    Log.i(TAG, "LFU: " + lfuResult);
+
+    assertTrue(lruResult.maxCacheSpace <= MAX_BYTES);
+    assertTrue(lfuResult.maxCacheSpace <= MAX_BYTES);
+    // The binge flushes the ads from the LRU cache, but not from the LFU cache.
+    assertTrue(lfuResult.getHitRatio() > 2 * lruResult.getHitRatio());
+    assertTrue(lfuResult.bytesFromNetwork < lruResult.bytesFromNetwork);
+  }
+
+  public void testFrequencyAwareEvictionAdmitsNewlyPopularSpans() {
+    CacheEvictorSimulator simulator = new CacheEvictorSimulator();
+    ArrayList<Access> trace = new ArrayList<>();
+    long timeMs = 0;
+    // Fill the cache with spans that are each accessed twice.
+    for (int i = 0; i < 8; i++) {
+      trace.add(new Access(timeMs += ACCESS_INTERVAL_MS, "old" + i, 0, 8 * MB));
+      trace.add(new Access(timeMs += ACCESS_INTERVAL_MS, "old" + i, 0, 8 * MB));
+    }
+    // A span that's accessed more often than the existing spans displaces one of them.
+    for (int i = 0; i < 4; i++) {
+      trace.add(new Access(timeMs += ACCESS_INTERVAL_MS, "new", 0, 8 * MB));
+    }
+    Result result = simulator.simulate(trace, new LeastFrequentlyUsedCacheEvictor(MAX_BYTES));
+    // Each old span misses once. The new span misses until its frequency exceeds theirs.
+    assertEquals(8 + 2, result.requests - result.hits);
+    assertTrue(result.maxCacheSpace <= MAX_BYTES);
+  }
+
+  public void testTimeToLiveExpiresSpans() {
+    long timeToLiveMs = 10 * ACCESS_INTERVAL_MS;
+    ArrayList<Access> trace = new ArrayList<>();
+    long timeMs = 0;
+    trace.add(new Access(timeMs, "a", 0, MB));
+    trace.add(new Access(timeMs += timeToLiveMs / 2, "a", 0, MB));
+    // Reading the span doesn't extend its lifetime.
+    trace.add(new Access(timeMs += timeToLiveMs / 2 + 1, "b", 0, MB));
+    trace.add(new Access(timeMs += 1, "a", 0, MB));
+    trace.add(new Access(timeMs += 1, "b", 0, MB));
+
+    CacheEvictorSimulator simulator = new CacheEvictorSimulator();
+    Result result = simulator.simulate(trace, new TimeToLiveCacheEvictor(timeToLiveMs,
+        new NoOpCacheEvictor(), simulator.getClock()));
+    // Hits for the second access to "a" and the second access to "b".
+    assertEquals(2, result.hits);
+  }
+
+  public void testTimeToLiveDelegatesSizeLimit() {
+    List<Access> trace = buildBingeWithAdsTrace();
+    CacheEvictorSimulator simulator = new CacheEvictorSimulator();
+    Result result = simulator.simulate(trace, new TimeToLiveCacheEvictor(3600 * 1000,
+        new LeastFrequentlyUsedCacheEvictor(MAX_BYTES), simulator.getClock()));
+    Log.i(TAG, "TTL+LFU: " + result);
+    assertTrue(result.maxCacheSpace <= MAX_BYTES);
+  }
+
+  public void testRecordedTraceReplaysIdentically() throws Exception {
+    List<Access> trace = buildBingeWithAdsTrace();
+    CacheEvictorSimulator simulator = new CacheEvictorSimulator();
+    StringWriter writer = new StringWriter();
+    Result result = simulator.simulate(trace,
+        new RecordingCacheEvictor(new LeastRecentlyUsedCacheEvictor(MAX_BYTES), writer));
+
+    List<Access> recordedTrace = CacheEvictorSimulator.readTrace(
+        new StringReader(writer.toString()));
+    assertEquals(trace.size(), recordedTrace.size());
+    for (int i = 0; i < trace.size(); i++) {
+      assertEquals(trace.get(i).timestampMs, recordedTrace.get(i).timestampMs);
+      assertEquals(trace.get(i).key, recordedTrace.get(i).key);
+      assertEquals(trace.get(i).position, recordedTrace.get(i).position);
+      assertEquals(trace.get(i).length, recordedTrace.get(i).length);
+    }
+    Result replayResult = simulator.simulate(recordedTrace,
+        new LeastRecentlyUsedCacheEvictor(MAX_BYTES));
+    assertEquals(result.hits, replayResult.hits);
+    assertEquals(result.bytesFromNetwork, replayResult.bytesFromNetwork);
+  }
+
+  /**
+   * Builds a trace in which titles are watched back to back, each being watched once, with ads
+   * from a small pool played before each title and at regular intervals during it.
+   */
+  private static List<Access> buildBingeWithAdsTrace() {
+    Random random = new Random(0);
+    ArrayList<Access> trace = new ArrayList<>();
+    long timeMs = 0;
+    for (int title = 0; title < 20; title++) {
+      for (int segment = 0; segment < 120; segment++) {
+        if (segment % 30 == 0) {
+          // Ads with lower indices are played more often.
+          int ad = (int) (Math.abs(random.nextGaussian()) * 4) % 12;
+          trace.add(new Access(timeMs += ACCESS_INTERVAL_MS, "ad" + ad, 0, MB / 2));
+        }
+        trace.add(new Access(timeMs += ACCESS_INTERVAL_MS, "title" + title, segment * MB, MB));
+      }
+    }
+    return trace;
+  }
+
+}
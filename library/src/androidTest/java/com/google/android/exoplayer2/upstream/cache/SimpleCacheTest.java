@@ -16,20 +16,27 @@
 package com.google.android.exoplayer2.upstream.cache;
 
 import android.test.InstrumentationTestCase;
+import android.util.Log;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.testutil.TestUtil;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.NavigableSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Unit tests for {@link SimpleCache}.
  */
 public class SimpleCacheTest extends InstrumentationTestCase {
 
+  private static final String TAG = "SimpleCacheTest";
   private static final String KEY_1 = "key1";
 
   private File cacheDir;
@@ -99,21 +106,259 @@ public class SimpleCacheTest extends InstrumentationTestCase {
     assertEquals("Content length should be unchanged.",
         150, simpleCache.getContentLength(KEY_1));
 
-    /* TODO Enable when the length persistance is fixed
     // Check if values are kept after cache is reloaded.
+    simpleCache.release();
     simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
     assertEquals(150, simpleCache.getContentLength(KEY_1));
     CacheSpan lastSpan = simpleCache.startReadWrite(KEY_1, 145);
 
     // Removing the last span shouldn't cause the length be change next time cache loaded
     simpleCache.removeSpan(lastSpan);
+    simpleCache.release();
     simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
     assertEquals(150, simpleCache.getContentLength(KEY_1));
-     */
+  }
+
+  public void testSetGetMetadata() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+
+    // Metadata can't be set for content that isn't cached.
+    assertFalse(simpleCache.setContentMetadata(KEY_1, "name", new byte[] {1}));
+    assertNull(simpleCache.getContentMetadata(KEY_1, "name"));
+
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    assertTrue(simpleCache.setContentMetadata(KEY_1, "name", new byte[] {1}));
+    assertTrue(simpleCache.setContentMetadata(KEY_1, "name", new byte[] {2, 3}));
+    assertTrue(simpleCache.setContentMetadata(KEY_1, "other", new byte[0]));
+    assertTrue(Arrays.equals(new byte[] {2, 3}, simpleCache.getContentMetadata(KEY_1, "name")));
+
+    // Check if values are kept after cache is reloaded.
+    simpleCache.release();
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertTrue(Arrays.equals(new byte[] {2, 3}, simpleCache.getContentMetadata(KEY_1, "name")));
+    assertEquals(0, simpleCache.getContentMetadata(KEY_1, "other").length);
+    assertNull(simpleCache.getContentMetadata(KEY_1, "missing"));
+
+    // Metadata is removed along with the last span.
+    simpleCache.removeSpan(simpleCache.startReadWrite(KEY_1, 0));
+    assertNull(simpleCache.getContentMetadata(KEY_1, "name"));
+    simpleCache.release();
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertNull(simpleCache.getContentMetadata(KEY_1, "name"));
+  }
+
+  public void testReloadFromIndex() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    addCache(simpleCache, 15, 5);
+    addCache(simpleCache, 20, 10);
+    simpleCache.releaseHoleSpan(holeSpan);
+    simpleCache.removeSpan(simpleCache.startReadWrite(KEY_1, 15));
+    CacheSpan touchedSpan = simpleCache.startReadWrite(KEY_1, 20);
+    simpleCache.release();
+
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(25, simpleCache.getCacheSpace());
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    assertEquals(2, cachedSpans.size());
+    assertEquals(15, cachedSpans.first().length);
+    assertEquals(touchedSpan.lastAccessTimestamp, cachedSpans.last().lastAccessTimestamp);
+    assertEquals(touchedSpan.file, cachedSpans.last().file);
+    assertTrue(simpleCache.isCached(KEY_1, 0, 15));
+    assertFalse(simpleCache.isCached(KEY_1, 0, 20));
+  }
+
+  public void testCorruptIndexIsRebuilt() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    simpleCache.release();
+
+    File indexFile = new File(cacheDir, SimpleCacheIndex.FILE_NAME);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
+    randomAccessFile.seek(randomAccessFile.length() - 1);
+    randomAccessFile.write(randomAccessFile.read() + 1);
+    randomAccessFile.close();
+
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(15, simpleCache.getCacheSpace());
+    assertTrue(simpleCache.isCached(KEY_1, 0, 15));
+  }
+
+  public void testTruncatedIndexIsRecovered() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    simpleCache.release();
+    File indexFile = new File(cacheDir, SimpleCacheIndex.FILE_NAME);
+    long validLength = indexFile.length();
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    simpleCache.startReadWrite(KEY_1, 15);
+    addCache(simpleCache, 15, 5);
+    simpleCache.release();
+
+    // Simulate the process being killed part way through appending the last record.
+    RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
+    randomAccessFile.setLength(validLength + 3);
+    randomAccessFile.close();
+
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(15, simpleCache.getCacheSpace());
+    // The journal was rewritten, so subsequent changes are persisted.
+    simpleCache.startReadWrite(KEY_1, 15);
+    addCache(simpleCache, 15, 5);
+    simpleCache.release();
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(20, simpleCache.getCacheSpace());
+  }
+
+  public void testIndexIsCompacted() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    File indexFile = new File(cacheDir, SimpleCacheIndex.FILE_NAME);
+    // Each read touches the span.
+    long touchCount = 5000;
+    for (int i = 0; i < touchCount; i++) {
+      simpleCache.startReadWrite(KEY_1, 0);
+    }
+    simpleCache.release();
+    // Without coalescing and compaction the journal would hold every touch record, each of which
+    // is at least 20 bytes.
+    assertTrue(indexFile.length() < touchCount * 20 / 2);
+
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertTrue(simpleCache.isCached(KEY_1, 0, 15));
+  }
+
+  public void testTouchIsNotPersistedAfterRemoval() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    // Touch the span, then replace it with one at the same position.
+    for (int i = 0; i < 3; i++) {
+      simpleCache.startReadWrite(KEY_1, 0);
+    }
+    simpleCache.removeSpan(simpleCache.startReadWrite(KEY_1, 0));
+    holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 10);
+    simpleCache.releaseHoleSpan(holeSpan);
+    CacheSpan touchedSpan = null;
+    for (int i = 0; i < 3; i++) {
+      touchedSpan = simpleCache.startReadWrite(KEY_1, 0);
+    }
+    simpleCache.release();
+
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    assertEquals(1, cachedSpans.size());
+    assertEquals(10, cachedSpans.first().length);
+    assertEquals(touchedSpan.file, cachedSpans.first().file);
+  }
+
+  public void testUnindexedFilesAreRemoved() throws Exception {
+    SimpleCache simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, 0, 15);
+    // A file that was written but never committed, for example because the process was killed.
+    File orphanFile = CacheSpan.getCacheFileName(cacheDir, KEY_1, 15, System.currentTimeMillis());
+    FileOutputStream fos = new FileOutputStream(orphanFile);
+    fos.write(new byte[5]);
+    fos.close();
+    simpleCache.release();
+
+    simpleCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(15, simpleCache.getCacheSpace());
+    for (int i = 0; i < 100 && orphanFile.exists(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(orphanFile.exists());
+    assertTrue(simpleCache.isCached(KEY_1, 0, 15));
+  }
+
+  public void testConcurrentAccessToManyKeys() throws Exception {
+    final int threadCount = 8;
+    final int keysPerThread = 50;
+    final int readsPerThread = 2000;
+    final int spanLength = 10;
+    // Leave room for three quarters of the spans, so that the evictor runs concurrently too.
+    long maxBytes = threadCount * keysPerThread * spanLength * 3 / 4;
+    final SimpleCache simpleCache =
+        new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(maxBytes));
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final AtomicInteger operationCount = new AtomicInteger();
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      final int threadIndex = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random(threadIndex);
+            for (int j = 0; j < keysPerThread; j++) {
+              String key = "key" + threadIndex + "_" + j;
+              CacheSpan holeSpan = simpleCache.startReadWrite(key, 0);
+              if (!holeSpan.isCached) {
+                addCache(simpleCache, key, 0, spanLength);
+                simpleCache.releaseHoleSpan(holeSpan);
+              }
+              operationCount.incrementAndGet();
+            }
+            for (int j = 0; j < readsPerThread; j++) {
+              // Read keys written by any thread, which may have been evicted since.
+              String key = "key" + random.nextInt(threadCount) + "_" + random.nextInt(keysPerThread);
+              CacheSpan span = simpleCache.startReadWriteNonBlocking(key, 0);
+              if (span != null && !span.isCached) {
+                simpleCache.releaseHoleSpan(span);
+              }
+              simpleCache.isCached(key, 0, spanLength);
+              operationCount.addAndGet(2);
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+    }
+    long startTimeNs = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsedNs = System.nanoTime() - startTimeNs;
+    assertNull(error.get());
+    Log.i(TAG, threadCount + " threads: "
+        + (operationCount.get() * 1000000000L / elapsedNs) + " operations/s");
+
+    long cachedBytes = 0;
+    for (String key : simpleCache.getKeys()) {
+      for (CacheSpan span : simpleCache.getCachedSpans(key)) {
+        assertTrue(span.file.exists());
+        cachedBytes += span.length;
+      }
+    }
+    assertEquals(cachedBytes, simpleCache.getCacheSpace());
+    assertTrue(cachedBytes <= maxBytes);
+    simpleCache.release();
+    SimpleCache reloadedCache = new SimpleCache(cacheDir, new NoOpCacheEvictor());
+    assertEquals(simpleCache.getKeys(), reloadedCache.getKeys());
+    assertEquals(cachedBytes, reloadedCache.getCacheSpace());
   }
 
   private void addCache(SimpleCache simpleCache, int position, int length) throws IOException {
-    File file = simpleCache.startFile(KEY_1, position, length);
+    addCache(simpleCache, KEY_1, position, length);
+  }
+
+  private static void addCache(SimpleCache simpleCache, String key, int position, int length)
+      throws IOException {
+    File file = simpleCache.startFile(key, position, length);
     FileOutputStream fos = new FileOutputStream(file);
     fos.write(new byte[length]);
     fos.close();
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.util;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Unit test for {@link LatencyHistogram}.
+ */
+public final class LatencyHistogramTest extends TestCase {
+
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getTotalCount());
+    assertEquals(0, histogram.getMaxValue());
+    assertEquals(0.0, histogram.getMean());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    assertEquals(0, histogram.getCountAbove(0));
+  }
+
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram(5, 20);
+    for (int i = 0; i < 32; i++) {
+      histogram.record(i);
+    }
+    assertEquals(32, histogram.getTotalCount());
+    assertEquals(31, histogram.getMaxValue());
+    assertEquals(15.5, histogram.getMean());
+    assertEquals(0, histogram.getValueAtPercentile(0));
+    assertEquals(15, histogram.getValueAtPercentile(50));
+    assertEquals(31, histogram.getValueAtPercentile(100));
+    assertEquals(16, histogram.getCountAbove(15));
+  }
+
+  public void testRelativeErrorIsBounded() {
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      LatencyHistogram histogram = new LatencyHistogram(5, 32);
+      long value = random.nextInt(1 << 30);
+      histogram.record(value);
+      histogram.record(Integer.MAX_VALUE);
+      // The upper bound of the bucket is reported, within 1/16 of the value.
+      long reportedValue = histogram.getValueAtPercentile(50);
+      assertTrue(reportedValue >= value);
+      assertTrue(reportedValue - value <= value / 16);
+      assertEquals(1, histogram.getCountAbove(reportedValue));
+    }
+  }
+
+  public void testLargeValuesAreCapped() {
+    LatencyHistogram histogram = new LatencyHistogram(5, 10);
+    histogram.record(5000);
+    histogram.record(-1);
+    assertEquals(2, histogram.getTotalCount());
+    assertEquals(5000, histogram.getMaxValue());
+    assertEquals(2500.0, histogram.getMean());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    assertEquals(1023, histogram.getValueAtPercentile(100));
+    assertEquals(1, histogram.getCountAbove(900));
+  }
+
+}
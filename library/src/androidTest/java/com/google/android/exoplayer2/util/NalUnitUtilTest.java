@@ -19,6 +19,7 @@ import static com.google.android.exoplayer2.testutil.TestUtil.createByteArray;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 import junit.framework.TestCase;
 
 /**
@@ -116,6 +117,22 @@ public class NalUnitUtilTest extends TestCase {
     assertPrefixFlagsCleared(prefixFlags);
   }
 
+  public void testFindNalUnitMatchesLinearSearch() {
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      // Bias the data towards 0 and 1, so that it contains many NAL prefixes and partial prefixes.
+      byte[] data = new byte[random.nextInt(64)];
+      for (int j = 0; j < data.length; j++) {
+        int value = random.nextInt(8);
+        data[j] = (byte) (value < 3 ? 0 : value < 5 ? 1 : random.nextInt(256));
+      }
+      int startOffset = data.length == 0 ? 0 : random.nextInt(data.length);
+      int endOffset = startOffset + random.nextInt(data.length - startOffset + 1);
+      assertEquals(findNalUnitLinear(data, startOffset, endOffset),
+          NalUnitUtil.findNalUnit(data, startOffset, endOffset, null));
+    }
+  }
+
   public void testParseSpsNalUnit() {
     NalUnitUtil.SpsData data = NalUnitUtil.parseSpsNalUnit(SPS_TEST_DATA, SPS_TEST_DATA_OFFSET,
         SPS_TEST_DATA.length);
@@ -159,6 +176,19 @@ public class NalUnitUtilTest extends TestCase {
     assertDiscardToSpsMatchesExpected("FF00000001660000000167FF", "0000000167FF");
   }
 
+  /**
+   * Returns the offset of the first NAL prefix whose third byte precedes the last byte in the
+   * range, or {@code endOffset} if there is no such prefix.
+   */
+  private static int findNalUnitLinear(byte[] data, int startOffset, int endOffset) {
+    for (int i = startOffset; i + 3 < endOffset; i++) {
+      if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+        return i;
+      }
+    }
+    return endOffset;
+  }
+
   private static byte[] buildTestData() {
     byte[] data = new byte[20];
     for (int i = 0; i < data.length; i++) {
@@ -64,6 +64,11 @@ public abstract class BaseRenderer implements Renderer, RendererCapabilities {
     return null;
   }
 
+  @Override
+  public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+    return C.TIME_UNSET;
+  }
+
   @Override
   public final int getState() {
     return state;
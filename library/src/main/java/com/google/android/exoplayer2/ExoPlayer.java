@@ -353,6 +353,15 @@ public interface ExoPlayer {
    */
   void blockingSendMessages(ExoPlayerMessage... messages);
 
+  /**
+   * Sets a profiler to record the latencies of the player's internal work loop. Latencies are
+   * only measured whilst a profiler is set.
+   *
+   * @param profiler The profiler, or null to stop profiling. Its renderer count must be at least
+   *     the number of renderers of the player.
+   */
+  void setWorkLoopProfiler(WorkLoopProfiler profiler);
+
   /**
    * Returns the current manifest. The type depends on the {@link MediaSource} passed to
    * {@link #prepare}.
@@ -205,6 +205,11 @@ import java.util.concurrent.CopyOnWriteArraySet;
     internalPlayer.blockingSendMessages(messages);
   }
 
+  @Override
+  public void setWorkLoopProfiler(WorkLoopProfiler profiler) {
+    internalPlayer.setWorkLoopProfiler(profiler);
+  }
+
   @Override
   public int getCurrentPeriodIndex() {
     return playbackInfo.periodIndex;
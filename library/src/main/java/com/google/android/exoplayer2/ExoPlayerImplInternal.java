@@ -86,9 +86,15 @@ import java.io.IOException;
   private static final int MSG_SOURCE_CONTINUE_LOADING_REQUESTED = 8;
   private static final int MSG_TRACK_SELECTION_INVALIDATED = 9;
   private static final int MSG_CUSTOM = 10;
+  private static final int MSG_SET_WORK_LOOP_PROFILER = 11;
 
   private static final int PREPARING_SOURCE_INTERVAL_MS = 10;
-  private static final int RENDERING_INTERVAL_MS = 10;
+  /* package */ static final int RENDERING_INTERVAL_MS = 10;
+  /**
+   * The maximum interval between iterations of the rendering loop whilst rendering, if all enabled
+   * renderers request longer delays.
+   */
+  /* package */ static final int MAX_RENDERING_INTERVAL_MS = 100;
   private static final int IDLE_INTERVAL_MS = 1000;
 
   /**
@@ -122,6 +128,7 @@ import java.io.IOException;
   private int customMessagesSent;
   private int customMessagesProcessed;
   private long elapsedRealtimeUs;
+  private WorkLoopProfiler workLoopProfiler;
 
   private long rendererPositionUs;
 
@@ -169,6 +176,11 @@ import java.io.IOException;
         .sendToTarget();
   }
 
+  public void setWorkLoopProfiler(WorkLoopProfiler profiler) {
+    Assertions.checkArgument(profiler == null || profiler.getRendererCount() >= renderers.length);
+    handler.obtainMessage(MSG_SET_WORK_LOOP_PROFILER, profiler).sendToTarget();
+  }
+
   public void setPlayWhenReady(boolean playWhenReady) {
     handler.obtainMessage(MSG_SET_PLAY_WHEN_READY, playWhenReady ? 1 : 0, 0).sendToTarget();
   }
@@ -297,6 +309,10 @@ import java.io.IOException;
           sendMessagesInternal((ExoPlayerMessage[]) msg.obj);
           return true;
         }
+        case MSG_SET_WORK_LOOP_PROFILER: {
+          workLoopProfiler = (WorkLoopProfiler) msg.obj;
+          return true;
+        }
         default:
           return false;
       }
@@ -409,8 +425,14 @@ import java.io.IOException;
 
   private void doSomeWork() throws ExoPlaybackException, IOException {
     long operationStartTimeMs = SystemClock.elapsedRealtime();
+    WorkLoopProfiler profiler = workLoopProfiler;
+    long operationStartTimeNs = profiler != null ? System.nanoTime() : 0;
 
     updatePeriods();
+    if (profiler != null) {
+      profiler.recordPhase(WorkLoopProfiler.PHASE_UPDATE_PERIODS,
+          System.nanoTime() - operationStartTimeNs);
+    }
     if (playingPeriodHolder == null) {
       // We're still waiting for the first period to be prepared.
       maybeThrowPeriodPrepareError();
@@ -420,14 +442,24 @@ import java.io.IOException;
 
     TraceUtil.beginSection("doSomeWork");
 
+    long phaseStartTimeNs = profiler != null ? System.nanoTime() : 0;
     updatePlaybackPositions();
+    if (profiler != null) {
+      long timeNs = System.nanoTime();
+      profiler.recordPhase(WorkLoopProfiler.PHASE_UPDATE_PLAYBACK_POSITIONS,
+          timeNs - phaseStartTimeNs);
+      phaseStartTimeNs = timeNs;
+    }
     boolean allRenderersEnded = true;
     boolean allRenderersReadyOrEnded = true;
     for (Renderer renderer : enabledRenderers) {
-      // TODO: Each renderer should return the maximum delay before which it wishes to be called
-      // again. The minimum of these values should then be used as the delay before the next
-      // invocation of this method.
-      renderer.render(rendererPositionUs, elapsedRealtimeUs);
+      if (profiler != null) {
+        long renderStartTimeNs = System.nanoTime();
+        renderer.render(rendererPositionUs, elapsedRealtimeUs);
+        profiler.recordRender(getRendererIndex(renderer), System.nanoTime() - renderStartTimeNs);
+      } else {
+        renderer.render(rendererPositionUs, elapsedRealtimeUs);
+      }
       allRenderersEnded = allRenderersEnded && renderer.isEnded();
       // Determine whether the renderer is ready (or ended). If it's not, throw an error that's
       // preventing the renderer from making progress, if such an error exists.
@@ -438,6 +470,10 @@ import java.io.IOException;
       allRenderersReadyOrEnded = allRenderersReadyOrEnded && rendererReadyOrEnded;
     }
 
+    if (profiler != null) {
+      profiler.recordPhase(WorkLoopProfiler.PHASE_RENDER, System.nanoTime() - phaseStartTimeNs);
+    }
+
     if (!allRenderersReadyOrEnded) {
       maybeThrowPeriodPrepareError();
     }
@@ -472,17 +508,57 @@ import java.io.IOException;
       }
     }
 
-    if ((playWhenReady && state == ExoPlayer.STATE_READY) || state == ExoPlayer.STATE_BUFFERING) {
+    if (state == ExoPlayer.STATE_BUFFERING && playWhenReady) {
       scheduleNextWork(operationStartTimeMs, RENDERING_INTERVAL_MS);
+    } else if (state == ExoPlayer.STATE_BUFFERING || (playWhenReady
+        && state == ExoPlayer.STATE_READY)) {
+      // Playing, or buffering whilst paused. Sleep until a renderer next needs to be rendered. Note
+      // that a renderer that's not ready generally can't predict this, in which case the default
+      // interval is used. Buffering whilst paused only sleeps for longer if all of the renderers
+      // are ready and the player is waiting for the load control.
+      scheduleNextWork(operationStartTimeMs,
+          getRenderingIntervalMs(enabledRenderers, rendererPositionUs, elapsedRealtimeUs));
     } else if (enabledRenderers.length != 0) {
       scheduleNextWork(operationStartTimeMs, IDLE_INTERVAL_MS);
     } else {
       handler.removeMessages(MSG_DO_SOME_WORK);
     }
 
+    if (profiler != null) {
+      profiler.recordPhase(WorkLoopProfiler.PHASE_WORK, System.nanoTime() - operationStartTimeNs);
+    }
     TraceUtil.endSection();
   }
 
+  private int getRendererIndex(Renderer renderer) {
+    for (int i = 0; i < renderers.length; i++) {
+      if (renderers[i] == renderer) {
+        return i;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Returns the interval until the next iteration of the rendering loop, given the delays
+   * requested by the enabled renderers. The interval is at least {@link #RENDERING_INTERVAL_MS},
+   * which is used if any renderer does not request a delay, and at most
+   * {@link #MAX_RENDERING_INTERVAL_MS}.
+   */
+  /* package */ static long getRenderingIntervalMs(Renderer[] enabledRenderers, long positionUs,
+      long elapsedRealtimeUs) {
+    long maxRenderDelayUs = MAX_RENDERING_INTERVAL_MS * 1000L;
+    for (Renderer renderer : enabledRenderers) {
+      long rendererMaxRenderDelayUs = renderer.getMaxRenderDelayUs(positionUs, elapsedRealtimeUs);
+      if (rendererMaxRenderDelayUs == C.TIME_UNSET) {
+        return RENDERING_INTERVAL_MS;
+      }
+      maxRenderDelayUs = Math.min(maxRenderDelayUs, rendererMaxRenderDelayUs);
+    }
+    return enabledRenderers.length == 0 ? RENDERING_INTERVAL_MS
+        : Math.max(RENDERING_INTERVAL_MS, maxRenderDelayUs / 1000);
+  }
+
   private void scheduleNextWork(long thisOperationStartTimeMs, long intervalMs) {
     handler.removeMessages(MSG_DO_SOME_WORK);
     long nextOperationStartTimeMs = thisOperationStartTimeMs + intervalMs;
@@ -1068,6 +1144,18 @@ import java.io.IOException;
   }
 
   private void maybeContinueLoading() {
+    WorkLoopProfiler profiler = workLoopProfiler;
+    if (profiler != null) {
+      long startTimeNs = System.nanoTime();
+      maybeContinueLoadingInternal();
+      profiler.recordPhase(WorkLoopProfiler.PHASE_CONTINUE_LOADING,
+          System.nanoTime() - startTimeNs);
+    } else {
+      maybeContinueLoadingInternal();
+    }
+  }
+
+  private void maybeContinueLoadingInternal() {
     long nextLoadPositionUs = loadingPeriodHolder.mediaPeriod.getNextLoadPositionUs();
     if (nextLoadPositionUs != C.TIME_END_OF_SOURCE) {
       long loadingPeriodPositionUs = rendererPositionUs
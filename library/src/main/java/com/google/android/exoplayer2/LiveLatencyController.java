@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import android.annotation.TargetApi;
+import android.media.PlaybackParams;
+import android.os.Handler;
+import android.os.SystemClock;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * Keeps the latency of live playbacks close to a target.
+ * <p>
+ * The latency is the distance between the playback position and the live edge of the current
+ * window. For sources whose live windows have a known duration (e.g. DASH) the live edge is
+ * taken to be the end of the window at the time the {@link Timeline} was received. Sources that
+ * cannot expose the live edge through their windows (e.g. HLS) report it by calling
+ * {@link #updateLiveEdge(long, long)}. In both cases the edge is assumed to advance in real time
+ * until the next update.
+ * <p>
+ * Whilst playing, the controller adjusts the audio playback speed (and hence the speed of video
+ * rendered against the audio clock) by up to {@code maxSpeedAdjustment} in order to converge on
+ * the target latency. Speed adjustment requires API level 23. If the latency exceeds
+ * {@code maxLatencyMs}, for example after a long stall, playback rejoins the live edge by seeking
+ * to the target latency.
+ * <p>
+ * Instances must be created and released on the thread that the player was created on. Media
+ * sources that accept a controller use {@link #getTargetLatencyMs()} to choose their default live
+ * start positions.
+ */
+public final class LiveLatencyController implements ExoPlayer.EventListener, Runnable {
+
+  /**
+   * Listener of live latency events.
+   */
+  public interface EventListener {
+
+    /**
+     * Called periodically whilst the latency of a live playback is known.
+     *
+     * @param latencyMs The current latency in milliseconds.
+     * @param playbackSpeed The playback speed currently being applied.
+     */
+    void onLiveLatencyUpdated(long latencyMs, float playbackSpeed);
+
+    /**
+     * Called when playback has fallen too far behind the live edge and is rejoining it.
+     *
+     * @param latencyMs The latency in milliseconds before rejoining.
+     */
+    void onLiveEdgeRejoined(long latencyMs);
+
+  }
+
+  /**
+   * The default amount by which the latency may exceed the target before playback rejoins the
+   * live edge, in milliseconds.
+   */
+  public static final long DEFAULT_MAX_LATENCY_OFFSET_MS = 10000;
+
+  /**
+   * The default maximum deviation of the playback speed from 1.
+   */
+  public static final float DEFAULT_MAX_SPEED_ADJUSTMENT = 0.05f;
+
+  private static final int UPDATE_INTERVAL_MS = 1000;
+  /**
+   * Deviations from the target latency that are left uncorrected, in milliseconds.
+   */
+  private static final long LATENCY_TOLERANCE_MS = 250;
+  /**
+   * The speed adjustment applied per second of deviation from the target latency.
+   */
+  private static final float SPEED_ADJUSTMENT_PER_SECOND = 0.1f;
+  /**
+   * The granularity of speed adjustments. Each change of speed is passed to the audio track, so
+   * small fluctuations are not applied.
+   */
+  private static final float SPEED_STEP = 0.01f;
+  /**
+   * The minimum interval between rejoins, allowing the source to report the live edge of the
+   * rejoined playback.
+   */
+  private static final long REJOIN_BACKOFF_MS = 10000;
+
+  private final SimpleExoPlayer player;
+  private final long targetLatencyMs;
+  private final long maxLatencyMs;
+  private final float maxSpeedAdjustment;
+  private final EventListener eventListener;
+  private final Handler handler;
+  private final Timeline.Window window;
+
+  private Timeline timeline;
+  private float playbackSpeed;
+  private long currentLatencyMs;
+  private long lastRejoinTimeMs;
+
+  // Accessed on the playback thread by sources reporting the live edge.
+  private long liveEdgePositionUs;
+  private long liveEdgeElapsedRealtimeMs;
+  private boolean liveEdgeReportedBySource;
+
+  /**
+   * @param player The player whose playback latency should be controlled.
+   * @param targetLatencyMs The target latency in milliseconds.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public LiveLatencyController(SimpleExoPlayer player, long targetLatencyMs,
+      EventListener eventListener) {
+    this(player, targetLatencyMs, targetLatencyMs + DEFAULT_MAX_LATENCY_OFFSET_MS,
+        DEFAULT_MAX_SPEED_ADJUSTMENT, eventListener);
+  }
+
+  /**
+   * @param player The player whose playback latency should be controlled.
+   * @param targetLatencyMs The target latency in milliseconds.
+   * @param maxLatencyMs The latency in milliseconds above which playback rejoins the live edge.
+   * @param maxSpeedAdjustment The maximum deviation of the playback speed from 1. 0 disables
+   *     speed adjustment.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public LiveLatencyController(SimpleExoPlayer player, long targetLatencyMs, long maxLatencyMs,
+      float maxSpeedAdjustment, EventListener eventListener) {
+    this.player = player;
+    this.targetLatencyMs = targetLatencyMs;
+    this.maxLatencyMs = maxLatencyMs;
+    this.maxSpeedAdjustment = maxSpeedAdjustment;
+    this.eventListener = eventListener;
+    handler = new Handler();
+    window = new Timeline.Window();
+    playbackSpeed = 1f;
+    currentLatencyMs = C.TIME_UNSET;
+    lastRejoinTimeMs = C.TIME_UNSET;
+    liveEdgeElapsedRealtimeMs = C.TIME_UNSET;
+    player.addListener(this);
+    handler.postDelayed(this, UPDATE_INTERVAL_MS);
+  }
+
+  /**
+   * Returns the target latency in milliseconds.
+   */
+  public long getTargetLatencyMs() {
+    return targetLatencyMs;
+  }
+
+  /**
+   * Returns the most recently measured latency in milliseconds, or {@link C#TIME_UNSET} if the
+   * latency is not known.
+   */
+  public long getCurrentLatencyMs() {
+    return currentLatencyMs;
+  }
+
+  /**
+   * Returns the playback speed currently being applied.
+   */
+  public float getPlaybackSpeed() {
+    return playbackSpeed;
+  }
+
+  /**
+   * Reports the live edge of the current window. Called by sources whose windows do not expose
+   * the live edge. May be called from any thread.
+   *
+   * @param liveEdgePositionUs The position of the live edge in the current window, in
+   *     microseconds.
+   * @param elapsedRealtimeMs The {@link SystemClock#elapsedRealtime()} at which the live edge was
+   *     at {@code liveEdgePositionUs}.
+   */
+  public synchronized void updateLiveEdge(long liveEdgePositionUs, long elapsedRealtimeMs) {
+    this.liveEdgePositionUs = liveEdgePositionUs;
+    this.liveEdgeElapsedRealtimeMs = elapsedRealtimeMs;
+    liveEdgeReportedBySource = true;
+  }
+
+  /**
+   * Stops controlling the latency and restores the normal playback speed.
+   */
+  public void release() {
+    handler.removeCallbacks(this);
+    player.removeListener(this);
+    setPlaybackSpeed(1f);
+  }
+
+  // Runnable implementation.
+
+  @Override
+  public void run() {
+    updateLatency();
+    handler.postDelayed(this, UPDATE_INTERVAL_MS);
+  }
+
+  // ExoPlayer.EventListener implementation.
+
+  @Override
+  public void onLoadingChanged(boolean isLoading) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+    if (playbackState != ExoPlayer.STATE_READY || !playWhenReady) {
+      setPlaybackSpeed(1f);
+    }
+  }
+
+  @Override
+  public void onTimelineChanged(Timeline timeline, Object manifest) {
+    this.timeline = timeline;
+    if (getCurrentWindow() != null && window.getDurationUs() != C.TIME_UNSET) {
+      synchronized (this) {
+        liveEdgePositionUs = window.getDurationUs();
+        liveEdgeElapsedRealtimeMs = SystemClock.elapsedRealtime();
+        liveEdgeReportedBySource = false;
+      }
+    }
+  }
+
+  @Override
+  public void onPlayerError(ExoPlaybackException error) {
+    // Do nothing.
+  }
+
+  @Override
+  public synchronized void onPositionDiscontinuity() {
+    if (liveEdgeReportedBySource) {
+      // The source may restart its window positions, so wait for the next report.
+      liveEdgeElapsedRealtimeMs = C.TIME_UNSET;
+    }
+  }
+
+  // Internal methods.
+
+  private void updateLatency() {
+    long latencyMs = computeLatencyMs();
+    currentLatencyMs = latencyMs;
+    if (latencyMs == C.TIME_UNSET) {
+      setPlaybackSpeed(1f);
+      return;
+    }
+    if (player.getPlaybackState() == ExoPlayer.STATE_READY && player.getPlayWhenReady()) {
+      long nowMs = SystemClock.elapsedRealtime();
+      if (latencyMs > maxLatencyMs
+          && (lastRejoinTimeMs == C.TIME_UNSET || nowMs - lastRejoinTimeMs >= REJOIN_BACKOFF_MS)) {
+        rejoinLiveEdge(latencyMs, nowMs);
+        return;
+      }
+      setPlaybackSpeed(getTargetPlaybackSpeed(latencyMs, targetLatencyMs, maxSpeedAdjustment));
+    }
+    if (eventListener != null) {
+      eventListener.onLiveLatencyUpdated(latencyMs, playbackSpeed);
+    }
+  }
+
+  private void rejoinLiveEdge(long latencyMs, long nowMs) {
+    lastRejoinTimeMs = nowMs;
+    setPlaybackSpeed(1f);
+    long windowDurationMs = window.getDurationMs();
+    if (windowDurationMs == C.TIME_UNSET) {
+      // The source chooses its default position using the target latency.
+      player.seekToDefaultPosition(player.getCurrentWindowIndex());
+    } else {
+      long positionMs = player.getCurrentPosition() + latencyMs - targetLatencyMs;
+      player.seekTo(player.getCurrentWindowIndex(), Math.min(positionMs, windowDurationMs));
+    }
+    if (eventListener != null) {
+      eventListener.onLiveEdgeRejoined(latencyMs);
+    }
+  }
+
+  private long computeLatencyMs() {
+    if (getCurrentWindow() == null) {
+      return C.TIME_UNSET;
+    }
+    long edgePositionUs;
+    long edgeElapsedRealtimeMs;
+    synchronized (this) {
+      edgePositionUs = liveEdgePositionUs;
+      edgeElapsedRealtimeMs = liveEdgeElapsedRealtimeMs;
+    }
+    if (edgeElapsedRealtimeMs == C.TIME_UNSET) {
+      return C.TIME_UNSET;
+    }
+    long edgePositionMs = C.usToMs(edgePositionUs)
+        + SystemClock.elapsedRealtime() - edgeElapsedRealtimeMs;
+    return Math.max(0, edgePositionMs - player.getCurrentPosition());
+  }
+
+  /**
+   * Populates {@link #window} with the current window and returns it, or returns null if the
+   * current window is not a live window.
+   */
+  private Timeline.Window getCurrentWindow() {
+    int windowIndex = player.getCurrentWindowIndex();
+    if (timeline == null || windowIndex >= timeline.getWindowCount()) {
+      return null;
+    }
+    timeline.getWindow(windowIndex, window);
+    return window.isDynamic ? window : null;
+  }
+
+  private void setPlaybackSpeed(float speed) {
+    if (Util.SDK_INT < 23 || Math.abs(speed - playbackSpeed) < SPEED_STEP / 2) {
+      return;
+    }
+    playbackSpeed = speed;
+    setPlaybackSpeedV23(speed);
+  }
+
+  @TargetApi(23)
+  private void setPlaybackSpeedV23(float speed) {
+    player.setPlaybackParams(new PlaybackParams().setSpeed(speed));
+  }
+
+  /**
+   * Returns the playback speed that moves the latency towards the target.
+   *
+   * @param latencyMs The current latency in milliseconds.
+   * @param targetLatencyMs The target latency in milliseconds.
+   * @param maxSpeedAdjustment The maximum deviation of the playback speed from 1.
+   * @return The playback speed, rounded to the speed granularity.
+   */
+  /* package */ static float getTargetPlaybackSpeed(long latencyMs, long targetLatencyMs,
+      float maxSpeedAdjustment) {
+    long latencyErrorMs = latencyMs - targetLatencyMs;
+    if (Math.abs(latencyErrorMs) <= LATENCY_TOLERANCE_MS) {
+      return 1f;
+    }
+    float adjustment = SPEED_ADJUSTMENT_PER_SECOND * latencyErrorMs / 1000;
+    adjustment = Math.max(-maxSpeedAdjustment, Math.min(maxSpeedAdjustment, adjustment));
+    return Math.round((1f + adjustment) / SPEED_STEP) * SPEED_STEP;
+  }
+
+}
@@ -200,6 +200,27 @@ public interface Renderer extends ExoPlayerComponent {
    */
   void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException;
 
+  /**
+   * Returns the maximum delay before {@link #render(long, long)} should next be called, measured
+   * from the start of the current iteration of the rendering loop. Called after each call to
+   * {@link #render(long, long)}.
+   * <p>
+   * A renderer that cannot predict when it will next be able to make progress should return
+   * {@link C#TIME_UNSET}, in which case the player renders at its default interval. A renderer that
+   * cannot make progress until it's started should return {@link Long#MAX_VALUE}. The player may
+   * call {@link #render(long, long)} earlier than requested.
+   * <p>
+   * This method may be called when the renderer is in the following states:
+   * {@link #STATE_ENABLED}, {@link #STATE_STARTED}.
+   *
+   * @param positionUs The media time passed to the preceding call to
+   *     {@link #render(long, long)}.
+   * @param elapsedRealtimeUs The elapsed real time passed to the preceding call to
+   *     {@link #render(long, long)}.
+   * @return The maximum delay in microseconds, {@link C#TIME_UNSET} or {@link Long#MAX_VALUE}.
+   */
+  long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs);
+
   /**
    * Whether the renderer is able to immediately render media from the current position.
    * <p>
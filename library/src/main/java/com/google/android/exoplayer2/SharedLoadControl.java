@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.SharedAllocator;
+
+/**
+ * A {@link LoadControl} for use when multiple players share a single {@link SharedAllocator}.
+ * <p>
+ * Buffering decisions are made as by {@link DefaultLoadControl}, except that loading also stops
+ * whenever the player's allocations reach its share of the {@link SharedAllocator}'s budget. Hence a
+ * low priority player will stop loading when memory is needed by higher priority players.
+ * <p>
+ * When the {@link SharedAllocator} asks the player to give up memory, unused memory held by the
+ * shared pool is released and the player stops loading until playback has drained its buffer below
+ * the minimum buffer duration and its allocations are back within its share. The player's buffer is
+ * hence trimmed to the minimum buffer duration as it plays out, rather than being topped back up to
+ * its share as soon as space becomes available.
+ * <p>
+ * {@link #release()} must be called when the player is released, so that its share of the budget
+ * is returned to other players.
+ */
+public final class SharedLoadControl implements LoadControl, SharedAllocator.ReclaimListener {
+
+  private final SharedAllocator.Client client;
+  private final DefaultLoadControl delegate;
+  private final long minBufferUs;
+
+  private volatile boolean reclaimRequested;
+  private volatile SharedAllocator.ReclaimListener reclaimListener;
+
+  /**
+   * Constructs a new instance, using the {@code DEFAULT_*} constants defined in
+   * {@link DefaultLoadControl}.
+   *
+   * @param sharedAllocator The {@link SharedAllocator} shared between players.
+   * @param priority The priority of the player. See {@link SharedAllocator#register(int)}.
+   */
+  public SharedLoadControl(SharedAllocator sharedAllocator, int priority) {
+    this(sharedAllocator, priority, DefaultLoadControl.DEFAULT_MIN_BUFFER_MS,
+        DefaultLoadControl.DEFAULT_MAX_BUFFER_MS, DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+        DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS);
+  }
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param sharedAllocator The {@link SharedAllocator} shared between players.
+   * @param priority The priority of the player. See {@link SharedAllocator#register(int)}.
+   * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
+   *     buffered at all times, in milliseconds.
+   * @param maxBufferMs The maximum duration of media that the player will attempt buffer, in
+   *     milliseconds.
+   * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+   *     resume following a user action such as a seek, in milliseconds.
+   * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+   *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+   *     buffer depletion rather than a user action.
+   */
+  public SharedLoadControl(SharedAllocator sharedAllocator, int priority, int minBufferMs,
+      int maxBufferMs, long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
+    client = sharedAllocator.register(priority);
+    delegate = new DefaultLoadControl(client, minBufferMs, maxBufferMs, bufferForPlaybackMs,
+        bufferForPlaybackAfterRebufferMs);
+    minBufferUs = minBufferMs * 1000L;
+    client.setReclaimListener(this);
+  }
+
+  /**
+   * Sets a listener to be notified when the player is asked to give up memory, in addition to the
+   * handling performed by this load control. Applications should use this method rather than
+   * setting a listener on the {@link SharedAllocator.Client} directly, which would replace it.
+   *
+   * @param reclaimListener The listener, or null to clear the listener.
+   */
+  public void setReclaimListener(SharedAllocator.ReclaimListener reclaimListener) {
+    this.reclaimListener = reclaimListener;
+  }
+
+  /**
+   * Returns whether loading is suspended because the player was asked to give up memory.
+   */
+  public boolean isReclaimRequested() {
+    return reclaimRequested;
+  }
+
+  /**
+   * Returns the player's {@link SharedAllocator.Client}, which exposes its memory usage.
+   */
+  public SharedAllocator.Client getClient() {
+    return client;
+  }
+
+  /**
+   * Releases the player's share of the {@link SharedAllocator}'s budget. Must be called after the
+   * player has been released.
+   */
+  public void release() {
+    client.release();
+  }
+
+  @Override
+  public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+      TrackSelectionArray trackSelections) {
+    delegate.onTracksSelected(renderers, trackGroups, trackSelections);
+  }
+
+  @Override
+  public void onTracksDisabled() {
+    delegate.onTracksDisabled();
+    reclaimRequested = false;
+    client.setTargetBufferSize(0);
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return client;
+  }
+
+  @Override
+  public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
+    return delegate.shouldStartPlayback(bufferedDurationUs, rebuffering);
+  }
+
+  @Override
+  public boolean shouldContinueLoading(long bufferedDurationUs) {
+    // Always consult the delegate first, so that its buffering state remains up to date.
+    boolean delegateShouldContinueLoading = delegate.shouldContinueLoading(bufferedDurationUs);
+    if (reclaimRequested) {
+      if (bufferedDurationUs >= minBufferUs || client.getBytesOverShare() > 0) {
+        return false;
+      }
+      reclaimRequested = false;
+    }
+    return delegateShouldContinueLoading && !client.isShareExhausted();
+  }
+
+  // SharedAllocator.ReclaimListener implementation.
+
+  @Override
+  public void onReclaimRequested(SharedAllocator.Client client, int bytesOverShare) {
+    reclaimRequested = true;
+    client.trim();
+    SharedAllocator.ReclaimListener reclaimListener = this.reclaimListener;
+    if (reclaimListener != null) {
+      reclaimListener.onReclaimRequested(client, bytesOverShare);
+    }
+  }
+
+}
@@ -467,6 +467,11 @@ public final class SimpleExoPlayer implements ExoPlayer {
     player.blockingSendMessages(messages);
   }
 
+  @Override
+  public void setWorkLoopProfiler(WorkLoopProfiler profiler) {
+    player.setWorkLoopProfiler(profiler);
+  }
+
   @Override
   public int getCurrentPeriodIndex() {
     return player.getCurrentPeriodIndex();
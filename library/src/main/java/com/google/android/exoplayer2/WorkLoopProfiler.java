@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2;
+
+import com.google.android.exoplayer2.util.LatencyHistogram;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the latencies of the phases of the player's internal work loop, for diagnosing
+ * playback thread stalls.
+ * <p>
+ * A profiler is enabled by passing it to {@link ExoPlayer#setWorkLoopProfiler(WorkLoopProfiler)}.
+ * Latencies are recorded in microseconds into {@link LatencyHistogram}s, which may be read from
+ * any thread whilst the player is running. Players without a profiler do not measure latencies.
+ */
+public final class WorkLoopProfiler {
+
+  /**
+   * A complete iteration of the work loop.
+   */
+  public static final int PHASE_WORK = 0;
+  /**
+   * Updating the periods being played, read and loaded. Includes any calls to continue loading
+   * made whilst updating the periods.
+   */
+  public static final int PHASE_UPDATE_PERIODS = 1;
+  /**
+   * Updating the playback position from the media clock.
+   */
+  public static final int PHASE_UPDATE_PLAYBACK_POSITIONS = 2;
+  /**
+   * Rendering with all enabled renderers.
+   */
+  public static final int PHASE_RENDER = 3;
+  /**
+   * Requesting that the loading period continues loading, wherever in the loop this occurs.
+   */
+  public static final int PHASE_CONTINUE_LOADING = 4;
+
+  /**
+   * The default time budget of an iteration of the work loop in microseconds, which is the
+   * interval at which the loop runs whilst playing.
+   */
+  public static final long DEFAULT_BUDGET_US = 10000;
+
+  private static final int PHASE_COUNT = 5;
+
+  private final LatencyHistogram[] phaseHistograms;
+  private final LatencyHistogram[] rendererHistograms;
+  private final long budgetUs;
+  private final AtomicLong overrunCount;
+
+  /**
+   * @param rendererCount The number of renderers of the player being profiled.
+   */
+  public WorkLoopProfiler(int rendererCount) {
+    this(rendererCount, DEFAULT_BUDGET_US);
+  }
+
+  /**
+   * @param rendererCount The number of renderers of the player being profiled.
+   * @param budgetUs The time budget of an iteration of the work loop in microseconds. Iterations
+   *     that take longer are counted as overruns.
+   */
+  public WorkLoopProfiler(int rendererCount, long budgetUs) {
+    this.budgetUs = budgetUs;
+    phaseHistograms = new LatencyHistogram[PHASE_COUNT];
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      phaseHistograms[i] = new LatencyHistogram();
+    }
+    rendererHistograms = new LatencyHistogram[rendererCount];
+    for (int i = 0; i < rendererCount; i++) {
+      rendererHistograms[i] = new LatencyHistogram();
+    }
+    overrunCount = new AtomicLong();
+  }
+
+  /**
+   * Returns the histogram of latencies of a phase of the work loop.
+   *
+   * @param phase One of the {@code PHASE_*} constants.
+   * @return The histogram of latencies in microseconds.
+   */
+  public LatencyHistogram getPhaseHistogram(int phase) {
+    return phaseHistograms[phase];
+  }
+
+  /**
+   * Returns the histogram of latencies of {@link Renderer#render(long, long)} for a renderer.
+   *
+   * @param rendererIndex The index of the renderer.
+   * @return The histogram of latencies in microseconds.
+   */
+  public LatencyHistogram getRendererHistogram(int rendererIndex) {
+    return rendererHistograms[rendererIndex];
+  }
+
+  /**
+   * Returns the number of renderers being profiled.
+   */
+  public int getRendererCount() {
+    return rendererHistograms.length;
+  }
+
+  /**
+   * Returns the number of iterations of the work loop that exceeded the time budget.
+   */
+  public long getOverrunCount() {
+    return overrunCount.get();
+  }
+
+  /* package */ void recordPhase(int phase, long durationNs) {
+    long durationUs = durationNs / 1000;
+    phaseHistograms[phase].record(durationUs);
+    if (phase == PHASE_WORK && durationUs > budgetUs) {
+      // Only written by the playback thread.
+      overrunCount.lazySet(overrunCount.get() + 1);
+    }
+  }
+
+  /* package */ void recordRender(int rendererIndex, long durationNs) {
+    rendererHistograms[rendererIndex].record(durationNs / 1000);
+  }
+
+}
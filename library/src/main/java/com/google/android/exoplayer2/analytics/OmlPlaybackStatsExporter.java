@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.analytics;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import omlBasePackage.OMLBase;
+import omlBasePackage.OMLMPFieldDef;
+import omlBasePackage.OMLTypes;
+import omlBasePackage.OmlMP;
+
+/**
+ * Exports {@link PlaybackStats} to an OML server.
+ * <p>
+ * Each session is injected as one sample of the {@link #MEASUREMENT_POINT_STATS} measurement
+ * point, and one sample of the {@link #MEASUREMENT_POINT_FORMAT_TIMES} measurement point per
+ * played {@link Format}. Samples are injected on a background thread.
+ */
+public final class OmlPlaybackStatsExporter implements PlaybackStatsExporter {
+
+  /**
+   * The name of the measurement point holding the statistics of each session.
+   */
+  public static final String MEASUREMENT_POINT_STATS = "playback_stats";
+  /**
+   * The name of the measurement point holding the playing time of each format in each session.
+   */
+  public static final String MEASUREMENT_POINT_FORMAT_TIMES = "playback_format_times";
+
+  private final OmlMP statsMeasurementPoint;
+  private final OmlMP formatTimesMeasurementPoint;
+  private final ExecutorService executorService;
+
+  /**
+   * Adds the exporter's measurement points to {@code oml}. Must be called before
+   * {@link OMLBase#start()}.
+   *
+   * @param oml The OML client to which statistics are exported.
+   */
+  public OmlPlaybackStatsExporter(OMLBase oml) {
+    ArrayList<OMLMPFieldDef> statsFields = new ArrayList<>();
+    statsFields.add(new OMLMPFieldDef("session_start_ms", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("session_duration_ms", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("startup_time_ms", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("playing_time_ms", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("rebuffer_count", OMLTypes.OML_INT32_VALUE));
+    statsFields.add(new OMLMPFieldDef("rebuffer_time_ms", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("bitrate_switch_count", OMLTypes.OML_INT32_VALUE));
+    statsFields.add(new OMLMPFieldDef("dropped_frames", OMLTypes.OML_INT32_VALUE));
+    statsFields.add(new OMLMPFieldDef("dropped_frames_per_minute", OMLTypes.OML_DOUBLE_VALUE));
+    statsFields.add(new OMLMPFieldDef("rendered_frames", OMLTypes.OML_INT32_VALUE));
+    statsFields.add(new OMLMPFieldDef("audio_bytes", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("video_bytes", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("text_bytes", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("default_bytes", OMLTypes.OML_INT64_VALUE));
+    statsFields.add(new OMLMPFieldDef("mean_bandwidth", OMLTypes.OML_INT64_VALUE));
+    statsMeasurementPoint = new OmlMP(statsFields);
+    ArrayList<OMLMPFieldDef> formatTimesFields = new ArrayList<>();
+    formatTimesFields.add(new OMLMPFieldDef("session_start_ms", OMLTypes.OML_INT64_VALUE));
+    formatTimesFields.add(new OMLMPFieldDef("format_id", OMLTypes.OML_STRING_VALUE));
+    formatTimesFields.add(new OMLMPFieldDef("mimetype", OMLTypes.OML_STRING_VALUE));
+    formatTimesFields.add(new OMLMPFieldDef("bitrate", OMLTypes.OML_INT32_VALUE));
+    formatTimesFields.add(new OMLMPFieldDef("width", OMLTypes.OML_INT32_VALUE));
+    formatTimesFields.add(new OMLMPFieldDef("height", OMLTypes.OML_INT32_VALUE));
+    formatTimesFields.add(new OMLMPFieldDef("playing_time_ms", OMLTypes.OML_INT64_VALUE));
+    formatTimesMeasurementPoint = new OmlMP(formatTimesFields);
+    oml.addmp(MEASUREMENT_POINT_STATS, statsMeasurementPoint);
+    oml.addmp(MEASUREMENT_POINT_FORMAT_TIMES, formatTimesMeasurementPoint);
+    executorService = Util.newSingleThreadExecutor("OmlPlaybackStatsExporter");
+  }
+
+  /**
+   * Stops the exporter once previously exported statistics have been injected.
+   */
+  public void release() {
+    executorService.shutdown();
+  }
+
+  @Override
+  public void export(PlaybackStats stats) {
+    final String[] statsSample = createStatsSample(stats);
+    final List<String[]> formatTimesSamples = createFormatTimesSamples(stats);
+    executorService.execute(new Runnable() {
+      @Override
+      public void run() {
+        statsMeasurementPoint.inject(statsSample);
+        if (!formatTimesSamples.isEmpty()) {
+          formatTimesMeasurementPoint.inject_mass(formatTimesSamples);
+        }
+      }
+    });
+  }
+
+  /* package */ static String[] createStatsSample(PlaybackStats stats) {
+    return new String[] {
+        String.valueOf(stats.sessionStartTimeMs),
+        String.valueOf(stats.sessionDurationMs),
+        String.valueOf(stats.startupTimeMs),
+        String.valueOf(stats.playingTimeMs),
+        String.valueOf(stats.rebufferCount),
+        String.valueOf(stats.rebufferTimeMs),
+        String.valueOf(stats.bitrateSwitchCount),
+        String.valueOf(stats.droppedFrameCount),
+        String.valueOf(stats.getDroppedFramesPerMinute()),
+        String.valueOf(stats.renderedFrameCount),
+        String.valueOf(stats.getBytesLoaded(C.TRACK_TYPE_AUDIO)),
+        String.valueOf(stats.getBytesLoaded(C.TRACK_TYPE_VIDEO)),
+        String.valueOf(stats.getBytesLoaded(C.TRACK_TYPE_TEXT)),
+        String.valueOf(stats.getBytesLoaded(C.TRACK_TYPE_DEFAULT)),
+        String.valueOf(stats.meanBandwidth)};
+  }
+
+  /* package */ static List<String[]> createFormatTimesSamples(PlaybackStats stats) {
+    List<String[]> samples = new ArrayList<>(stats.formatPlayingTimesMs.size());
+    for (Map.Entry<Format, Long> entry : stats.formatPlayingTimesMs.entrySet()) {
+      Format format = entry.getKey();
+      samples.add(new String[] {
+          String.valueOf(stats.sessionStartTimeMs),
+          String.valueOf(format.id),
+          String.valueOf(format.sampleMimeType),
+          String.valueOf(format.bitrate),
+          String.valueOf(format.width),
+          String.valueOf(format.height),
+          String.valueOf(entry.getValue())});
+    }
+    return samples;
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.analytics;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import java.util.Map;
+
+/**
+ * Quality of experience statistics for a playback session.
+ */
+public final class PlaybackStats {
+
+  /**
+   * The wall clock time at which the session started, in milliseconds since the epoch.
+   */
+  public final long sessionStartTimeMs;
+  /**
+   * The duration of the session in milliseconds.
+   */
+  public final long sessionDurationMs;
+  /**
+   * The time from the start of the session until the player first became ready, in milliseconds,
+   * or {@link C#TIME_UNSET} if the player did not become ready.
+   */
+  public final long startupTimeMs;
+  /**
+   * The time during which the player was ready and playing, in milliseconds.
+   */
+  public final long playingTimeMs;
+  /**
+   * The number of times the player ran out of buffered media whilst ready, excluding those caused
+   * by seeks.
+   */
+  public final int rebufferCount;
+  /**
+   * The total duration of rebuffers in milliseconds.
+   */
+  public final long rebufferTimeMs;
+  /**
+   * The number of changes of the bitrate of the video (or muxed) stream being loaded.
+   */
+  public final int bitrateSwitchCount;
+  /**
+   * The number of dropped video frames.
+   */
+  public final int droppedFrameCount;
+  /**
+   * The number of rendered video frames.
+   */
+  public final int renderedFrameCount;
+  /**
+   * The mean of the bandwidth samples in bits/sec, or {@link BandwidthMeter#NO_ESTIMATE} if there
+   * were no samples.
+   */
+  public final long meanBandwidth;
+  /**
+   * The time during which the player was ready and playing each video and audio {@link Format},
+   * in milliseconds.
+   */
+  public final Map<Format, Long> formatPlayingTimesMs;
+
+  private final long[] bytesLoaded;
+
+  /* package */ PlaybackStats(long sessionStartTimeMs, long sessionDurationMs, long startupTimeMs,
+      long playingTimeMs, int rebufferCount, long rebufferTimeMs, int bitrateSwitchCount,
+      int droppedFrameCount, int renderedFrameCount, long meanBandwidth, long[] bytesLoaded,
+      Map<Format, Long> formatPlayingTimesMs) {
+    this.sessionStartTimeMs = sessionStartTimeMs;
+    this.sessionDurationMs = sessionDurationMs;
+    this.startupTimeMs = startupTimeMs;
+    this.playingTimeMs = playingTimeMs;
+    this.rebufferCount = rebufferCount;
+    this.rebufferTimeMs = rebufferTimeMs;
+    this.bitrateSwitchCount = bitrateSwitchCount;
+    this.droppedFrameCount = droppedFrameCount;
+    this.renderedFrameCount = renderedFrameCount;
+    this.meanBandwidth = meanBandwidth;
+    this.bytesLoaded = bytesLoaded;
+    this.formatPlayingTimesMs = formatPlayingTimesMs;
+  }
+
+  /**
+   * Returns the number of media bytes loaded for a track type.
+   *
+   * @param trackType The track type. One of the {@link C} {@code TRACK_TYPE_*} constants.
+   * @return The number of bytes loaded, or 0 if the track type is not tracked.
+   */
+  public long getBytesLoaded(int trackType) {
+    return trackType >= 0 && trackType < bytesLoaded.length ? bytesLoaded[trackType] : 0;
+  }
+
+  /**
+   * Returns the number of dropped video frames per minute of playing time, or 0 if there was no
+   * playing time.
+   */
+  public float getDroppedFramesPerMinute() {
+    return playingTimeMs == 0 ? 0 : droppedFrameCount * 60000f / playingTimeMs;
+  }
+
+}
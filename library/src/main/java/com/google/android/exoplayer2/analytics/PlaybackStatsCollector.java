@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.analytics;
+
+import android.view.Surface;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.audio.AudioRendererEventListener;
+import com.google.android.exoplayer2.decoder.DecoderCounters;
+import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.SystemClock;
+import com.google.android.exoplayer2.util.WallClock;
+import com.google.android.exoplayer2.video.VideoRendererEventListener;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Aggregates player, renderer, loading and bandwidth events into {@link PlaybackStats} for each
+ * playback session, and passes the statistics of completed sessions to
+ * {@link PlaybackStatsExporter}s.
+ * <p>
+ * The collector should be registered as a listener of the player, its renderers, its adaptive
+ * media sources and its {@link BandwidthMeter}, and must be called on a single thread. A session
+ * starts when the player leaves {@link ExoPlayer#STATE_IDLE}, and ends when the player enters
+ * {@link ExoPlayer#STATE_ENDED} or {@link ExoPlayer#STATE_IDLE}, or when {@link #endSession()} is
+ * called (e.g. before the player is released). Buffering that immediately follows a position
+ * discontinuity, such as that caused by a seek, is not counted as a rebuffer.
+ * <p>
+ * Events are aggregated into primitive fields, so that frequent events do not allocate.
+ */
+public final class PlaybackStatsCollector implements ExoPlayer.EventListener,
+    VideoRendererEventListener, AudioRendererEventListener, AdaptiveMediaSourceEventListener,
+    BandwidthMeter.EventListener {
+
+  private final Clock clock;
+  private final WallClock wallClock;
+  private final CopyOnWriteArraySet<PlaybackStatsExporter> exporters;
+  private final long[] bytesLoaded;
+  private final HashMap<Format, Long> formatPlayingTimesMs;
+
+  private boolean playWhenReady;
+  private int playbackState;
+  private boolean discontinuityReported;
+  private boolean rebuffering;
+  private long lastUpdateTimeMs;
+
+  private boolean sessionActive;
+  private long sessionStartTimeMs;
+  private long sessionStartElapsedRealtimeMs;
+  private long startupTimeMs;
+  private long playingTimeMs;
+  private int rebufferCount;
+  private long rebufferTimeMs;
+  private int bitrateSwitchCount;
+  private int droppedFrameCount;
+  private int renderedFrameCount;
+  private long bandwidthSampleBytes;
+  private long bandwidthSampleElapsedMs;
+
+  private DecoderCounters videoCounters;
+  private Format videoFormat;
+  private Format audioFormat;
+  private Format loadingVideoFormat;
+
+  public PlaybackStatsCollector() {
+    this(new SystemClock(), new SystemClock());
+  }
+
+  /**
+   * @param clock The {@link Clock} used to measure durations.
+   * @param wallClock The {@link WallClock} used to timestamp the start of each session.
+   */
+  public PlaybackStatsCollector(Clock clock, WallClock wallClock) {
+    this.clock = clock;
+    this.wallClock = wallClock;
+    exporters = new CopyOnWriteArraySet<>();
+    bytesLoaded = new long[C.TRACK_TYPE_METADATA + 1];
+    formatPlayingTimesMs = new HashMap<>();
+    playbackState = ExoPlayer.STATE_IDLE;
+    startupTimeMs = C.TIME_UNSET;
+  }
+
+  /**
+   * Adds an exporter to receive the statistics of completed sessions.
+   *
+   * @param exporter The exporter.
+   */
+  public void addExporter(PlaybackStatsExporter exporter) {
+    exporters.add(exporter);
+  }
+
+  /**
+   * Removes an exporter.
+   *
+   * @param exporter The exporter.
+   */
+  public void removeExporter(PlaybackStatsExporter exporter) {
+    exporters.remove(exporter);
+  }
+
+  /**
+   * Returns the statistics of the current session so far, or null if there is no current session.
+   */
+  public PlaybackStats getCurrentStats() {
+    if (!sessionActive) {
+      return null;
+    }
+    updateTimes(clock.elapsedRealtime());
+    return buildStats();
+  }
+
+  /**
+   * Ends the current session, if any, and passes its statistics to the exporters.
+   */
+  public void endSession() {
+    if (!sessionActive) {
+      return;
+    }
+    updateTimes(clock.elapsedRealtime());
+    PlaybackStats stats = buildStats();
+    resetSession();
+    for (PlaybackStatsExporter exporter : exporters) {
+      exporter.export(stats);
+    }
+  }
+
+  // ExoPlayer.EventListener
+
+  @Override
+  public void onLoadingChanged(boolean isLoading) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+    long nowMs = clock.elapsedRealtime();
+    if (!sessionActive && playbackState != ExoPlayer.STATE_IDLE
+        && playbackState != ExoPlayer.STATE_ENDED) {
+      startSession(nowMs);
+    }
+    if (sessionActive) {
+      updateTimes(nowMs);
+      if (playbackState == ExoPlayer.STATE_READY && startupTimeMs == C.TIME_UNSET) {
+        startupTimeMs = nowMs - sessionStartElapsedRealtimeMs;
+      }
+      if (playbackState == ExoPlayer.STATE_BUFFERING
+          && this.playbackState == ExoPlayer.STATE_READY && !discontinuityReported) {
+        rebuffering = true;
+        rebufferCount++;
+      } else if (playbackState != ExoPlayer.STATE_BUFFERING) {
+        rebuffering = false;
+      }
+    }
+    this.playWhenReady = playWhenReady;
+    this.playbackState = playbackState;
+    discontinuityReported = false;
+    if (playbackState == ExoPlayer.STATE_IDLE || playbackState == ExoPlayer.STATE_ENDED) {
+      endSession();
+    }
+  }
+
+  @Override
+  public void onTimelineChanged(Timeline timeline, Object manifest) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onPlayerError(ExoPlaybackException error) {
+    // Do nothing. The player transitions to STATE_IDLE, which ends the session.
+  }
+
+  @Override
+  public void onPositionDiscontinuity() {
+    discontinuityReported = true;
+  }
+
+  // VideoRendererEventListener
+
+  @Override
+  public void onVideoEnabled(DecoderCounters counters) {
+    videoCounters = counters;
+  }
+
+  @Override
+  public void onVideoDecoderInitialized(String decoderName, long initializedTimestampMs,
+      long initializationDurationMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onVideoInputFormatChanged(Format format) {
+    updateTimes(clock.elapsedRealtime());
+    videoFormat = format;
+  }
+
+  @Override
+  public void onDroppedFrames(int count, long elapsedMs) {
+    droppedFrameCount += count;
+  }
+
+  @Override
+  public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+      float pixelWidthHeightRatio) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onRenderedFirstFrame(Surface surface) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onVideoDisabled(DecoderCounters counters) {
+    updateTimes(clock.elapsedRealtime());
+    if (sessionActive) {
+      counters.ensureUpdated();
+      renderedFrameCount += counters.renderedOutputBufferCount;
+    }
+    videoCounters = null;
+    videoFormat = null;
+  }
+
+  // AudioRendererEventListener
+
+  @Override
+  public void onAudioEnabled(DecoderCounters counters) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioSessionId(int audioSessionId) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioDecoderInitialized(String decoderName, long initializedTimestampMs,
+      long initializationDurationMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioInputFormatChanged(Format format) {
+    updateTimes(clock.elapsedRealtime());
+    audioFormat = format;
+  }
+
+  @Override
+  public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs,
+      long elapsedSinceLastFeedMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioDisabled(DecoderCounters counters) {
+    updateTimes(clock.elapsedRealtime());
+    audioFormat = null;
+  }
+
+  // AdaptiveMediaSourceEventListener
+
+  @Override
+  public void onLoadStarted(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+      int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+      long mediaEndTimeMs, long elapsedRealtimeMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onLoadCompleted(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+      int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+      long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded) {
+    if (sessionActive && trackType >= 0 && trackType < this.bytesLoaded.length) {
+      this.bytesLoaded[trackType] += bytesLoaded;
+    }
+  }
+
+  @Override
+  public void onLoadCanceled(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+      int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+      long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onLoadError(DataSpec dataSpec, int dataType, int trackType, Format trackFormat,
+      int trackSelectionReason, Object trackSelectionData, long mediaStartTimeMs,
+      long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs, long bytesLoaded,
+      IOException error, boolean wasCanceled) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onUpstreamDiscarded(int trackType, long mediaStartTimeMs, long mediaEndTimeMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onDownstreamFormatChanged(int trackType, Format trackFormat,
+      int trackSelectionReason, Object trackSelectionData, long mediaTimeMs) {
+    if (trackType != C.TRACK_TYPE_VIDEO && trackType != C.TRACK_TYPE_DEFAULT) {
+      return;
+    }
+    if (sessionActive && loadingVideoFormat != null && trackFormat != null
+        && trackFormat.bitrate != loadingVideoFormat.bitrate) {
+      bitrateSwitchCount++;
+    }
+    loadingVideoFormat = trackFormat;
+  }
+
+  // BandwidthMeter.EventListener
+
+  @Override
+  public void onBandwidthSample(int elapsedMs, long bytes, long bitrate) {
+    if (sessionActive) {
+      bandwidthSampleBytes += bytes;
+      bandwidthSampleElapsedMs += elapsedMs;
+    }
+  }
+
+  // Internal methods.
+
+  private void startSession(long nowMs) {
+    sessionActive = true;
+    sessionStartTimeMs = wallClock.currentTimeMillis();
+    sessionStartElapsedRealtimeMs = nowMs;
+    lastUpdateTimeMs = nowMs;
+    if (videoCounters != null) {
+      // Frames rendered before the session started are not counted.
+      videoCounters.ensureUpdated();
+      renderedFrameCount = -videoCounters.renderedOutputBufferCount;
+    }
+  }
+
+  /**
+   * Attributes the time since the last update to the current state and formats.
+   */
+  private void updateTimes(long nowMs) {
+    if (!sessionActive) {
+      return;
+    }
+    long elapsedMs = nowMs - lastUpdateTimeMs;
+    lastUpdateTimeMs = nowMs;
+    if (rebuffering) {
+      rebufferTimeMs += elapsedMs;
+    } else if (playWhenReady && playbackState == ExoPlayer.STATE_READY) {
+      playingTimeMs += elapsedMs;
+      addFormatPlayingTime(videoFormat, elapsedMs);
+      addFormatPlayingTime(audioFormat, elapsedMs);
+    }
+  }
+
+  private void addFormatPlayingTime(Format format, long elapsedMs) {
+    if (format == null || elapsedMs == 0) {
+      return;
+    }
+    Long formatPlayingTimeMs = formatPlayingTimesMs.get(format);
+    formatPlayingTimesMs.put(format,
+        formatPlayingTimeMs == null ? elapsedMs : formatPlayingTimeMs + elapsedMs);
+  }
+
+  private PlaybackStats buildStats() {
+    int renderedFrameCount = this.renderedFrameCount;
+    if (videoCounters != null) {
+      videoCounters.ensureUpdated();
+      renderedFrameCount += videoCounters.renderedOutputBufferCount;
+    }
+    long meanBandwidth = bandwidthSampleElapsedMs == 0 ? BandwidthMeter.NO_ESTIMATE
+        : bandwidthSampleBytes * 8000 / bandwidthSampleElapsedMs;
+    return new PlaybackStats(sessionStartTimeMs, lastUpdateTimeMs - sessionStartElapsedRealtimeMs,
+        startupTimeMs, playingTimeMs, rebufferCount, rebufferTimeMs, bitrateSwitchCount,
+        droppedFrameCount, renderedFrameCount, meanBandwidth, bytesLoaded.clone(),
+        Collections.unmodifiableMap(new HashMap<>(formatPlayingTimesMs)));
+  }
+
+  private void resetSession() {
+    sessionActive = false;
+    startupTimeMs = C.TIME_UNSET;
+    playingTimeMs = 0;
+    rebufferCount = 0;
+    rebufferTimeMs = 0;
+    rebuffering = false;
+    bitrateSwitchCount = 0;
+    droppedFrameCount = 0;
+    renderedFrameCount = 0;
+    bandwidthSampleBytes = 0;
+    bandwidthSampleElapsedMs = 0;
+    loadingVideoFormat = null;
+    formatPlayingTimesMs.clear();
+    for (int i = 0; i < bytesLoaded.length; i++) {
+      bytesLoaded[i] = 0;
+    }
+  }
+
+}
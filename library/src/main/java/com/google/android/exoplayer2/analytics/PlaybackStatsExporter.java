@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.analytics;
+
+/**
+ * Exports {@link PlaybackStats} for completed playback sessions.
+ */
+public interface PlaybackStatsExporter {
+
+  /**
+   * Called on the thread that the {@link PlaybackStatsCollector} is used on when a playback
+   * session ends. Implementations that perform I/O should do so on another thread.
+   *
+   * @param stats The statistics for the session.
+   */
+  void export(PlaybackStats stats);
+
+}
@@ -681,6 +681,21 @@ public final class AudioTrack {
         || overrideHasPendingData());
   }
 
+  /**
+   * Returns the duration of the data that has been written to the audio track but not yet played,
+   * in microseconds.
+   *
+   * @return The duration of the pending data for initialized PCM {@link AudioTrack}s, or
+   *     {@link C#TIME_UNSET} otherwise.
+   */
+  public long getPendingDataDurationUs() {
+    if (!isInitialized() || passthrough) {
+      return C.TIME_UNSET;
+    }
+    long pendingFrames = getSubmittedFrames() - audioTrackUtil.getPlaybackHeadPosition();
+    return framesToDurationUs(Math.max(0, pendingFrames));
+  }
+
   /**
    * Sets the playback parameters. Only available for {@link Util#SDK_INT} &gt;= 23
    *
@@ -281,6 +281,19 @@ public abstract class SimpleDecoderAudioRenderer extends BaseRenderer implements
         || (inputFormat != null && (isSourceReady() || outputBuffer != null));
   }
 
+  @Override
+  public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+    if (getState() == STATE_STARTED) {
+      long pendingDataDurationUs = audioTrack.getPendingDataDurationUs();
+      long bufferSizeUs = audioTrack.getBufferSizeUs();
+      if (pendingDataDurationUs != C.TIME_UNSET && bufferSizeUs != C.TIME_UNSET) {
+        // Render again before the pending data falls below half of the audio track's buffer.
+        return Math.max(0, pendingDataDurationUs - bufferSizeUs / 2);
+      }
+    }
+    return C.TIME_UNSET;
+  }
+
   @Override
   public long getPositionUs() {
     long newCurrentPositionUs = audioTrack.getCurrentPositionUs(isEnded());
@@ -16,10 +16,12 @@
 package com.google.android.exoplayer2.extractor;
 
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.ByteBufferDataSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.util.Assertions;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -36,6 +38,7 @@ public final class DefaultExtractorInput implements ExtractorInput {
   private byte[] peekBuffer;
   private int peekBufferPosition;
   private int peekBufferLength;
+  private byte[] readScratch;
 
   /**
    * @param dataSource The wrapped {@link DataSource}.
@@ -59,6 +62,45 @@ public final class DefaultExtractorInput implements ExtractorInput {
     return bytesRead;
   }
 
+  /**
+   * Like {@link #read(byte[], int, int)}, but reads into a {@link ByteBuffer}, starting at its
+   * position. The position of the buffer is advanced by the number of bytes read.
+   * <p>
+   * If the input is backed by a {@link ByteBufferDataSource} then data is copied directly from the
+   * source into the buffer. This allows sample data to be written into direct buffers without
+   * being copied through an intermediate array.
+   *
+   * @param target The buffer into which data should be written. Must have at least {@code length}
+   *     bytes remaining.
+   * @param length The maximum number of bytes to read from the input.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if the input has ended.
+   * @throws IOException If an error occurs reading from the input.
+   * @throws InterruptedException If the thread has been interrupted.
+   */
+  public int read(ByteBuffer target, int length) throws IOException, InterruptedException {
+    int bytesRead = 0;
+    if (peekBufferLength != 0) {
+      bytesRead = Math.min(peekBufferLength, length);
+      target.put(peekBuffer, 0, bytesRead);
+      updatePeekBuffer(bytesRead);
+    } else if (dataSource instanceof ByteBufferDataSource) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      bytesRead = ((ByteBufferDataSource) dataSource).read(target, length);
+    } else {
+      if (readScratch == null || readScratch.length < length) {
+        readScratch = new byte[length];
+      }
+      bytesRead = readFromDataSource(readScratch, 0, length, 0, true);
+      if (bytesRead != C.RESULT_END_OF_INPUT) {
+        target.put(readScratch, 0, bytesRead);
+      }
+    }
+    commitBytesRead(bytesRead);
+    return bytesRead;
+  }
+
   @Override
   public boolean readFully(byte[] target, int offset, int length, boolean allowEndOfInput)
       throws IOException, InterruptedException {
@@ -21,9 +21,7 @@ import com.google.android.exoplayer2.FormatHolder;
 import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
 import com.google.android.exoplayer2.upstream.Allocation;
 import com.google.android.exoplayer2.upstream.Allocator;
-import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.ParsableByteArray;
-import com.google.android.exoplayer2.util.Util;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -33,6 +31,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 /**
  * A {@link TrackOutput} that buffers extracted samples in a queue and allows for consumption from
  * that queue.
+ * <p>
+ * If the {@link Allocator} provides {@link Allocation}s backed by direct buffers (see
+ * {@link Allocation#directData}), sample data is held off the Java heap and copied directly from
+ * the allocations into the {@link DecoderInputBuffer}s passed to
+ * {@link #readData(FormatHolder, DecoderInputBuffer, boolean, long)}.
  */
 public final class DefaultTrackOutput implements TrackOutput {
 
@@ -59,15 +62,17 @@ public final class DefaultTrackOutput implements TrackOutput {
   private final Allocator allocator;
   private final int allocationLength;
 
-  private final InfoQueue infoQueue;
+  private final SampleMetadataQueue infoQueue;
   private final LinkedBlockingDeque<Allocation> dataQueue;
-  private final BufferExtrasHolder extrasHolder;
+  private final SampleMetadataQueue.SampleExtrasHolder extrasHolder;
   private final ParsableByteArray scratch;
   private final AtomicInteger state;
 
   // Accessed only by the consuming thread.
   private long totalBytesDropped;
   private Format downstreamFormat;
+  private Allocation readAllocation;
+  private ByteBuffer readAllocationView;
 
   // Accessed only by the loading thread (or the consuming thread when there is no loading thread).
   private long sampleOffsetUs;
@@ -76,6 +81,7 @@ public final class DefaultTrackOutput implements TrackOutput {
   private int lastAllocationOffset;
   private boolean needKeyframe;
   private boolean pendingSplice;
+  private byte[] writeScratch;
   private UpstreamFormatChangedListener upstreamFormatChangeListener;
 
   /**
@@ -84,9 +90,9 @@ public final class DefaultTrackOutput implements TrackOutput {
   public DefaultTrackOutput(Allocator allocator) {
     this.allocator = allocator;
     allocationLength = allocator.getIndividualAllocationLength();
-    infoQueue = new InfoQueue();
+    infoQueue = new SampleMetadataQueue();
     dataQueue = new LinkedBlockingDeque<>();
-    extrasHolder = new BufferExtrasHolder();
+    extrasHolder = new SampleMetadataQueue.SampleExtrasHolder();
     scratch = new ParsableByteArray(INITIAL_SCRATCH_SIZE);
     state = new AtomicInteger();
     lastAllocationOffset = allocationLength;
@@ -288,13 +294,15 @@ public final class DefaultTrackOutput implements TrackOutput {
    * Reads encryption data for the current sample.
    * <p>
    * The encryption data is written into {@link DecoderInputBuffer#cryptoInfo}, and
-   * {@link BufferExtrasHolder#size} is adjusted to subtract the number of bytes that were read. The
-   * same value is added to {@link BufferExtrasHolder#offset}.
+   * {@link SampleMetadataQueue.SampleExtrasHolder#size} is adjusted to subtract the number of
+   * bytes that were read. The same value is added to
+   * {@link SampleMetadataQueue.SampleExtrasHolder#offset}.
    *
    * @param buffer The buffer into which the encryption data should be written.
    * @param extrasHolder The extras holder whose offset should be read and subsequently adjusted.
    */
-  private void readEncryptionData(DecoderInputBuffer buffer, BufferExtrasHolder extrasHolder) {
+  private void readEncryptionData(DecoderInputBuffer buffer,
+      SampleMetadataQueue.SampleExtrasHolder extrasHolder) {
     long offset = extrasHolder.offset;
 
     // Read the signal byte.
@@ -370,7 +378,16 @@ public final class DefaultTrackOutput implements TrackOutput {
       int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
       int toCopy = Math.min(remaining, allocationLength - positionInAllocation);
       Allocation allocation = dataQueue.peek();
-      target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
+      if (allocation.isDirect()) {
+        ByteBuffer source = getReadView(allocation);
+        int sourcePosition = allocation.translateOffset(positionInAllocation);
+        source.clear();
+        source.position(sourcePosition);
+        source.limit(sourcePosition + toCopy);
+        target.put(source);
+      } else {
+        target.put(allocation.data, allocation.translateOffset(positionInAllocation), toCopy);
+      }
       absolutePosition += toCopy;
       remaining -= toCopy;
     }
@@ -390,8 +407,15 @@ public final class DefaultTrackOutput implements TrackOutput {
       int positionInAllocation = (int) (absolutePosition - totalBytesDropped);
       int toCopy = Math.min(length - bytesRead, allocationLength - positionInAllocation);
       Allocation allocation = dataQueue.peek();
-      System.arraycopy(allocation.data, allocation.translateOffset(positionInAllocation), target,
-          bytesRead, toCopy);
+      if (allocation.isDirect()) {
+        ByteBuffer source = getReadView(allocation);
+        source.clear();
+        source.position(allocation.translateOffset(positionInAllocation));
+        source.get(target, bytesRead, toCopy);
+      } else {
+        System.arraycopy(allocation.data, allocation.translateOffset(positionInAllocation), target,
+            bytesRead, toCopy);
+      }
       absolutePosition += toCopy;
       bytesRead += toCopy;
     }
@@ -412,6 +436,18 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
   }
 
+  /**
+   * Returns a view of a direct allocation's buffer whose position and limit may be modified by the
+   * consuming thread, without interfering with the loading thread writing to the same buffer.
+   */
+  private ByteBuffer getReadView(Allocation allocation) {
+    if (allocation != readAllocation) {
+      readAllocation = allocation;
+      readAllocationView = allocation.directData.duplicate();
+    }
+    return readAllocationView;
+  }
+
   /**
    * Ensure that the passed {@link ParsableByteArray} is of at least the specified limit.
    */
@@ -470,8 +506,26 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
     try {
       length = prepareForAppend(length);
-      int bytesAppended = input.read(lastAllocation.data,
-          lastAllocation.translateOffset(lastAllocationOffset), length);
+      int bytesAppended;
+      if (lastAllocation.isDirect()) {
+        ByteBuffer target = lastAllocation.directData;
+        target.position(lastAllocation.translateOffset(lastAllocationOffset));
+        if (input instanceof DefaultExtractorInput) {
+          bytesAppended = ((DefaultExtractorInput) input).read(target, length);
+        } else {
+          // Other inputs can only read into arrays, so read via a scratch array.
+          if (writeScratch == null) {
+            writeScratch = new byte[allocationLength];
+          }
+          bytesAppended = input.read(writeScratch, 0, length);
+          if (bytesAppended != C.RESULT_END_OF_INPUT) {
+            target.put(writeScratch, 0, bytesAppended);
+          }
+        }
+      } else {
+        bytesAppended = input.read(lastAllocation.data,
+            lastAllocation.translateOffset(lastAllocationOffset), length);
+      }
       if (bytesAppended == C.RESULT_END_OF_INPUT) {
         if (allowEndOfInput) {
           return C.RESULT_END_OF_INPUT;
@@ -494,8 +548,14 @@ public final class DefaultTrackOutput implements TrackOutput {
     }
     while (length > 0) {
       int thisAppendLength = prepareForAppend(length);
-      buffer.readBytes(lastAllocation.data, lastAllocation.translateOffset(lastAllocationOffset),
-          thisAppendLength);
+      if (lastAllocation.isDirect()) {
+        ByteBuffer target = lastAllocation.directData;
+        target.position(lastAllocation.translateOffset(lastAllocationOffset));
+        buffer.readBytes(target, thisAppendLength);
+      } else {
+        buffer.readBytes(lastAllocation.data, lastAllocation.translateOffset(lastAllocationOffset),
+            thisAppendLength);
+      }
       lastAllocationOffset += thisAppendLength;
       totalBytesWritten += thisAppendLength;
       length -= thisAppendLength;
@@ -584,361 +644,4 @@ public final class DefaultTrackOutput implements TrackOutput {
     return format;
   }
 
-  /**
-   * Holds information about the samples in the rolling buffer.
-   */
-  private static final class InfoQueue {
-
-    private static final int SAMPLE_CAPACITY_INCREMENT = 1000;
-
-    private int capacity;
-
-    private int[] sourceIds;
-    private long[] offsets;
-    private int[] sizes;
-    private int[] flags;
-    private long[] timesUs;
-    private byte[][] encryptionKeys;
-    private Format[] formats;
-
-    private int queueSize;
-    private int absoluteReadIndex;
-    private int relativeReadIndex;
-    private int relativeWriteIndex;
-
-    private long largestDequeuedTimestampUs;
-    private long largestQueuedTimestampUs;
-    private boolean upstreamFormatRequired;
-    private Format upstreamFormat;
-    private int upstreamSourceId;
-
-    public InfoQueue() {
-      capacity = SAMPLE_CAPACITY_INCREMENT;
-      sourceIds = new int[capacity];
-      offsets = new long[capacity];
-      timesUs = new long[capacity];
-      flags = new int[capacity];
-      sizes = new int[capacity];
-      encryptionKeys = new byte[capacity][];
-      formats = new Format[capacity];
-      largestDequeuedTimestampUs = Long.MIN_VALUE;
-      largestQueuedTimestampUs = Long.MIN_VALUE;
-      upstreamFormatRequired = true;
-    }
-
-    public void clearSampleData() {
-      absoluteReadIndex = 0;
-      relativeReadIndex = 0;
-      relativeWriteIndex = 0;
-      queueSize = 0;
-    }
-
-    // Called by the consuming thread, but only when there is no loading thread.
-
-    public void resetLargestParsedTimestamps() {
-      largestDequeuedTimestampUs = Long.MIN_VALUE;
-      largestQueuedTimestampUs = Long.MIN_VALUE;
-    }
-
-    /**
-     * Returns the current absolute write index.
-     */
-    public int getWriteIndex() {
-      return absoluteReadIndex + queueSize;
-    }
-
-    /**
-     * Discards samples from the write side of the buffer.
-     *
-     * @param discardFromIndex The absolute index of the first sample to be discarded.
-     * @return The reduced total number of bytes written, after the samples have been discarded.
-     */
-    public long discardUpstreamSamples(int discardFromIndex) {
-      int discardCount = getWriteIndex() - discardFromIndex;
-      Assertions.checkArgument(0 <= discardCount && discardCount <= queueSize);
-
-      if (discardCount == 0) {
-        if (absoluteReadIndex == 0) {
-          // queueSize == absoluteReadIndex == 0, so nothing has been written to the queue.
-          return 0;
-        }
-        int lastWriteIndex = (relativeWriteIndex == 0 ? capacity : relativeWriteIndex) - 1;
-        return offsets[lastWriteIndex] + sizes[lastWriteIndex];
-      }
-
-      queueSize -= discardCount;
-      relativeWriteIndex = (relativeWriteIndex + capacity - discardCount) % capacity;
-      // Update the largest queued timestamp, assuming that the timestamps prior to a keyframe are
-      // always less than the timestamp of the keyframe itself, and of subsequent frames.
-      largestQueuedTimestampUs = Long.MIN_VALUE;
-      for (int i = queueSize - 1; i >= 0; i--) {
-        int sampleIndex = (relativeReadIndex + i) % capacity;
-        largestQueuedTimestampUs = Math.max(largestQueuedTimestampUs, timesUs[sampleIndex]);
-        if ((flags[sampleIndex] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-          break;
-        }
-      }
-      return offsets[relativeWriteIndex];
-    }
-
-    public void sourceId(int sourceId) {
-      upstreamSourceId = sourceId;
-    }
-
-    // Called by the consuming thread.
-
-    /**
-     * Returns the current absolute read index.
-     */
-    public int getReadIndex() {
-      return absoluteReadIndex;
-    }
-
-    /**
-     * Peeks the source id of the next sample, or the current upstream source id if the queue is
-     * empty.
-     */
-    public int peekSourceId() {
-      return queueSize == 0 ? upstreamSourceId : sourceIds[relativeReadIndex];
-    }
-
-    /**
-     * Returns whether the queue is empty.
-     */
-    public synchronized boolean isEmpty() {
-      return queueSize == 0;
-    }
-
-    /**
-     * Returns the upstream {@link Format} in which samples are being queued.
-     */
-    public synchronized Format getUpstreamFormat() {
-      return upstreamFormatRequired ? null : upstreamFormat;
-    }
-
-    /**
-     * Returns the largest sample timestamp that has been queued since the last {@link #reset}.
-     * <p>
-     * Samples that were discarded by calling {@link #discardUpstreamSamples(int)} are not
-     * considered as having been queued. Samples that were dequeued from the front of the queue are
-     * considered as having been queued.
-     *
-     * @return The largest sample timestamp that has been queued, or {@link Long#MIN_VALUE} if no
-     *     samples have been queued.
-     */
-    public synchronized long getLargestQueuedTimestampUs() {
-      return Math.max(largestDequeuedTimestampUs, largestQueuedTimestampUs);
-    }
-
-    /**
-     * Attempts to read from the queue.
-     *
-     * @param formatHolder A {@link FormatHolder} to populate in the case of reading a format.
-     * @param buffer A {@link DecoderInputBuffer} to populate in the case of reading a sample or the
-     *     end of the stream. If a sample is read then the buffer is populated with information
-     *     about the sample, but not its data. The size and absolute position of the data in the
-     *     rolling buffer is stored in {@code extrasHolder}, along with an encryption id if present
-     *     and the absolute position of the first byte that may still be required after the current
-     *     sample has been read.
-     * @param downstreamFormat The current downstream {@link Format}. If the format of the next
-     *     sample is different to the current downstream format then a format will be read.
-     * @param extrasHolder The holder into which extra sample information should be written.
-     * @return The result, which can be {@link C#RESULT_NOTHING_READ}, {@link C#RESULT_FORMAT_READ}
-     *     or {@link C#RESULT_BUFFER_READ}.
-     */
-    public synchronized int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
-        Format downstreamFormat, BufferExtrasHolder extrasHolder) {
-      if (queueSize == 0) {
-        if (upstreamFormat != null && upstreamFormat != downstreamFormat) {
-          formatHolder.format = upstreamFormat;
-          return C.RESULT_FORMAT_READ;
-        }
-        return C.RESULT_NOTHING_READ;
-      }
-
-      if (formats[relativeReadIndex] != downstreamFormat) {
-        formatHolder.format = formats[relativeReadIndex];
-        return C.RESULT_FORMAT_READ;
-      }
-
-      buffer.timeUs = timesUs[relativeReadIndex];
-      buffer.setFlags(flags[relativeReadIndex]);
-      extrasHolder.size = sizes[relativeReadIndex];
-      extrasHolder.offset = offsets[relativeReadIndex];
-      extrasHolder.encryptionKeyId = encryptionKeys[relativeReadIndex];
-
-      largestDequeuedTimestampUs = Math.max(largestDequeuedTimestampUs, buffer.timeUs);
-      queueSize--;
-      relativeReadIndex++;
-      absoluteReadIndex++;
-      if (relativeReadIndex == capacity) {
-        // Wrap around.
-        relativeReadIndex = 0;
-      }
-
-      extrasHolder.nextOffset = queueSize > 0 ? offsets[relativeReadIndex]
-          : extrasHolder.offset + extrasHolder.size;
-      return C.RESULT_BUFFER_READ;
-    }
-
-    /**
-     * Attempts to locate the keyframe before the specified time, if it's present in the buffer.
-     *
-     * @param timeUs The seek time.
-     * @return The offset of the keyframe's data if the keyframe was present.
-     *     {@link C#POSITION_UNSET} otherwise.
-     */
-    public synchronized long skipToKeyframeBefore(long timeUs) {
-      if (queueSize == 0 || timeUs < timesUs[relativeReadIndex]) {
-        return C.POSITION_UNSET;
-      }
-
-      int lastWriteIndex = (relativeWriteIndex == 0 ? capacity : relativeWriteIndex) - 1;
-      long lastTimeUs = timesUs[lastWriteIndex];
-      if (timeUs > lastTimeUs) {
-        return C.POSITION_UNSET;
-      }
-
-      // This could be optimized to use a binary search, however in practice callers to this method
-      // often pass times near to the start of the buffer. Hence it's unclear whether switching to
-      // a binary search would yield any real benefit.
-      int sampleCount = 0;
-      int sampleCountToKeyframe = -1;
-      int searchIndex = relativeReadIndex;
-      while (searchIndex != relativeWriteIndex) {
-        if (timesUs[searchIndex] > timeUs) {
-          // We've gone too far.
-          break;
-        } else if ((flags[searchIndex] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-          // We've found a keyframe, and we're still before the seek position.
-          sampleCountToKeyframe = sampleCount;
-        }
-        searchIndex = (searchIndex + 1) % capacity;
-        sampleCount++;
-      }
-
-      if (sampleCountToKeyframe == -1) {
-        return C.POSITION_UNSET;
-      }
-
-      queueSize -= sampleCountToKeyframe;
-      relativeReadIndex = (relativeReadIndex + sampleCountToKeyframe) % capacity;
-      absoluteReadIndex += sampleCountToKeyframe;
-      return offsets[relativeReadIndex];
-    }
-
-    // Called by the loading thread.
-
-    public synchronized boolean format(Format format) {
-      if (format == null) {
-        upstreamFormatRequired = true;
-        return false;
-      }
-      upstreamFormatRequired = false;
-      if (Util.areEqual(format, upstreamFormat)) {
-        // Suppress changes between equal formats so we can use referential equality in readData.
-        return false;
-      } else {
-        upstreamFormat = format;
-        return true;
-      }
-    }
-
-    public synchronized void commitSample(long timeUs, int sampleFlags, long offset, int size,
-        byte[] encryptionKey) {
-      Assertions.checkState(!upstreamFormatRequired);
-      commitSampleTimestamp(timeUs);
-      timesUs[relativeWriteIndex] = timeUs;
-      offsets[relativeWriteIndex] = offset;
-      sizes[relativeWriteIndex] = size;
-      flags[relativeWriteIndex] = sampleFlags;
-      encryptionKeys[relativeWriteIndex] = encryptionKey;
-      formats[relativeWriteIndex] = upstreamFormat;
-      sourceIds[relativeWriteIndex] = upstreamSourceId;
-      // Increment the write index.
-      queueSize++;
-      if (queueSize == capacity) {
-        // Increase the capacity.
-        int newCapacity = capacity + SAMPLE_CAPACITY_INCREMENT;
-        int[] newSourceIds = new int[newCapacity];
-        long[] newOffsets = new long[newCapacity];
-        long[] newTimesUs = new long[newCapacity];
-        int[] newFlags = new int[newCapacity];
-        int[] newSizes = new int[newCapacity];
-        byte[][] newEncryptionKeys = new byte[newCapacity][];
-        Format[] newFormats = new Format[newCapacity];
-        int beforeWrap = capacity - relativeReadIndex;
-        System.arraycopy(offsets, relativeReadIndex, newOffsets, 0, beforeWrap);
-        System.arraycopy(timesUs, relativeReadIndex, newTimesUs, 0, beforeWrap);
-        System.arraycopy(flags, relativeReadIndex, newFlags, 0, beforeWrap);
-        System.arraycopy(sizes, relativeReadIndex, newSizes, 0, beforeWrap);
-        System.arraycopy(encryptionKeys, relativeReadIndex, newEncryptionKeys, 0, beforeWrap);
-        System.arraycopy(formats, relativeReadIndex, newFormats, 0, beforeWrap);
-        System.arraycopy(sourceIds, relativeReadIndex, newSourceIds, 0, beforeWrap);
-        int afterWrap = relativeReadIndex;
-        System.arraycopy(offsets, 0, newOffsets, beforeWrap, afterWrap);
-        System.arraycopy(timesUs, 0, newTimesUs, beforeWrap, afterWrap);
-        System.arraycopy(flags, 0, newFlags, beforeWrap, afterWrap);
-        System.arraycopy(sizes, 0, newSizes, beforeWrap, afterWrap);
-        System.arraycopy(encryptionKeys, 0, newEncryptionKeys, beforeWrap, afterWrap);
-        System.arraycopy(formats, 0, newFormats, beforeWrap, afterWrap);
-        System.arraycopy(sourceIds, 0, newSourceIds, beforeWrap, afterWrap);
-        offsets = newOffsets;
-        timesUs = newTimesUs;
-        flags = newFlags;
-        sizes = newSizes;
-        encryptionKeys = newEncryptionKeys;
-        formats = newFormats;
-        sourceIds = newSourceIds;
-        relativeReadIndex = 0;
-        relativeWriteIndex = capacity;
-        queueSize = capacity;
-        capacity = newCapacity;
-      } else {
-        relativeWriteIndex++;
-        if (relativeWriteIndex == capacity) {
-          // Wrap around.
-          relativeWriteIndex = 0;
-        }
-      }
-    }
-
-    public synchronized void commitSampleTimestamp(long timeUs) {
-      largestQueuedTimestampUs = Math.max(largestQueuedTimestampUs, timeUs);
-    }
-
-    /**
-     * Attempts to discard samples from the tail of the queue to allow samples starting from the
-     * specified timestamp to be spliced in.
-     *
-     * @param timeUs The timestamp at which the splice occurs.
-     * @return Whether the splice was successful.
-     */
-    public synchronized boolean attemptSplice(long timeUs) {
-      if (largestDequeuedTimestampUs >= timeUs) {
-        return false;
-      }
-      int retainCount = queueSize;
-      while (retainCount > 0
-          && timesUs[(relativeReadIndex + retainCount - 1) % capacity] >= timeUs) {
-        retainCount--;
-      }
-      discardUpstreamSamples(absoluteReadIndex + retainCount);
-      return true;
-    }
-
-  }
-
-  /**
-   * Holds additional buffer information not held by {@link DecoderInputBuffer}.
-   */
-  private static final class BufferExtrasHolder {
-
-    public int size;
-    public long offset;
-    public long nextOffset;
-    public byte[] encryptionKeyId;
-
-  }
-
 }
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.FormatHolder;
+import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds information about the samples in a {@link DefaultTrackOutput}.
+ * <p>
+ * The queue has a single writer (the loading thread) and a single reader (the consuming thread),
+ * and neither ever blocks the other. The writer populates the slot following the last sample and
+ * then publishes it by incrementing the volatile write index. The reader claims samples by
+ * atomically advancing the read index, which is packed into a single {@link AtomicLong} together
+ * with a discard count. Discarding samples from the write side increments the discard count, which
+ * means that a reader that read metadata for a sample that was subsequently discarded will fail to
+ * claim it, and will try again.
+ * <p>
+ * Slots are reused only once the reader has finished with them, as indicated by a separate consumed
+ * index. When the writer catches up with the consumed index, the queue's storage is replaced with
+ * larger storage. Readers that are still operating on the previous storage see consistent data,
+ * since the writer never modifies storage once it has been replaced.
+ */
+/* package */ final class SampleMetadataQueue {
+
+  /**
+   * Holds additional sample information not held by {@link DecoderInputBuffer}.
+   */
+  public static final class SampleExtrasHolder {
+
+    public int size;
+    public long offset;
+    public long nextOffset;
+    public byte[] encryptionKeyId;
+
+  }
+
+  private static final int SAMPLE_CAPACITY_INCREMENT = 1000;
+
+  // The read index occupies the low 32 bits, and the discard count the high 32 bits.
+  private final AtomicLong readState;
+
+  // Written by the writer, read by both threads.
+  private volatile Storage storage;
+  private volatile int writeIndex;
+  private volatile long largestQueuedTimestampUs;
+  private volatile boolean upstreamFormatRequired;
+  private volatile Format upstreamFormat;
+  private volatile int upstreamSourceId;
+
+  // Written by the reader, read by both threads.
+  private volatile int consumedIndex;
+  private volatile long largestDequeuedTimestampUs;
+
+  public SampleMetadataQueue() {
+    readState = new AtomicLong();
+    storage = new Storage(SAMPLE_CAPACITY_INCREMENT);
+    largestDequeuedTimestampUs = Long.MIN_VALUE;
+    largestQueuedTimestampUs = Long.MIN_VALUE;
+    upstreamFormatRequired = true;
+  }
+
+  // Called by the consuming thread, but only when there is no loading thread.
+
+  public void clearSampleData() {
+    readState.set(packReadState(getDiscardCount(readState.get()) + 1, 0));
+    writeIndex = 0;
+    consumedIndex = 0;
+  }
+
+  public void resetLargestParsedTimestamps() {
+    largestDequeuedTimestampUs = Long.MIN_VALUE;
+    largestQueuedTimestampUs = Long.MIN_VALUE;
+  }
+
+  /**
+   * Returns the current absolute write index.
+   */
+  public int getWriteIndex() {
+    return writeIndex;
+  }
+
+  /**
+   * Discards samples from the write side of the queue.
+   *
+   * @param discardFromIndex The absolute index of the first sample to be discarded.
+   * @return The reduced total number of bytes written, after the samples have been discarded.
+   */
+  public long discardUpstreamSamples(int discardFromIndex) {
+    int writeIndex = this.writeIndex;
+    int discardCount = writeIndex - discardFromIndex;
+    Assertions.checkArgument(0 <= discardCount && discardFromIndex >= getReadIndex());
+    Storage storage = this.storage;
+    if (discardCount == 0) {
+      if (writeIndex == 0) {
+        // Nothing has been written to the queue.
+        return 0;
+      }
+      int lastWriteSlot = storage.getSlot(writeIndex - 1);
+      return storage.offsets[lastWriteSlot] + storage.sizes[lastWriteSlot];
+    }
+    Assertions.checkState(discardSamplesFrom(discardFromIndex));
+    return storage.offsets[storage.getSlot(discardFromIndex)];
+  }
+
+  public void sourceId(int sourceId) {
+    upstreamSourceId = sourceId;
+  }
+
+  // Called by the consuming thread.
+
+  /**
+   * Returns the current absolute read index.
+   */
+  public int getReadIndex() {
+    return getReadIndex(readState.get());
+  }
+
+  /**
+   * Peeks the source id of the next sample, or the current upstream source id if the queue is
+   * empty.
+   */
+  public int peekSourceId() {
+    int readIndex = getReadIndex();
+    Storage storage = this.storage;
+    return readIndex == writeIndex ? upstreamSourceId
+        : storage.sourceIds[storage.getSlot(readIndex)];
+  }
+
+  /**
+   * Returns whether the queue is empty.
+   */
+  public boolean isEmpty() {
+    return getReadIndex() == writeIndex;
+  }
+
+  /**
+   * Returns the upstream {@link Format} in which samples are being queued.
+   */
+  public Format getUpstreamFormat() {
+    return upstreamFormatRequired ? null : upstreamFormat;
+  }
+
+  /**
+   * Returns the largest sample timestamp that has been queued since the last call to
+   * {@link #resetLargestParsedTimestamps()}.
+   * <p>
+   * Samples that were discarded by calling {@link #discardUpstreamSamples(int)} are not
+   * considered as having been queued. Samples that were dequeued from the front of the queue are
+   * considered as having been queued.
+   *
+   * @return The largest sample timestamp that has been queued, or {@link Long#MIN_VALUE} if no
+   *     samples have been queued.
+   */
+  public long getLargestQueuedTimestampUs() {
+    return Math.max(largestDequeuedTimestampUs, largestQueuedTimestampUs);
+  }
+
+  /**
+   * Attempts to read from the queue.
+   *
+   * @param formatHolder A {@link FormatHolder} to populate in the case of reading a format.
+   * @param buffer A {@link DecoderInputBuffer} to populate in the case of reading a sample or the
+   *     end of the stream. If a sample is read then the buffer is populated with information
+   *     about the sample, but not its data. The size and absolute position of the data in the
+   *     rolling buffer is stored in {@code extrasHolder}, along with an encryption id if present
+   *     and the absolute position of the first byte that may still be required after the current
+   *     sample has been read.
+   * @param downstreamFormat The current downstream {@link Format}. If the format of the next
+   *     sample is different to the current downstream format then a format will be read.
+   * @param extrasHolder The holder into which extra sample information should be written.
+   * @return The result, which can be {@link C#RESULT_NOTHING_READ}, {@link C#RESULT_FORMAT_READ}
+   *     or {@link C#RESULT_BUFFER_READ}.
+   */
+  public int readData(FormatHolder formatHolder, DecoderInputBuffer buffer,
+      Format downstreamFormat, SampleExtrasHolder extrasHolder) {
+    while (true) {
+      long readState = this.readState.get();
+      int readIndex = getReadIndex(readState);
+      if (readIndex >= writeIndex) {
+        Format upstreamFormat = this.upstreamFormat;
+        if (upstreamFormat != null && upstreamFormat != downstreamFormat) {
+          formatHolder.format = upstreamFormat;
+          return C.RESULT_FORMAT_READ;
+        }
+        return C.RESULT_NOTHING_READ;
+      }
+
+      Storage storage = this.storage;
+      int slot = storage.getSlot(readIndex);
+      Format format = storage.formats[slot];
+      long timeUs = storage.timesUs[slot];
+      int flags = storage.flags[slot];
+      int size = storage.sizes[slot];
+      long offset = storage.offsets[slot];
+      byte[] encryptionKeyId = storage.encryptionKeys[slot];
+
+      if (format != downstreamFormat) {
+        if (this.readState.get() != readState) {
+          // The sample was discarded, so the format may be invalid.
+          continue;
+        }
+        formatHolder.format = format;
+        return C.RESULT_FORMAT_READ;
+      }
+
+      if (!this.readState.compareAndSet(readState, readState + 1)) {
+        // The sample was discarded before we could claim it.
+        continue;
+      }
+      consumedIndex = readIndex + 1;
+
+      buffer.timeUs = timeUs;
+      buffer.setFlags(flags);
+      extrasHolder.size = size;
+      extrasHolder.offset = offset;
+      extrasHolder.encryptionKeyId = encryptionKeyId;
+      // The data of subsequent samples is written after the end of this one.
+      extrasHolder.nextOffset = offset + size;
+      if (timeUs > largestDequeuedTimestampUs) {
+        largestDequeuedTimestampUs = timeUs;
+      }
+      return C.RESULT_BUFFER_READ;
+    }
+  }
+
+  /**
+   * Attempts to locate the keyframe before the specified time, if it's present in the queue.
+   *
+   * @param timeUs The seek time.
+   * @return The offset of the keyframe's data if the keyframe was present.
+   *     {@link C#POSITION_UNSET} otherwise.
+   */
+  public long skipToKeyframeBefore(long timeUs) {
+    while (true) {
+      long readState = this.readState.get();
+      int readIndex = getReadIndex(readState);
+      int writeIndex = this.writeIndex;
+      Storage storage = this.storage;
+      if (readIndex >= writeIndex || timeUs < storage.timesUs[storage.getSlot(readIndex)]
+          || timeUs > storage.timesUs[storage.getSlot(writeIndex - 1)]) {
+        if (this.readState.get() != readState) {
+          // Samples were discarded, so the timestamps we read may be invalid.
+          continue;
+        }
+        return C.POSITION_UNSET;
+      }
+
+      // This could be optimized to use a binary search, however in practice callers to this method
+      // often pass times near to the start of the queue. Hence it's unclear whether switching to a
+      // binary search would yield any real benefit.
+      int sampleCountToKeyframe = -1;
+      for (int index = readIndex; index < writeIndex; index++) {
+        int slot = storage.getSlot(index);
+        if (storage.timesUs[slot] > timeUs) {
+          // We've gone too far.
+          break;
+        } else if ((storage.flags[slot] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+          // We've found a keyframe, and we're still before the seek position.
+          sampleCountToKeyframe = index - readIndex;
+        }
+      }
+
+      if (sampleCountToKeyframe == -1) {
+        if (this.readState.get() != readState) {
+          // Samples were discarded, so the timestamps we read may be invalid.
+          continue;
+        }
+        return C.POSITION_UNSET;
+      }
+
+      long keyframeOffset = storage.offsets[storage.getSlot(readIndex + sampleCountToKeyframe)];
+      if (this.readState.compareAndSet(readState, readState + sampleCountToKeyframe)) {
+        consumedIndex = readIndex + sampleCountToKeyframe;
+        return keyframeOffset;
+      }
+    }
+  }
+
+  // Called by the loading thread.
+
+  public boolean format(Format format) {
+    if (format == null) {
+      upstreamFormatRequired = true;
+      return false;
+    }
+    upstreamFormatRequired = false;
+    if (Util.areEqual(format, upstreamFormat)) {
+      // Suppress changes between equal formats so we can use referential equality in readData.
+      return false;
+    } else {
+      upstreamFormat = format;
+      return true;
+    }
+  }
+
+  public void commitSample(long timeUs, int sampleFlags, long offset, int size,
+      byte[] encryptionKey) {
+    Assertions.checkState(!upstreamFormatRequired);
+    commitSampleTimestamp(timeUs);
+    int writeIndex = this.writeIndex;
+    Storage storage = this.storage;
+    if (writeIndex - consumedIndex == storage.capacity) {
+      storage = growStorage(storage, writeIndex);
+    }
+    int slot = storage.getSlot(writeIndex);
+    storage.timesUs[slot] = timeUs;
+    storage.offsets[slot] = offset;
+    storage.sizes[slot] = size;
+    storage.flags[slot] = sampleFlags;
+    storage.encryptionKeys[slot] = encryptionKey;
+    storage.formats[slot] = upstreamFormat;
+    storage.sourceIds[slot] = upstreamSourceId;
+    // Publish the sample.
+    this.writeIndex = writeIndex + 1;
+  }
+
+  public void commitSampleTimestamp(long timeUs) {
+    if (timeUs > largestQueuedTimestampUs) {
+      largestQueuedTimestampUs = timeUs;
+    }
+  }
+
+  /**
+   * Attempts to discard samples from the tail of the queue to allow samples starting from the
+   * specified timestamp to be spliced in.
+   *
+   * @param timeUs The timestamp at which the splice occurs.
+   * @return Whether the splice was successful.
+   */
+  public boolean attemptSplice(long timeUs) {
+    if (largestDequeuedTimestampUs >= timeUs) {
+      return false;
+    }
+    Storage storage = this.storage;
+    int readIndex = getReadIndex();
+    int retainIndex = writeIndex;
+    while (retainIndex > readIndex && storage.timesUs[storage.getSlot(retainIndex - 1)] >= timeUs) {
+      retainIndex--;
+    }
+    // The reader may have dequeued some of the samples in the meantime, in which case the splice
+    // fails as it would have done had the reader dequeued them before we started.
+    return discardSamplesFrom(retainIndex);
+  }
+
+  // Internal methods.
+
+  /**
+   * Discards samples from the specified absolute index onwards, provided that the reader has not
+   * already claimed any of them.
+   */
+  private boolean discardSamplesFrom(int discardFromIndex) {
+    int previousWriteIndex = writeIndex;
+    if (discardFromIndex == previousWriteIndex) {
+      return true;
+    }
+    // Lower the write index first, so that the reader cannot claim samples that are about to be
+    // discarded without first reading the state we're about to update.
+    writeIndex = discardFromIndex;
+    long readState;
+    do {
+      readState = this.readState.get();
+      if (getReadIndex(readState) > discardFromIndex) {
+        // The reader has claimed samples that we wanted to discard.
+        writeIndex = previousWriteIndex;
+        return false;
+      }
+    } while (!this.readState.compareAndSet(readState,
+        packReadState(getDiscardCount(readState) + 1, getReadIndex(readState))));
+    // Update the largest queued timestamp, assuming that the timestamps prior to a keyframe are
+    // always less than the timestamp of the keyframe itself, and of subsequent frames.
+    Storage storage = this.storage;
+    long largestQueuedTimestampUs = Long.MIN_VALUE;
+    for (int index = discardFromIndex - 1; index >= getReadIndex(readState); index--) {
+      int slot = storage.getSlot(index);
+      largestQueuedTimestampUs = Math.max(largestQueuedTimestampUs, storage.timesUs[slot]);
+      if ((storage.flags[slot] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        break;
+      }
+    }
+    this.largestQueuedTimestampUs = largestQueuedTimestampUs;
+    return true;
+  }
+
+  private Storage growStorage(Storage storage, int writeIndex) {
+    Storage newStorage = new Storage(storage.capacity + SAMPLE_CAPACITY_INCREMENT);
+    for (int index = consumedIndex; index < writeIndex; index++) {
+      int slot = storage.getSlot(index);
+      int newSlot = newStorage.getSlot(index);
+      newStorage.timesUs[newSlot] = storage.timesUs[slot];
+      newStorage.offsets[newSlot] = storage.offsets[slot];
+      newStorage.sizes[newSlot] = storage.sizes[slot];
+      newStorage.flags[newSlot] = storage.flags[slot];
+      newStorage.encryptionKeys[newSlot] = storage.encryptionKeys[slot];
+      newStorage.formats[newSlot] = storage.formats[slot];
+      newStorage.sourceIds[newSlot] = storage.sourceIds[slot];
+    }
+    this.storage = newStorage;
+    return newStorage;
+  }
+
+  private static int getReadIndex(long readState) {
+    return (int) readState;
+  }
+
+  private static int getDiscardCount(long readState) {
+    return (int) (readState >>> 32);
+  }
+
+  private static long packReadState(int discardCount, int readIndex) {
+    return ((long) discardCount << 32) | (readIndex & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Per-sample metadata, indexed by absolute sample index modulo capacity.
+   */
+  private static final class Storage {
+
+    public final int capacity;
+    public final int[] sourceIds;
+    public final long[] offsets;
+    public final int[] sizes;
+    public final int[] flags;
+    public final long[] timesUs;
+    public final byte[][] encryptionKeys;
+    public final Format[] formats;
+
+    public Storage(int capacity) {
+      this.capacity = capacity;
+      sourceIds = new int[capacity];
+      offsets = new long[capacity];
+      timesUs = new long[capacity];
+      flags = new int[capacity];
+      sizes = new int[capacity];
+      encryptionKeys = new byte[capacity][];
+      formats = new Format[capacity];
+    }
+
+    public int getSlot(int absoluteIndex) {
+      return absoluteIndex % capacity;
+    }
+
+  }
+
+}
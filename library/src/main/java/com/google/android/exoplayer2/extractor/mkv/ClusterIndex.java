@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mkv;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An index of the clusters in a Matroska segment, populated by {@link MatroskaExtractor} as
+ * clusters are parsed.
+ * <p>
+ * The extractor uses the index to seek in files that do not contain a Cues element. An index can
+ * be persisted as metadata of cached content using {@link #writeTo(Cache, String)}, and restored
+ * for a later playback of the same content using {@link #readFrom(Cache, String)}. An index
+ * restored for different content is discarded when the extractor parses the Segment element.
+ * <p>
+ * Instances are thread safe.
+ */
+public final class ClusterIndex {
+
+  private static final String CACHE_METADATA_NAME = "exo_mkv_cluster_index";
+  private static final int VERSION = 1;
+  private static final int DEFAULT_INITIAL_CAPACITY = 32;
+
+  private long segmentContentPosition;
+  private long segmentContentSize;
+  private int size;
+  private long[] timesUs;
+  private long[] contentPositions;
+  private long[] contentEndPositions;
+  private int modificationCount;
+
+  public ClusterIndex() {
+    segmentContentPosition = C.POSITION_UNSET;
+    segmentContentSize = C.LENGTH_UNSET;
+    timesUs = new long[DEFAULT_INITIAL_CAPACITY];
+    contentPositions = new long[DEFAULT_INITIAL_CAPACITY];
+    contentEndPositions = new long[DEFAULT_INITIAL_CAPACITY];
+  }
+
+  /**
+   * Reads an index previously written by {@link #writeTo(OutputStream)}.
+   *
+   * @param inputStream The stream from which to read the index.
+   * @return The index.
+   * @throws IOException If an error occurs reading from the stream, or if the stream does not
+   *     contain a valid index.
+   */
+  public static ClusterIndex readFrom(InputStream inputStream) throws IOException {
+    DataInputStream input = new DataInputStream(inputStream);
+    int version = input.readInt();
+    if (version != VERSION) {
+      throw new ParserException("Unsupported cluster index version " + version);
+    }
+    ClusterIndex clusterIndex = new ClusterIndex();
+    clusterIndex.segmentContentPosition = input.readLong();
+    clusterIndex.segmentContentSize = input.readLong();
+    int size = input.readInt();
+    for (int i = 0; i < size; i++) {
+      long timeUs = input.readLong();
+      long contentPosition = input.readLong();
+      long contentEndPosition = input.readLong();
+      clusterIndex.add(timeUs, contentPosition, contentEndPosition);
+    }
+    return clusterIndex;
+  }
+
+  /**
+   * Reads an index stored in a cache by {@link #writeTo(Cache, String)}.
+   *
+   * @param cache The cache.
+   * @param key The cache key of the content to which the index belongs.
+   * @return The index, or an empty index if the cache does not contain a valid index for the key.
+   */
+  public static ClusterIndex readFrom(Cache cache, String key) {
+    byte[] metadata = cache.getContentMetadata(key, CACHE_METADATA_NAME);
+    if (metadata != null) {
+      try {
+        return readFrom(new ByteArrayInputStream(metadata));
+      } catch (IOException e) {
+        // The stored index is invalid. Start a new one.
+      }
+    }
+    return new ClusterIndex();
+  }
+
+  /**
+   * Writes the index to a stream.
+   *
+   * @param outputStream The stream to which the index should be written. The stream is flushed but
+   *     not closed.
+   * @throws IOException If an error occurs writing to the stream.
+   */
+  public synchronized void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream output = new DataOutputStream(outputStream);
+    output.writeInt(VERSION);
+    output.writeLong(segmentContentPosition);
+    output.writeLong(segmentContentSize);
+    output.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      output.writeLong(timesUs[i]);
+      output.writeLong(contentPositions[i]);
+      output.writeLong(contentEndPositions[i]);
+    }
+    output.flush();
+  }
+
+  /**
+   * Stores the index in a cache, as metadata of the content to which it belongs.
+   *
+   * @param cache The cache.
+   * @param key The cache key of the content to which the index belongs.
+   * @return Whether the index was stored. False if the cache contains nothing for the key.
+   */
+  public boolean writeTo(Cache cache, String key) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try {
+      writeTo(outputStream);
+    } catch (IOException e) {
+      // Never thrown when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    return cache.setContentMetadata(key, CACHE_METADATA_NAME, outputStream.toByteArray());
+  }
+
+  /**
+   * Returns the number of indexed clusters.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the start time of an indexed cluster in microseconds.
+   *
+   * @param index The index of the cluster, in the range [0, {@link #size()}).
+   */
+  public synchronized long getTimeUs(int index) {
+    checkIndex(index);
+    return timesUs[index];
+  }
+
+  /**
+   * Returns the position of the content of an indexed cluster, which is the position from which an
+   * extractor can start reading the cluster.
+   *
+   * @param index The index of the cluster, in the range [0, {@link #size()}).
+   */
+  public synchronized long getContentPosition(int index) {
+    checkIndex(index);
+    return contentPositions[index];
+  }
+
+  /**
+   * Returns the position of the end of an indexed cluster, or {@link C#POSITION_UNSET} if the
+   * cluster's size is unknown.
+   *
+   * @param index The index of the cluster, in the range [0, {@link #size()}).
+   */
+  public synchronized long getContentEndPosition(int index) {
+    checkIndex(index);
+    return contentEndPositions[index];
+  }
+
+  /**
+   * Returns the index of the last cluster that starts at or before {@code timeUs}, or -1 if there
+   * is no such cluster.
+   *
+   * @param timeUs The time in microseconds.
+   */
+  public synchronized int getIndexOfEarlierOrEqualCluster(long timeUs) {
+    int index = Arrays.binarySearch(timesUs, 0, size, timeUs);
+    return index < 0 ? -(index + 2) : index;
+  }
+
+  /**
+   * Returns a count that's incremented each time the index is modified.
+   */
+  /* package */ synchronized int getModificationCount() {
+    return modificationCount;
+  }
+
+  /**
+   * Associates the index with a segment, clearing it if it was populated for a different segment.
+   *
+   * @param contentPosition The position of the segment's content.
+   * @param contentSize The size of the segment's content.
+   */
+  /* package */ synchronized void setSegment(long contentPosition, long contentSize) {
+    if (segmentContentPosition != contentPosition || segmentContentSize != contentSize) {
+      segmentContentPosition = contentPosition;
+      segmentContentSize = contentSize;
+      if (size > 0) {
+        size = 0;
+        modificationCount++;
+      }
+    }
+  }
+
+  /**
+   * Adds a cluster to the index, if it is not already indexed.
+   *
+   * @param timeUs The start time of the cluster in microseconds.
+   * @param contentPosition The position of the cluster's content.
+   * @param contentEndPosition The position of the end of the cluster, or
+   *     {@link C#POSITION_UNSET} if unknown.
+   */
+  /* package */ synchronized void add(long timeUs, long contentPosition,
+      long contentEndPosition) {
+    int index = Arrays.binarySearch(timesUs, 0, size, timeUs);
+    if (index >= 0) {
+      // A cluster with this time is already indexed.
+      return;
+    }
+    index = -(index + 1);
+    if (size == timesUs.length) {
+      int capacity = size * 2;
+      timesUs = Arrays.copyOf(timesUs, capacity);
+      contentPositions = Arrays.copyOf(contentPositions, capacity);
+      contentEndPositions = Arrays.copyOf(contentEndPositions, capacity);
+    }
+    System.arraycopy(timesUs, index, timesUs, index + 1, size - index);
+    System.arraycopy(contentPositions, index, contentPositions, index + 1, size - index);
+    System.arraycopy(contentEndPositions, index, contentEndPositions, index + 1, size - index);
+    timesUs[index] = timeUs;
+    contentPositions[index] = contentPosition;
+    contentEndPositions[index] = contentEndPosition;
+    size++;
+    modificationCount++;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+    }
+  }
+
+}
@@ -29,6 +29,7 @@ import com.google.android.exoplayer2.extractor.ExtractorsFactory;
 import com.google.android.exoplayer2.extractor.PositionHolder;
 import com.google.android.exoplayer2.extractor.SeekMap;
 import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.util.LongArray;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.NalUnitUtil;
@@ -65,6 +66,28 @@ public final class MatroskaExtractor implements Extractor {
 
   private static final int UNSET_ENTRY_ID = -1;
 
+  /**
+   * The default size of the unindexed byte range below which the extractor stops bisecting over
+   * clusters and reads forward from the start of the range instead.
+   */
+  /* package */ static final long DEFAULT_MINIMUM_BISECTION_RANGE = 256 * 1024;
+  /**
+   * The maximum size of the gap between the end of one cluster and the content of the next, which
+   * holds the next cluster's four byte ID and its size of up to eight bytes.
+   */
+  private static final int MAX_CLUSTER_HEADER_SIZE = 12;
+  /**
+   * The maximum number of bytes from the start of a cluster to the end of its Timecode element,
+   * allowing for a CRC-32 element before the Timecode element.
+   */
+  private static final int MAX_CLUSTER_SYNC_SIZE = MAX_CLUSTER_HEADER_SIZE + 6 + 17;
+  private static final int CLUSTER_SYNC_BUFFER_SIZE = 4096;
+  /**
+   * Content sizes greater than or equal to this value are treated as unknown. The unknown size is
+   * usually written as an eight byte varint with all value bits set.
+   */
+  private static final long UNKNOWN_CONTENT_SIZE = 0x00FFFFFFFFFFFFFFL;
+
   private static final int BLOCK_STATE_START = 0;
   private static final int BLOCK_STATE_HEADER = 1;
   private static final int BLOCK_STATE_DATA = 2;
@@ -118,6 +141,7 @@ public final class MatroskaExtractor implements Extractor {
   private static final int ID_TIMECODE_SCALE = 0x2AD7B1;
   private static final int ID_DURATION = 0x4489;
   private static final int ID_CLUSTER = 0x1F43B675;
+  private static final int ID_CRC32 = 0xBF;
   private static final int ID_TIME_CODE = 0xE7;
   private static final int ID_SIMPLE_BLOCK = 0xA3;
   private static final int ID_BLOCK_GROUP = 0xA0;
@@ -215,6 +239,9 @@ public final class MatroskaExtractor implements Extractor {
   private static final UUID WAVE_SUBFORMAT_PCM = new UUID(0x0100000000001000L, 0x800000AA00389B71L);
 
   private final EbmlReader reader;
+  private final Cache cache;
+  private final String cacheKey;
+  private final long minimumBisectionRange;
   private final VarintReader varintReader;
   private final SparseArray<Track> tracks;
 
@@ -255,6 +282,18 @@ public final class MatroskaExtractor implements Extractor {
   private LongArray cueClusterPositions;
   private boolean seenClusterPositionForCurrentCuePoint;
 
+  // Cluster index related elements.
+  private ClusterIndex clusterIndex;
+  private int storedClusterIndexModificationCount;
+  private long clusterContentPosition = C.POSITION_UNSET;
+  private long clusterContentEndPosition;
+  private ClusterSeekMap clusterSeekMap;
+  private ClusterBisection clusterBisection;
+  private byte[] clusterSyncBuffer;
+  private long syncedClusterTimeUs;
+  private long syncedClusterContentPosition;
+  private long syncedClusterContentEndPosition;
+
   // Block reading state.
   private int blockState;
   private long blockTimeUs;
@@ -282,12 +321,47 @@ public final class MatroskaExtractor implements Extractor {
   // Extractor outputs.
   private ExtractorOutput extractorOutput;
 
+  /**
+   * Creates an extractor that seeks in files that do not contain a Cues element using a new
+   * {@link ClusterIndex}.
+   */
   public MatroskaExtractor() {
-    this(new DefaultEbmlReader());
+    this(new ClusterIndex());
+  }
+
+  /**
+   * Creates an extractor that uses a {@link ClusterIndex}.
+   *
+   * @param clusterIndex The index used to seek in files that do not contain a Cues element, or
+   *     null if such files should be unseekable. The extractor adds clusters to the index as they
+   *     are parsed. The index may have been restored from a previous playback of the same content.
+   */
+  public MatroskaExtractor(ClusterIndex clusterIndex) {
+    this(new DefaultEbmlReader(), clusterIndex, null, null, DEFAULT_MINIMUM_BISECTION_RANGE);
   }
 
-  /* package */ MatroskaExtractor(EbmlReader reader) {
+  /**
+   * Creates an extractor that persists its {@link ClusterIndex} in a cache, so that seeking in
+   * files that do not contain a Cues element benefits from clusters indexed during previous
+   * playbacks. The index is restored from the cache when the extractor is initialized, and is
+   * stored back when the extractor is released if it has changed.
+   *
+   * @param cache The cache through which the content is loaded.
+   * @param key The cache key of the content, as returned by
+   *     {@link com.google.android.exoplayer2.upstream.cache.CacheUtil#getKey} for the
+   *     {@link com.google.android.exoplayer2.upstream.DataSpec}s from which it's loaded.
+   */
+  public MatroskaExtractor(Cache cache, String key) {
+    this(new DefaultEbmlReader(), null, cache, key, DEFAULT_MINIMUM_BISECTION_RANGE);
+  }
+
+  /* package */ MatroskaExtractor(EbmlReader reader, ClusterIndex clusterIndex, Cache cache,
+      String cacheKey, long minimumBisectionRange) {
     this.reader = reader;
+    this.clusterIndex = clusterIndex;
+    this.cache = cache;
+    this.cacheKey = cacheKey;
+    this.minimumBisectionRange = minimumBisectionRange;
     this.reader.init(new InnerEbmlReaderOutput());
     varintReader = new VarintReader();
     tracks = new SparseArray<>();
@@ -310,25 +384,33 @@ public final class MatroskaExtractor implements Extractor {
   @Override
   public void init(ExtractorOutput output) {
     extractorOutput = output;
+    if (cache != null) {
+      clusterIndex = ClusterIndex.readFrom(cache, cacheKey);
+      storedClusterIndexModificationCount = clusterIndex.getModificationCount();
+    }
   }
 
   @Override
   public void seek(long position) {
-    clusterTimecodeUs = C.TIME_UNSET;
-    blockState = BLOCK_STATE_START;
-    reader.reset();
-    varintReader.reset();
-    resetSample();
+    resetParsingState();
+    clusterBisection = clusterSeekMap != null ? clusterSeekMap.takePendingBisection(position)
+        : null;
   }
 
   @Override
   public void release() {
-    // Do nothing
+    if (cache != null && clusterIndex != null
+        && clusterIndex.getModificationCount() != storedClusterIndexModificationCount) {
+      clusterIndex.writeTo(cache, cacheKey);
+    }
   }
 
   @Override
   public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException,
       InterruptedException {
+    if (clusterBisection != null) {
+      return continueClusterBisection(input, seekPosition);
+    }
     sampleRead = false;
     boolean continueReading = true;
     while (continueReading && !sampleRead) {
@@ -424,6 +506,9 @@ public final class MatroskaExtractor implements Extractor {
         }
         segmentContentPosition = contentPosition;
         segmentContentSize = contentSize;
+        if (clusterIndex != null) {
+          clusterIndex.setSegment(contentPosition, contentSize);
+        }
         return;
       case ID_SEEK:
         seekEntryId = UNSET_ENTRY_ID;
@@ -437,6 +522,10 @@ public final class MatroskaExtractor implements Extractor {
         seenClusterPositionForCurrentCuePoint = false;
         return;
       case ID_CLUSTER:
+        // The cluster is indexed when its Timecode element is parsed.
+        clusterContentPosition = contentPosition;
+        clusterContentEndPosition = contentSize < UNKNOWN_CONTENT_SIZE
+            ? contentPosition + contentSize : C.POSITION_UNSET;
         if (!sentSeekMap) {
           // We need to build cues before parsing the cluster.
           if (cuesContentPosition != C.POSITION_UNSET) {
@@ -444,8 +533,8 @@ public final class MatroskaExtractor implements Extractor {
             seekForCues = true;
           } else {
             // We don't know where the Cues element is located. It's most likely omitted. Allow
-            // playback, but disable seeking.
-            extractorOutput.seekMap(new SeekMap.Unseekable(durationUs));
+            // playback, seeking using the cluster index if there is one.
+            extractorOutput.seekMap(buildClusterSeekMap(contentPosition));
             sentSeekMap = true;
           }
         }
@@ -651,6 +740,11 @@ public final class MatroskaExtractor implements Extractor {
         return;
       case ID_TIME_CODE:
         clusterTimecodeUs = scaleTimecodeToUs(value);
+        // The index is only needed if the Cues element is omitted.
+        if (clusterSeekMap != null && clusterContentPosition != C.POSITION_UNSET) {
+          clusterIndex.add(clusterTimecodeUs, clusterContentPosition, clusterContentEndPosition);
+          clusterContentPosition = C.POSITION_UNSET;
+        }
         return;
       case ID_BLOCK_DURATION:
         blockDurationUs = scaleTimecodeToUs(value);
@@ -1174,6 +1268,197 @@ public final class MatroskaExtractor implements Extractor {
     return false;
   }
 
+  /**
+   * Builds a {@link SeekMap} backed by {@link #clusterIndex}, for use when the Cues element is
+   * omitted.
+   *
+   * @param firstClusterContentPosition The position of the content of the first cluster.
+   * @return The built {@link SeekMap}. The returned {@link SeekMap} is unseekable if there is no
+   *     cluster index, or if the duration or the size of the segment is unknown.
+   */
+  private SeekMap buildClusterSeekMap(long firstClusterContentPosition) {
+    if (clusterIndex == null || segmentContentPosition == C.POSITION_UNSET
+        || segmentContentSize >= UNKNOWN_CONTENT_SIZE || durationUs == C.TIME_UNSET) {
+      return new SeekMap.Unseekable(durationUs);
+    }
+    clusterSeekMap = new ClusterSeekMap(firstClusterContentPosition,
+        segmentContentPosition + segmentContentSize, durationUs);
+    return clusterSeekMap;
+  }
+
+  /**
+   * Performs a step of a bisection over the unindexed clusters between the bounds of
+   * {@link #clusterBisection}. The input is positioned at the current probe position. The first
+   * cluster at or after this position is found and indexed, and the bounds are narrowed. Once the
+   * bounds are close enough, the bisection ends and normal parsing continues from the cluster at
+   * the start of the bounds.
+   *
+   * @param input The {@link ExtractorInput} positioned at the probe position.
+   * @param seekPosition The holder to update with the position of the next probe, or with the
+   *     position from which to continue parsing.
+   * @return {@link Extractor#RESULT_SEEK}.
+   */
+  private int continueClusterBisection(ExtractorInput input, PositionHolder seekPosition)
+      throws IOException, InterruptedException {
+    ClusterBisection bisection = clusterBisection;
+    long probePosition = input.getPosition();
+    if (syncToCluster(input, bisection)) {
+      clusterIndex.add(syncedClusterTimeUs, syncedClusterContentPosition,
+          syncedClusterContentEndPosition);
+      if (syncedClusterTimeUs <= bisection.targetTimeUs) {
+        bisection.startPosition = syncedClusterContentPosition;
+        bisection.startEndPosition = syncedClusterContentEndPosition;
+        bisection.startTimeUs = syncedClusterTimeUs;
+      } else {
+        // There are no clusters between the probe position and the synced cluster.
+        bisection.endPosition = probePosition;
+        bisection.endTimeUs = syncedClusterTimeUs;
+        bisection.endIsClusterContent = false;
+      }
+    } else {
+      bisection.endPosition = probePosition;
+      bisection.endIsClusterContent = false;
+    }
+    long nextProbePosition = bisection.getProbePosition();
+    if (nextProbePosition != C.POSITION_UNSET) {
+      seekPosition.position = nextProbePosition;
+    } else {
+      seekPosition.position = bisection.startPosition;
+      clusterBisection = null;
+      resetParsingState();
+    }
+    return Extractor.RESULT_SEEK;
+  }
+
+  /**
+   * Scans forward from the current position of the input for the start of a cluster whose time is
+   * within the bounds of a bisection. If one is found, its time and positions are stored in the
+   * {@code syncedCluster*} fields.
+   *
+   * @param input The {@link ExtractorInput} from which data should be read.
+   * @param bisection The bisection whose bounds limit the search.
+   * @return Whether a cluster was found.
+   */
+  private boolean syncToCluster(ExtractorInput input, ClusterBisection bisection)
+      throws IOException, InterruptedException {
+    if (clusterSyncBuffer == null) {
+      clusterSyncBuffer = new byte[CLUSTER_SYNC_BUFFER_SIZE];
+    }
+    byte[] data = clusterSyncBuffer;
+    long dataEndPosition = segmentContentPosition + segmentContentSize;
+    if (input.getLength() != C.LENGTH_UNSET) {
+      dataEndPosition = Math.min(dataEndPosition, input.getLength());
+    }
+    while (input.getPosition() < bisection.endPosition) {
+      long position = input.getPosition();
+      int length = (int) Math.min(CLUSTER_SYNC_BUFFER_SIZE, dataEndPosition - position);
+      if (length <= 0 || !input.peekFully(data, 0, length, true)) {
+        return false;
+      }
+      input.resetPeekPosition();
+      boolean isLastBuffer = position + length == dataEndPosition;
+      // Clusters must start before the end of the bisection.
+      int scanLength = (int) Math.min(length, bisection.endPosition - position);
+      int skipLength = scanLength;
+      for (int i = 0; i + 4 <= length && i < scanLength; i++) {
+        if (data[i] != 0x1F || data[i + 1] != 0x43 || data[i + 2] != (byte) 0xB6
+            || data[i + 3] != 0x75) {
+          continue;
+        }
+        if (!isLastBuffer && length - i < MAX_CLUSTER_SYNC_SIZE) {
+          // The header may be truncated. Scan again from this position.
+          skipLength = i;
+          break;
+        }
+        if (parseClusterHeader(data, i, length - i, position + i)
+            && syncedClusterTimeUs >= bisection.startTimeUs
+            && syncedClusterTimeUs <= bisection.endTimeUs) {
+          return true;
+        }
+      }
+      input.skipFully(skipLength);
+    }
+    return false;
+  }
+
+  /**
+   * Attempts to parse the header of a cluster, up to and including its Timecode element. If
+   * successful, the cluster's time and positions are stored in the {@code syncedCluster*} fields.
+   *
+   * @param data An array holding the cluster header.
+   * @param offset The offset of the cluster's ID in {@code data}.
+   * @param length The number of bytes available from {@code offset}.
+   * @param position The position of the cluster in the stream.
+   * @return Whether a valid cluster header was parsed.
+   */
+  private boolean parseClusterHeader(byte[] data, int offset, int length, long position)
+      throws ParserException {
+    int limit = offset + length;
+    int index = offset + 4;
+    if (index >= limit) {
+      return false;
+    }
+    int contentSizeLength = VarintReader.parseUnsignedVarintLength(data[index] & 0xFF);
+    if (contentSizeLength == C.LENGTH_UNSET || index + contentSizeLength > limit) {
+      return false;
+    }
+    long contentSize = assembleVarint(data, index, contentSizeLength);
+    index += contentSizeLength;
+    long contentPosition = position + index - offset;
+    if (index >= limit) {
+      return false;
+    }
+    if ((data[index] & 0xFF) == ID_CRC32) {
+      // Skip the CRC-32 element, which has a one byte size and four bytes of content.
+      if (index + 6 > limit || (data[index + 1] & 0xFF) != 0x84) {
+        return false;
+      }
+      index += 6;
+    }
+    if (index + 2 > limit || (data[index] & 0xFF) != ID_TIME_CODE) {
+      return false;
+    }
+    index++;
+    int timecodeSizeLength = VarintReader.parseUnsignedVarintLength(data[index] & 0xFF);
+    if (timecodeSizeLength == C.LENGTH_UNSET || index + timecodeSizeLength > limit) {
+      return false;
+    }
+    long timecodeSize = assembleVarint(data, index, timecodeSizeLength);
+    index += timecodeSizeLength;
+    if (timecodeSize > 8 || index + timecodeSize > limit) {
+      return false;
+    }
+    long timecode = 0;
+    for (int i = 0; i < timecodeSize; i++) {
+      timecode = (timecode << 8) | (data[index + i] & 0xFF);
+    }
+    syncedClusterTimeUs = scaleTimecodeToUs(timecode);
+    syncedClusterContentPosition = contentPosition;
+    syncedClusterContentEndPosition = contentSize < UNKNOWN_CONTENT_SIZE
+        ? contentPosition + contentSize : C.POSITION_UNSET;
+    return true;
+  }
+
+  /**
+   * Returns the value of a varint of the specified length, with its length mask removed.
+   */
+  private static long assembleVarint(byte[] data, int offset, int length) {
+    long varint = data[offset] & (0xFF >> length);
+    for (int i = 1; i < length; i++) {
+      varint = (varint << 8) | (data[offset + i] & 0xFF);
+    }
+    return varint;
+  }
+
+  private void resetParsingState() {
+    clusterTimecodeUs = C.TIME_UNSET;
+    clusterContentPosition = C.POSITION_UNSET;
+    blockState = BLOCK_STATE_START;
+    reader.reset();
+    varintReader.reset();
+    resetSample();
+  }
+
   private long scaleTimecodeToUs(long unscaledTimecode) throws ParserException {
     if (timecodeScale == C.TIME_UNSET) {
       throw new ParserException("Can't scale timecode prior to timecodeScale being set.");
@@ -1225,6 +1510,139 @@ public final class MatroskaExtractor implements Extractor {
     }
   }
 
+  /**
+   * A {@link SeekMap} backed by the {@link ClusterIndex}. Seeks to times in regions that have not
+   * been indexed start a bisection over the unindexed clusters, which the extractor performs when
+   * it is seeked to the returned position.
+   */
+  private final class ClusterSeekMap implements SeekMap {
+
+    private final long firstClusterContentPosition;
+    private final long segmentEndPosition;
+    private final long durationUs;
+
+    private ClusterBisection pendingBisection;
+    private long pendingBisectionPosition;
+
+    public ClusterSeekMap(long firstClusterContentPosition, long segmentEndPosition,
+        long durationUs) {
+      this.firstClusterContentPosition = firstClusterContentPosition;
+      this.segmentEndPosition = segmentEndPosition;
+      this.durationUs = durationUs;
+    }
+
+    @Override
+    public boolean isSeekable() {
+      return true;
+    }
+
+    @Override
+    public long getDurationUs() {
+      return durationUs;
+    }
+
+    @Override
+    public synchronized long getPosition(long timeUs) {
+      pendingBisection = null;
+      synchronized (clusterIndex) {
+        int index = clusterIndex.getIndexOfEarlierOrEqualCluster(timeUs);
+        if (index == -1) {
+          return clusterIndex.size() > 0 ? clusterIndex.getContentPosition(0)
+              : firstClusterContentPosition;
+        }
+        long startPosition = clusterIndex.getContentPosition(index);
+        boolean isLastCluster = index == clusterIndex.size() - 1;
+        ClusterBisection bisection = new ClusterBisection(timeUs, startPosition,
+            clusterIndex.getContentEndPosition(index), clusterIndex.getTimeUs(index),
+            isLastCluster ? segmentEndPosition : clusterIndex.getContentPosition(index + 1),
+            isLastCluster ? durationUs : clusterIndex.getTimeUs(index + 1), !isLastCluster,
+            minimumBisectionRange);
+        long probePosition = bisection.getProbePosition();
+        if (probePosition == C.POSITION_UNSET) {
+          return startPosition;
+        }
+        pendingBisection = bisection;
+        pendingBisectionPosition = probePosition;
+        return probePosition;
+      }
+    }
+
+    /**
+     * Returns the bisection started by the last call to {@link #getPosition(long)}, if it returned
+     * {@code position}, or null otherwise.
+     *
+     * @param position The position to which the extractor is being seeked.
+     */
+    public synchronized ClusterBisection takePendingBisection(long position) {
+      ClusterBisection bisection = pendingBisectionPosition == position ? pendingBisection : null;
+      pendingBisection = null;
+      return bisection;
+    }
+
+  }
+
+  /**
+   * The bounds of a bisection for the last cluster that starts at or before a target time. The
+   * cluster at the start of the bounds starts at or before the target time, and any clusters that
+   * start at or after the end of the bounds start after it. Bisection assumes that cluster
+   * timecodes increase with position in the file; if they do not, it still resumes at an indexed
+   * cluster that starts at or before the target time, though not necessarily the last one.
+   */
+  private static final class ClusterBisection {
+
+    public final long targetTimeUs;
+    public final long minimumRange;
+
+    public long startPosition;
+    public long startEndPosition;
+    public long startTimeUs;
+    public long endPosition;
+    public long endTimeUs;
+    public boolean endIsClusterContent;
+
+    public ClusterBisection(long targetTimeUs, long startPosition, long startEndPosition,
+        long startTimeUs, long endPosition, long endTimeUs, boolean endIsClusterContent,
+        long minimumRange) {
+      this.targetTimeUs = targetTimeUs;
+      this.startPosition = startPosition;
+      this.startEndPosition = startEndPosition;
+      this.startTimeUs = startTimeUs;
+      this.endPosition = endPosition;
+      this.endTimeUs = endTimeUs;
+      this.endIsClusterContent = endIsClusterContent;
+      this.minimumRange = minimumRange;
+    }
+
+    /**
+     * Returns the position of the next probe, or {@link C#POSITION_UNSET} if the bisection has
+     * finished and parsing should continue from {@link #startPosition}.
+     */
+    public long getProbePosition() {
+      if (endIsClusterContent && startEndPosition != C.POSITION_UNSET
+          && endPosition - startEndPosition <= MAX_CLUSTER_HEADER_SIZE) {
+        // The cluster at the start of the bounds is followed by the cluster at the end.
+        return C.POSITION_UNSET;
+      }
+      long rangeStartPosition = startEndPosition != C.POSITION_UNSET
+          && startEndPosition < endPosition ? startEndPosition : startPosition;
+      long range = endPosition - rangeStartPosition;
+      if (range < minimumRange) {
+        return C.POSITION_UNSET;
+      }
+      // Interpolate using the times at the bounds, but probe within the middle half of the range so
+      // that each probe reduces the range by at least a quarter. The probe must be within the range
+      // so that the range always shrinks.
+      long probeOffset = range / 2;
+      if (endTimeUs > startTimeUs) {
+        probeOffset = (long) (range * ((double) (targetTimeUs - startTimeUs)
+            / (endTimeUs - startTimeUs)));
+      }
+      probeOffset = Math.max(range / 4, Math.min(range - 1 - range / 4, probeOffset));
+      return rangeStartPosition + probeOffset;
+    }
+
+  }
+
   /**
    * Passes events through to the outer {@link MatroskaExtractor}.
    */
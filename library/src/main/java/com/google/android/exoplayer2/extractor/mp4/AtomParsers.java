@@ -88,6 +88,27 @@ import java.util.List;
             stsdData.nalUnitLengthFieldLength, edtsData.first, edtsData.second);
   }
 
+  /**
+   * Parses an stbl atom (defined in 14496-12), returning a {@link LazyTrackSampleTable} that
+   * decodes samples on demand if possible. Tracks whose edit list must be applied and raw audio
+   * tracks, which may be rechunked, are parsed by {@link #parseStbl} instead.
+   *
+   * @param track Track to which this sample table corresponds.
+   * @param stblAtom stbl (sample table) atom to decode.
+   * @param gaplessInfoHolder Holder to populate with gapless playback information.
+   * @return Sample table described by the stbl atom.
+   * @throws ParserException If the sample table is malformed, or if the resulting sample sequence
+   *     does not contain a sync sample.
+   */
+  public static SampleTable parseStblLazily(Track track, Atom.ContainerAtom stblAtom,
+      GaplessInfoHolder gaplessInfoHolder) throws ParserException {
+    if ((track.editListDurations != null && !gaplessInfoHolder.hasGaplessInfo())
+        || MimeTypes.AUDIO_RAW.equals(track.format.sampleMimeType)) {
+      return parseStbl(track, stblAtom, gaplessInfoHolder);
+    }
+    return new LazyTrackSampleTable(stblAtom, track.timescale);
+  }
+
   /**
    * Parses an stbl atom (defined in 14496-12).
    *
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * Sample table for a track in an MP4 file that decodes samples from the stbl leaf atoms on demand.
+ * <p>
+ * Rather than expanding every sample into memory, the table keeps a sparse index holding the state
+ * of the stsc, stts, ctts and stss cursors at the start of each block of {@link #blockSize}
+ * samples. Accessing a sample decodes the block containing it, which is then cached so that
+ * sequential reads only decode each block once. Synchronization sample lookups are binary searches
+ * over the sample timestamps, so each one decodes a logarithmic number of blocks.
+ * <p>
+ * Edit lists and rechunking of fixed size samples are not applied. The caller is responsible for
+ * falling back to {@link TrackSampleTable} for tracks that require them.
+ */
+/* package */ final class LazyTrackSampleTable implements SampleTable {
+
+  /**
+   * The default number of samples in each block.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 256;
+
+  private final long timescale;
+  private final int blockSize;
+  private final int sampleCount;
+  private final int maximumSize;
+
+  // Sample size table. Exactly one of stsz and stz2 is set.
+  private final ParsableByteArray stsz;
+  private final int fixedSampleSize;
+  private final ParsableByteArray stz2;
+  private final int stz2FieldSize;
+  // Chunk tables.
+  private final ParsableByteArray chunkOffsets;
+  private final boolean chunkOffsetsAreLongs;
+  private final int chunkCount;
+  private final ParsableByteArray stsc;
+  private final int stscEntryCount;
+  // Timing tables.
+  private final ParsableByteArray stts;
+  private final int sttsEntryCount;
+  private final ParsableByteArray ctts;
+  private final int cttsEntryCount;
+  private final ParsableByteArray stss;
+  private final int stssEntryCount;
+
+  // Cursor states at the start of each block.
+  private final Cursor[] checkpoints;
+
+  // The most recently decoded block.
+  private final long[] blockOffsets;
+  private final int[] blockSizes;
+  private final long[] blockTimestampsUs;
+  private final int[] blockFlags;
+  private Cursor blockCursor;
+  private int cachedBlockIndex;
+
+  /**
+   * @param stblAtom The stbl atom to decode.
+   * @param timescale The media timescale of the track.
+   * @throws ParserException If the sample tables are malformed.
+   */
+  public LazyTrackSampleTable(Atom.ContainerAtom stblAtom, long timescale)
+      throws ParserException {
+    this(stblAtom, timescale, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * @param stblAtom The stbl atom to decode.
+   * @param timescale The media timescale of the track.
+   * @param blockSize The number of samples in each block.
+   * @throws ParserException If the sample tables are malformed.
+   */
+  public LazyTrackSampleTable(Atom.ContainerAtom stblAtom, long timescale, int blockSize)
+      throws ParserException {
+    this.timescale = timescale;
+    this.blockSize = blockSize;
+
+    Atom.LeafAtom stszAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stsz);
+    if (stszAtom != null) {
+      stsz = stszAtom.data;
+      stsz.setPosition(Atom.FULL_HEADER_SIZE);
+      fixedSampleSize = stsz.readUnsignedIntToInt();
+      sampleCount = stsz.readUnsignedIntToInt();
+      stz2 = null;
+      stz2FieldSize = 0;
+    } else {
+      Atom.LeafAtom stz2Atom = stblAtom.getLeafAtomOfType(Atom.TYPE_stz2);
+      if (stz2Atom == null) {
+        throw new ParserException("Track has no sample table size information");
+      }
+      stz2 = stz2Atom.data;
+      stz2.setPosition(Atom.FULL_HEADER_SIZE);
+      stz2FieldSize = stz2.readUnsignedIntToInt() & 0x000000FF;
+      sampleCount = stz2.readUnsignedIntToInt();
+      stsz = null;
+      fixedSampleSize = 0;
+    }
+
+    Atom.LeafAtom chunkOffsetsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stco);
+    chunkOffsetsAreLongs = chunkOffsetsAtom == null;
+    if (chunkOffsetsAreLongs) {
+      chunkOffsetsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_co64);
+    }
+    chunkOffsets = chunkOffsetsAtom.data;
+    chunkCount = readEntryCount(chunkOffsets);
+    stsc = stblAtom.getLeafAtomOfType(Atom.TYPE_stsc).data;
+    stscEntryCount = readEntryCount(stsc);
+    Assertions.checkState(stscEntryCount == 0 || readStscEntry(0, 0) == 1,
+        "first_chunk must be 1");
+    stts = stblAtom.getLeafAtomOfType(Atom.TYPE_stts).data;
+    sttsEntryCount = readEntryCount(stts);
+    Atom.LeafAtom cttsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_ctts);
+    ctts = cttsAtom != null ? cttsAtom.data : null;
+    cttsEntryCount = ctts != null ? readEntryCount(ctts) : 0;
+    Atom.LeafAtom stssAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stss);
+    int stssEntryCount = stssAtom != null ? readEntryCount(stssAtom.data) : 0;
+    // Ignore empty stss boxes, which causes all samples to be treated as sync samples.
+    stss = stssEntryCount > 0 ? stssAtom.data : null;
+    this.stssEntryCount = stssEntryCount;
+
+    // Decode every sample once to validate the tables, find the maximum sample size and record the
+    // cursor state at the start of each block.
+    checkpoints = new Cursor[(sampleCount + blockSize - 1) / blockSize];
+    int maximumSize = 0;
+    if (sampleCount > 0) {
+      Cursor cursor = new Cursor();
+      for (int i = 0; i < sampleCount; i++) {
+        if (i % blockSize == 0) {
+          checkpoints[i / blockSize] = new Cursor(cursor);
+        }
+        cursor.readSample();
+        if (cursor.sampleSize > maximumSize) {
+          maximumSize = cursor.sampleSize;
+        }
+      }
+      cursor.checkEnded();
+    }
+    this.maximumSize = maximumSize;
+
+    blockOffsets = new long[blockSize];
+    blockSizes = new int[blockSize];
+    blockTimestampsUs = new long[blockSize];
+    blockFlags = new int[blockSize];
+    cachedBlockIndex = C.INDEX_UNSET;
+  }
+
+  @Override
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  @Override
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  @Override
+  public long getOffset(int sampleIndex) {
+    return blockOffsets[decodeBlockContaining(sampleIndex)];
+  }
+
+  @Override
+  public int getSize(int sampleIndex) {
+    return blockSizes[decodeBlockContaining(sampleIndex)];
+  }
+
+  @Override
+  public long getTimestampUs(int sampleIndex) {
+    return blockTimestampsUs[decodeBlockContaining(sampleIndex)];
+  }
+
+  @Override
+  public int getFlags(int sampleIndex) {
+    return blockFlags[decodeBlockContaining(sampleIndex)];
+  }
+
+  @Override
+  public int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    // Equivalent to Util.binarySearchFloor(timestampsUs, timeUs, true, false), as used by
+    // TrackSampleTable. The same caveats apply to unsorted timestamps.
+    int index = binarySearch(timeUs);
+    int startIndex = index < 0 ? -(index + 2) : index;
+    for (int i = startIndex; i >= 0; i--) {
+      if ((getFlags(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  @Override
+  public int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    // Equivalent to Util.binarySearchCeil(timestampsUs, timeUs, true, false).
+    int index = binarySearch(timeUs);
+    int startIndex = index < 0 ? ~index : index;
+    for (int i = startIndex; i < sampleCount; i++) {
+      if ((getFlags(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  /**
+   * Searches the sample timestamps for {@code timeUs}, probing samples in the same order as
+   * {@link java.util.Arrays#binarySearch(long[], long)} so that results match those of
+   * {@link TrackSampleTable} even if the timestamps are not sorted.
+   */
+  private int binarySearch(long timeUs) {
+    int low = 0;
+    int high = sampleCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midTimeUs = getTimestampUs(mid);
+      if (midTimeUs < timeUs) {
+        low = mid + 1;
+      } else if (midTimeUs > timeUs) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Decodes the block containing the specified sample, if it is not already cached.
+   *
+   * @param sampleIndex The index of the sample.
+   * @return The index of the sample within the cached block.
+   */
+  private int decodeBlockContaining(int sampleIndex) {
+    if (sampleIndex < 0 || sampleIndex >= sampleCount) {
+      throw new IndexOutOfBoundsException();
+    }
+    int blockIndex = sampleIndex / blockSize;
+    if (blockIndex != cachedBlockIndex) {
+      if (blockCursor == null) {
+        blockCursor = new Cursor(checkpoints[blockIndex]);
+      } else {
+        blockCursor.setFrom(checkpoints[blockIndex]);
+      }
+      int blockSampleCount = Math.min(blockSize, sampleCount - blockIndex * blockSize);
+      for (int i = 0; i < blockSampleCount; i++) {
+        blockCursor.readSample();
+        blockOffsets[i] = blockCursor.sampleOffset;
+        blockSizes[i] = blockCursor.sampleSize;
+        blockTimestampsUs[i] = Util.scaleLargeTimestamp(blockCursor.sampleTimestamp,
+            C.MICROS_PER_SECOND, timescale);
+        blockFlags[i] = blockCursor.sampleFlags;
+      }
+      cachedBlockIndex = blockIndex;
+    }
+    return sampleIndex - blockIndex * blockSize;
+  }
+
+  private int readSampleSize(int sampleIndex) {
+    if (stsz != null) {
+      if (fixedSampleSize != 0) {
+        return fixedSampleSize;
+      }
+      stsz.setPosition(Atom.FULL_HEADER_SIZE + 8 + 4 * sampleIndex);
+      return stsz.readUnsignedIntToInt();
+    }
+    int entriesPosition = Atom.FULL_HEADER_SIZE + 8;
+    if (stz2FieldSize == 8) {
+      stz2.setPosition(entriesPosition + sampleIndex);
+      return stz2.readUnsignedByte();
+    } else if (stz2FieldSize == 16) {
+      stz2.setPosition(entriesPosition + 2 * sampleIndex);
+      return stz2.readUnsignedShort();
+    } else {
+      // stz2FieldSize == 4. Even samples are stored in the upper bits of each byte.
+      stz2.setPosition(entriesPosition + sampleIndex / 2);
+      int sampleSizes = stz2.readUnsignedByte();
+      return (sampleIndex % 2) == 0 ? (sampleSizes & 0xF0) >> 4 : sampleSizes & 0x0F;
+    }
+  }
+
+  private long readChunkOffset(int chunkIndex) {
+    if (chunkOffsetsAreLongs) {
+      chunkOffsets.setPosition(Atom.FULL_HEADER_SIZE + 4 + 8 * chunkIndex);
+      return chunkOffsets.readUnsignedLongToLong();
+    }
+    chunkOffsets.setPosition(Atom.FULL_HEADER_SIZE + 4 + 4 * chunkIndex);
+    return chunkOffsets.readUnsignedInt();
+  }
+
+  /**
+   * Reads a field of an stsc entry, which is (first chunk, samples per chunk, sample description
+   * index).
+   */
+  private int readStscEntry(int entryIndex, int field) {
+    stsc.setPosition(Atom.FULL_HEADER_SIZE + 4 + 12 * entryIndex + 4 * field);
+    return stsc.readUnsignedIntToInt();
+  }
+
+  private static int readEntryCount(ParsableByteArray data) {
+    data.setPosition(Atom.FULL_HEADER_SIZE);
+    return data.readUnsignedIntToInt();
+  }
+
+  /**
+   * The state of a sequential walk over the sample tables, mirroring the loop in
+   * {@link AtomParsers#parseStbl}.
+   */
+  private final class Cursor {
+
+    // The most recently read sample. The timestamp is in the media timescale.
+    public long sampleOffset;
+    public int sampleSize;
+    public long sampleTimestamp;
+    public int sampleFlags;
+
+    private int sampleIndex;
+    private long offset;
+    // Chunk state.
+    private int chunkIndex;
+    private int remainingSamplesInChunk;
+    private int samplesPerChunk;
+    private int nextStscEntryIndex;
+    // Decode timestamp state.
+    private long timestampTimeUnits;
+    private int sttsEntryIndex;
+    private int remainingSamplesAtTimestampDelta;
+    private int timestampDeltaInTimeUnits;
+    // Timestamp offset state.
+    private int nextCttsEntryIndex;
+    private int remainingSamplesAtTimestampOffset;
+    private int timestampOffset;
+    // Synchronization sample state.
+    private int nextStssEntryIndex;
+    private int nextSynchronizationSampleIndex;
+
+    public Cursor() {
+      chunkIndex = C.INDEX_UNSET;
+      stts.setPosition(Atom.FULL_HEADER_SIZE + 4);
+      remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+      timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
+      nextSynchronizationSampleIndex = C.INDEX_UNSET;
+      if (stss != null) {
+        nextSynchronizationSampleIndex = readStssEntry(0) - 1;
+        nextStssEntryIndex = 1;
+      }
+    }
+
+    public Cursor(Cursor other) {
+      setFrom(other);
+    }
+
+    public void setFrom(Cursor other) {
+      sampleIndex = other.sampleIndex;
+      offset = other.offset;
+      chunkIndex = other.chunkIndex;
+      remainingSamplesInChunk = other.remainingSamplesInChunk;
+      samplesPerChunk = other.samplesPerChunk;
+      nextStscEntryIndex = other.nextStscEntryIndex;
+      timestampTimeUnits = other.timestampTimeUnits;
+      sttsEntryIndex = other.sttsEntryIndex;
+      remainingSamplesAtTimestampDelta = other.remainingSamplesAtTimestampDelta;
+      timestampDeltaInTimeUnits = other.timestampDeltaInTimeUnits;
+      nextCttsEntryIndex = other.nextCttsEntryIndex;
+      remainingSamplesAtTimestampOffset = other.remainingSamplesAtTimestampOffset;
+      timestampOffset = other.timestampOffset;
+      nextStssEntryIndex = other.nextStssEntryIndex;
+      nextSynchronizationSampleIndex = other.nextSynchronizationSampleIndex;
+    }
+
+    /**
+     * Reads the next sample into the {@code sample*} fields and advances the cursor.
+     */
+    public void readSample() {
+      // Advance to the next chunk if necessary.
+      while (remainingSamplesInChunk == 0) {
+        Assertions.checkState(++chunkIndex < chunkCount);
+        offset = readChunkOffset(chunkIndex);
+        if (nextStscEntryIndex < stscEntryCount
+            && chunkIndex == readStscEntry(nextStscEntryIndex, 0) - 1) {
+          samplesPerChunk = readStscEntry(nextStscEntryIndex, 1);
+          nextStscEntryIndex++;
+        }
+        remainingSamplesInChunk = samplesPerChunk;
+      }
+
+      // Add on the timestamp offset if ctts is present.
+      if (ctts != null) {
+        while (remainingSamplesAtTimestampOffset == 0 && nextCttsEntryIndex < cttsEntryCount) {
+          ctts.setPosition(Atom.FULL_HEADER_SIZE + 4 + 8 * nextCttsEntryIndex);
+          remainingSamplesAtTimestampOffset = ctts.readUnsignedIntToInt();
+          // Sample offsets are decoded as signed integers, as in AtomParsers.parseStbl.
+          timestampOffset = ctts.readInt();
+          nextCttsEntryIndex++;
+        }
+        remainingSamplesAtTimestampOffset--;
+      }
+
+      sampleOffset = offset;
+      sampleSize = readSampleSize(sampleIndex);
+      sampleTimestamp = timestampTimeUnits + timestampOffset;
+
+      // All samples are synchronization samples if the stss is not present.
+      sampleFlags = stss == null ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      if (sampleIndex == nextSynchronizationSampleIndex) {
+        sampleFlags = C.BUFFER_FLAG_KEY_FRAME;
+        nextSynchronizationSampleIndex = nextStssEntryIndex < stssEntryCount
+            ? readStssEntry(nextStssEntryIndex) - 1 : C.INDEX_UNSET;
+        nextStssEntryIndex++;
+      }
+
+      // Add on the duration of this sample.
+      timestampTimeUnits += timestampDeltaInTimeUnits;
+      remainingSamplesAtTimestampDelta--;
+      if (remainingSamplesAtTimestampDelta == 0 && sttsEntryIndex < sttsEntryCount - 1) {
+        sttsEntryIndex++;
+        stts.setPosition(Atom.FULL_HEADER_SIZE + 4 + 8 * sttsEntryIndex);
+        remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+        timestampDeltaInTimeUnits = stts.readUnsignedIntToInt();
+      }
+
+      offset += sampleSize;
+      remainingSamplesInChunk--;
+      sampleIndex++;
+    }
+
+    /**
+     * Checks that all entries in the tables were consumed, after reading every sample.
+     */
+    public void checkEnded() {
+      Assertions.checkArgument(remainingSamplesAtTimestampOffset == 0);
+      // Allow trailing ctts entries with 0-valued sample counts.
+      for (int i = nextCttsEntryIndex; i < cttsEntryCount; i++) {
+        ctts.setPosition(Atom.FULL_HEADER_SIZE + 4 + 8 * i);
+        Assertions.checkArgument(ctts.readUnsignedIntToInt() == 0);
+      }
+      Assertions.checkArgument(stss == null || nextStssEntryIndex > stssEntryCount);
+      Assertions.checkArgument(remainingSamplesAtTimestampDelta == 0);
+      Assertions.checkArgument(remainingSamplesInChunk == 0);
+      Assertions.checkArgument(sttsEntryIndex == sttsEntryCount - 1);
+    }
+
+    private int readStssEntry(int entryIndex) {
+      stss.setPosition(Atom.FULL_HEADER_SIZE + 4 + 4 * entryIndex);
+      return stss.readUnsignedIntToInt();
+    }
+
+  }
+
+}
@@ -53,6 +53,13 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
   };
 
+  /**
+   * Flag to decode sample tables on demand rather than expanding every sample into memory when
+   * the moov atom is parsed. This reduces the memory used by long non-fragmented files, at the
+   * cost of decoding each sample's metadata again after seeking.
+   */
+  public static final int FLAG_LAZY_SAMPLE_TABLES = 1;
+
   // Parser states.
   private static final int STATE_AFTER_SEEK = 0;
   private static final int STATE_READING_ATOM_HEADER = 1;
@@ -68,6 +75,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   private static final long RELOAD_MINIMUM_SEEK_DISTANCE = 256 * 1024;
 
+  private final int flags;
+
   // Temporary arrays.
   private final ParsableByteArray nalStartCode;
   private final ParsableByteArray nalLength;
@@ -91,6 +100,14 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private boolean isQuickTime;
 
   public Mp4Extractor() {
+    this(0);
+  }
+
+  /**
+   * @param flags Flags that control the extractor's behavior.
+   */
+  public Mp4Extractor(int flags) {
+    this.flags = flags;
     atomHeader = new ParsableByteArray(Atom.LONG_HEADER_SIZE);
     containerAtoms = new Stack<>();
     nalStartCode = new ParsableByteArray(NalUnitUtil.NAL_START_CODE);
@@ -166,7 +183,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   public long getPosition(long timeUs) {
     long earliestSamplePosition = Long.MAX_VALUE;
     for (Mp4Track track : tracks) {
-      TrackSampleTable sampleTable = track.sampleTable;
+      SampleTable sampleTable = track.sampleTable;
       int sampleIndex = sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
       if (sampleIndex == C.INDEX_UNSET) {
         // Handle the case where the requested time is before the first synchronization sample.
@@ -174,7 +191,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
       track.sampleIndex = sampleIndex;
 
-      long offset = sampleTable.offsets[sampleIndex];
+      long offset = sampleTable.getOffset(sampleIndex);
       if (offset < earliestSamplePosition) {
         earliestSamplePosition = offset;
       }
@@ -330,15 +347,17 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
       Atom.ContainerAtom stblAtom = atom.getContainerAtomOfType(Atom.TYPE_mdia)
           .getContainerAtomOfType(Atom.TYPE_minf).getContainerAtomOfType(Atom.TYPE_stbl);
-      TrackSampleTable trackSampleTable = AtomParsers.parseStbl(track, stblAtom, gaplessInfoHolder);
-      if (trackSampleTable.sampleCount == 0) {
+      SampleTable trackSampleTable = (flags & FLAG_LAZY_SAMPLE_TABLES) != 0
+          ? AtomParsers.parseStblLazily(track, stblAtom, gaplessInfoHolder)
+          : AtomParsers.parseStbl(track, stblAtom, gaplessInfoHolder);
+      if (trackSampleTable.getSampleCount() == 0) {
         continue;
       }
 
       Mp4Track mp4Track = new Mp4Track(track, trackSampleTable, extractorOutput.track(i));
       // Each sample has up to three bytes of overhead for the start code that replaces its length.
       // Allow ten source samples per output sample, like the platform extractor.
-      int maxInputSize = trackSampleTable.maximumSize + 3 * 10;
+      int maxInputSize = trackSampleTable.getMaximumSize() + 3 * 10;
       Format format = track.format.copyWithMaxInputSize(maxInputSize);
       if (track.type == C.TRACK_TYPE_AUDIO && gaplessInfoHolder.hasGaplessInfo()) {
         format = format.copyWithGaplessInfo(gaplessInfoHolder.encoderDelay,
@@ -349,7 +368,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       durationUs = Math.max(durationUs, track.durationUs);
       tracks.add(mp4Track);
 
-      long firstSampleOffset = trackSampleTable.offsets[0];
+      long firstSampleOffset = trackSampleTable.getOffset(0);
       if (firstSampleOffset < earliestSampleOffset) {
         earliestSampleOffset = firstSampleOffset;
       }
@@ -385,8 +404,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = tracks[trackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position = track.sampleTable.getOffset(sampleIndex);
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     if (track.track.sampleTransformation == Track.TRANSFORMATION_CEA608_CDAT) {
       // The sample information is contained in a cdat atom. The header must be discarded for
       // committing.
@@ -436,8 +455,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         sampleCurrentNalBytesRemaining -= writtenBytes;
       }
     }
-    trackOutput.sampleMetadata(track.sampleTable.timestampsUs[sampleIndex],
-        track.sampleTable.flags[sampleIndex], sampleSize, 0, null);
+    trackOutput.sampleMetadata(track.sampleTable.getTimestampUs(sampleIndex),
+        track.sampleTable.getFlags(sampleIndex), sampleSize, 0, null);
     track.sampleIndex++;
     sampleBytesWritten = 0;
     sampleCurrentNalBytesRemaining = 0;
@@ -454,11 +473,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     for (int trackIndex = 0; trackIndex < tracks.length; trackIndex++) {
       Mp4Track track = tracks[trackIndex];
       int sampleIndex = track.sampleIndex;
-      if (sampleIndex == track.sampleTable.sampleCount) {
+      if (sampleIndex == track.sampleTable.getSampleCount()) {
         continue;
       }
 
-      long trackSampleOffset = track.sampleTable.offsets[sampleIndex];
+      long trackSampleOffset = track.sampleTable.getOffset(sampleIndex);
       if (trackSampleOffset < earliestSampleOffset) {
         earliestSampleOffset = trackSampleOffset;
         earliestSampleTrackIndex = trackIndex;
@@ -491,12 +510,12 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private static final class Mp4Track {
 
     public final Track track;
-    public final TrackSampleTable sampleTable;
+    public final SampleTable sampleTable;
     public final TrackOutput trackOutput;
 
     public int sampleIndex;
 
-    public Mp4Track(Track track, TrackSampleTable sampleTable, TrackOutput trackOutput) {
+    public Mp4Track(Track track, SampleTable sampleTable, TrackOutput trackOutput) {
       this.track = track;
       this.sampleTable = sampleTable;
       this.trackOutput = trackOutput;
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * Provides random access to the samples of a track in an MP4 file.
+ */
+/* package */ interface SampleTable {
+
+  /**
+   * Returns the number of samples.
+   */
+  int getSampleCount();
+
+  /**
+   * Returns the maximum sample size in bytes.
+   */
+  int getMaximumSize();
+
+  /**
+   * Returns the offset of a sample in bytes.
+   *
+   * @param sampleIndex The index of the sample.
+   */
+  long getOffset(int sampleIndex);
+
+  /**
+   * Returns the size of a sample in bytes.
+   *
+   * @param sampleIndex The index of the sample.
+   */
+  int getSize(int sampleIndex);
+
+  /**
+   * Returns the timestamp of a sample in microseconds.
+   *
+   * @param sampleIndex The index of the sample.
+   */
+  long getTimestampUs(int sampleIndex);
+
+  /**
+   * Returns the flags of a sample.
+   *
+   * @param sampleIndex The index of the sample.
+   */
+  int getFlags(int sampleIndex);
+
+  /**
+   * Returns the sample index of the closest synchronization sample at or before the given
+   * timestamp, if one is available.
+   *
+   * @param timeUs Timestamp adjacent to which to find a synchronization sample.
+   * @return Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
+   */
+  int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs);
+
+  /**
+   * Returns the sample index of the closest synchronization sample at or after the given timestamp,
+   * if one is available.
+   *
+   * @param timeUs Timestamp adjacent to which to find a synchronization sample.
+   * @return index Index of the synchronization sample, or {@link C#INDEX_UNSET} if none.
+   */
+  int getIndexOfLaterOrEqualSynchronizationSample(long timeUs);
+
+}
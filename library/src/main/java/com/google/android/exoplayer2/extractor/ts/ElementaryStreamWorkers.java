@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.ts;
+
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads elementary streams on worker threads.
+ * <p>
+ * Calls made to the readers returned by {@link #wrap(ElementaryStreamReader)} are recorded on the
+ * calling thread, and are replayed onto the wrapped readers when {@link #run()} is called. Each
+ * wrapped reader is assigned to a single thread, which replays its calls in the order in which
+ * they were made, so samples are written to each {@link
+ * com.google.android.exoplayer2.extractor.TrackOutput} in order. Readers assigned to the first
+ * thread are replayed on the thread that calls {@link #run()}.
+ */
+/* package */ final class ElementaryStreamWorkers {
+
+  private static final String THREAD_NAME = "TsExtractor:Worker";
+  private static final long KEEP_ALIVE_MS = 1000;
+
+  private final int threadCount;
+  private final ThreadPoolExecutor[] executors;
+  private final ArrayList<DeferredReader> readers;
+
+  private volatile RuntimeException workerException;
+
+  /**
+   * @param threadCount The number of threads on which to read, including the thread that calls
+   *     {@link #run()}. Must be at least 2.
+   */
+  public ElementaryStreamWorkers(int threadCount) {
+    this.threadCount = threadCount;
+    executors = new ThreadPoolExecutor[threadCount - 1];
+    readers = new ArrayList<>();
+  }
+
+  /**
+   * Wraps a reader so that calls to it are deferred until the next call to {@link #run()}.
+   *
+   * @param reader The reader to wrap.
+   * @return The wrapped reader.
+   */
+  public ElementaryStreamReader wrap(ElementaryStreamReader reader) {
+    DeferredReader deferredReader = new DeferredReader(reader, readers.size() % threadCount);
+    readers.add(deferredReader);
+    return deferredReader;
+  }
+
+  /**
+   * Replays all deferred calls, returning once they have all been replayed.
+   *
+   * @throws RuntimeException If a wrapped reader threw while replaying.
+   */
+  public void run() {
+    int workerReaderCount = 0;
+    for (int i = 0; i < readers.size(); i++) {
+      DeferredReader reader = readers.get(i);
+      if (reader.hasPendingCalls() && reader.threadIndex != 0) {
+        workerReaderCount++;
+      }
+    }
+    CountDownLatch latch = new CountDownLatch(workerReaderCount);
+    RuntimeException callingThreadException = null;
+    for (int i = 0; i < readers.size(); i++) {
+      DeferredReader reader = readers.get(i);
+      if (reader.hasPendingCalls() && reader.threadIndex != 0) {
+        reader.latch = latch;
+        try {
+          getExecutor(reader.threadIndex - 1).execute(reader);
+        } catch (RuntimeException e) {
+          callingThreadException = e;
+          latch.countDown();
+        }
+      }
+    }
+    try {
+      for (int i = 0; i < readers.size(); i++) {
+        DeferredReader reader = readers.get(i);
+        if (reader.threadIndex == 0 && reader.hasPendingCalls()) {
+          reader.replay();
+        }
+      }
+    } catch (RuntimeException e) {
+      callingThreadException = e;
+    }
+    // Samples must not be written once this method returns, so wait even if interrupted.
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    RuntimeException exception = callingThreadException != null ? callingThreadException
+        : workerException;
+    workerException = null;
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /**
+   * Stops the worker threads.
+   */
+  public void release() {
+    for (ThreadPoolExecutor executor : executors) {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  private ThreadPoolExecutor getExecutor(int index) {
+    if (executors[index] == null) {
+      // Idle threads time out, since extractors are not always released.
+      executors[index] = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              return new Thread(r, THREAD_NAME);
+            }
+          });
+      executors[index].allowCoreThreadTimeOut(true);
+    }
+    return executors[index];
+  }
+
+  /**
+   * Records calls to be replayed onto a wrapped reader. Consecutive calls to
+   * {@link #consume(ParsableByteArray)} are coalesced.
+   */
+  private final class DeferredReader extends ElementaryStreamReader implements Runnable {
+
+    private static final int CALL_SEEK = 0;
+    private static final int CALL_PACKET_STARTED = 1;
+    private static final int CALL_CONSUME = 2;
+    private static final int CALL_PACKET_FINISHED = 3;
+
+    private static final int INITIAL_CALL_CAPACITY = 32;
+    private static final int INITIAL_DATA_CAPACITY = 16 * 1024;
+
+    public final int threadIndex;
+
+    private final ElementaryStreamReader reader;
+    private final ParsableByteArray replayData;
+
+    private int[] calls;
+    private int[] callArguments;
+    private long[] callTimesUs;
+    private int callCount;
+    private byte[] data;
+    private int dataLength;
+
+    private CountDownLatch latch;
+
+    public DeferredReader(ElementaryStreamReader reader, int threadIndex) {
+      super(reader.output);
+      this.reader = reader;
+      this.threadIndex = threadIndex;
+      replayData = new ParsableByteArray();
+      calls = new int[INITIAL_CALL_CAPACITY];
+      callArguments = new int[INITIAL_CALL_CAPACITY];
+      callTimesUs = new long[INITIAL_CALL_CAPACITY];
+      data = new byte[INITIAL_DATA_CAPACITY];
+    }
+
+    public boolean hasPendingCalls() {
+      return callCount > 0;
+    }
+
+    @Override
+    public void seek() {
+      addCall(CALL_SEEK, 0, 0);
+    }
+
+    @Override
+    public void packetStarted(long pesTimeUs, boolean dataAlignmentIndicator) {
+      addCall(CALL_PACKET_STARTED, dataAlignmentIndicator ? 1 : 0, pesTimeUs);
+    }
+
+    @Override
+    public void consume(ParsableByteArray source) {
+      int length = source.bytesLeft();
+      if (dataLength + length > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + length));
+      }
+      source.readBytes(data, dataLength, length);
+      dataLength += length;
+      if (callCount > 0 && calls[callCount - 1] == CALL_CONSUME) {
+        callArguments[callCount - 1] += length;
+      } else {
+        addCall(CALL_CONSUME, length, 0);
+      }
+    }
+
+    @Override
+    public void packetFinished() {
+      addCall(CALL_PACKET_FINISHED, 0, 0);
+    }
+
+    @Override
+    public void run() {
+      try {
+        replay();
+      } catch (RuntimeException e) {
+        workerException = e;
+      } finally {
+        latch.countDown();
+      }
+    }
+
+    public void replay() {
+      int dataOffset = 0;
+      try {
+        for (int i = 0; i < callCount; i++) {
+          switch (calls[i]) {
+            case CALL_SEEK:
+              reader.seek();
+              break;
+            case CALL_PACKET_STARTED:
+              reader.packetStarted(callTimesUs[i], callArguments[i] != 0);
+              break;
+            case CALL_CONSUME:
+              int length = callArguments[i];
+              replayData.reset(data, dataOffset + length);
+              replayData.setPosition(dataOffset);
+              reader.consume(replayData);
+              dataOffset += length;
+              break;
+            case CALL_PACKET_FINISHED:
+              reader.packetFinished();
+              break;
+          }
+        }
+      } finally {
+        callCount = 0;
+        dataLength = 0;
+      }
+    }
+
+    private void addCall(int call, int argument, long timeUs) {
+      if (callCount == calls.length) {
+        int newCapacity = callCount * 2;
+        calls = Arrays.copyOf(calls, newCapacity);
+        callArguments = Arrays.copyOf(callArguments, newCapacity);
+        callTimesUs = Arrays.copyOf(callTimesUs, newCapacity);
+      }
+      calls[callCount] = call;
+      callArguments[callCount] = argument;
+      callTimesUs[callCount] = timeUs;
+      callCount++;
+    }
+
+  }
+
+}
@@ -81,9 +81,12 @@ public final class TsExtractor implements Extractor {
 
   private static final int BUFFER_PACKET_COUNT = 5; // Should be at least 2
   private static final int BUFFER_SIZE = TS_PACKET_SIZE * BUFFER_PACKET_COUNT;
+  private static final int PARALLEL_BUFFER_PACKET_COUNT = 512;
 
   private final TimestampAdjuster timestampAdjuster;
   private final int workaroundFlags;
+  private final int bufferSize;
+  private final ElementaryStreamWorkers elementaryStreamWorkers;
   private final ParsableByteArray tsPacketBuffer;
   private final ParsableBitArray tsScratch;
   private final SparseIntArray continuityCounters;
@@ -104,9 +107,30 @@ public final class TsExtractor implements Extractor {
   }
 
   public TsExtractor(TimestampAdjuster timestampAdjuster, int workaroundFlags) {
+    this(timestampAdjuster, workaroundFlags, 1);
+  }
+
+  /**
+   * @param timestampAdjuster The adjuster for timestamps.
+   * @param workaroundFlags Workaround flags.
+   * @param threadCount The number of threads on which elementary streams are read, including the
+   *     loading thread. If greater than 1, each call to {@link #read(ExtractorInput,
+   *     PositionHolder)} reads a large batch of packets, and the payloads of each elementary
+   *     stream are then read on one of the threads. Transport stream and PES headers are always
+   *     parsed on the loading thread, and all samples have been output by the time the call
+   *     returns.
+   */
+  public TsExtractor(TimestampAdjuster timestampAdjuster, int workaroundFlags, int threadCount) {
     this.timestampAdjuster = timestampAdjuster;
     this.workaroundFlags = workaroundFlags;
-    tsPacketBuffer = new ParsableByteArray(BUFFER_SIZE);
+    if (threadCount > 1) {
+      bufferSize = TS_PACKET_SIZE * PARALLEL_BUFFER_PACKET_COUNT;
+      elementaryStreamWorkers = new ElementaryStreamWorkers(threadCount);
+    } else {
+      bufferSize = BUFFER_SIZE;
+      elementaryStreamWorkers = null;
+    }
+    tsPacketBuffer = new ParsableByteArray(bufferSize);
     tsScratch = new ParsableBitArray(new byte[3]);
     tsPayloadReaders = new SparseArray<>();
     tsPayloadReaders.put(TS_PAT_PID, new PatReader());
@@ -153,7 +177,9 @@ public final class TsExtractor implements Extractor {
 
   @Override
   public void release() {
-    // Do nothing
+    if (elementaryStreamWorkers != null) {
+      elementaryStreamWorkers.release();
+    }
   }
 
   @Override
@@ -161,7 +187,7 @@ public final class TsExtractor implements Extractor {
       throws IOException, InterruptedException {
     byte[] data = tsPacketBuffer.data;
     // Shift bytes to the start of the buffer if there isn't enough space left at the end
-    if (BUFFER_SIZE - tsPacketBuffer.getPosition() < TS_PACKET_SIZE) {
+    if (bufferSize - tsPacketBuffer.getPosition() < TS_PACKET_SIZE) {
       int bytesLeft = tsPacketBuffer.bytesLeft();
       if (bytesLeft > 0) {
         System.arraycopy(data, tsPacketBuffer.getPosition(), data, 0, bytesLeft);
@@ -171,13 +197,43 @@ public final class TsExtractor implements Extractor {
     // Read more bytes until there is at least one packet size
     while (tsPacketBuffer.bytesLeft() < TS_PACKET_SIZE) {
       int limit = tsPacketBuffer.limit();
-      int read = input.read(data, limit, BUFFER_SIZE - limit);
+      int read = input.read(data, limit, bufferSize - limit);
       if (read == C.RESULT_END_OF_INPUT) {
         return RESULT_END_OF_INPUT;
       }
       tsPacketBuffer.setLimit(limit + read);
     }
 
+    if (elementaryStreamWorkers == null) {
+      readPacket();
+      return RESULT_CONTINUE;
+    }
+
+    // Fill the rest of the buffer, so as to read a large batch of packets.
+    int limit = tsPacketBuffer.limit();
+    while (limit < bufferSize) {
+      int read = input.read(data, limit, bufferSize - limit);
+      if (read == C.RESULT_END_OF_INPUT) {
+        break;
+      }
+      limit += read;
+      tsPacketBuffer.setLimit(limit);
+    }
+    while (readPacket()) {
+      // Read the next packet.
+    }
+    elementaryStreamWorkers.run();
+    return RESULT_CONTINUE;
+  }
+
+  /**
+   * Reads the next packet in {@link #tsPacketBuffer}, if it's complete.
+   *
+   * @return Whether a complete packet was read.
+   */
+  private boolean readPacket() {
+    byte[] data = tsPacketBuffer.data;
+
     // Note: see ISO/IEC 13818-1, section 2.4.3.2 for detailed information on the format of
     // the header.
     final int limit = tsPacketBuffer.limit();
@@ -189,7 +245,7 @@ public final class TsExtractor implements Extractor {
 
     int endOfPacket = position + TS_PACKET_SIZE;
     if (endOfPacket > limit) {
-      return RESULT_CONTINUE;
+      return false;
     }
 
     tsPacketBuffer.skipBytes(1);
@@ -197,7 +253,7 @@ public final class TsExtractor implements Extractor {
     if (tsScratch.readBit()) { // transport_error_indicator
       // There are uncorrectable errors in this packet.
       tsPacketBuffer.setPosition(endOfPacket);
-      return RESULT_CONTINUE;
+      return true;
     }
     boolean payloadUnitStartIndicator = tsScratch.readBit();
     tsScratch.skipBits(1); // transport_priority
@@ -212,7 +268,7 @@ public final class TsExtractor implements Extractor {
     if (previousCounter == continuityCounter) {
       // Duplicate packet found.
       tsPacketBuffer.setPosition(endOfPacket);
-      return RESULT_CONTINUE;
+      return true;
     } else if (continuityCounter != (previousCounter + 1) % 16) {
       discontinuityFound = true;
     }
@@ -238,7 +294,7 @@ public final class TsExtractor implements Extractor {
     }
 
     tsPacketBuffer.setPosition(endOfPacket);
-    return RESULT_CONTINUE;
+    return true;
   }
 
   // Internals.
@@ -488,6 +544,9 @@ public final class TsExtractor implements Extractor {
 
         if (pesPayloadReader != null) {
           trackIds.put(trackId, true);
+          if (elementaryStreamWorkers != null) {
+            pesPayloadReader = elementaryStreamWorkers.wrap(pesPayloadReader);
+          }
           tsPayloadReaders.put(elementaryPid,
               new PesReader(pesPayloadReader, timestampAdjuster));
         }
@@ -826,6 +826,12 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
         && SystemClock.elapsedRealtime() < codecHotswapDeadlineMs));
   }
 
+  @Override
+  public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+    // A renderer that's ready but not started cannot make progress until it's started.
+    return getState() != STATE_STARTED && isReady() ? Long.MAX_VALUE : C.TIME_UNSET;
+  }
+
   /**
    * Returns the maximum time to block whilst waiting for a decoded output buffer.
    *
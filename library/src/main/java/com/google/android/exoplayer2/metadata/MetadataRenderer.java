@@ -62,6 +62,7 @@ public final class MetadataRenderer<T> extends BaseRenderer implements Callback
   private boolean inputStreamEnded;
   private long pendingMetadataTimestamp;
   private T pendingMetadata;
+  private boolean readMetadata;
 
   /**
    * @param output The output.
@@ -96,10 +97,12 @@ public final class MetadataRenderer<T> extends BaseRenderer implements Callback
 
   @Override
   public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+    readMetadata = false;
     if (!inputStreamEnded && pendingMetadata == null) {
       buffer.clear();
       int result = readSource(formatHolder, buffer);
       if (result == C.RESULT_BUFFER_READ) {
+        readMetadata = true;
         if (buffer.isEndOfStream()) {
           inputStreamEnded = true;
         } else {
@@ -127,6 +130,17 @@ public final class MetadataRenderer<T> extends BaseRenderer implements Callback
     super.onDisabled();
   }
 
+  @Override
+  public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+    if (pendingMetadata != null) {
+      return getState() == STATE_STARTED ? Math.max(0, pendingMetadataTimestamp - positionUs)
+          : Long.MAX_VALUE;
+    }
+    // If metadata was read then more may be available. Else metadata is read ahead of playback
+    // as it's loaded, so there's no need to poll for it.
+    return readMetadata && !inputStreamEnded ? C.TIME_UNSET : Long.MAX_VALUE;
+  }
+
   @Override
   public boolean isEnded() {
     return inputStreamEnded;
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.offline;
+
+import com.google.android.exoplayer2.C;
+import java.io.IOException;
+
+/**
+ * An interface for stream downloaders.
+ */
+public interface Downloader {
+
+  /**
+   * Listener notified when download progresses.
+   */
+  interface ProgressListener {
+
+    /**
+     * Called for the progress of downloaded data.
+     * <p>
+     * No guarantees are made about the thread on which the listener is called, but it is
+     * guaranteed that calls are made one at a time.
+     *
+     * @param downloader The reporting instance.
+     * @param downloadPercentage The download percentage, in the range [0, 100].
+     * @param downloadedBytes The total number of downloaded bytes, including bytes that were cached
+     *     before the download started.
+     */
+    void onDownloadProgress(Downloader downloader, float downloadPercentage, long downloadedBytes);
+
+  }
+
+  /**
+   * Initializes the downloader, by loading the manifest and determining how much of the content
+   * is already cached. {@link #getDownloadedBytes()} and {@link #getDownloadPercentage()} can be
+   * called once this method returns.
+   *
+   * @throws IOException If an error occurs loading the manifest.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  void init() throws IOException, InterruptedException;
+
+  /**
+   * Downloads the content, skipping anything that's already cached. Initializes the downloader
+   * first if necessary.
+   *
+   * @param listener A listener to receive progress updates, or null.
+   * @throws DownloadException Thrown if the content cannot be downloaded.
+   * @throws IOException If an error occurs reading the content.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  void download(ProgressListener listener) throws IOException, InterruptedException;
+
+  /**
+   * Removes all of the downloaded content from the cache.
+   *
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  void remove() throws InterruptedException;
+
+  /**
+   * Returns the total number of downloaded bytes, or {@link C#LENGTH_UNSET} if the downloader has
+   * not been initialized.
+   */
+  long getDownloadedBytes();
+
+  /**
+   * Returns the download percentage in the range [0, 100], or {@link Float#NaN} if the downloader
+   * has not been initialized.
+   */
+  float getDownloadPercentage();
+
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.offline;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil.CachingCounters;
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for multi segment stream downloaders.
+ * <p>
+ * The manifest is resolved into a list of {@link Segment}s, which are downloaded into the
+ * {@link Cache} in order of their start times by up to a configurable number of threads. Parts of
+ * segments that are already cached are skipped, so an interrupted download resumes where it left
+ * off. The manifest, and any other resources loaded whilst resolving the segments, are also loaded
+ * through the cache so that they're available for offline playback.
+ *
+ * @param <M> The type of the manifest object.
+ */
+public abstract class SegmentDownloader<M> implements Downloader {
+
+  /**
+   * Smallest unit of content to be downloaded.
+   */
+  protected static class Segment implements Comparable<Segment> {
+
+    /**
+     * The start time of the segment in microseconds.
+     */
+    public final long startTimeUs;
+    /**
+     * The {@link DataSpec} of the segment.
+     */
+    public final DataSpec dataSpec;
+
+    /**
+     * @param startTimeUs The start time of the segment in microseconds.
+     * @param dataSpec The {@link DataSpec} of the segment.
+     */
+    public Segment(long startTimeUs, DataSpec dataSpec) {
+      this.startTimeUs = startTimeUs;
+      this.dataSpec = dataSpec;
+    }
+
+    @Override
+    public int compareTo(Segment other) {
+      long startOffsetDiff = startTimeUs - other.startTimeUs;
+      return startOffsetDiff == 0 ? 0 : ((startOffsetDiff < 0) ? -1 : 1);
+    }
+
+  }
+
+  /**
+   * The default maximum number of segments downloaded in parallel.
+   */
+  public static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 4;
+
+  /**
+   * The maximum time for which {@link #download(ProgressListener)} waits for its download threads
+   * to finish after the calling thread has been interrupted.
+   */
+  private static final long INTERRUPTED_TERMINATION_TIMEOUT_MS = 1000;
+
+  private static final int CACHE_FLAGS =
+      CacheDataSource.FLAG_BLOCK_ON_CACHE | CacheDataSource.FLAG_CACHE_UNBOUNDED_REQUESTS;
+
+  private final Uri manifestUri;
+  private final Cache cache;
+  private final DataSource.Factory upstreamDataSourceFactory;
+  private final int maxParallelDownloads;
+  private final AtomicLong downloadedBytes;
+  private final AtomicInteger downloadedSegments;
+
+  private final HashSet<String> loadedResourceKeys;
+
+  private long durationLimitUs;
+  private volatile int totalSegments;
+  private M manifest;
+  private List<Segment> pendingSegments;
+
+  /**
+   * @param manifestUri The {@link Uri} of the manifest to be downloaded.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   * @param maxParallelDownloads The maximum number of segments downloaded in parallel.
+   */
+  public SegmentDownloader(Uri manifestUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory, int maxParallelDownloads) {
+    Assertions.checkArgument(maxParallelDownloads > 0);
+    this.manifestUri = manifestUri;
+    this.cache = cache;
+    this.upstreamDataSourceFactory = upstreamDataSourceFactory;
+    this.maxParallelDownloads = maxParallelDownloads;
+    downloadedBytes = new AtomicLong(C.LENGTH_UNSET);
+    downloadedSegments = new AtomicInteger();
+    loadedResourceKeys = new HashSet<>();
+    durationLimitUs = C.TIME_UNSET;
+  }
+
+  /**
+   * Limits the download to segments that start within the given duration from the start of the
+   * content, for example to prefetch the first few seconds of a title. Must be called before the
+   * downloader is initialized.
+   *
+   * @param durationLimitUs The duration to download in microseconds, or {@link C#TIME_UNSET} to
+   *     download the whole content.
+   */
+  public final synchronized void setDurationLimitUs(long durationLimitUs) {
+    Assertions.checkState(pendingSegments == null);
+    this.durationLimitUs = durationLimitUs;
+  }
+
+  /**
+   * Returns the manifest, loading it through the cache if it hasn't been loaded already.
+   *
+   * @throws IOException If an error occurs loading the manifest.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  public final synchronized M getManifest() throws IOException, InterruptedException {
+    if (manifest == null) {
+      manifest = getManifest(createDataSource(), manifestUri);
+    }
+    return manifest;
+  }
+
+  @Override
+  public final synchronized void init() throws IOException, InterruptedException {
+    if (pendingSegments != null) {
+      return;
+    }
+    List<Segment> segments = getSegments(createDataSource(), getManifest());
+    long durationLimitUs = this.durationLimitUs;
+    long cachedBytes = 0;
+    int cachedSegments = 0;
+    ArrayList<Segment> pendingSegments = new ArrayList<>();
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      if (durationLimitUs != C.TIME_UNSET && segment.startTimeUs >= durationLimitUs) {
+        continue;
+      }
+      long segmentCachedBytes = CacheUtil.getCached(segment.dataSpec, cache);
+      cachedBytes += segmentCachedBytes;
+      if (isCached(segment.dataSpec, segmentCachedBytes)) {
+        cachedSegments++;
+      } else {
+        pendingSegments.add(segment);
+      }
+    }
+    // Download the segments from the start of the content first, so that a partial download is
+    // playable for as long as possible.
+    Collections.sort(pendingSegments);
+    totalSegments = cachedSegments + pendingSegments.size();
+    downloadedSegments.set(cachedSegments);
+    downloadedBytes.set(cachedBytes);
+    this.pendingSegments = pendingSegments;
+  }
+
+  @Override
+  public final synchronized void download(final ProgressListener listener)
+      throws IOException, InterruptedException {
+    init();
+    if (listener != null) {
+      notifyProgress(listener);
+    }
+    final ConcurrentLinkedQueue<Segment> queue = new ConcurrentLinkedQueue<>(pendingSegments);
+    int threadCount = Math.min(maxParallelDownloads, queue.size());
+    if (threadCount == 0) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    ArrayList<Future<?>> futures = new ArrayList<>();
+    final Object listenerLock = new Object();
+    boolean completed = false;
+    try {
+      for (int i = 0; i < threadCount; i++) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              downloadSegments(queue, listener, listenerLock);
+            } catch (IOException | InterruptedException e) {
+              // Stop the other threads from starting new segments.
+              queue.clear();
+              throw new SegmentDownloadException(e);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      completed = true;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SegmentDownloadException) {
+        cause = cause.getCause();
+        if (cause instanceof InterruptedException) {
+          throw (InterruptedException) cause;
+        }
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      // Interrupts any downloads that are still in progress if the calling thread is interrupted or
+      // one of the downloads failed.
+      executor.shutdownNow();
+      awaitTermination(executor);
+      // If the download didn't complete then the remaining segments are determined from the cache
+      // by the next call to init(), since segments that were in progress may be partially cached.
+      pendingSegments = completed ? Collections.<Segment>emptyList() : null;
+    }
+  }
+
+  @Override
+  public final synchronized void remove() throws InterruptedException {
+    HashSet<String> keys = new HashSet<>();
+    try {
+      M manifest = getManifest();
+      for (Segment segment : getSegments(createDataSource(), manifest)) {
+        keys.add(CacheUtil.getKey(segment.dataSpec));
+      }
+    } catch (IOException e) {
+      // The segments couldn't be resolved, so only the resources that were loaded are removed.
+    }
+    keys.addAll(loadedResourceKeys);
+    keys.add(manifestUri.toString());
+    for (String key : keys) {
+      CacheUtil.remove(cache, key);
+    }
+    loadedResourceKeys.clear();
+    manifest = null;
+    pendingSegments = null;
+    downloadedBytes.set(C.LENGTH_UNSET);
+  }
+
+  @Override
+  public final long getDownloadedBytes() {
+    return downloadedBytes.get();
+  }
+
+  @Override
+  public final float getDownloadPercentage() {
+    int totalSegments = this.totalSegments;
+    if (downloadedBytes.get() == C.LENGTH_UNSET) {
+      return Float.NaN;
+    }
+    return totalSegments == 0 ? 100f : downloadedSegments.get() * 100f / totalSegments;
+  }
+
+  /**
+   * Returns the number of segments to be downloaded, or 0 if the downloader is not initialized.
+   */
+  public final int getTotalSegments() {
+    return totalSegments;
+  }
+
+  /**
+   * Returns the number of segments that have been downloaded.
+   */
+  public final int getDownloadedSegments() {
+    return downloadedSegments.get();
+  }
+
+  /**
+   * Loads and parses the manifest.
+   *
+   * @param dataSource The {@link DataSource} through which to load.
+   * @param uri The manifest uri.
+   * @return The manifest.
+   * @throws IOException If an error occurs reading data.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  protected abstract M getManifest(DataSource dataSource, Uri uri)
+      throws IOException, InterruptedException;
+
+  /**
+   * Returns all of the {@link Segment}s of the content, including any that are needed to decrypt
+   * or initialize the media.
+   *
+   * @param dataSource The {@link DataSource} through which any additional resources needed to
+   *     resolve the segments should be loaded.
+   * @param manifest The manifest.
+   * @return The segments, in any order.
+   * @throws IOException If an error occurs loading additional resources, or if the segments
+   *     cannot be resolved.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  protected abstract List<Segment> getSegments(DataSource dataSource, M manifest)
+      throws IOException, InterruptedException;
+
+  /**
+   * Returns the limit set by {@link #setDurationLimitUs(long)}, or {@link C#TIME_UNSET}.
+   */
+  protected final long getDurationLimitUs() {
+    return durationLimitUs;
+  }
+
+  /**
+   * Loads and parses a resource, using a {@link ParsingLoadable}.
+   * <p>
+   * The resource is first read into the cache. This is done without allowing gzip compression,
+   * since a compressed response has no known length and so is not written to the cache. Once the
+   * resource is cached, it's parsed from the cache.
+   *
+   * @param dataSource The {@link DataSource} through which to load.
+   * @param uri The uri of the resource.
+   * @param parser The parser.
+   * @return The parsed resource.
+   * @throws IOException If an error occurs reading data.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  protected final <T> T load(DataSource dataSource, Uri uri, ParsingLoadable.Parser<T> parser)
+      throws IOException, InterruptedException {
+    DataSpec dataSpec = new DataSpec(uri);
+    loadedResourceKeys.add(CacheUtil.getKey(dataSpec));
+    CacheUtil.cache(dataSpec, cache, createDataSource(),
+        new byte[CacheUtil.DEFAULT_BUFFER_SIZE_BYTES], null);
+    ParsingLoadable<T> loadable =
+        new ParsingLoadable<>(dataSource, uri, C.DATA_TYPE_MANIFEST, parser);
+    loadable.load();
+    return loadable.getResult();
+  }
+
+  private void downloadSegments(ConcurrentLinkedQueue<Segment> queue, ProgressListener listener,
+      Object listenerLock) throws IOException, InterruptedException {
+    CacheDataSource dataSource = createDataSource();
+    byte[] buffer = new byte[CacheUtil.DEFAULT_BUFFER_SIZE_BYTES];
+    Segment segment;
+    while ((segment = queue.poll()) != null) {
+      CachingCounters counters = new CachingCounters();
+      try {
+        CacheUtil.cache(segment.dataSpec, cache, dataSource, buffer, counters);
+      } finally {
+        downloadedBytes.addAndGet(counters.downloadedBytes);
+      }
+      downloadedSegments.incrementAndGet();
+      if (listener != null) {
+        synchronized (listenerLock) {
+          notifyProgress(listener);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for the download threads to finish, so that none of them update the progress after the
+   * download has returned. If the calling thread is interrupted whilst waiting then the download
+   * threads are interrupted again, and are waited for for at most
+   * {@link #INTERRUPTED_TERMINATION_TIMEOUT_MS}, since a thread blocked in a read that doesn't
+   * respond to interruption may otherwise prevent the download from returning. The interrupted
+   * status of the calling thread is preserved.
+   */
+  private static void awaitTermination(ExecutorService executor) {
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      try {
+        executor.awaitTermination(INTERRUPTED_TERMINATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e2) {
+        // Give up waiting.
+      }
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void notifyProgress(ProgressListener listener) {
+    listener.onDownloadProgress(this, getDownloadPercentage(), getDownloadedBytes());
+  }
+
+  private boolean isCached(DataSpec dataSpec, long cachedBytes) {
+    long length = dataSpec.length;
+    if (length == C.LENGTH_UNSET) {
+      long contentLength = cache.getContentLength(CacheUtil.getKey(dataSpec));
+      if (contentLength == C.LENGTH_UNSET) {
+        return false;
+      }
+      length = contentLength - dataSpec.absoluteStreamPosition;
+    }
+    return cachedBytes == length;
+  }
+
+  private CacheDataSource createDataSource() {
+    return new CacheDataSource(cache, upstreamDataSourceFactory.createDataSource(), CACHE_FLAGS);
+  }
+
+  /**
+   * Wraps a checked exception thrown by a download thread.
+   */
+  private static final class SegmentDownloadException extends RuntimeException {
+
+    public SegmentDownloadException(Exception cause) {
+      super(cause);
+    }
+
+  }
+
+}
@@ -150,6 +150,9 @@ public class ChunkSampleStream<T extends ChunkSource> implements SampleStream, S
   public void release() {
     sampleQueue.disable();
     loader.release();
+    if (chunkSource instanceof ChunkSource.Releasable) {
+      ((ChunkSource.Releasable) chunkSource).release();
+    }
   }
 
   // SampleStream implementation.
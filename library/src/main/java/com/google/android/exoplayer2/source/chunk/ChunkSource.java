@@ -23,6 +23,19 @@ import java.util.List;
  */
 public interface ChunkSource {
 
+  /**
+   * May be implemented by sources that hold resources which must be freed when the source is no
+   * longer required. {@link ChunkSampleStream} calls {@link #release()} when it's released.
+   */
+  interface Releasable {
+
+    /**
+     * Releases the source.
+     */
+    void release();
+
+  }
+
   /**
    * If the source is currently having difficulty providing chunks, then this method throws the
    * underlying error. Otherwise does nothing.
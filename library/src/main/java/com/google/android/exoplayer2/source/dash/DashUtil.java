@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash;
+
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+/**
+ * Utility methods for DASH streams.
+ */
+public final class DashUtil {
+
+  private DashUtil() {}
+
+  /**
+   * Builds a {@link DataSpec} for a {@link RangedUri} belonging to a {@link Representation}.
+   * <p>
+   * The representation's cache key is used only if all of its data is stored in a single
+   * resource. The segments of a multi-segment representation are separate resources that each
+   * start at position zero, and so are keyed by their uris.
+   *
+   * @param representation The {@link Representation} to which the request belongs.
+   * @param requestUri The {@link RangedUri} of the data to request.
+   * @return The {@link DataSpec}.
+   */
+  public static DataSpec buildDataSpec(Representation representation, RangedUri requestUri) {
+    String key = representation instanceof Representation.SingleSegmentRepresentation
+        ? representation.getCacheKey() : null;
+    return new DataSpec(requestUri.getUri(), requestUri.start, requestUri.length, key);
+  }
+
+}
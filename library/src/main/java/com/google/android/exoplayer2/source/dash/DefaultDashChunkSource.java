@@ -28,6 +28,7 @@ import com.google.android.exoplayer2.source.BehindLiveWindowException;
 import com.google.android.exoplayer2.source.chunk.Chunk;
 import com.google.android.exoplayer2.source.chunk.ChunkExtractorWrapper;
 import com.google.android.exoplayer2.source.chunk.ChunkHolder;
+import com.google.android.exoplayer2.source.chunk.ChunkSource;
 import com.google.android.exoplayer2.source.chunk.ChunkedTrackBlacklistUtil;
 import com.google.android.exoplayer2.source.chunk.ContainerMediaChunk;
 import com.google.android.exoplayer2.source.chunk.InitializationChunk;
@@ -41,15 +42,17 @@ import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.HttpDataSource.InvalidResponseCodeException;
 import com.google.android.exoplayer2.upstream.LoaderErrorThrower;
+import com.google.android.exoplayer2.upstream.PrefetchingDataSource;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A default {@link DashChunkSource} implementation.
  */
-public class DefaultDashChunkSource implements DashChunkSource {
+public class DefaultDashChunkSource implements DashChunkSource, ChunkSource.Releasable {
 
   public static final class Factory implements DashChunkSource.Factory {
 
@@ -75,6 +78,7 @@ public class DefaultDashChunkSource implements DashChunkSource {
   private final TrackSelection trackSelection;
   private final RepresentationHolder[] representationHolders;
   private final DataSource dataSource;
+  private final PrefetchingDataSource prefetchingDataSource;
   private final long elapsedRealtimeOffsetMs;
 
   private DashManifest manifest;
@@ -89,7 +93,9 @@ public class DefaultDashChunkSource implements DashChunkSource {
    * @param periodIndex The index of the period in the manifest.
    * @param adaptationSetIndex The index of the adaptation set in the period.
    * @param trackSelection The track selection.
-   * @param dataSource A {@link DataSource} suitable for loading the media data.
+   * @param dataSource A {@link DataSource} suitable for loading the media data. If this is a
+   *     {@link PrefetchingDataSource} then upcoming segments of the selected representation are
+   *     prefetched.
    * @param elapsedRealtimeOffsetMs If known, an estimate of the instantaneous difference between
    *     server-side unix time and {@link SystemClock#elapsedRealtime()} in milliseconds, specified
    *     as the server's unix time minus the local elapsed time. If unknown, set to 0.
@@ -102,6 +108,8 @@ public class DefaultDashChunkSource implements DashChunkSource {
     this.adaptationSetIndex = adaptationSetIndex;
     this.trackSelection = trackSelection;
     this.dataSource = dataSource;
+    this.prefetchingDataSource = dataSource instanceof PrefetchingDataSource
+        ? (PrefetchingDataSource) dataSource : null;
     this.periodIndex = periodIndex;
     this.elapsedRealtimeOffsetMs = elapsedRealtimeOffsetMs;
 
@@ -154,6 +162,11 @@ public class DefaultDashChunkSource implements DashChunkSource {
     }
 
     long bufferedDurationUs = previous != null ? (previous.endTimeUs - playbackPositionUs) : 0;
+    if (previous != null && previous.endTimeUs > previous.startTimeUs
+        && trackSelection instanceof TrackSelection.ChunkDurationAware) {
+      ((TrackSelection.ChunkDurationAware) trackSelection).setChunkDurationUs(
+          previous.endTimeUs - previous.startTimeUs);
+    }
     trackSelection.updateSelectedTrack(bufferedDurationUs);
 
     RepresentationHolder representationHolder =
@@ -223,6 +236,9 @@ public class DefaultDashChunkSource implements DashChunkSource {
         trackSelection.getSelectedFormat(), trackSelection.getSelectionReason(),
         trackSelection.getSelectionData(), sampleFormat, segmentNum);
     out.chunk = nextMediaChunk;
+    if (prefetchingDataSource != null) {
+      prefetchSegments(representationHolder, segmentNum, lastAvailableSegmentNum);
+    }
   }
 
   @Override
@@ -270,6 +286,13 @@ public class DefaultDashChunkSource implements DashChunkSource {
         trackSelection.indexOf(chunk.trackFormat), e);
   }
 
+  @Override
+  public void release() {
+    if (prefetchingDataSource != null) {
+      prefetchingDataSource.release();
+    }
+  }
+
   // Private methods.
 
   private List<Representation> getRepresentations() {
@@ -284,6 +307,18 @@ public class DefaultDashChunkSource implements DashChunkSource {
     }
   }
 
+  private void prefetchSegments(RepresentationHolder representationHolder, int firstSegmentNum,
+      int lastAvailableSegmentNum) {
+    int lastSegmentNum = Math.min(lastAvailableSegmentNum,
+        firstSegmentNum + prefetchingDataSource.getMaxParallelLoads() - 1);
+    List<DataSpec> dataSpecs = new ArrayList<>();
+    for (int segmentNum = firstSegmentNum; segmentNum <= lastSegmentNum; segmentNum++) {
+      dataSpecs.add(DashUtil.buildDataSpec(representationHolder.representation,
+          representationHolder.getSegmentUrl(segmentNum)));
+    }
+    prefetchingDataSource.prefetch(dataSpecs);
+  }
+
   private Chunk newInitializationChunk(RepresentationHolder representationHolder,
       DataSource dataSource, Format trackFormat, int trackSelectionReason,
       Object trackSelectionData, RangedUri initializationUri, RangedUri indexUri) {
@@ -298,8 +333,7 @@ public class DefaultDashChunkSource implements DashChunkSource {
     } else {
       requestUri = indexUri;
     }
-    DataSpec dataSpec = new DataSpec(requestUri.getUri(), requestUri.start, requestUri.length,
-        representationHolder.representation.getCacheKey());
+    DataSpec dataSpec = DashUtil.buildDataSpec(representationHolder.representation, requestUri);
     return new InitializationChunk(dataSource, dataSpec, trackFormat,
         trackSelectionReason, trackSelectionData, representationHolder.extractorWrapper);
   }
@@ -311,8 +345,7 @@ public class DefaultDashChunkSource implements DashChunkSource {
     long startTimeUs = representationHolder.getSegmentStartTimeUs(segmentNum);
     long endTimeUs = representationHolder.getSegmentEndTimeUs(segmentNum);
     RangedUri segmentUri = representationHolder.getSegmentUrl(segmentNum);
-    DataSpec dataSpec = new DataSpec(segmentUri.getUri(), segmentUri.start, segmentUri.length,
-        representation.getCacheKey());
+    DataSpec dataSpec = DashUtil.buildDataSpec(representation, segmentUri);
 
     if (representationHolder.extractorWrapper == null) {
       return new SingleSampleMediaChunk(dataSource, dataSpec, trackFormat, trackSelectionReason,
@@ -374,6 +407,10 @@ public class DefaultDashChunkSource implements DashChunkSource {
       DashSegmentIndex newIndex = newRepresentation.getIndex();
 
       periodDurationUs = newPeriodDurationUs;
+      if (newRepresentation == representation) {
+        // The representation was reused from the previous manifest, so its index is unchanged.
+        return;
+      }
       representation = newRepresentation;
       if (oldIndex == null) {
         // Segment numbers cannot shift if the index isn't defined by the manifest.
@@ -61,6 +61,9 @@ public class DashManifestParser extends DefaultHandler
 
   private final String contentId;
   private final XmlPullParserFactory xmlParserFactory;
+  // The timelines of the manifest being parsed on each thread, for interning.
+  private final ThreadLocal<List<SegmentTimeline>> segmentTimelines;
+  private final boolean overridesBuildSegmentTimelineElement;
 
   /**
    * Equivalent to calling {@code new DashManifestParser(null)}.
@@ -74,6 +77,8 @@ public class DashManifestParser extends DefaultHandler
    */
   public DashManifestParser(String contentId) {
     this.contentId = contentId;
+    segmentTimelines = new ThreadLocal<>();
+    overridesBuildSegmentTimelineElement = overridesBuildSegmentTimelineElement(getClass());
     try {
       xmlParserFactory = XmlPullParserFactory.newInstance();
     } catch (XmlPullParserException e) {
@@ -85,6 +90,7 @@ public class DashManifestParser extends DefaultHandler
 
   @Override
   public DashManifest parse(Uri uri, InputStream inputStream) throws IOException {
+    segmentTimelines.set(new ArrayList<SegmentTimeline>());
     try {
       XmlPullParser xpp = xmlParserFactory.newPullParser();
       xpp.setInput(inputStream, null);
@@ -96,6 +102,8 @@ public class DashManifestParser extends DefaultHandler
       return parseMediaPresentationDescription(xpp, uri.toString());
     } catch (XmlPullParserException | ParseException e) {
       throw new ParserException(e);
+    } finally {
+      segmentTimelines.remove();
     }
   }
 
@@ -498,7 +506,7 @@ public class DashManifestParser extends DefaultHandler
       if (XmlPullParserUtil.isStartTag(xpp, "Initialization")) {
         initialization = parseInitialization(xpp, baseUrl);
       } else if (XmlPullParserUtil.isStartTag(xpp, "SegmentTimeline")) {
-        timeline = parseSegmentTimeline(xpp);
+        timeline = internSegmentTimeline(parseSegmentTimeline(xpp));
       } else if (XmlPullParserUtil.isStartTag(xpp, "SegmentURL")) {
         if (segments == null) {
           segments = new ArrayList<>();
@@ -544,7 +552,7 @@ public class DashManifestParser extends DefaultHandler
       if (XmlPullParserUtil.isStartTag(xpp, "Initialization")) {
         initialization = parseInitialization(xpp, baseUrl);
       } else if (XmlPullParserUtil.isStartTag(xpp, "SegmentTimeline")) {
-        timeline = parseSegmentTimeline(xpp);
+        timeline = internSegmentTimeline(parseSegmentTimeline(xpp));
       }
     } while (!XmlPullParserUtil.isEndTag(xpp, "SegmentTemplate"));
 
@@ -567,7 +575,7 @@ public class DashManifestParser extends DefaultHandler
 
   protected List<SegmentTimelineElement> parseSegmentTimeline(XmlPullParser xpp)
       throws XmlPullParserException, IOException {
-    List<SegmentTimelineElement> segmentTimeline = new ArrayList<>();
+    SegmentTimeline.Storage storage = new SegmentTimeline.Storage();
     long elapsedTime = 0;
     do {
       xpp.next();
@@ -576,18 +584,68 @@ public class DashManifestParser extends DefaultHandler
         long duration = parseLong(xpp, "d", C.TIME_UNSET);
         int count = 1 + parseInt(xpp, "r", 0);
         for (int i = 0; i < count; i++) {
-          segmentTimeline.add(buildSegmentTimelineElement(elapsedTime, duration));
+          appendSegmentTimelineElement(storage, elapsedTime, duration);
           elapsedTime += duration;
         }
       }
     } while (!XmlPullParserUtil.isEndTag(xpp, "SegmentTimeline"));
-    return segmentTimeline;
+    return new SegmentTimeline(storage, 0, storage.size());
   }
 
+  /**
+   * Appends a segment to the storage of a timeline being parsed.
+   */
+  /* package */ final void appendSegmentTimelineElement(SegmentTimeline.Storage storage,
+      long elapsedTime, long duration) {
+    if (overridesBuildSegmentTimelineElement) {
+      SegmentTimelineElement element = buildSegmentTimelineElement(elapsedTime, duration);
+      storage.append(element.startTime, element.duration);
+    } else {
+      storage.append(elapsedTime, duration);
+    }
+  }
+
+  /**
+   * @deprecated Timelines are stored as runs of equal-duration segments. This method is only
+   *     called if a subclass overrides it, in which case the start time and duration of the
+   *     returned element are appended to the timeline's storage and the element is not retained.
+   */
+  @Deprecated
   protected SegmentTimelineElement buildSegmentTimelineElement(long elapsedTime, long duration) {
     return new SegmentTimelineElement(elapsedTime, duration);
   }
 
+  private static boolean overridesBuildSegmentTimelineElement(Class<?> clazz) {
+    for (; clazz != DashManifestParser.class; clazz = clazz.getSuperclass()) {
+      try {
+        clazz.getDeclaredMethod("buildSegmentTimelineElement", long.class, long.class);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Not overridden by this class.
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a previously parsed timeline of the manifest being parsed that contains the same
+   * segments as {@code timeline}, or {@code timeline} if there is no such timeline. This allows
+   * representations with the same timeline to share its storage.
+   */
+  private List<SegmentTimelineElement> internSegmentTimeline(
+      List<SegmentTimelineElement> timeline) {
+    List<SegmentTimeline> timelines = segmentTimelines.get();
+    if (timelines == null || !(timeline instanceof SegmentTimeline)) {
+      return timeline;
+    }
+    int index = timelines.indexOf(timeline);
+    if (index != C.INDEX_UNSET) {
+      return timelines.get(index);
+    }
+    timelines.add((SegmentTimeline) timeline);
+    return timeline;
+  }
+
   protected UrlTemplate parseUrlTemplate(XmlPullParser xpp, String name,
       UrlTemplate defaultValue) {
     String valueString = xpp.getAttributeValue(null, name);
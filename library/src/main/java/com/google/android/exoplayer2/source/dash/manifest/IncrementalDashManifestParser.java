@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import android.net.Uri;
+import android.util.Pair;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.manifest.Representation.MultiSegmentRepresentation;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.MultiSegmentBase;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentList;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTemplate;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SingleSegmentBase;
+import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.util.XmlPullParserUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * A {@link DashManifestParser} for live streams that parses each manifest against the one it
+ * parsed previously.
+ * <p>
+ * Segment timelines share their {@link SegmentTimeline.Storage} with the corresponding timelines
+ * of the previous manifest, so that a refresh that appends a few segments to a long timeline only
+ * stores the new segments. Segment bases, representations, adaptation sets and periods that are
+ * unchanged are replaced by the corresponding instances from the previous manifest, which allows
+ * consumers to detect that they are unchanged by comparing references.
+ * <p>
+ * Instances retain the most recently parsed manifest, and so must not be used to parse more than
+ * one manifest at a time. Reuse is purely an optimization: the parsed manifest is always
+ * equivalent to the one that {@link DashManifestParser} would have produced.
+ */
+public class IncrementalDashManifestParser extends DashManifestParser {
+
+  private DashManifest previousManifest;
+  private HashMap<String, UrlTemplate> previousUrlTemplates;
+  private HashMap<String, UrlTemplate> urlTemplates;
+
+  // Parsing context, valid only during a call to parse.
+  private Period previousPeriod;
+  private AdaptationSet previousAdaptationSet;
+  private int adaptationSetIndex;
+  private int previousTimelineIndex;
+
+  /**
+   * Equivalent to calling {@code new IncrementalDashManifestParser(null)}.
+   */
+  public IncrementalDashManifestParser() {
+    this(null);
+  }
+
+  /**
+   * @param contentId An optional content identifier to include in the parsed manifest.
+   */
+  public IncrementalDashManifestParser(String contentId) {
+    super(contentId);
+    previousUrlTemplates = new HashMap<>();
+    urlTemplates = new HashMap<>();
+  }
+
+  @Override
+  public DashManifest parse(Uri uri, InputStream inputStream) throws IOException {
+    DashManifest manifest;
+    try {
+      manifest = super.parse(uri, inputStream);
+      if (previousManifest != null) {
+        manifest = reuseUnchangedPeriods(previousManifest, manifest);
+      }
+    } finally {
+      previousPeriod = null;
+      previousAdaptationSet = null;
+      HashMap<String, UrlTemplate> swap = previousUrlTemplates;
+      previousUrlTemplates = urlTemplates;
+      urlTemplates = swap;
+      urlTemplates.clear();
+    }
+    previousManifest = manifest;
+    return manifest;
+  }
+
+  // Parsing context tracking.
+
+  @Override
+  protected Pair<Period, Long> parsePeriod(XmlPullParser xpp, String baseUrl, long defaultStartMs)
+      throws XmlPullParserException, IOException {
+    previousPeriod = previousManifest == null ? null : findPeriod(previousManifest,
+        xpp.getAttributeValue(null, "id"), parseDuration(xpp, "start", defaultStartMs));
+    adaptationSetIndex = 0;
+    try {
+      return super.parsePeriod(xpp, baseUrl, defaultStartMs);
+    } finally {
+      previousPeriod = null;
+    }
+  }
+
+  @Override
+  protected AdaptationSet parseAdaptationSet(XmlPullParser xpp, String baseUrl,
+      SegmentBase segmentBase) throws XmlPullParserException, IOException {
+    previousAdaptationSet = previousPeriod == null ? null : findAdaptationSet(previousPeriod,
+        parseInt(xpp, "id", AdaptationSet.UNSET_ID), adaptationSetIndex);
+    adaptationSetIndex++;
+    try {
+      return super.parseAdaptationSet(xpp, baseUrl, segmentBase);
+    } finally {
+      previousAdaptationSet = null;
+    }
+  }
+
+  // Segment timeline and segment base reuse.
+
+  @Override
+  protected List<SegmentTimelineElement> parseSegmentTimeline(XmlPullParser xpp)
+      throws XmlPullParserException, IOException {
+    SegmentTimeline previousTimeline = null;
+    SegmentTimeline.Storage storage = null;
+    int fromIndex = 0;
+    // The index in storage of the next segment, which is compared against the parsed segment
+    // until the two diverge, after which parsed segments are appended.
+    int storageIndex = 0;
+    boolean diverged = false;
+    long elapsedTime = 0;
+    do {
+      xpp.next();
+      if (XmlPullParserUtil.isStartTag(xpp, "S")) {
+        elapsedTime = parseLong(xpp, "t", elapsedTime);
+        long duration = parseLong(xpp, "d", C.TIME_UNSET);
+        int count = 1 + parseInt(xpp, "r", 0);
+        if (storage == null) {
+          previousTimeline = findPreviousTimeline(elapsedTime);
+          if (previousTimeline != null) {
+            storage = previousTimeline.storage;
+            fromIndex = previousTimeline.fromIndex + previousTimelineIndex;
+            storageIndex = fromIndex;
+          } else {
+            storage = new SegmentTimeline.Storage();
+            diverged = true;
+          }
+        }
+        for (int i = 0; i < count; i++) {
+          if (!diverged && storageIndex < storage.size()) {
+            if (storage.getStartTime(storageIndex) == elapsedTime
+                && storage.getDuration(storageIndex) == duration) {
+              storageIndex++;
+              elapsedTime += duration;
+              continue;
+            }
+            // The timelines have diverged. Copy the common segments into new storage.
+            storage = storage.copyRange(fromIndex, storageIndex);
+            fromIndex = 0;
+            diverged = true;
+          } else if (!diverged) {
+            // All stored segments matched. Subsequent segments are appended to the same storage.
+            diverged = true;
+          }
+          appendSegmentTimelineElement(storage, elapsedTime, duration);
+          elapsedTime += duration;
+        }
+      }
+    } while (!XmlPullParserUtil.isEndTag(xpp, "SegmentTimeline"));
+    if (storage == null) {
+      return new SegmentTimeline(new SegmentTimeline.Storage(), 0, 0);
+    }
+    int toIndex = diverged ? storage.size() : storageIndex;
+    if (fromIndex > toIndex - fromIndex) {
+      // Most of the storage precedes the timeline. Copy the timeline so it can be released.
+      storage = storage.copyRange(fromIndex, toIndex);
+      toIndex -= fromIndex;
+      fromIndex = 0;
+    }
+    if (previousTimeline != null && storage == previousTimeline.storage
+        && fromIndex == previousTimeline.fromIndex && toIndex == previousTimeline.getToIndex()) {
+      // The timeline is unchanged.
+      return previousTimeline;
+    }
+    return new SegmentTimeline(storage, fromIndex, toIndex);
+  }
+
+  @Override
+  protected UrlTemplate parseUrlTemplate(XmlPullParser xpp, String name,
+      UrlTemplate defaultValue) {
+    String valueString = xpp.getAttributeValue(null, name);
+    if (valueString == null) {
+      return defaultValue;
+    }
+    UrlTemplate urlTemplate = urlTemplates.get(valueString);
+    if (urlTemplate == null) {
+      urlTemplate = previousUrlTemplates.get(valueString);
+      if (urlTemplate == null) {
+        urlTemplate = UrlTemplate.compile(valueString);
+      }
+      urlTemplates.put(valueString, urlTemplate);
+    }
+    return urlTemplate;
+  }
+
+  @Override
+  protected SingleSegmentBase buildSingleSegmentBase(RangedUri initialization, long timescale,
+      long presentationTimeOffset, String baseUrl, long indexStart, long indexLength) {
+    for (SegmentBase previous : getPreviousSegmentBases()) {
+      if (previous instanceof SingleSegmentBase) {
+        SingleSegmentBase candidate = (SingleSegmentBase) previous;
+        if (candidate.timescale == timescale
+            && candidate.presentationTimeOffset == presentationTimeOffset
+            && candidate.indexStart == indexStart && candidate.indexLength == indexLength
+            && candidate.uri.equals(baseUrl)
+            && Util.areEqual(candidate.initialization, initialization)) {
+          return candidate;
+        }
+      }
+    }
+    return super.buildSingleSegmentBase(initialization, timescale, presentationTimeOffset,
+        baseUrl, indexStart, indexLength);
+  }
+
+  @Override
+  protected SegmentList buildSegmentList(RangedUri initialization, long timescale,
+      long presentationTimeOffset, int startNumber, long duration,
+      List<SegmentTimelineElement> timeline, List<RangedUri> segments) {
+    for (SegmentBase previous : getPreviousSegmentBases()) {
+      if (previous instanceof SegmentList) {
+        SegmentList candidate = (SegmentList) previous;
+        if (isUnchanged(candidate, initialization, timescale, presentationTimeOffset, startNumber,
+            duration, timeline) && Util.areEqual(candidate.mediaSegments, segments)) {
+          return candidate;
+        }
+      }
+    }
+    return super.buildSegmentList(initialization, timescale, presentationTimeOffset, startNumber,
+        duration, timeline, segments);
+  }
+
+  @Override
+  protected SegmentTemplate buildSegmentTemplate(RangedUri initialization, long timescale,
+      long presentationTimeOffset, int startNumber, long duration,
+      List<SegmentTimelineElement> timeline, UrlTemplate initializationTemplate,
+      UrlTemplate mediaTemplate, String baseUrl) {
+    for (SegmentBase previous : getPreviousSegmentBases()) {
+      if (previous instanceof SegmentTemplate) {
+        SegmentTemplate candidate = (SegmentTemplate) previous;
+        if (isUnchanged(candidate, initialization, timescale, presentationTimeOffset, startNumber,
+            duration, timeline) && candidate.initializationTemplate == initializationTemplate
+            && candidate.mediaTemplate == mediaTemplate
+            && Util.areEqual(candidate.baseUrl, baseUrl)) {
+          return candidate;
+        }
+      }
+    }
+    return super.buildSegmentTemplate(initialization, timescale, presentationTimeOffset,
+        startNumber, duration, timeline, initializationTemplate, mediaTemplate, baseUrl);
+  }
+
+  // Internal methods.
+
+  /**
+   * Finds a segment with the specified start time in one of the timelines of the previous
+   * manifest that's relevant to the current parsing context, setting
+   * {@link #previousTimelineIndex} to its index.
+   *
+   * @param startTime The start time of the segment to find.
+   * @return The timeline containing the segment, or null if no such timeline was found.
+   */
+  private SegmentTimeline findPreviousTimeline(long startTime) {
+    for (SegmentBase previous : getPreviousSegmentBases()) {
+      if (previous instanceof MultiSegmentBase) {
+        SegmentTimeline timeline = ((MultiSegmentBase) previous).segmentTimeline;
+        int index = timeline == null ? -1 : timeline.getIndexOfTimeFloor(startTime);
+        if (index >= 0 && timeline.getStartTime(index) == startTime) {
+          previousTimelineIndex = index;
+          return timeline;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the distinct segment bases of the representations in the previous manifest that
+   * correspond to the current parsing context.
+   */
+  private List<SegmentBase> getPreviousSegmentBases() {
+    List<SegmentBase> segmentBases = new ArrayList<>();
+    if (previousAdaptationSet != null) {
+      addSegmentBases(previousAdaptationSet, segmentBases);
+    } else if (previousPeriod != null) {
+      for (int i = 0; i < previousPeriod.adaptationSets.size(); i++) {
+        addSegmentBases(previousPeriod.adaptationSets.get(i), segmentBases);
+      }
+    }
+    return segmentBases;
+  }
+
+  private static void addSegmentBases(AdaptationSet adaptationSet, List<SegmentBase> out) {
+    for (int i = 0; i < adaptationSet.representations.size(); i++) {
+      Representation representation = adaptationSet.representations.get(i);
+      if (representation instanceof MultiSegmentRepresentation) {
+        SegmentBase segmentBase = ((MultiSegmentRepresentation) representation).segmentBase;
+        if (!out.contains(segmentBase)) {
+          out.add(segmentBase);
+        }
+      }
+    }
+  }
+
+  private static boolean isUnchanged(MultiSegmentBase candidate, RangedUri initialization,
+      long timescale, long presentationTimeOffset, int startNumber, long duration,
+      List<SegmentTimelineElement> timeline) {
+    return candidate.timescale == timescale
+        && candidate.presentationTimeOffset == presentationTimeOffset
+        && candidate.startNumber == startNumber && candidate.duration == duration
+        && candidate.segmentTimeline == timeline
+        && Util.areEqual(candidate.initialization, initialization);
+  }
+
+  private DashManifest reuseUnchangedPeriods(DashManifest previous, DashManifest manifest) {
+    List<Period> periods = new ArrayList<>(manifest.getPeriodCount());
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      Period previousPeriod = findPeriod(previous, period.id, period.startMs);
+      periods.add(previousPeriod == null ? period : reuseUnchanged(previousPeriod, period));
+    }
+    return buildMediaPresentationDescription(manifest.availabilityStartTime, manifest.duration,
+        manifest.minBufferTime, manifest.dynamic, manifest.minUpdatePeriod,
+        manifest.timeShiftBufferDepth, manifest.suggestedPresentationDelay, manifest.utcTiming,
+        manifest.location, periods);
+  }
+
+  private Period reuseUnchanged(Period previous, Period period) {
+    List<AdaptationSet> adaptationSets = new ArrayList<>(period.adaptationSets.size());
+    boolean reusedAny = false;
+    boolean reusedAll = period.adaptationSets.size() == previous.adaptationSets.size();
+    for (int i = 0; i < period.adaptationSets.size(); i++) {
+      AdaptationSet adaptationSet = period.adaptationSets.get(i);
+      AdaptationSet previousAdaptationSet = findAdaptationSet(previous, adaptationSet.id, i);
+      if (previousAdaptationSet != null) {
+        adaptationSet = reuseUnchanged(previousAdaptationSet, adaptationSet);
+      }
+      adaptationSets.add(adaptationSet);
+      boolean reused = adaptationSet == previousAdaptationSet;
+      reusedAny |= reused;
+      reusedAll &= reused && previousAdaptationSet == previous.adaptationSets.get(i);
+    }
+    if (reusedAll && Util.areEqual(previous.id, period.id) && previous.startMs == period.startMs) {
+      return previous;
+    }
+    return reusedAny ? buildPeriod(period.id, period.startMs, adaptationSets) : period;
+  }
+
+  private AdaptationSet reuseUnchanged(AdaptationSet previous, AdaptationSet adaptationSet) {
+    List<Representation> representations =
+        new ArrayList<>(adaptationSet.representations.size());
+    boolean reusedAny = false;
+    boolean reusedAll =
+        adaptationSet.representations.size() == previous.representations.size();
+    for (int i = 0; i < adaptationSet.representations.size(); i++) {
+      Representation representation = adaptationSet.representations.get(i);
+      Representation previousRepresentation = previous.representations.get(
+          Math.min(i, previous.representations.size() - 1));
+      if (isUnchanged(previousRepresentation, representation)) {
+        representation = previousRepresentation;
+        reusedAny = true;
+      } else {
+        reusedAll = false;
+      }
+      representations.add(representation);
+    }
+    if (reusedAll && previous.id == adaptationSet.id && previous.type == adaptationSet.type) {
+      return previous;
+    }
+    return reusedAny ? buildAdaptationSet(adaptationSet.id, adaptationSet.type, representations)
+        : adaptationSet;
+  }
+
+  private static boolean isUnchanged(Representation previous, Representation representation) {
+    if (previous.getClass() != representation.getClass()
+        || previous.revisionId != representation.revisionId
+        || !Util.areEqual(previous.contentId, representation.contentId)
+        || !previous.getCacheKey().equals(representation.getCacheKey())
+        || !previous.format.equals(representation.format)) {
+      return false;
+    }
+    if (representation instanceof MultiSegmentRepresentation) {
+      return ((MultiSegmentRepresentation) previous).segmentBase
+          == ((MultiSegmentRepresentation) representation).segmentBase;
+    } else if (representation instanceof Representation.SingleSegmentRepresentation) {
+      Representation.SingleSegmentRepresentation previousSingle =
+          (Representation.SingleSegmentRepresentation) previous;
+      Representation.SingleSegmentRepresentation single =
+          (Representation.SingleSegmentRepresentation) representation;
+      return previousSingle.uri.equals(single.uri)
+          && previousSingle.contentLength == single.contentLength
+          && Util.areEqual(previousSingle.getIndexUri(), single.getIndexUri())
+          && Util.areEqual(previousSingle.getInitializationUri(), single.getInitializationUri());
+    }
+    return false;
+  }
+
+  private static Period findPeriod(DashManifest manifest, String id, long startMs) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      if (id != null ? id.equals(period.id) : (period.id == null && period.startMs == startMs)) {
+        return period;
+      }
+    }
+    return null;
+  }
+
+  private static AdaptationSet findAdaptationSet(Period period, int id, int index) {
+    if (id != AdaptationSet.UNSET_ID) {
+      for (int i = 0; i < period.adaptationSets.size(); i++) {
+        if (period.adaptationSets.get(i).id == id) {
+          return period.adaptationSets.get(i);
+        }
+      }
+      return null;
+    }
+    return index < period.adaptationSets.size() ? period.adaptationSets.get(index) : null;
+  }
+
+}
@@ -111,7 +111,7 @@ public abstract class SegmentBase {
 
     /* package */ final int startNumber;
     /* package */ final long duration;
-    /* package */ final List<SegmentTimelineElement> segmentTimeline;
+    /* package */ final SegmentTimeline segmentTimeline;
 
     /**
      * @param initialization A {@link RangedUri} corresponding to initialization data, if such data
@@ -125,14 +125,15 @@ public abstract class SegmentBase {
      *     {@code segmentTimeline} is non-null then this parameter is ignored.
      * @param segmentTimeline A segment timeline corresponding to the segments. If null, then
      *     segments are assumed to be of fixed duration as specified by the {@code duration}
-     *     parameter.
+     *     parameter. If not a {@link SegmentTimeline} then it's copied into one.
      */
     public MultiSegmentBase(RangedUri initialization, long timescale, long presentationTimeOffset,
         int startNumber, long duration, List<SegmentTimelineElement> segmentTimeline) {
       super(initialization, timescale, presentationTimeOffset);
       this.startNumber = startNumber;
       this.duration = duration;
-      this.segmentTimeline = segmentTimeline;
+      this.segmentTimeline = segmentTimeline == null ? null
+          : SegmentTimeline.copyOf(segmentTimeline);
     }
 
     /**
@@ -150,20 +151,22 @@ public abstract class SegmentBase {
         return segmentNum < lowIndex ? lowIndex
             : highIndex != DashSegmentIndex.INDEX_UNBOUNDED && segmentNum > highIndex ? highIndex
             : segmentNum;
+      } else if (highIndex < lowIndex) {
+        return lowIndex;
       } else {
-        // The high index cannot be unbounded. Identify the segment using binary search.
-        while (lowIndex <= highIndex) {
-          int midIndex = (lowIndex + highIndex) / 2;
-          long midTimeUs = getSegmentTimeUs(midIndex);
-          if (midTimeUs < timeUs) {
-            lowIndex = midIndex + 1;
-          } else if (midTimeUs > timeUs) {
-            highIndex = midIndex - 1;
-          } else {
-            return midIndex;
-          }
+        // The high index cannot be unbounded. Look up the segment in the timeline, then correct
+        // for rounding in the conversion of the time to the timeline's timescale.
+        long time = Util.scaleLargeTimestamp(timeUs, timescale, C.MICROS_PER_SECOND)
+            + presentationTimeOffset;
+        int segmentNum = Util.constrainValue(
+            startNumber + segmentTimeline.getIndexOfTimeFloor(time), lowIndex, highIndex);
+        while (segmentNum < highIndex && getSegmentTimeUs(segmentNum + 1) <= timeUs) {
+          segmentNum++;
+        }
+        while (segmentNum > lowIndex && getSegmentTimeUs(segmentNum) > timeUs) {
+          segmentNum--;
         }
-        return lowIndex == firstSegmentNum ? lowIndex : highIndex;
+        return segmentNum;
       }
     }
 
@@ -172,7 +175,7 @@ public abstract class SegmentBase {
      */
     public final long getSegmentDurationUs(int sequenceNumber, long periodDurationUs) {
       if (segmentTimeline != null) {
-        long duration = segmentTimeline.get(sequenceNumber - startNumber).duration;
+        long duration = segmentTimeline.getDuration(sequenceNumber - startNumber);
         return (duration * C.MICROS_PER_SECOND) / timescale;
       } else {
         return sequenceNumber == getLastSegmentNum(periodDurationUs)
@@ -187,7 +190,7 @@ public abstract class SegmentBase {
     public final long getSegmentTimeUs(int sequenceNumber) {
       long unscaledSegmentTime;
       if (segmentTimeline != null) {
-        unscaledSegmentTime = segmentTimeline.get(sequenceNumber - startNumber).startTime
+        unscaledSegmentTime = segmentTimeline.getStartTime(sequenceNumber - startNumber)
             - presentationTimeOffset;
       } else {
         unscaledSegmentTime = (sequenceNumber - startNumber) * duration;
@@ -278,8 +281,7 @@ public abstract class SegmentBase {
 
     /* package */ final UrlTemplate initializationTemplate;
     /* package */ final UrlTemplate mediaTemplate;
-
-    private final String baseUrl;
+    /* package */ final String baseUrl;
 
     /**
      * @param initialization A {@link RangedUri} corresponding to initialization data, if such data
@@ -326,7 +328,7 @@ public abstract class SegmentBase {
     public RangedUri getSegmentUrl(Representation representation, int sequenceNumber) {
       long time;
       if (segmentTimeline != null) {
-        time = segmentTimeline.get(sequenceNumber - startNumber).startTime;
+        time = segmentTimeline.getStartTime(sequenceNumber - startNumber);
       } else {
         time = (sequenceNumber - startNumber) * duration;
       }
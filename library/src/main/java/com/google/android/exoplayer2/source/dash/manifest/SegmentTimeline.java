@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of {@link SegmentTimelineElement}s that stores the timeline as runs of
+ * contiguous segments of equal duration, and instantiates {@link SegmentTimelineElement}s only
+ * when they are requested.
+ * <p>
+ * A timeline is a window onto a {@link Storage}, which is append-only. This allows the timelines
+ * parsed from successive refreshes of a live manifest, and the timelines of representations that
+ * have the same segments, to share their storage.
+ */
+public final class SegmentTimeline extends AbstractList<SegmentTimelineElement>
+    implements RandomAccess {
+
+  /**
+   * Append-only run-length encoded storage for segment start times and durations.
+   * <p>
+   * Appending never modifies the entries of existing timelines, and so may be done whilst the
+   * timelines are being read on other threads. Appends must not be made concurrently with each
+   * other.
+   */
+  public static final class Storage {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+    private int runCount;
+    private long[] runStartTimes;
+    private long[] runDurations;
+    private int[] runStartIndices;
+
+    public Storage() {
+      runStartTimes = new long[INITIAL_CAPACITY];
+      runDurations = new long[INITIAL_CAPACITY];
+      runStartIndices = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the number of segments in the storage.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Appends a segment. The segment extends the last run if it starts where the last run ends
+     * and has the same duration.
+     *
+     * @param startTime The start time of the segment, in the timescale of the enclosing element.
+     * @param duration The duration of the segment, in the timescale of the enclosing element.
+     */
+    public void append(long startTime, long duration) {
+      if (runCount > 0) {
+        int lastRun = runCount - 1;
+        if (runDurations[lastRun] == duration && runStartTimes[lastRun]
+            + (size - runStartIndices[lastRun]) * duration == startTime) {
+          size++;
+          return;
+        }
+      }
+      if (runCount == runStartTimes.length) {
+        int capacity = runCount * 2;
+        runStartTimes = Arrays.copyOf(runStartTimes, capacity);
+        runDurations = Arrays.copyOf(runDurations, capacity);
+        runStartIndices = Arrays.copyOf(runStartIndices, capacity);
+      }
+      runStartTimes[runCount] = startTime;
+      runDurations[runCount] = duration;
+      runStartIndices[runCount] = size;
+      runCount++;
+      size++;
+    }
+
+    /**
+     * Returns the start time of the segment at the specified index.
+     */
+    public long getStartTime(int index) {
+      return getStartTimeInRun(findRun(index, 0, runCount - 1, runStartIndices), index,
+          runStartTimes, runDurations, runStartIndices);
+    }
+
+    /**
+     * Returns the duration of the segment at the specified index.
+     */
+    public long getDuration(int index) {
+      return runDurations[findRun(index, 0, runCount - 1, runStartIndices)];
+    }
+
+    /**
+     * Returns a new storage containing the segments in the specified range.
+     *
+     * @param fromIndex The index of the first segment to copy.
+     * @param toIndex The index after the last segment to copy.
+     * @return The new storage.
+     */
+    public Storage copyRange(int fromIndex, int toIndex) {
+      Storage copy = new Storage();
+      if (fromIndex == toIndex) {
+        return copy;
+      }
+      int firstRun = findRun(fromIndex, 0, runCount - 1, runStartIndices);
+      int lastRun = findRun(toIndex - 1, firstRun, runCount - 1, runStartIndices);
+      for (int run = firstRun; run <= lastRun; run++) {
+        int runFromIndex = Math.max(fromIndex, runStartIndices[run]);
+        int runToIndex = run == lastRun ? toIndex : runStartIndices[run + 1];
+        long startTime = getStartTimeInRun(run, runFromIndex, runStartTimes, runDurations,
+            runStartIndices);
+        copy.appendRun(startTime, runDurations[run], runToIndex - runFromIndex);
+      }
+      return copy;
+    }
+
+    private void appendRun(long startTime, long duration, int count) {
+      append(startTime, duration);
+      size += count - 1;
+    }
+
+  }
+
+  /**
+   * The storage backing the timeline.
+   */
+  public final Storage storage;
+  /**
+   * The index in {@link #storage} of the first segment in the timeline.
+   */
+  public final int fromIndex;
+
+  private final int size;
+  private final int firstRun;
+  private final int lastRun;
+  // Array references are captured on construction, since the storage replaces its arrays when it
+  // grows. The captured arrays are never modified within the range of the timeline.
+  private final long[] runStartTimes;
+  private final long[] runDurations;
+  private final int[] runStartIndices;
+
+  /**
+   * @param storage The storage backing the timeline.
+   * @param fromIndex The index in {@code storage} of the first segment in the timeline.
+   * @param toIndex The index in {@code storage} after the last segment in the timeline.
+   */
+  public SegmentTimeline(Storage storage, int fromIndex, int toIndex) {
+    this.storage = storage;
+    this.fromIndex = fromIndex;
+    this.size = toIndex - fromIndex;
+    runStartTimes = storage.runStartTimes;
+    runDurations = storage.runDurations;
+    runStartIndices = storage.runStartIndices;
+    if (size == 0) {
+      firstRun = 0;
+      lastRun = -1;
+    } else {
+      firstRun = findRun(fromIndex, 0, storage.runCount - 1, runStartIndices);
+      lastRun = findRun(toIndex - 1, firstRun, storage.runCount - 1, runStartIndices);
+    }
+  }
+
+  /**
+   * Returns a timeline containing the same segments as a list of {@link SegmentTimelineElement}s.
+   *
+   * @param elements The elements.
+   * @return The timeline. If {@code elements} is a {@link SegmentTimeline} then it's returned
+   *     directly.
+   */
+  public static SegmentTimeline copyOf(List<SegmentTimelineElement> elements) {
+    if (elements instanceof SegmentTimeline) {
+      return (SegmentTimeline) elements;
+    }
+    Storage storage = new Storage();
+    for (int i = 0; i < elements.size(); i++) {
+      SegmentTimelineElement element = elements.get(i);
+      storage.append(element.startTime, element.duration);
+    }
+    return new SegmentTimeline(storage, 0, storage.size());
+  }
+
+  /**
+   * Returns the index in {@link #storage} after the last segment in the timeline.
+   */
+  public int getToIndex() {
+    return fromIndex + size;
+  }
+
+  /**
+   * Equivalent to {@code get(index).startTime}, but does not instantiate the element.
+   */
+  public long getStartTime(int index) {
+    int storageIndex = toStorageIndex(index);
+    return getStartTimeInRun(findRun(storageIndex, firstRun, lastRun, runStartIndices),
+        storageIndex, runStartTimes, runDurations, runStartIndices);
+  }
+
+  /**
+   * Equivalent to {@code get(index).duration}, but does not instantiate the element.
+   */
+  public long getDuration(int index) {
+    return runDurations[findRun(toStorageIndex(index), firstRun, lastRun, runStartIndices)];
+  }
+
+  /**
+   * Returns the index of the last segment whose start time is less than or equal to the specified
+   * time, or -1 if the time is before the start of the first segment.
+   *
+   * @param time The time, in the timescale of the enclosing element.
+   * @return The index of the segment.
+   */
+  public int getIndexOfTimeFloor(long time) {
+    if (size == 0 || time < runStartTimes[firstRun] + (fromIndex - runStartIndices[firstRun])
+        * runDurations[firstRun]) {
+      return -1;
+    }
+    int low = firstRun;
+    int high = lastRun;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (runStartTimes[mid] <= time) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    int runEndIndex = low == lastRun ? getToIndex() : runStartIndices[low + 1];
+    long offset = runDurations[low] > 0 ? (time - runStartTimes[low]) / runDurations[low] : 0;
+    long storageIndex = Math.min(runStartIndices[low] + offset, runEndIndex - 1);
+    return (int) storageIndex - fromIndex;
+  }
+
+  @Override
+  public SegmentTimelineElement get(int index) {
+    return new SegmentTimelineElement(getStartTime(index), getDuration(index));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether {@code other} is a {@link SegmentTimeline} containing the same segments.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof SegmentTimeline)) {
+      return super.equals(other);
+    }
+    SegmentTimeline timeline = (SegmentTimeline) other;
+    if (size != timeline.size || lastRun - firstRun != timeline.lastRun - timeline.firstRun) {
+      return false;
+    }
+    if (storage == timeline.storage && fromIndex == timeline.fromIndex) {
+      return true;
+    }
+    // Runs are maximal, so timelines containing the same segments consist of the same runs.
+    for (int i = 0; i <= lastRun - firstRun; i++) {
+      int run = firstRun + i;
+      int otherRun = timeline.firstRun + i;
+      if (runDurations[run] != timeline.runDurations[otherRun]
+          || getRunStartTime(run) != timeline.getRunStartTime(otherRun)
+          || getRunLength(run) != timeline.getRunLength(otherRun)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = size;
+    for (int run = firstRun; run <= lastRun; run++) {
+      result = 31 * result + (int) getRunStartTime(run);
+      result = 31 * result + (int) runDurations[run];
+    }
+    return result;
+  }
+
+  private long getRunStartTime(int run) {
+    return getStartTimeInRun(run, Math.max(fromIndex, runStartIndices[run]), runStartTimes,
+        runDurations, runStartIndices);
+  }
+
+  private int getRunLength(int run) {
+    int runEndIndex = run == lastRun ? getToIndex() : runStartIndices[run + 1];
+    return runEndIndex - Math.max(fromIndex, runStartIndices[run]);
+  }
+
+  private int toStorageIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return fromIndex + index;
+  }
+
+  private static long getStartTimeInRun(int run, int storageIndex, long[] runStartTimes,
+      long[] runDurations, int[] runStartIndices) {
+    return runStartTimes[run] + (storageIndex - runStartIndices[run]) * runDurations[run];
+  }
+
+  /**
+   * Returns the index of the run containing the segment at {@code storageIndex}, searching the
+   * runs in the range [{@code low}, {@code high}].
+   */
+  private static int findRun(int storageIndex, int low, int high, int[] runStartIndices) {
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (runStartIndices[mid] <= storageIndex) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.offline;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.offline.DownloadException;
+import com.google.android.exoplayer2.offline.SegmentDownloader;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.DashUtil;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downloads all of the representations of a DASH stream into a {@link Cache}, for offline
+ * playback.
+ * <p>
+ * Representations whose segments are defined by an index in the media (i.e. a {@code sidx} box)
+ * are downloaded in their entirety, since the index cannot be resolved without parsing the media.
+ */
+public final class DashDownloader extends SegmentDownloader<DashManifest> {
+
+  /**
+   * @param manifestUri The {@link Uri} of the manifest to be downloaded.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   */
+  public DashDownloader(Uri manifestUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory) {
+    this(manifestUri, cache, upstreamDataSourceFactory, DEFAULT_MAX_PARALLEL_DOWNLOADS);
+  }
+
+  /**
+   * @param manifestUri The {@link Uri} of the manifest to be downloaded.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   * @param maxParallelDownloads The maximum number of segments downloaded in parallel.
+   */
+  public DashDownloader(Uri manifestUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory, int maxParallelDownloads) {
+    super(manifestUri, cache, upstreamDataSourceFactory, maxParallelDownloads);
+  }
+
+  @Override
+  protected DashManifest getManifest(DataSource dataSource, Uri uri)
+      throws IOException, InterruptedException {
+    return load(dataSource, uri, new DashManifestParser());
+  }
+
+  @Override
+  protected List<Segment> getSegments(DataSource dataSource, DashManifest manifest)
+      throws IOException {
+    ArrayList<Segment> segments = new ArrayList<>();
+    long durationLimitUs = getDurationLimitUs();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      long periodStartUs = C.msToUs(period.startMs);
+      if (durationLimitUs != C.TIME_UNSET && periodStartUs >= durationLimitUs) {
+        break;
+      }
+      long periodDurationUs = manifest.getPeriodDurationUs(i);
+      List<AdaptationSet> adaptationSets = period.adaptationSets;
+      for (int j = 0; j < adaptationSets.size(); j++) {
+        List<Representation> representations = adaptationSets.get(j).representations;
+        for (int k = 0; k < representations.size(); k++) {
+          addSegments(segments, representations.get(k), periodStartUs, periodDurationUs,
+              durationLimitUs);
+        }
+      }
+    }
+    return segments;
+  }
+
+  private static void addSegments(ArrayList<Segment> segments, Representation representation,
+      long periodStartUs, long periodDurationUs, long durationLimitUs) throws DownloadException {
+    DashSegmentIndex index = representation.getIndex();
+    if (index == null) {
+      // The index is in the media, so download the initialization data, index and media as a
+      // single resource.
+      Representation.SingleSegmentRepresentation singleSegmentRepresentation =
+          (Representation.SingleSegmentRepresentation) representation;
+      segments.add(new Segment(periodStartUs, new DataSpec(singleSegmentRepresentation.uri, 0,
+          C.LENGTH_UNSET, representation.getCacheKey())));
+      return;
+    }
+    RangedUri initializationUri = representation.getInitializationUri();
+    if (initializationUri != null) {
+      addSegment(segments, periodStartUs, representation, initializationUri);
+    }
+    int firstSegmentNum = index.getFirstSegmentNum();
+    int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+    if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED && durationLimitUs == C.TIME_UNSET) {
+      throw new DownloadException("Unbounded index for representation: "
+          + representation.format.id);
+    }
+    for (int i = firstSegmentNum;
+        lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED || i <= lastSegmentNum; i++) {
+      long segmentStartUs = periodStartUs + index.getTimeUs(i);
+      if (durationLimitUs != C.TIME_UNSET && segmentStartUs >= durationLimitUs) {
+        break;
+      }
+      addSegment(segments, segmentStartUs, representation, index.getSegmentUrl(i));
+    }
+  }
+
+  private static void addSegment(ArrayList<Segment> segments, long startTimeUs,
+      Representation representation, RangedUri rangedUri) {
+    segments.add(new Segment(startTimeUs, DashUtil.buildDataSpec(representation, rangedUri)));
+  }
+
+}
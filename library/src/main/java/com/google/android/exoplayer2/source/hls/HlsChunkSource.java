@@ -16,10 +16,12 @@
 package com.google.android.exoplayer2.source.hls;
 
 import android.net.Uri;
+import android.os.Handler;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LiveLatencyController;
 import com.google.android.exoplayer2.extractor.Extractor;
 import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
 import com.google.android.exoplayer2.extractor.ts.Ac3Extractor;
@@ -33,18 +35,26 @@ import com.google.android.exoplayer2.source.chunk.ChunkedTrackBlacklistUtil;
 import com.google.android.exoplayer2.source.chunk.DataChunk;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
 import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.source.hls.playlist.IncrementalHlsPlaylistParser;
 import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.upstream.PrefetchingDataSource;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.UriUtil;
 import com.google.android.exoplayer2.util.Util;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -102,15 +112,24 @@ import java.util.Locale;
   private static final String MP3_FILE_EXTENSION = ".mp3";
   private static final String VTT_FILE_EXTENSION = ".vtt";
   private static final String WEBVTT_FILE_EXTENSION = ".webvtt";
+  /**
+   * The time to wait before retrying a background media playlist load that failed.
+   */
+  private static final long PLAYLIST_REFRESH_RETRY_DELAY_MS = 5000;
 
   private final String baseUri;
   private final DataSource dataSource;
-  private final HlsPlaylistParser playlistParser;
+  private final PrefetchingDataSource prefetchingDataSource;
+  private final ParsingLoadable.Parser<HlsPlaylist> playlistParser;
   private final TimestampAdjusterProvider timestampAdjusterProvider;
   private final HlsMasterPlaylist.HlsUrl[] variants;
   private final HlsMediaPlaylist[] variantPlaylists;
   private final TrackGroup trackGroup;
   private final long[] variantLastPlaylistLoadTimesMs;
+  private final VariantPlaylistRefresher variantPlaylistRefresher;
+  private final LiveLatencyController liveLatencyController;
+  private final Handler eventHandler;
+  private final HlsMediaSource.VariantSwitchListener variantSwitchListener;
 
   private byte[] scratchSpace;
   private boolean live;
@@ -122,6 +141,11 @@ import java.util.Locale;
   private String encryptionIvString;
   private byte[] encryptionIv;
 
+  private int pendingSwitchVariantIndex;
+  private int pendingSwitchPreviousVariantIndex;
+  private long pendingSwitchStartTimeMs;
+  private boolean pendingSwitchRequiredPlaylistLoad;
+
   // Note: The track group in the selection is typically *not* equal to trackGroup. This is due to
   // the way in which HlsSampleStreamWrapper generates track groups. Use only index based methods
   // in TrackSelection to avoid unexpected behavior.
@@ -130,20 +154,82 @@ import java.util.Locale;
   /**
    * @param baseUri The playlist's base uri.
    * @param variants The available variants.
-   * @param dataSource A {@link DataSource} suitable for loading the media data.
+   * @param dataSource A {@link DataSource} suitable for loading the media data. If this is a
+   *     {@link PrefetchingDataSource} then upcoming segments of the selected variant are
+   *     prefetched.
    * @param timestampAdjusterProvider A provider of {@link TimestampAdjuster} instances. If
    *     multiple {@link HlsChunkSource}s are used for a single playback, they should all share the
    *     same provider.
    */
   public HlsChunkSource(String baseUri, HlsMasterPlaylist.HlsUrl[] variants, DataSource dataSource,
       TimestampAdjusterProvider timestampAdjusterProvider) {
+    this(baseUri, variants, dataSource, timestampAdjusterProvider, false);
+  }
+
+  /**
+   * @param baseUri The playlist's base uri.
+   * @param variants The available variants.
+   * @param dataSource A {@link DataSource} suitable for loading the media data. If this is a
+   *     {@link PrefetchingDataSource} then upcoming segments of the selected variant are
+   *     prefetched.
+   * @param timestampAdjusterProvider A provider of {@link TimestampAdjuster} instances. If
+   *     multiple {@link HlsChunkSource}s are used for a single playback, they should all share the
+   *     same provider.
+   * @param incrementalPlaylistParsing Whether media playlists should be parsed using an
+   *     {@link IncrementalHlsPlaylistParser}.
+   */
+  public HlsChunkSource(String baseUri, HlsMasterPlaylist.HlsUrl[] variants, DataSource dataSource,
+      TimestampAdjusterProvider timestampAdjusterProvider, boolean incrementalPlaylistParsing) {
+    this(baseUri, variants, dataSource, timestampAdjusterProvider, incrementalPlaylistParsing, null,
+        0, null, null, null);
+  }
+
+  /**
+   * @param baseUri The playlist's base uri.
+   * @param variants The available variants.
+   * @param dataSource A {@link DataSource} suitable for loading the media data. If this is a
+   *     {@link PrefetchingDataSource} then upcoming segments of the selected variant are
+   *     prefetched.
+   * @param timestampAdjusterProvider A provider of {@link TimestampAdjuster} instances. If
+   *     multiple {@link HlsChunkSource}s are used for a single playback, they should all share the
+   *     same provider.
+   * @param incrementalPlaylistParsing Whether media playlists should be parsed using an
+   *     {@link IncrementalHlsPlaylistParser}.
+   * @param playlistDataSourceFactory A factory for {@link DataSource}s used to load media
+   *     playlists in the background. May be null if {@code variantPlaylistPrefetchCount} is 0.
+   * @param variantPlaylistPrefetchCount The number of variants either side of the selected one,
+   *     in the order of the track selection, whose media playlists should be loaded in the
+   *     background and, for live streams, kept up to date whilst chunks are being loaded.
+   *     Switching to such a variant does not need to wait for its playlist to load.
+   * @param liveLatencyController A controller of the live latency. If set, live playbacks start
+   *     at its target latency rather than three segments from the end of the playlist, and the
+   *     live edge is reported to it. May be null.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param variantSwitchListener A listener of variant switches. May be null if delivery of
+   *     events is not required.
+   */
+  public HlsChunkSource(String baseUri, HlsMasterPlaylist.HlsUrl[] variants, DataSource dataSource,
+      TimestampAdjusterProvider timestampAdjusterProvider, boolean incrementalPlaylistParsing,
+      DataSource.Factory playlistDataSourceFactory, int variantPlaylistPrefetchCount,
+      LiveLatencyController liveLatencyController, Handler eventHandler,
+      HlsMediaSource.VariantSwitchListener variantSwitchListener) {
     this.baseUri = baseUri;
     this.variants = variants;
     this.dataSource = dataSource;
+    this.prefetchingDataSource = dataSource instanceof PrefetchingDataSource
+        ? (PrefetchingDataSource) dataSource : null;
     this.timestampAdjusterProvider = timestampAdjusterProvider;
-    playlistParser = new HlsPlaylistParser();
+    playlistParser = incrementalPlaylistParsing ? new IncrementalHlsPlaylistParser()
+        : new HlsPlaylistParser();
     variantPlaylists = new HlsMediaPlaylist[variants.length];
     variantLastPlaylistLoadTimesMs = new long[variants.length];
+    variantPlaylistRefresher = variantPlaylistPrefetchCount > 0 && variants.length > 1
+        ? new VariantPlaylistRefresher(playlistDataSourceFactory, variantPlaylistPrefetchCount)
+        : null;
+    this.liveLatencyController = liveLatencyController;
+    this.eventHandler = eventHandler;
+    this.variantSwitchListener = variantSwitchListener;
+    pendingSwitchVariantIndex = C.INDEX_UNSET;
 
     Format[] variantFormats = new Format[variants.length];
     int[] initialTrackSelection = new int[variants.length];
@@ -204,6 +290,20 @@ import java.util.Locale;
     fatalError = null;
   }
 
+  /**
+   * Releases the source.
+   * <p>
+   * This method should be called when the source is no longer required.
+   */
+  public void release() {
+    if (prefetchingDataSource != null) {
+      prefetchingDataSource.release();
+    }
+    if (variantPlaylistRefresher != null) {
+      variantPlaylistRefresher.release();
+    }
+  }
+
   /**
    * Returns the next chunk to load.
    * <p>
@@ -226,10 +326,27 @@ import java.util.Locale;
     // require downloading overlapping segments.
     long bufferedDurationUs = previous == null ? 0
         : Math.max(0, previous.getAdjustedStartTimeUs() - playbackPositionUs);
+    if (previous != null && previous.endTimeUs > previous.startTimeUs
+        && trackSelection instanceof TrackSelection.ChunkDurationAware) {
+      ((TrackSelection.ChunkDurationAware) trackSelection).setChunkDurationUs(
+          previous.endTimeUs - previous.startTimeUs);
+    }
     trackSelection.updateSelectedTrack(bufferedDurationUs);
     int newVariantIndex = trackSelection.getSelectedIndexInTrackGroup();
 
     boolean switchingVariant = oldVariantIndex != newVariantIndex;
+    if (!switchingVariant || oldVariantIndex == C.INDEX_UNSET) {
+      pendingSwitchVariantIndex = C.INDEX_UNSET;
+    } else if (pendingSwitchVariantIndex != newVariantIndex) {
+      pendingSwitchVariantIndex = newVariantIndex;
+      pendingSwitchPreviousVariantIndex = oldVariantIndex;
+      pendingSwitchStartTimeMs = SystemClock.elapsedRealtime();
+      pendingSwitchRequiredPlaylistLoad = false;
+    }
+    if (variantPlaylistRefresher != null) {
+      variantPlaylistRefresher.maybeRefreshPlaylists();
+    }
+
     HlsMediaPlaylist mediaPlaylist = variantPlaylists[newVariantIndex];
     if (mediaPlaylist == null) {
       // We don't have the media playlist for the next variant. Request it now.
@@ -241,10 +358,13 @@ import java.util.Locale;
     int chunkMediaSequence;
     if (live) {
       if (previous == null) {
-        // When playing a live stream, the starting chunk will be the third counting from the live
-        // edge.
-        chunkMediaSequence = Math.max(0, mediaPlaylist.segments.size() - 3)
-            + mediaPlaylist.mediaSequence;
+        // When playing a live stream, the starting chunk will be the one containing the target
+        // latency if a controller is set, or the third counting from the live edge otherwise.
+        int startChunkIndex = liveLatencyController != null
+            ? getLiveStartChunkIndex(mediaPlaylist,
+                C.msToUs(liveLatencyController.getTargetLatencyMs()))
+            : Math.max(0, mediaPlaylist.segments.size() - 3);
+        chunkMediaSequence = startChunkIndex + mediaPlaylist.mediaSequence;
         // TODO: Bring this back for live window seeking.
         // chunkMediaSequence = Util.binarySearchFloor(mediaPlaylist.segments, playbackPositionUs,
         //     true, true) + mediaPlaylist.mediaSequence;
@@ -324,6 +444,12 @@ import java.util.Locale;
       startTimeUs = segment.startTimeUs;
     }
     long endTimeUs = startTimeUs + (long) (segment.durationSecs * C.MICROS_PER_SECOND);
+    if (live && liveLatencyController != null) {
+      // The live edge was at the end of the playlist when it was loaded.
+      liveLatencyController.updateLiveEdge(
+          startTimeUs + mediaPlaylist.durationUs - segment.startTimeUs,
+          variantLastPlaylistLoadTimesMs[newVariantIndex]);
+    }
     Format format = variants[newVariantIndex].format;
 
     // Configure the extractor that will read the chunk.
@@ -380,6 +506,27 @@ import java.util.Locale;
         startTimeUs, endTimeUs, chunkMediaSequence, segment.discontinuitySequenceNumber,
         isTimestampMaster, timestampAdjuster, extractor, extractorNeedsInit, switchingVariant,
         encryptionKey, encryptionIv);
+    if (prefetchingDataSource != null) {
+      prefetchSegments(mediaPlaylist, chunkIndex);
+    }
+    if (pendingSwitchVariantIndex == newVariantIndex) {
+      notifyVariantSwitched(format, variants[pendingSwitchPreviousVariantIndex].format,
+          SystemClock.elapsedRealtime() - pendingSwitchStartTimeMs,
+          pendingSwitchRequiredPlaylistLoad);
+      pendingSwitchVariantIndex = C.INDEX_UNSET;
+    }
+  }
+
+  private void prefetchSegments(HlsMediaPlaylist mediaPlaylist, int firstChunkIndex) {
+    int lastChunkIndex = Math.min(mediaPlaylist.segments.size() - 1,
+        firstChunkIndex + prefetchingDataSource.getMaxParallelLoads() - 1);
+    List<DataSpec> dataSpecs = new ArrayList<>();
+    for (int chunkIndex = firstChunkIndex; chunkIndex <= lastChunkIndex; chunkIndex++) {
+      HlsMediaPlaylist.Segment segment = mediaPlaylist.segments.get(chunkIndex);
+      Uri chunkUri = UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.url);
+      dataSpecs.add(new DataSpec(chunkUri, segment.byterangeOffset, segment.byterangeLength, null));
+    }
+    prefetchingDataSource.prefetch(dataSpecs);
   }
 
   /**
@@ -401,7 +548,7 @@ import java.util.Locale;
     double offsetToLiveInstantSecs = 0;
     for (int i = previousChunkIndex - oldMediaPlaylist.mediaSequence;
          i < oldMediaPlaylist.segments.size(); i++) {
-      offsetToLiveInstantSecs += oldMediaPlaylist.segments.get(i).durationSecs;
+      offsetToLiveInstantSecs += oldMediaPlaylist.getSegmentDurationSecs(i);
     }
     long currentTimeMs = SystemClock.elapsedRealtime();
     offsetToLiveInstantSecs +=
@@ -415,7 +562,7 @@ import java.util.Locale;
       return newMediaPlaylist.mediaSequence + newMediaPlaylist.segments.size() + 1;
     }
     for (int i = newMediaPlaylist.segments.size() - 1; i >= 0; i--) {
-      offsetToLiveInstantSecs -= newMediaPlaylist.segments.get(i).durationSecs;
+      offsetToLiveInstantSecs -= newMediaPlaylist.getSegmentDurationSecs(i);
       if (offsetToLiveInstantSecs < 0) {
         return newMediaPlaylist.mediaSequence + i;
       }
@@ -469,6 +616,9 @@ import java.util.Locale;
 
   private MediaPlaylistChunk newMediaPlaylistChunk(int variantIndex, int trackSelectionReason,
       Object trackSelectionData) {
+    if (variantIndex == pendingSwitchVariantIndex) {
+      pendingSwitchRequiredPlaylistLoad = true;
+    }
     Uri mediaPlaylistUri = UriUtil.resolveToUri(baseUri, variants[variantIndex].url);
     DataSpec dataSpec = new DataSpec(mediaPlaylistUri, 0, C.LENGTH_UNSET, null,
         DataSpec.FLAG_ALLOW_GZIP);
@@ -511,6 +661,15 @@ import java.util.Locale;
     encryptionIv = null;
   }
 
+  /**
+   * Returns the index of the segment containing the position {@code latencyUs} before the end of
+   * the playlist, or 0 if the playlist is shorter than {@code latencyUs}.
+   */
+  private static int getLiveStartChunkIndex(HlsMediaPlaylist mediaPlaylist, long latencyUs) {
+    return Util.binarySearchFloor(mediaPlaylist.segments, mediaPlaylist.durationUs - latencyUs,
+        true, true);
+  }
+
   private void setMediaPlaylist(int variantIndex, HlsMediaPlaylist mediaPlaylist) {
     variantLastPlaylistLoadTimesMs[variantIndex] = SystemClock.elapsedRealtime();
     variantPlaylists[variantIndex] = mediaPlaylist;
@@ -518,8 +677,145 @@ import java.util.Locale;
     durationUs = live ? C.TIME_UNSET : mediaPlaylist.durationUs;
   }
 
+  private void notifyVariantSwitched(final Format format, final Format previousFormat,
+      final long switchLatencyMs, final boolean playlistLoadRequired) {
+    if (eventHandler != null && variantSwitchListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          variantSwitchListener.onVariantSwitched(format, previousFormat, switchLatencyMs,
+              playlistLoadRequired);
+        }
+      });
+    }
+  }
+
   // Private classes.
 
+  /**
+   * Loads the media playlists of the variants adjacent to the selected one in the background,
+   * and refreshes them at the same interval as the selected variant's playlist if they are live.
+   * <p>
+   * Playlists are only loaded when {@link #maybeRefreshPlaylists()} is called, which happens each
+   * time the source is asked for a chunk. Nothing is refreshed whilst chunk loading is stopped,
+   * for example because the buffer is full or playback is paused.
+   */
+  private final class VariantPlaylistRefresher implements
+      Loader.Callback<ParsingLoadable<HlsPlaylist>> {
+
+    private final DataSource.Factory dataSourceFactory;
+    private final int variantCount;
+    private final Loader loader;
+    private final IdentityHashMap<ParsingLoadable<HlsPlaylist>, Integer> loadingVariantIndices;
+    private final boolean[] variantsLoading;
+    private final long[] variantRetryTimesMs;
+
+    public VariantPlaylistRefresher(DataSource.Factory dataSourceFactory, int variantCount) {
+      this.dataSourceFactory = dataSourceFactory;
+      this.variantCount = variantCount;
+      loader = new Loader("Loader:HlsVariantPlaylistRefresher", variantCount * 2);
+      loadingVariantIndices = new IdentityHashMap<>();
+      variantsLoading = new boolean[variants.length];
+      variantRetryTimesMs = new long[variants.length];
+    }
+
+    /**
+     * Starts loading any adjacent variant playlists that are missing or due to be refreshed.
+     */
+    public void maybeRefreshPlaylists() {
+      long nowMs = SystemClock.elapsedRealtime();
+      int selectedIndex = trackSelection.getSelectedIndex();
+      int selectedVariantIndex = trackSelection.getIndexInTrackGroup(selectedIndex);
+      int lastIndex = Math.min(trackSelection.length() - 1, selectedIndex + variantCount);
+      for (int i = Math.max(0, selectedIndex - variantCount); i <= lastIndex; i++) {
+        int variantIndex = trackSelection.getIndexInTrackGroup(i);
+        if (variantIndex == selectedVariantIndex || variantsLoading[variantIndex]) {
+          continue;
+        }
+        long refreshDelayMs = getRefreshDelayMs(variantIndex, nowMs);
+        if (refreshDelayMs != C.TIME_UNSET && refreshDelayMs <= 0 && loader.canStartLoading()) {
+          startLoading(variantIndex);
+        }
+      }
+    }
+
+    public void release() {
+      loader.release();
+    }
+
+    // Loader.Callback implementation.
+
+    @Override
+    public void onLoadCompleted(ParsingLoadable<HlsPlaylist> loadable, long elapsedRealtimeMs,
+        long loadDurationMs) {
+      int variantIndex = onLoadFinished(loadable);
+      HlsPlaylist result = loadable.getResult();
+      if (result instanceof HlsMediaPlaylist) {
+        HlsMediaPlaylist mediaPlaylist = (HlsMediaPlaylist) result;
+        HlsMediaPlaylist currentPlaylist = variantPlaylists[variantIndex];
+        // The playlist may have been reloaded by a MediaPlaylistChunk whilst this load was in
+        // progress, in which case the result may be older.
+        if (currentPlaylist == null || mediaPlaylist.mediaSequence
+            + mediaPlaylist.segments.size() >= currentPlaylist.mediaSequence
+            + currentPlaylist.segments.size()) {
+          setMediaPlaylist(variantIndex, mediaPlaylist);
+        }
+      }
+    }
+
+    @Override
+    public void onLoadCanceled(ParsingLoadable<HlsPlaylist> loadable, long elapsedRealtimeMs,
+        long loadDurationMs, boolean released) {
+      onLoadFinished(loadable);
+    }
+
+    @Override
+    public int onLoadError(ParsingLoadable<HlsPlaylist> loadable, long elapsedRealtimeMs,
+        long loadDurationMs, IOException error) {
+      int variantIndex = onLoadFinished(loadable);
+      // Errors are not propagated, since the playlist will be loaded by a MediaPlaylistChunk if
+      // the variant is selected.
+      variantRetryTimesMs[variantIndex] = elapsedRealtimeMs + PLAYLIST_REFRESH_RETRY_DELAY_MS;
+      return Loader.DONT_RETRY;
+    }
+
+    // Internal methods.
+
+    /**
+     * Returns the time until the playlist of a variant should be loaded, in milliseconds, or
+     * {@link C#TIME_UNSET} if it does not need to be loaded.
+     */
+    private long getRefreshDelayMs(int variantIndex, long nowMs) {
+      HlsMediaPlaylist mediaPlaylist = variantPlaylists[variantIndex];
+      long refreshDelayMs;
+      if (mediaPlaylist == null) {
+        refreshDelayMs = 0;
+      } else if (mediaPlaylist.live) {
+        refreshDelayMs = msToRerequestLiveMediaPlaylist(variantIndex);
+      } else {
+        return C.TIME_UNSET;
+      }
+      return Math.max(refreshDelayMs, variantRetryTimesMs[variantIndex] - nowMs);
+    }
+
+    private void startLoading(int variantIndex) {
+      Uri mediaPlaylistUri = UriUtil.resolveToUri(baseUri, variants[variantIndex].url);
+      ParsingLoadable<HlsPlaylist> loadable = new ParsingLoadable<>(
+          dataSourceFactory.createDataSource(), mediaPlaylistUri, C.DATA_TYPE_MANIFEST,
+          playlistParser);
+      loadingVariantIndices.put(loadable, variantIndex);
+      variantsLoading[variantIndex] = true;
+      loader.startLoading(loadable, this, 0);
+    }
+
+    private int onLoadFinished(ParsingLoadable<HlsPlaylist> loadable) {
+      int variantIndex = loadingVariantIndices.remove(loadable);
+      variantsLoading[variantIndex] = false;
+      return variantIndex;
+    }
+
+  }
+
   /**
    * A {@link TrackSelection} to use for initialization.
    */
@@ -570,14 +866,14 @@ import java.util.Locale;
 
     public final int variantIndex;
 
-    private final HlsPlaylistParser playlistParser;
+    private final ParsingLoadable.Parser<HlsPlaylist> playlistParser;
     private final Uri playlistUri;
 
     private HlsMediaPlaylist result;
 
     public MediaPlaylistChunk(DataSource dataSource, DataSpec dataSpec, Format trackFormat,
         int trackSelectionReason, Object trackSelectionData, byte[] scratchSpace,
-        HlsPlaylistParser playlistParser, int variantIndex,
+        ParsingLoadable.Parser<HlsPlaylist> playlistParser, int variantIndex,
         Uri playlistUri) {
       super(dataSource, dataSpec, C.DATA_TYPE_MANIFEST, trackFormat, trackSelectionReason,
           trackSelectionData, scratchSpace);
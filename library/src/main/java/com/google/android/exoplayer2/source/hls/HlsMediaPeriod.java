@@ -20,6 +20,7 @@ import android.os.Handler;
 import android.text.TextUtils;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LiveLatencyController;
 import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener.EventDispatcher;
@@ -52,6 +53,11 @@ import java.util.List;
 
   private final DataSource.Factory dataSourceFactory;
   private final int minLoadableRetryCount;
+  private final boolean incrementalPlaylistParsing;
+  private final int variantPlaylistPrefetchCount;
+  private final LiveLatencyController liveLatencyController;
+  private final Handler eventHandler;
+  private final HlsMediaSource.VariantSwitchListener variantSwitchListener;
   private final EventDispatcher eventDispatcher;
   private final MediaSource.Listener sourceListener;
   private final Callback callback;
@@ -75,11 +81,18 @@ import java.util.List;
   private Runnable continueLoadingRunnable;
 
   public HlsMediaPeriod(Uri manifestUri, DataSource.Factory dataSourceFactory,
-      int minLoadableRetryCount, EventDispatcher eventDispatcher,
-      MediaSource.Listener sourceListener, final Callback callback, Allocator allocator,
-      long positionUs) {
+      int minLoadableRetryCount, boolean incrementalPlaylistParsing,
+      int variantPlaylistPrefetchCount, LiveLatencyController liveLatencyController,
+      Handler eventHandler, HlsMediaSource.VariantSwitchListener variantSwitchListener,
+      EventDispatcher eventDispatcher, MediaSource.Listener sourceListener,
+      final Callback callback, Allocator allocator, long positionUs) {
     this.dataSourceFactory = dataSourceFactory;
     this.minLoadableRetryCount = minLoadableRetryCount;
+    this.incrementalPlaylistParsing = incrementalPlaylistParsing;
+    this.variantPlaylistPrefetchCount = variantPlaylistPrefetchCount;
+    this.liveLatencyController = liveLatencyController;
+    this.eventHandler = eventHandler;
+    this.variantSwitchListener = variantSwitchListener;
     this.eventDispatcher = eventDispatcher;
     this.sourceListener = sourceListener;
     this.callback = callback;
@@ -383,7 +396,8 @@ import java.util.List;
       HlsMasterPlaylist.HlsUrl[] variants, Format muxedAudioFormat, Format muxedCaptionFormat) {
     DataSource dataSource = dataSourceFactory.createDataSource();
     HlsChunkSource defaultChunkSource = new HlsChunkSource(baseUri, variants, dataSource,
-        timestampAdjusterProvider);
+        timestampAdjusterProvider, incrementalPlaylistParsing, dataSourceFactory,
+        variantPlaylistPrefetchCount, liveLatencyController, eventHandler, variantSwitchListener);
     return new HlsSampleStreamWrapper(trackType, this, defaultChunkSource, allocator,
         preparePositionUs, muxedAudioFormat, muxedCaptionFormat, minLoadableRetryCount,
         eventDispatcher);
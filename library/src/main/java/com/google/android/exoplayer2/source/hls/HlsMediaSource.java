@@ -18,12 +18,15 @@ package com.google.android.exoplayer2.source.hls;
 import android.net.Uri;
 import android.os.Handler;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.LiveLatencyController;
 import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener;
 import com.google.android.exoplayer2.source.AdaptiveMediaSourceEventListener.EventDispatcher;
 import com.google.android.exoplayer2.source.MediaPeriod;
 import com.google.android.exoplayer2.source.MediaPeriod.Callback;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.SinglePeriodTimeline;
+import com.google.android.exoplayer2.source.hls.playlist.IncrementalHlsPlaylistParser;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.util.Assertions;
@@ -33,6 +36,26 @@ import com.google.android.exoplayer2.util.Assertions;
  */
 public final class HlsMediaSource implements MediaSource {
 
+  /**
+   * Listener of variant switches.
+   */
+  public interface VariantSwitchListener {
+
+    /**
+     * Called when the first media chunk of a newly selected variant is requested.
+     *
+     * @param format The format of the variant that was switched to.
+     * @param previousFormat The format of the variant that was switched from.
+     * @param switchLatencyMs The time between the variant being selected and its first media chunk
+     *     being requested, in milliseconds.
+     * @param playlistLoadRequired Whether the variant's media playlist had to be loaded before its
+     *     first media chunk could be requested.
+     */
+    void onVariantSwitched(Format format, Format previousFormat, long switchLatencyMs,
+        boolean playlistLoadRequired);
+
+  }
+
   /**
    * The default minimum number of times to retry loading data prior to failing.
    */
@@ -41,6 +64,11 @@ public final class HlsMediaSource implements MediaSource {
   private final Uri manifestUri;
   private final DataSource.Factory dataSourceFactory;
   private final int minLoadableRetryCount;
+  private final boolean incrementalPlaylistParsing;
+  private final int variantPlaylistPrefetchCount;
+  private final LiveLatencyController liveLatencyController;
+  private final Handler eventHandler;
+  private final VariantSwitchListener variantSwitchListener;
   private final EventDispatcher eventDispatcher;
 
   private MediaSource.Listener sourceListener;
@@ -54,9 +82,87 @@ public final class HlsMediaSource implements MediaSource {
   public HlsMediaSource(Uri manifestUri, DataSource.Factory dataSourceFactory,
       int minLoadableRetryCount, Handler eventHandler,
       AdaptiveMediaSourceEventListener eventListener) {
+    this(manifestUri, dataSourceFactory, minLoadableRetryCount, false, eventHandler,
+        eventListener);
+  }
+
+  /**
+   * @param manifestUri The {@link Uri} of the master or media playlist.
+   * @param dataSourceFactory A factory for {@link DataSource} instances that will be used to load
+   *     playlists and media data.
+   * @param minLoadableRetryCount The minimum number of times to retry if a loading error occurs.
+   * @param incrementalPlaylistParsing Whether reloaded media playlists should be parsed using an
+   *     {@link IncrementalHlsPlaylistParser}, which parses only the segments appended since the
+   *     previous load. Recommended for live streams with long playlists.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   */
+  public HlsMediaSource(Uri manifestUri, DataSource.Factory dataSourceFactory,
+      int minLoadableRetryCount, boolean incrementalPlaylistParsing, Handler eventHandler,
+      AdaptiveMediaSourceEventListener eventListener) {
+    this(manifestUri, dataSourceFactory, minLoadableRetryCount, incrementalPlaylistParsing, 0,
+        eventHandler, eventListener, null);
+  }
+
+  /**
+   * @param manifestUri The {@link Uri} of the master or media playlist.
+   * @param dataSourceFactory A factory for {@link DataSource} instances that will be used to load
+   *     playlists and media data.
+   * @param minLoadableRetryCount The minimum number of times to retry if a loading error occurs.
+   * @param incrementalPlaylistParsing Whether reloaded media playlists should be parsed using an
+   *     {@link IncrementalHlsPlaylistParser}, which parses only the segments appended since the
+   *     previous load. Recommended for live streams with long playlists.
+   * @param variantPlaylistPrefetchCount The number of variants either side of the selected one
+   *     whose media playlists should be loaded in the background and, for live streams, kept up to
+   *     date whilst chunks are being loaded, so that switching to them does not need to wait for a
+   *     playlist load. 0 disables background loading.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param variantSwitchListener A listener of variant switches, notified using
+   *     {@code eventHandler}. May be null if delivery of events is not required.
+   */
+  public HlsMediaSource(Uri manifestUri, DataSource.Factory dataSourceFactory,
+      int minLoadableRetryCount, boolean incrementalPlaylistParsing,
+      int variantPlaylistPrefetchCount, Handler eventHandler,
+      AdaptiveMediaSourceEventListener eventListener,
+      VariantSwitchListener variantSwitchListener) {
+    this(manifestUri, dataSourceFactory, minLoadableRetryCount, incrementalPlaylistParsing,
+        variantPlaylistPrefetchCount, null, eventHandler, eventListener, variantSwitchListener);
+  }
+
+  /**
+   * @param manifestUri The {@link Uri} of the master or media playlist.
+   * @param dataSourceFactory A factory for {@link DataSource} instances that will be used to load
+   *     playlists and media data.
+   * @param minLoadableRetryCount The minimum number of times to retry if a loading error occurs.
+   * @param incrementalPlaylistParsing Whether reloaded media playlists should be parsed using an
+   *     {@link IncrementalHlsPlaylistParser}, which parses only the segments appended since the
+   *     previous load. Recommended for live streams with long playlists.
+   * @param variantPlaylistPrefetchCount The number of variants either side of the selected one
+   *     whose media playlists should be loaded in the background and, for live streams, kept up to
+   *     date whilst chunks are being loaded, so that switching to them does not need to wait for a
+   *     playlist load. 0 disables background loading.
+   * @param liveLatencyController A controller of the live latency. If set, live playbacks start
+   *     at its target latency rather than three segments from the end of the playlist, and the
+   *     live edge is reported to it. May be null.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param variantSwitchListener A listener of variant switches, notified using
+   *     {@code eventHandler}. May be null if delivery of events is not required.
+   */
+  public HlsMediaSource(Uri manifestUri, DataSource.Factory dataSourceFactory,
+      int minLoadableRetryCount, boolean incrementalPlaylistParsing,
+      int variantPlaylistPrefetchCount, LiveLatencyController liveLatencyController,
+      Handler eventHandler, AdaptiveMediaSourceEventListener eventListener,
+      VariantSwitchListener variantSwitchListener) {
     this.manifestUri = manifestUri;
     this.dataSourceFactory = dataSourceFactory;
     this.minLoadableRetryCount = minLoadableRetryCount;
+    this.incrementalPlaylistParsing = incrementalPlaylistParsing;
+    this.variantPlaylistPrefetchCount = variantPlaylistPrefetchCount;
+    this.liveLatencyController = liveLatencyController;
+    this.eventHandler = eventHandler;
+    this.variantSwitchListener = variantSwitchListener;
     eventDispatcher = new EventDispatcher(eventHandler, eventListener);
   }
 
@@ -77,7 +183,9 @@ public final class HlsMediaSource implements MediaSource {
       long positionUs) {
     Assertions.checkArgument(index == 0);
     return new HlsMediaPeriod(manifestUri, dataSourceFactory, minLoadableRetryCount,
-        eventDispatcher, sourceListener, callback, allocator, positionUs);
+        incrementalPlaylistParsing, variantPlaylistPrefetchCount, liveLatencyController,
+        eventHandler, variantSwitchListener, eventDispatcher, sourceListener, callback, allocator,
+        positionUs);
   }
 
   @Override
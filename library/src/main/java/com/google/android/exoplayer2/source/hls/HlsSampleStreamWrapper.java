@@ -245,6 +245,7 @@ import java.util.LinkedList;
       sampleQueues.valueAt(i).disable();
     }
     loader.release();
+    chunkSource.release();
   }
 
   public long getLargestQueuedTimestampUs() {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.offline;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.offline.SegmentDownloader;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist.HlsUrl;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.util.UriUtil;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Downloads all of the variants and renditions of an HLS stream into a {@link Cache}, for offline
+ * playback.
+ * <p>
+ * The media playlists referenced by a master playlist are loaded through the cache whilst the
+ * segments are resolved, and so are also available offline once the download is complete.
+ */
+public final class HlsDownloader extends SegmentDownloader<HlsPlaylist> {
+
+  /**
+   * @param playlistUri The {@link Uri} of the master or media playlist to be downloaded.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   */
+  public HlsDownloader(Uri playlistUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory) {
+    this(playlistUri, cache, upstreamDataSourceFactory, DEFAULT_MAX_PARALLEL_DOWNLOADS);
+  }
+
+  /**
+   * @param playlistUri The {@link Uri} of the master or media playlist to be downloaded.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   * @param maxParallelDownloads The maximum number of segments downloaded in parallel.
+   */
+  public HlsDownloader(Uri playlistUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory, int maxParallelDownloads) {
+    super(playlistUri, cache, upstreamDataSourceFactory, maxParallelDownloads);
+  }
+
+  @Override
+  protected HlsPlaylist getManifest(DataSource dataSource, Uri uri)
+      throws IOException, InterruptedException {
+    return load(dataSource, uri, new HlsPlaylistParser());
+  }
+
+  @Override
+  protected List<Segment> getSegments(DataSource dataSource, HlsPlaylist playlist)
+      throws IOException, InterruptedException {
+    ArrayList<Segment> segments = new ArrayList<>();
+    if (playlist instanceof HlsMediaPlaylist) {
+      addSegments(segments, (HlsMediaPlaylist) playlist);
+      return segments;
+    }
+    HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+    HashSet<Uri> mediaPlaylistUris = new HashSet<>();
+    addMediaPlaylistUris(mediaPlaylistUris, masterPlaylist.baseUri, masterPlaylist.variants);
+    addMediaPlaylistUris(mediaPlaylistUris, masterPlaylist.baseUri, masterPlaylist.audios);
+    addMediaPlaylistUris(mediaPlaylistUris, masterPlaylist.baseUri, masterPlaylist.subtitles);
+    for (Uri mediaPlaylistUri : mediaPlaylistUris) {
+      HlsPlaylist mediaPlaylist = load(dataSource, mediaPlaylistUri, new HlsPlaylistParser());
+      if (mediaPlaylist instanceof HlsMediaPlaylist) {
+        addSegments(segments, (HlsMediaPlaylist) mediaPlaylist);
+      }
+    }
+    return segments;
+  }
+
+  private static void addMediaPlaylistUris(HashSet<Uri> out, String baseUri, List<HlsUrl> urls) {
+    for (int i = 0; i < urls.size(); i++) {
+      out.add(UriUtil.resolveToUri(baseUri, urls.get(i).url));
+    }
+  }
+
+  private static void addSegments(ArrayList<Segment> out, HlsMediaPlaylist mediaPlaylist) {
+    String baseUri = mediaPlaylist.baseUri;
+    HashSet<Uri> encryptionKeyUris = new HashSet<>();
+    List<HlsMediaPlaylist.Segment> segments = mediaPlaylist.segments;
+    for (int i = 0; i < segments.size(); i++) {
+      HlsMediaPlaylist.Segment segment = segments.get(i);
+      if (segment.isEncrypted) {
+        Uri keyUri = UriUtil.resolveToUri(baseUri, segment.encryptionKeyUri);
+        if (encryptionKeyUris.add(keyUri)) {
+          out.add(new Segment(segment.startTimeUs, new DataSpec(keyUri)));
+        }
+      }
+      Uri segmentUri = UriUtil.resolveToUri(baseUri, segment.url);
+      out.add(new Segment(segment.startTimeUs,
+          new DataSpec(segmentUri, segment.byterangeOffset, segment.byterangeLength, null)));
+    }
+  }
+
+}
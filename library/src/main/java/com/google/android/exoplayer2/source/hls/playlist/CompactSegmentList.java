@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of {@link Segment}s that stores the segment properties in parallel arrays, and
+ * instantiates {@link Segment}s only when they are requested.
+ * <p>
+ * A list is a window onto a {@link Storage}, which is append-only. This allows the lists parsed
+ * from successive reloads of a live playlist to share the storage of the segments they have in
+ * common.
+ */
+/* package */ final class CompactSegmentList extends AbstractList<Segment>
+    implements RandomAccess {
+
+  /**
+   * Append-only storage for segment properties.
+   * <p>
+   * Appending never modifies the entries of existing lists, and so may be done whilst the lists
+   * are being read on other threads. Appends must not be made concurrently with each other.
+   */
+  /* package */ static final class Storage {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The media sequence number of the segment at index 0.
+     */
+    public final int firstMediaSequence;
+
+    private int size;
+    private String[] urls;
+    private double[] durationsSecs;
+    private long[] startTimesUs;
+    private int[] discontinuitySequenceNumbers;
+    private String[] encryptionKeyUris;
+    private String[] encryptionIvs;
+    private long[] byterangeOffsets;
+    private long[] byterangeLengths;
+
+    /**
+     * @param firstMediaSequence The media sequence number of the segment at index 0.
+     * @param capacity The initial capacity.
+     */
+    public Storage(int firstMediaSequence, int capacity) {
+      this.firstMediaSequence = firstMediaSequence;
+      capacity = Math.max(capacity, INITIAL_CAPACITY);
+      urls = new String[capacity];
+      durationsSecs = new double[capacity];
+      startTimesUs = new long[capacity];
+      discontinuitySequenceNumbers = new int[capacity];
+      encryptionKeyUris = new String[capacity];
+      encryptionIvs = new String[capacity];
+      byterangeOffsets = new long[capacity];
+      byterangeLengths = new long[capacity];
+    }
+
+    /**
+     * Returns the number of segments in the storage.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Discards segments from the end of the storage. Must only be called to discard segments that
+     * are not contained by any list.
+     *
+     * @param size The new size, which must not be greater than the current size.
+     */
+    public void discardFrom(int size) {
+      this.size = size;
+    }
+
+    /**
+     * Appends a segment. Its start time is derived from the segment that precedes it.
+     *
+     * @param url The segment url.
+     * @param durationSecs The segment duration in seconds.
+     * @param discontinuitySequenceNumber The segment's discontinuity sequence number.
+     * @param encryptionKeyUri The uri of the encryption key, or null if the segment is not
+     *     encrypted.
+     * @param encryptionIv The encryption initialization vector, or null if it's not specified.
+     * @param byterangeOffset The offset of the segment's byte range.
+     * @param byterangeLength The length of the segment's byte range, or {@link C#LENGTH_UNSET}.
+     */
+    public void append(String url, double durationSecs, int discontinuitySequenceNumber,
+        String encryptionKeyUri, String encryptionIv, long byterangeOffset,
+        long byterangeLength) {
+      if (size == urls.length) {
+        int capacity = size * 2;
+        urls = Arrays.copyOf(urls, capacity);
+        durationsSecs = Arrays.copyOf(durationsSecs, capacity);
+        startTimesUs = Arrays.copyOf(startTimesUs, capacity);
+        discontinuitySequenceNumbers = Arrays.copyOf(discontinuitySequenceNumbers, capacity);
+        encryptionKeyUris = Arrays.copyOf(encryptionKeyUris, capacity);
+        encryptionIvs = Arrays.copyOf(encryptionIvs, capacity);
+        byterangeOffsets = Arrays.copyOf(byterangeOffsets, capacity);
+        byterangeLengths = Arrays.copyOf(byterangeLengths, capacity);
+      }
+      urls[size] = url;
+      durationsSecs[size] = durationSecs;
+      startTimesUs[size] = size == 0 ? 0
+          : startTimesUs[size - 1] + (long) (durationsSecs[size - 1] * C.MICROS_PER_SECOND);
+      discontinuitySequenceNumbers[size] = discontinuitySequenceNumber;
+      encryptionKeyUris[size] = encryptionKeyUri;
+      encryptionIvs[size] = encryptionIv;
+      byterangeOffsets[size] = byterangeOffset;
+      byterangeLengths[size] = byterangeLength;
+      size++;
+    }
+
+    /**
+     * Returns a new storage containing the segments in the specified range.
+     *
+     * @param fromIndex The index of the first segment to copy.
+     * @param toIndex The index after the last segment to copy.
+     * @return The new storage.
+     */
+    public Storage copyRange(int fromIndex, int toIndex) {
+      int length = toIndex - fromIndex;
+      Storage copy = new Storage(firstMediaSequence + fromIndex, length * 2);
+      System.arraycopy(urls, fromIndex, copy.urls, 0, length);
+      System.arraycopy(durationsSecs, fromIndex, copy.durationsSecs, 0, length);
+      System.arraycopy(startTimesUs, fromIndex, copy.startTimesUs, 0, length);
+      System.arraycopy(discontinuitySequenceNumbers, fromIndex, copy.discontinuitySequenceNumbers,
+          0, length);
+      System.arraycopy(encryptionKeyUris, fromIndex, copy.encryptionKeyUris, 0, length);
+      System.arraycopy(encryptionIvs, fromIndex, copy.encryptionIvs, 0, length);
+      System.arraycopy(byterangeOffsets, fromIndex, copy.byterangeOffsets, 0, length);
+      System.arraycopy(byterangeLengths, fromIndex, copy.byterangeLengths, 0, length);
+      copy.size = length;
+      return copy;
+    }
+
+    public String getUrl(int index) {
+      return urls[index];
+    }
+
+    public double getDurationSecs(int index) {
+      return durationsSecs[index];
+    }
+
+    public int getDiscontinuitySequenceNumber(int index) {
+      return discontinuitySequenceNumbers[index];
+    }
+
+    public String getEncryptionKeyUri(int index) {
+      return encryptionKeyUris[index];
+    }
+
+    public String getEncryptionIv(int index) {
+      return encryptionIvs[index];
+    }
+
+    public long getByterangeOffset(int index) {
+      return byterangeOffsets[index];
+    }
+
+    public long getByterangeLength(int index) {
+      return byterangeLengths[index];
+    }
+
+  }
+
+  /**
+   * The storage backing the list.
+   */
+  public final Storage storage;
+  /**
+   * The index in {@link #storage} of the first segment in the list.
+   */
+  public final int fromIndex;
+
+  private final int size;
+  private final int discontinuitySequenceNumberOffset;
+  // Array references are captured on construction, since the storage replaces its arrays when it
+  // grows. The captured arrays are never modified within the range of the list.
+  private final String[] urls;
+  private final double[] durationsSecs;
+  private final long[] startTimesUs;
+  private final int[] discontinuitySequenceNumbers;
+  private final String[] encryptionKeyUris;
+  private final String[] encryptionIvs;
+  private final long[] byterangeOffsets;
+  private final long[] byterangeLengths;
+
+  /**
+   * @param storage The storage backing the list.
+   * @param fromIndex The index in {@code storage} of the first segment in the list.
+   * @param toIndex The index in {@code storage} after the last segment in the list.
+   * @param discontinuitySequenceNumberOffset An offset to add to the stored discontinuity sequence
+   *     numbers.
+   */
+  public CompactSegmentList(Storage storage, int fromIndex, int toIndex,
+      int discontinuitySequenceNumberOffset) {
+    this.storage = storage;
+    this.fromIndex = fromIndex;
+    this.size = toIndex - fromIndex;
+    this.discontinuitySequenceNumberOffset = discontinuitySequenceNumberOffset;
+    urls = storage.urls;
+    durationsSecs = storage.durationsSecs;
+    startTimesUs = storage.startTimesUs;
+    discontinuitySequenceNumbers = storage.discontinuitySequenceNumbers;
+    encryptionKeyUris = storage.encryptionKeyUris;
+    encryptionIvs = storage.encryptionIvs;
+    byterangeOffsets = storage.byterangeOffsets;
+    byterangeLengths = storage.byterangeLengths;
+  }
+
+  /**
+   * Returns the media sequence number of the segment at {@link #fromIndex} + {@link #size()}.
+   */
+  public int getEndMediaSequence() {
+    return storage.firstMediaSequence + fromIndex + size;
+  }
+
+  /**
+   * Equivalent to {@code get(index).durationSecs}, but does not instantiate the segment.
+   */
+  public double getDurationSecs(int index) {
+    checkIndex(index);
+    return durationsSecs[fromIndex + index];
+  }
+
+  @Override
+  public Segment get(int index) {
+    checkIndex(index);
+    int storageIndex = fromIndex + index;
+    String encryptionKeyUri = encryptionKeyUris[storageIndex];
+    boolean isEncrypted = encryptionKeyUri != null;
+    String encryptionIv = encryptionIvs[storageIndex];
+    if (isEncrypted && encryptionIv == null) {
+      encryptionIv = Integer.toHexString(storage.firstMediaSequence + storageIndex);
+    }
+    return new Segment(urls[storageIndex], durationsSecs[storageIndex],
+        discontinuitySequenceNumbers[storageIndex] + discontinuitySequenceNumberOffset,
+        startTimesUs[storageIndex] - startTimesUs[fromIndex], isEncrypted, encryptionKeyUri,
+        encryptionIv, byterangeOffsets[storageIndex], byterangeLengths[storageIndex]);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+}
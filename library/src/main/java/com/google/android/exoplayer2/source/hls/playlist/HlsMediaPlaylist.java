@@ -85,4 +85,18 @@ public final class HlsMediaPlaylist extends HlsPlaylist {
     }
   }
 
+  /**
+   * Returns the duration of the segment at the specified index, in seconds. Equivalent to
+   * {@code segments.get(index).durationSecs}, but avoids instantiating the segment if the
+   * segments are stored compactly.
+   *
+   * @param index The index of the segment.
+   * @return The duration of the segment, in seconds.
+   */
+  public double getSegmentDurationSecs(int index) {
+    return segments instanceof CompactSegmentList
+        ? ((CompactSegmentList) segments).getDurationSecs(index)
+        : segments.get(index).durationSecs;
+  }
+
 }
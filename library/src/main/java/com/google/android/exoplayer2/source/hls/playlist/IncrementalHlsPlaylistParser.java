@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls.playlist;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.util.Util;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * An HLS playlist parser for live media playlists that are reloaded repeatedly.
+ * <p>
+ * Media playlists are tokenized directly from their bytes, without regular expressions or
+ * per-line allocations, and their segments are stored in a {@link CompactSegmentList}. When a
+ * playlist is reloaded, the segments that it has in common with the previous playlist parsed
+ * from the same uri are skipped over rather than being parsed again, and only the segments that
+ * were appended since are parsed and stored. Master playlists are parsed by
+ * {@link HlsPlaylistParser}.
+ * <p>
+ * The parsed playlists are equivalent to those parsed by {@link HlsPlaylistParser}. Instances
+ * retain the most recently parsed media playlist for each uri.
+ */
+public final class IncrementalHlsPlaylistParser implements ParsingLoadable.Parser<HlsPlaylist> {
+
+  private static final byte[] TAG_VERSION = Util.getUtf8Bytes("#EXT-X-VERSION");
+  private static final byte[] TAG_STREAM_INF = Util.getUtf8Bytes("#EXT-X-STREAM-INF");
+  private static final byte[] TAG_DISCONTINUITY = Util.getUtf8Bytes("#EXT-X-DISCONTINUITY");
+  private static final byte[] TAG_DISCONTINUITY_SEQUENCE =
+      Util.getUtf8Bytes("#EXT-X-DISCONTINUITY-SEQUENCE");
+  private static final byte[] TAG_MEDIA_DURATION = Util.getUtf8Bytes("#EXTINF");
+  private static final byte[] TAG_MEDIA_SEQUENCE = Util.getUtf8Bytes("#EXT-X-MEDIA-SEQUENCE");
+  private static final byte[] TAG_TARGET_DURATION = Util.getUtf8Bytes("#EXT-X-TARGETDURATION");
+  private static final byte[] TAG_ENDLIST = Util.getUtf8Bytes("#EXT-X-ENDLIST");
+  private static final byte[] TAG_KEY = Util.getUtf8Bytes("#EXT-X-KEY");
+  private static final byte[] TAG_BYTERANGE = Util.getUtf8Bytes("#EXT-X-BYTERANGE");
+
+  private static final byte[] ATTR_METHOD = Util.getUtf8Bytes("METHOD");
+  private static final byte[] ATTR_URI = Util.getUtf8Bytes("URI");
+  private static final byte[] ATTR_IV = Util.getUtf8Bytes("IV");
+
+  private static final byte[] METHOD_NONE = Util.getUtf8Bytes("NONE");
+  private static final byte[] METHOD_AES128 = Util.getUtf8Bytes("AES-128");
+
+  private static final Charset UTF_8 = Charset.forName(C.UTF8_NAME);
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+  // Doubles with at most this many significant digits are exactly representable.
+  private static final int MAX_EXACT_SIGNIFICANT_DIGITS = 15;
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final HlsPlaylistParser masterPlaylistParser;
+  private final HashMap<String, HlsMediaPlaylist> previousMediaPlaylists;
+
+  private byte[] data;
+  private int dataLength;
+  private int position;
+  private int lineStart;
+  private int lineEnd;
+  private int numberEnd;
+
+  public IncrementalHlsPlaylistParser() {
+    masterPlaylistParser = new HlsPlaylistParser();
+    previousMediaPlaylists = new HashMap<>();
+    data = new byte[INITIAL_BUFFER_SIZE];
+  }
+
+  @Override
+  public synchronized HlsPlaylist parse(Uri uri, InputStream inputStream) throws IOException {
+    try {
+      readFully(inputStream);
+    } finally {
+      inputStream.close();
+    }
+    position = 0;
+    while (nextLine()) {
+      if (lineStartsWith(TAG_STREAM_INF)) {
+        return masterPlaylistParser.parse(uri, new ByteArrayInputStream(data, 0, dataLength));
+      } else if (lineStartsWith(TAG_TARGET_DURATION)
+          || lineStartsWith(TAG_MEDIA_SEQUENCE)
+          || lineStartsWith(TAG_MEDIA_DURATION)
+          || lineStartsWith(TAG_KEY)
+          || lineStartsWith(TAG_BYTERANGE)
+          || lineEquals(TAG_DISCONTINUITY)
+          || lineEquals(TAG_DISCONTINUITY_SEQUENCE)
+          || lineEquals(TAG_ENDLIST)) {
+        return parseMediaPlaylist(uri.toString());
+      }
+    }
+    throw new ParserException("Failed to parse the playlist, could not identify any tags.");
+  }
+
+  private HlsMediaPlaylist parseMediaPlaylist(String baseUri) throws ParserException {
+    HlsMediaPlaylist previousPlaylist = previousMediaPlaylists.get(baseUri);
+    HlsMediaPlaylist playlist = null;
+    if (previousPlaylist != null && previousPlaylist.segments instanceof CompactSegmentList) {
+      playlist = parseMediaPlaylist(baseUri, (CompactSegmentList) previousPlaylist.segments);
+    }
+    if (playlist == null) {
+      playlist = parseMediaPlaylist(baseUri, null);
+    }
+    previousMediaPlaylists.put(baseUri, playlist);
+    return playlist;
+  }
+
+  /**
+   * Parses a media playlist, reusing the segments it has in common with a previous playlist.
+   *
+   * @param baseUri The playlist's base uri.
+   * @param previousSegments The segments of the previous playlist, or null.
+   * @return The parsed playlist, or null if the playlist is inconsistent with
+   *     {@code previousSegments}, in which case it should be parsed again without them.
+   * @throws ParserException If the playlist could not be parsed.
+   */
+  private HlsMediaPlaylist parseMediaPlaylist(String baseUri,
+      CompactSegmentList previousSegments) throws ParserException {
+    int mediaSequence = 0;
+    int targetDurationSecs = 0;
+    int version = 1; // Default version == 1.
+    boolean live = true;
+    CompactSegmentList.Storage storage = null;
+    int fromIndex = 0;
+    int knownEndMediaSequence = 0;
+    int discontinuitySequenceNumberOffset = 0;
+    boolean seenKnownSegment = false;
+
+    int segmentDurationPosition = C.INDEX_UNSET;
+    int segmentByterangePosition = C.INDEX_UNSET;
+    int discontinuitySequenceNumber = 0;
+    long segmentByterangeOffset = 0;
+    int segmentMediaSequence = 0;
+
+    boolean isEncrypted = false;
+    String encryptionKeyUri = null;
+    String encryptionIV = null;
+
+    position = 0;
+    while (nextLine()) {
+      // The most frequent tags are checked first.
+      if (lineStartsWith(TAG_MEDIA_DURATION)) {
+        // Parsing is deferred until we know whether the segment is new.
+        segmentDurationPosition = lineStart + TAG_MEDIA_DURATION.length;
+      } else if (lineStartsWith(TAG_KEY)) {
+        int methodPosition = findAttributeValue(ATTR_METHOD);
+        isEncrypted = regionStartsWith(methodPosition, METHOD_AES128);
+        if (isEncrypted) {
+          encryptionKeyUri = parseQuotedAttr(ATTR_URI, encryptionKeyUri);
+          encryptionIV = parseOptionalUnquotedAttr(ATTR_IV, encryptionIV);
+        } else if (regionStartsWith(methodPosition, METHOD_NONE)) {
+          encryptionKeyUri = null;
+          encryptionIV = null;
+        } else {
+          throw new ParserException("Couldn't match METHOD in " + getLine());
+        }
+      } else if (lineStartsWith(TAG_BYTERANGE)) {
+        // Parsing is deferred until we know whether the segment is new.
+        segmentByterangePosition = lineStart + TAG_BYTERANGE.length;
+      } else if (lineStartsWith(TAG_TARGET_DURATION)) {
+        targetDurationSecs = parseIntTagValue(TAG_TARGET_DURATION);
+      } else if (lineStartsWith(TAG_MEDIA_SEQUENCE)) {
+        mediaSequence = parseIntTagValue(TAG_MEDIA_SEQUENCE);
+        segmentMediaSequence = mediaSequence;
+      } else if (lineStartsWith(TAG_VERSION)) {
+        version = parseIntTagValue(TAG_VERSION);
+      } else if (lineStartsWith(TAG_DISCONTINUITY_SEQUENCE)) {
+        discontinuitySequenceNumber = parseIntTagValue(TAG_DISCONTINUITY_SEQUENCE);
+      } else if (lineEquals(TAG_DISCONTINUITY)) {
+        discontinuitySequenceNumber++;
+      } else if (data[lineStart] != '#') {
+        if (storage == null) {
+          // This is the first segment.
+          if (previousSegments != null
+              && segmentMediaSequence >= previousSegments.storage.firstMediaSequence
+                  + previousSegments.fromIndex
+              && segmentMediaSequence <= previousSegments.getEndMediaSequence()) {
+            storage = previousSegments.storage;
+            knownEndMediaSequence = previousSegments.getEndMediaSequence();
+            // Discard any segments appended by a parse that failed.
+            storage.discardFrom(knownEndMediaSequence - storage.firstMediaSequence);
+            fromIndex = segmentMediaSequence - storage.firstMediaSequence;
+            if (fromIndex > storage.size() - fromIndex) {
+              // Most of the storage is no longer referenced by the latest list.
+              storage = storage.copyRange(fromIndex, storage.size());
+              fromIndex = 0;
+            }
+          } else {
+            int capacity = previousSegments != null ? previousSegments.size() : 0;
+            storage = new CompactSegmentList.Storage(segmentMediaSequence, capacity);
+            knownEndMediaSequence = segmentMediaSequence;
+          }
+        }
+        boolean isKnownSegment = segmentMediaSequence < knownEndMediaSequence;
+        long segmentByterangeLength = C.LENGTH_UNSET;
+        if (!isKnownSegment || !seenKnownSegment) {
+          // The byte range of the first segment is parsed even if it's known, since it depends on
+          // the preceding segment if the offset is omitted.
+          if (segmentByterangePosition != C.INDEX_UNSET) {
+            int byterangeEnd = findLineEnd(segmentByterangePosition);
+            segmentByterangeLength = parseLongAttr(segmentByterangePosition, byterangeEnd);
+            if (numberEnd < byterangeEnd && data[numberEnd] == '@') {
+              segmentByterangeOffset = parseLong(numberEnd + 1, byterangeEnd);
+            }
+          }
+          if (segmentByterangeLength == C.LENGTH_UNSET) {
+            segmentByterangeOffset = 0;
+          }
+        }
+        if (isKnownSegment) {
+          int storageIndex = segmentMediaSequence - storage.firstMediaSequence;
+          int offset = discontinuitySequenceNumber
+              - storage.getDiscontinuitySequenceNumber(storageIndex);
+          if (!seenKnownSegment) {
+            if (segmentByterangeOffset != storage.getByterangeOffset(storageIndex)
+                || segmentByterangeLength != storage.getByterangeLength(storageIndex)) {
+              return null;
+            }
+            discontinuitySequenceNumberOffset = offset;
+            seenKnownSegment = true;
+          } else if (offset != discontinuitySequenceNumberOffset) {
+            return null;
+          }
+          // The encryption state depends on the preceding tags, which may have been removed.
+          String storedEncryptionKeyUri = storage.getEncryptionKeyUri(storageIndex);
+          String storedEncryptionIV = storage.getEncryptionIv(storageIndex);
+          if (isEncrypted) {
+            if (!encryptionKeyUri.equals(storedEncryptionKeyUri)
+                || !Util.areEqual(encryptionIV, storedEncryptionIV)) {
+              return null;
+            }
+            // Use the stored instances, so that subsequent tags can be matched by reference.
+            encryptionKeyUri = storedEncryptionKeyUri;
+            encryptionIV = storedEncryptionIV;
+          } else if (storedEncryptionKeyUri != null) {
+            return null;
+          }
+          if (segmentMediaSequence == knownEndMediaSequence - 1
+              && !lineEquals(storage.getUrl(storageIndex))) {
+            return null;
+          }
+          long byterangeLength = storage.getByterangeLength(storageIndex);
+          segmentByterangeOffset = byterangeLength == C.LENGTH_UNSET ? 0
+              : storage.getByterangeOffset(storageIndex) + byterangeLength;
+        } else {
+          String url = getLine();
+          double segmentDurationSecs = segmentDurationPosition == C.INDEX_UNSET ? 0.0
+              : parseDurationSecs(segmentDurationPosition);
+          storage.append(url, segmentDurationSecs,
+              discontinuitySequenceNumber - discontinuitySequenceNumberOffset,
+              isEncrypted ? encryptionKeyUri : null, isEncrypted ? encryptionIV : null,
+              segmentByterangeOffset, segmentByterangeLength);
+          if (segmentByterangeLength != C.LENGTH_UNSET) {
+            segmentByterangeOffset += segmentByterangeLength;
+          }
+        }
+        segmentMediaSequence++;
+        segmentDurationPosition = C.INDEX_UNSET;
+        segmentByterangePosition = C.INDEX_UNSET;
+      } else if (lineEquals(TAG_ENDLIST)) {
+        live = false;
+      }
+    }
+    if (segmentMediaSequence < knownEndMediaSequence) {
+      // The playlist has fewer segments than the previous one. Appending to the storage later
+      // would overwrite segments of the previous list.
+      return null;
+    }
+    List<Segment> segments = storage == null ? Collections.<Segment>emptyList()
+        : new CompactSegmentList(storage, fromIndex, storage.size(),
+            discontinuitySequenceNumberOffset);
+    return new HlsMediaPlaylist(baseUri, mediaSequence, targetDurationSecs, version, live,
+        segments);
+  }
+
+  // Tokenization.
+
+  private void readFully(InputStream inputStream) throws IOException {
+    dataLength = 0;
+    while (true) {
+      if (dataLength == data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      int bytesRead = inputStream.read(data, dataLength, data.length - dataLength);
+      if (bytesRead == -1) {
+        return;
+      }
+      dataLength += bytesRead;
+    }
+  }
+
+  /**
+   * Advances to the next non-empty line, trimming leading and trailing whitespace as
+   * {@link String#trim()} does.
+   *
+   * @return Whether a line was found.
+   */
+  private boolean nextLine() {
+    while (position < dataLength) {
+      int start = position;
+      int end = start;
+      while (end < dataLength && data[end] != '\n' && data[end] != '\r') {
+        end++;
+      }
+      position = end + 1;
+      while (start < end && (data[start] & 0xFF) <= ' ') {
+        start++;
+      }
+      while (end > start && (data[end - 1] & 0xFF) <= ' ') {
+        end--;
+      }
+      if (start < end) {
+        lineStart = start;
+        lineEnd = end;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the end of the line containing the specified position. Used to parse tag lines that
+   * precede the current line.
+   */
+  private int findLineEnd(int position) {
+    while (position < dataLength && data[position] != '\n' && data[position] != '\r') {
+      position++;
+    }
+    return position;
+  }
+
+  private String getLine() {
+    return new String(data, lineStart, lineEnd - lineStart, UTF_8);
+  }
+
+  private boolean lineStartsWith(byte[] prefix) {
+    return lineEnd - lineStart >= prefix.length && regionStartsWith(lineStart, prefix);
+  }
+
+  private boolean lineEquals(byte[] value) {
+    return lineEnd - lineStart == value.length && regionStartsWith(lineStart, value);
+  }
+
+  private boolean lineEquals(String value) {
+    return regionEquals(lineStart, lineEnd, value);
+  }
+
+  private boolean regionStartsWith(int start, byte[] prefix) {
+    if (start == C.INDEX_UNSET || lineEnd - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (data[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean regionEquals(int start, int end, String value) {
+    if (value == null || end - start < value.length()) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+        // Fall back to decoding the region.
+        return value.equals(
+            new String(data, start, end - start, UTF_8));
+      } else if (data[start + i] != c) {
+        return false;
+      }
+    }
+    return end - start == value.length();
+  }
+
+  // Attribute parsing.
+
+  /**
+   * Returns the position of the value of an attribute of the current tag line, or
+   * {@link C#INDEX_UNSET} if the attribute is not present.
+   */
+  private int findAttributeValue(byte[] name) {
+    int attributePosition = lineStart;
+    while (attributePosition < lineEnd && data[attributePosition] != ':') {
+      attributePosition++;
+    }
+    attributePosition++;
+    while (attributePosition < lineEnd) {
+      while (attributePosition < lineEnd && data[attributePosition] == ' ') {
+        attributePosition++;
+      }
+      int valuePosition = attributePosition + name.length;
+      if (regionStartsWith(attributePosition, name) && valuePosition < lineEnd
+          && data[valuePosition] == '=') {
+        return valuePosition + 1;
+      }
+      // Skip to the next attribute.
+      boolean quoted = false;
+      while (attributePosition < lineEnd && (quoted || data[attributePosition] != ',')) {
+        if (data[attributePosition] == '"') {
+          quoted = !quoted;
+        }
+        attributePosition++;
+      }
+      attributePosition++;
+    }
+    return C.INDEX_UNSET;
+  }
+
+  /**
+   * Parses a quoted attribute of the current tag line.
+   *
+   * @param name The name of the attribute.
+   * @param previousValue A previously parsed value, which is returned if equal to the parsed value.
+   * @return The value of the attribute.
+   * @throws ParserException If the attribute is not present.
+   */
+  private String parseQuotedAttr(byte[] name, String previousValue) throws ParserException {
+    int start = findAttributeValue(name);
+    if (start == C.INDEX_UNSET || data[start] != '"') {
+      throw new ParserException("Couldn't match " + new String(name) + " in " + getLine());
+    }
+    start++;
+    int end = start;
+    while (end < lineEnd && data[end] != '"') {
+      end++;
+    }
+    if (end == start || end == lineEnd) {
+      throw new ParserException("Couldn't match " + new String(name) + " in " + getLine());
+    }
+    return toString(start, end, previousValue);
+  }
+
+  /**
+   * Parses an unquoted attribute of the current tag line.
+   *
+   * @param name The name of the attribute.
+   * @param previousValue A previously parsed value, which is returned if equal to the parsed value.
+   * @return The value of the attribute, or null if it's not present.
+   */
+  private String parseOptionalUnquotedAttr(byte[] name, String previousValue) {
+    int start = findAttributeValue(name);
+    if (start == C.INDEX_UNSET) {
+      return null;
+    }
+    int end = start;
+    while (end < lineEnd && data[end] != ',' && data[end] != '.' && data[end] != '*') {
+      end++;
+    }
+    return end == start ? null : toString(start, end, previousValue);
+  }
+
+  private String toString(int start, int end, String previousValue) {
+    return regionEquals(start, end, previousValue) ? previousValue
+        : new String(data, start, end - start, UTF_8);
+  }
+
+  private int parseIntTagValue(byte[] tag) throws ParserException {
+    return (int) parseLongAttr(lineStart + tag.length, lineEnd);
+  }
+
+  /**
+   * Parses a number that follows a tag and a colon.
+   *
+   * @param position The position of the colon.
+   * @param end The end of the line.
+   * @return The parsed number.
+   * @throws ParserException If the number could not be parsed.
+   */
+  private long parseLongAttr(int position, int end) throws ParserException {
+    if (position >= end || data[position] != ':') {
+      throw new ParserException("Couldn't parse number");
+    }
+    return parseLong(position + 1, end);
+  }
+
+  /**
+   * Parses a non-negative decimal number, setting {@link #numberEnd} to the position that
+   * follows it.
+   */
+  private long parseLong(int start, int end) throws ParserException {
+    long value = 0;
+    int position = start;
+    while (position < end && data[position] >= '0' && data[position] <= '9') {
+      value = value * 10 + (data[position] - '0');
+      position++;
+    }
+    if (position == start) {
+      throw new ParserException("Couldn't parse number");
+    }
+    numberEnd = position;
+    return value;
+  }
+
+  /**
+   * Parses the duration that follows an {@code #EXTINF} tag.
+   *
+   * @param position The position of the colon that follows the tag.
+   * @return The parsed duration in seconds.
+   * @throws ParserException If the duration could not be parsed.
+   */
+  private double parseDurationSecs(int position) throws ParserException {
+    int end = findLineEnd(position);
+    if (position >= end || data[position] != ':') {
+      throw new ParserException("Couldn't parse duration");
+    }
+    int start = ++position;
+    long mantissa = 0;
+    int significantDigits = 0;
+    int fractionDigits = 0;
+    boolean seenPoint = false;
+    for (; position < end; position++) {
+      byte value = data[position];
+      if (value >= '0' && value <= '9') {
+        if (mantissa != 0 || value != '0') {
+          significantDigits++;
+        }
+        mantissa = mantissa * 10 + (value - '0');
+        if (seenPoint) {
+          fractionDigits++;
+        }
+      } else if (value == '.' && !seenPoint) {
+        seenPoint = true;
+      } else {
+        break;
+      }
+    }
+    if (position == start || (seenPoint && position == start + 1)) {
+      throw new ParserException("Couldn't parse duration");
+    }
+    if (significantDigits <= MAX_EXACT_SIGNIFICANT_DIGITS
+        && fractionDigits < POWERS_OF_TEN.length) {
+      // Both operands are exact, so the correctly rounded quotient is equal to the result of
+      // Double.parseDouble.
+      return mantissa / POWERS_OF_TEN[fractionDigits];
+    }
+    return Double.parseDouble(
+        new String(data, start, position - start, UTF_8));
+  }
+
+}
@@ -25,6 +25,7 @@ import com.google.android.exoplayer2.source.BehindLiveWindowException;
 import com.google.android.exoplayer2.source.chunk.Chunk;
 import com.google.android.exoplayer2.source.chunk.ChunkExtractorWrapper;
 import com.google.android.exoplayer2.source.chunk.ChunkHolder;
+import com.google.android.exoplayer2.source.chunk.ChunkSource;
 import com.google.android.exoplayer2.source.chunk.ChunkedTrackBlacklistUtil;
 import com.google.android.exoplayer2.source.chunk.ContainerMediaChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
@@ -34,13 +35,15 @@ import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.LoaderErrorThrower;
+import com.google.android.exoplayer2.upstream.PrefetchingDataSource;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * A default {@link SsChunkSource} implementation.
  */
-public class DefaultSsChunkSource implements SsChunkSource {
+public class DefaultSsChunkSource implements SsChunkSource, ChunkSource.Releasable {
 
   public static final class Factory implements SsChunkSource.Factory {
 
@@ -66,6 +69,7 @@ public class DefaultSsChunkSource implements SsChunkSource {
   private final TrackSelection trackSelection;
   private final ChunkExtractorWrapper[] extractorWrappers;
   private final DataSource dataSource;
+  private final PrefetchingDataSource prefetchingDataSource;
 
   private SsManifest manifest;
   private int currentManifestChunkOffset;
@@ -77,7 +81,8 @@ public class DefaultSsChunkSource implements SsChunkSource {
    * @param manifest The initial manifest.
    * @param elementIndex The index of the stream element in the manifest.
    * @param trackSelection The track selection.
-   * @param dataSource A {@link DataSource} suitable for loading the media data.
+   * @param dataSource A {@link DataSource} suitable for loading the media data. If this is a
+   *     {@link PrefetchingDataSource} then upcoming chunks of the selected track are prefetched.
    * @param trackEncryptionBoxes Track encryption boxes for the stream.
    */
   public DefaultSsChunkSource(LoaderErrorThrower manifestLoaderErrorThrower, SsManifest manifest,
@@ -88,6 +93,8 @@ public class DefaultSsChunkSource implements SsChunkSource {
     this.elementIndex = elementIndex;
     this.trackSelection = trackSelection;
     this.dataSource = dataSource;
+    this.prefetchingDataSource = dataSource instanceof PrefetchingDataSource
+        ? (PrefetchingDataSource) dataSource : null;
 
     StreamElement streamElement = manifest.streamElements[elementIndex];
 
@@ -111,7 +118,11 @@ public class DefaultSsChunkSource implements SsChunkSource {
     StreamElement currentElement = manifest.streamElements[elementIndex];
     int currentElementChunkCount = currentElement.chunkCount;
     StreamElement newElement = newManifest.streamElements[elementIndex];
-    if (currentElementChunkCount == 0 || newElement.chunkCount == 0) {
+    int chunkIndexOffset = newElement.getChunkIndexOffset(currentElement);
+    if (chunkIndexOffset != C.INDEX_UNSET) {
+      // The elements share their chunk indices, so the offset is known without a search.
+      currentManifestChunkOffset += chunkIndexOffset;
+    } else if (currentElementChunkCount == 0 || newElement.chunkCount == 0) {
       // There's no overlap between the old and new elements because at least one is empty.
       currentManifestChunkOffset += currentElementChunkCount;
     } else {
@@ -155,6 +166,11 @@ public class DefaultSsChunkSource implements SsChunkSource {
     }
 
     long bufferedDurationUs = previous != null ? (previous.endTimeUs - playbackPositionUs) : 0;
+    if (previous != null && previous.endTimeUs > previous.startTimeUs
+        && trackSelection instanceof TrackSelection.ChunkDurationAware) {
+      ((TrackSelection.ChunkDurationAware) trackSelection).setChunkDurationUs(
+          previous.endTimeUs - previous.startTimeUs);
+    }
     trackSelection.updateSelectedTrack(bufferedDurationUs);
 
     StreamElement streamElement = manifest.streamElements[elementIndex];
@@ -195,6 +211,9 @@ public class DefaultSsChunkSource implements SsChunkSource {
     out.chunk = newMediaChunk(trackSelection.getSelectedFormat(), dataSource, uri, null,
         currentAbsoluteChunkIndex, chunkStartTimeUs, chunkEndTimeUs,
         trackSelection.getSelectionReason(), trackSelection.getSelectionData(), extractorWrapper);
+    if (prefetchingDataSource != null) {
+      prefetchChunks(streamElement, manifestTrackIndex, chunkIndex);
+    }
   }
 
   @Override
@@ -208,8 +227,27 @@ public class DefaultSsChunkSource implements SsChunkSource {
         trackSelection.indexOf(chunk.trackFormat), e);
   }
 
+  @Override
+  public void release() {
+    if (prefetchingDataSource != null) {
+      prefetchingDataSource.release();
+    }
+  }
+
   // Private methods.
 
+  private void prefetchChunks(StreamElement streamElement, int manifestTrackIndex,
+      int firstChunkIndex) {
+    int lastChunkIndex = Math.min(streamElement.chunkCount - 1,
+        firstChunkIndex + prefetchingDataSource.getMaxParallelLoads() - 1);
+    List<DataSpec> dataSpecs = new ArrayList<>();
+    for (int chunkIndex = firstChunkIndex; chunkIndex <= lastChunkIndex; chunkIndex++) {
+      Uri uri = streamElement.buildRequestUri(manifestTrackIndex, chunkIndex);
+      dataSpecs.add(new DataSpec(uri, 0, C.LENGTH_UNSET, null));
+    }
+    prefetchingDataSource.prefetch(dataSpecs);
+  }
+
   private static MediaChunk newMediaChunk(Format format, DataSource dataSource, Uri uri,
       String cacheKey, int chunkIndex, long chunkStartTimeUs, long chunkEndTimeUs,
       int trackSelectionReason, Object trackSelectionData, ChunkExtractorWrapper extractorWrapper) {
@@ -27,6 +27,7 @@ import com.google.android.exoplayer2.source.MediaPeriod;
 import com.google.android.exoplayer2.source.MediaPeriod.Callback;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.SinglePeriodTimeline;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.IncrementalSsManifestParser;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.StreamElement;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
@@ -94,6 +95,19 @@ public final class SsMediaSource implements MediaSource,
       SsChunkSource.Factory chunkSourceFactory, int minLoadableRetryCount,
       long livePresentationDelayMs, Handler eventHandler,
       AdaptiveMediaSourceEventListener eventListener) {
+    this(manifestUri, dataSourceFactory, chunkSourceFactory, minLoadableRetryCount,
+        livePresentationDelayMs, false, eventHandler, eventListener);
+  }
+
+  /**
+   * @param incrementalManifestParsing Whether the chunks of each refreshed manifest should be
+   *     merged into those of the previous one using an {@link IncrementalSsManifestParser}, so
+   *     that only new chunks are stored. Recommended for live streams with large DVR windows.
+   */
+  public SsMediaSource(Uri manifestUri, DataSource.Factory dataSourceFactory,
+      SsChunkSource.Factory chunkSourceFactory, int minLoadableRetryCount,
+      long livePresentationDelayMs, boolean incrementalManifestParsing, Handler eventHandler,
+      AdaptiveMediaSourceEventListener eventListener) {
     this.manifestUri = Util.toLowerInvariant(manifestUri.getLastPathSegment()).equals("manifest")
         ? manifestUri : Uri.withAppendedPath(manifestUri, "Manifest");
     this.dataSourceFactory = dataSourceFactory;
@@ -101,7 +115,8 @@ public final class SsMediaSource implements MediaSource,
     this.minLoadableRetryCount = minLoadableRetryCount;
     this.livePresentationDelayMs = livePresentationDelayMs;
     this.eventDispatcher = new EventDispatcher(eventHandler, eventListener);
-    manifestParser = new SsManifestParser();
+    manifestParser = incrementalManifestParsing ? new IncrementalSsManifestParser()
+        : new SsManifestParser();
     mediaPeriods = new ArrayList<>();
   }
 
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.smoothstreaming.manifest;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.ChunkStorage;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.StreamElement;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link SsManifestParser} for live streams that merges the chunks of each manifest into those
+ * of the one it parsed previously.
+ * <p>
+ * Stream elements share their {@link ChunkStorage} with the corresponding elements of the
+ * previous manifest. Chunks that are new in a refreshed manifest are appended to the storage, and
+ * chunks that have left the DVR window are trimmed by advancing the index of the first chunk, so
+ * that a refresh only scales and stores the new chunks. Chunk indices are consistent between
+ * successive manifests, as reported by {@link StreamElement#getChunkIndexOffset(StreamElement)}.
+ * <p>
+ * Instances retain the most recently parsed manifest, and so must not be used to parse more than
+ * one manifest at a time. The parsed manifest is always equivalent to the one that
+ * {@link SsManifestParser} would have produced.
+ */
+public class IncrementalSsManifestParser extends SsManifestParser {
+
+  private SsManifest previousManifest;
+
+  // Parsing context, valid only during a call to parse.
+  private int streamElementIndex;
+
+  @Override
+  public SsManifest parse(Uri uri, InputStream inputStream) throws IOException {
+    streamElementIndex = 0;
+    SsManifest manifest = super.parse(uri, inputStream);
+    previousManifest = manifest.isLive ? manifest : null;
+    return manifest;
+  }
+
+  @Override
+  protected StreamElement buildStreamElement(String baseUri, String chunkTemplate, int type,
+      String subType, long timescale, String name, int maxWidth, int maxHeight, int displayWidth,
+      int displayHeight, String language, Format[] formats, long[] chunkStartTimes, int chunkCount,
+      long lastChunkDuration) {
+    StreamElement previousElement = findPreviousStreamElement(streamElementIndex++, type, name,
+        timescale);
+    if (previousElement == null || previousElement.chunkCount == 0 || chunkCount == 0) {
+      return super.buildStreamElement(baseUri, chunkTemplate, type, subType, timescale, name,
+          maxWidth, maxHeight, displayWidth, displayHeight, language, formats, chunkStartTimes,
+          chunkCount, lastChunkDuration);
+    }
+    ChunkStorage storage = previousElement.chunkStorage;
+    int fromIndex = storage.indexOf(chunkStartTimes[0], previousElement.chunkStorageIndex,
+        previousElement.chunkStorageIndex + previousElement.chunkCount);
+    if (fromIndex < 0) {
+      // The first chunk isn't one of the previous chunks, so there's nothing to share.
+      return super.buildStreamElement(baseUri, chunkTemplate, type, subType, timescale, name,
+          maxWidth, maxHeight, displayWidth, displayHeight, language, formats, chunkStartTimes,
+          chunkCount, lastChunkDuration);
+    }
+    // Skip the chunks that are already stored.
+    int chunkIndex = 0;
+    int storageIndex = fromIndex;
+    int storageSize = storage.size();
+    while (chunkIndex < chunkCount && storageIndex < storageSize
+        && storage.getStartTime(storageIndex) == chunkStartTimes[chunkIndex]) {
+      chunkIndex++;
+      storageIndex++;
+    }
+    if (chunkIndex < chunkCount && storageIndex < storageSize) {
+      // The chunks diverge from the stored ones. Copy the shared chunks so that the stored ones
+      // remain valid for earlier manifests.
+      storage = storage.copyRange(fromIndex, storageIndex);
+      fromIndex = 0;
+    } else if (fromIndex > chunkCount) {
+      // More chunks have been trimmed from the storage than are still in use, so compact it.
+      storage = storage.copyRange(fromIndex, storageIndex);
+      fromIndex = 0;
+    }
+    for (; chunkIndex < chunkCount; chunkIndex++) {
+      storage.append(chunkStartTimes[chunkIndex]);
+    }
+    return new StreamElement(baseUri, chunkTemplate, type, subType, timescale, name, maxWidth,
+        maxHeight, displayWidth, displayHeight, language, formats, storage, fromIndex, chunkCount,
+        lastChunkDuration);
+  }
+
+  private StreamElement findPreviousStreamElement(int index, int type, String name,
+      long timescale) {
+    if (previousManifest == null || index >= previousManifest.streamElements.length) {
+      return null;
+    }
+    StreamElement previousElement = previousManifest.streamElements[index];
+    return previousElement.type == type && Util.areEqual(previousElement.name, name)
+        && previousElement.timescale == timescale ? previousElement : null;
+  }
+
+}
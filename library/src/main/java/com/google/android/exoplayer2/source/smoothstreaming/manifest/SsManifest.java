@@ -21,6 +21,7 @@ import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.UriUtil;
 import com.google.android.exoplayer2.util.Util;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -123,6 +124,125 @@ public class SsManifest {
 
   }
 
+  /**
+   * Append-only storage for the chunk start times of a {@link StreamElement}. The stream elements
+   * of successive manifests of a live presentation may share a single instance, each of them
+   * covering a different range of the stored chunks.
+   */
+  public static final class ChunkStorage {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The timescale of the stored start times, as the number of units that pass in one second.
+     */
+    public final long timescale;
+
+    private final Object lineage;
+    private final long firstChunkIndex;
+
+    private long[] startTimes;
+    private long[] startTimesUs;
+    private int size;
+
+    /**
+     * @param timescale The timescale of the start times, as the number of units that pass in one
+     *     second.
+     */
+    public ChunkStorage(long timescale) {
+      this(timescale, new Object(), 0, new long[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0);
+    }
+
+    /**
+     * @param timescale The timescale of the start times, as the number of units that pass in one
+     *     second.
+     * @param startTimes The initial start times, in units of the timescale.
+     * @param count The number of initial start times to take from {@code startTimes}.
+     */
+    public ChunkStorage(long timescale, long[] startTimes, int count) {
+      this(timescale, new Object(), 0, Arrays.copyOf(startTimes, count), null, count);
+      this.startTimesUs = Arrays.copyOf(startTimes, count);
+      Util.scaleLargeTimestampsInPlace(this.startTimesUs, C.MICROS_PER_SECOND, timescale);
+    }
+
+    private ChunkStorage(long timescale, Object lineage, long firstChunkIndex, long[] startTimes,
+        long[] startTimesUs, int size) {
+      this.timescale = timescale;
+      this.lineage = lineage;
+      this.firstChunkIndex = firstChunkIndex;
+      this.startTimes = startTimes;
+      this.startTimesUs = startTimesUs;
+      this.size = size;
+    }
+
+    /**
+     * Returns the number of stored chunks.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns the start time of a stored chunk.
+     *
+     * @param index The index of the chunk.
+     * @return The start time of the chunk, in units of the timescale.
+     */
+    public long getStartTime(int index) {
+      return startTimes[index];
+    }
+
+    /**
+     * Appends a chunk.
+     *
+     * @param startTime The start time of the chunk, in units of the timescale.
+     */
+    public void append(long startTime) {
+      if (size == startTimes.length) {
+        int newCapacity = Math.max(INITIAL_CAPACITY, size * 2);
+        startTimes = Arrays.copyOf(startTimes, newCapacity);
+        startTimesUs = Arrays.copyOf(startTimesUs, newCapacity);
+      }
+      startTimes[size] = startTime;
+      startTimesUs[size] = Util.scaleLargeTimestamp(startTime, C.MICROS_PER_SECOND, timescale);
+      size++;
+    }
+
+    /**
+     * Returns new storage containing a range of the stored chunks. Chunk indices remain
+     * consistent between the two instances, as reported by
+     * {@link StreamElement#getChunkIndexOffset(StreamElement)}.
+     *
+     * @param fromIndex The index of the first chunk to copy.
+     * @param toIndex The index after the last chunk to copy.
+     * @return The new storage.
+     */
+    public ChunkStorage copyRange(int fromIndex, int toIndex) {
+      int count = toIndex - fromIndex;
+      int capacity = Math.max(INITIAL_CAPACITY, count * 2);
+      long[] newStartTimes = new long[capacity];
+      long[] newStartTimesUs = new long[capacity];
+      System.arraycopy(startTimes, fromIndex, newStartTimes, 0, count);
+      System.arraycopy(startTimesUs, fromIndex, newStartTimesUs, 0, count);
+      return new ChunkStorage(timescale, lineage, firstChunkIndex + fromIndex, newStartTimes,
+          newStartTimesUs, count);
+    }
+
+    /**
+     * Searches a range of the stored chunks for a start time.
+     *
+     * @param startTime The start time to search for, in units of the timescale.
+     * @param fromIndex The index of the first chunk to search.
+     * @param toIndex The index after the last chunk to search.
+     * @return The index of the chunk with the specified start time, or a negative value if there
+     *     is no such chunk in the range.
+     */
+    public int indexOf(long startTime, int fromIndex, int toIndex) {
+      return Arrays.binarySearch(startTimes, fromIndex, toIndex, startTime);
+    }
+
+  }
+
   /**
    * Represents a StreamIndex element.
    */
@@ -143,10 +263,20 @@ public class SsManifest {
     public final Format[] formats;
     public final int chunkCount;
 
+    /**
+     * The storage holding the start times of the chunks.
+     */
+    public final ChunkStorage chunkStorage;
+    /**
+     * The index in {@link #chunkStorage} of the first chunk.
+     */
+    public final int chunkStorageIndex;
+
     private final String baseUri;
     private final String chunkTemplate;
 
-    private final List<Long> chunkStartTimes;
+    // The storage arrays at the time of construction, which are not modified by later appends.
+    private final long[] chunkStartTimes;
     private final long[] chunkStartTimesUs;
     private final long lastChunkDurationUs;
 
@@ -154,6 +284,22 @@ public class SsManifest {
         long timescale, String name, int maxWidth, int maxHeight, int displayWidth,
         int displayHeight, String language, Format[] formats, List<Long> chunkStartTimes,
         long lastChunkDuration) {
+      this(baseUri, chunkTemplate, type, subType, timescale, name, maxWidth, maxHeight,
+          displayWidth, displayHeight, language, formats,
+          new ChunkStorage(timescale, toArray(chunkStartTimes), chunkStartTimes.size()), 0,
+          chunkStartTimes.size(), lastChunkDuration);
+    }
+
+    /**
+     * @param chunkStorage The storage holding the start times of the chunks.
+     * @param chunkStorageIndex The index in {@code chunkStorage} of the first chunk.
+     * @param chunkCount The number of chunks.
+     */
+    public StreamElement(String baseUri, String chunkTemplate, int type, String subType,
+        long timescale, String name, int maxWidth, int maxHeight, int displayWidth,
+        int displayHeight, String language, Format[] formats, ChunkStorage chunkStorage,
+        int chunkStorageIndex, int chunkCount, long lastChunkDuration) {
+      Assertions.checkArgument(chunkStorageIndex + chunkCount <= chunkStorage.size);
       this.baseUri = baseUri;
       this.chunkTemplate = chunkTemplate;
       this.type = type;
@@ -166,12 +312,13 @@ public class SsManifest {
       this.displayHeight = displayHeight;
       this.language = language;
       this.formats = formats;
-      this.chunkCount = chunkStartTimes.size();
-      this.chunkStartTimes = chunkStartTimes;
+      this.chunkCount = chunkCount;
+      this.chunkStorage = chunkStorage;
+      this.chunkStorageIndex = chunkStorageIndex;
+      chunkStartTimes = chunkStorage.startTimes;
+      chunkStartTimesUs = chunkStorage.startTimesUs;
       lastChunkDurationUs =
           Util.scaleLargeTimestamp(lastChunkDuration, C.MICROS_PER_SECOND, timescale);
-      chunkStartTimesUs =
-          Util.scaleLargeTimestamps(chunkStartTimes, C.MICROS_PER_SECOND, timescale);
     }
 
     /**
@@ -181,7 +328,12 @@ public class SsManifest {
      * @return The index of the corresponding chunk.
      */
     public int getChunkIndex(long timeUs) {
-      return Util.binarySearchFloor(chunkStartTimesUs, timeUs, true, true);
+      int index = Arrays.binarySearch(chunkStartTimesUs, chunkStorageIndex,
+          chunkStorageIndex + chunkCount, timeUs);
+      if (index < 0) {
+        index = -(index + 2);
+      }
+      return Math.max(0, index - chunkStorageIndex);
     }
 
     /**
@@ -191,7 +343,7 @@ public class SsManifest {
      * @return The start time of the chunk, in microseconds.
      */
     public long getStartTimeUs(int chunkIndex) {
-      return chunkStartTimesUs[chunkIndex];
+      return chunkStartTimesUs[chunkStorageIndex + chunkIndex];
     }
 
     /**
@@ -202,7 +354,26 @@ public class SsManifest {
      */
     public long getChunkDurationUs(int chunkIndex) {
       return (chunkIndex == chunkCount - 1) ? lastChunkDurationUs
-          : chunkStartTimesUs[chunkIndex + 1] - chunkStartTimesUs[chunkIndex];
+          : getStartTimeUs(chunkIndex + 1) - getStartTimeUs(chunkIndex);
+    }
+
+    /**
+     * Returns the number of chunks by which the first chunk of this element follows the first
+     * chunk of an element from an earlier manifest, if the two elements share a chunk index space.
+     * This is the case if their storage was derived from the same {@link ChunkStorage}, as for
+     * successive manifests parsed by an {@link IncrementalSsManifestParser}.
+     *
+     * @param previous An element from an earlier manifest.
+     * @return The number of chunks by which the first chunk of this element follows the first
+     *     chunk of {@code previous}, or {@link C#INDEX_UNSET} if the two elements do not share a
+     *     chunk index space.
+     */
+    public int getChunkIndexOffset(StreamElement previous) {
+      if (chunkStorage.lineage != previous.chunkStorage.lineage) {
+        return C.INDEX_UNSET;
+      }
+      return (int) ((chunkStorage.firstChunkIndex + chunkStorageIndex)
+          - (previous.chunkStorage.firstChunkIndex + previous.chunkStorageIndex));
     }
 
     /**
@@ -214,14 +385,22 @@ public class SsManifest {
      */
     public Uri buildRequestUri(int track, int chunkIndex) {
       Assertions.checkState(formats != null);
-      Assertions.checkState(chunkStartTimes != null);
-      Assertions.checkState(chunkIndex < chunkStartTimes.size());
+      Assertions.checkState(chunkIndex < chunkCount);
       String chunkUrl = chunkTemplate
           .replace(URL_PLACEHOLDER_BITRATE, Integer.toString(formats[track].bitrate))
-          .replace(URL_PLACEHOLDER_START_TIME, chunkStartTimes.get(chunkIndex).toString());
+          .replace(URL_PLACEHOLDER_START_TIME,
+              Long.toString(chunkStartTimes[chunkStorageIndex + chunkIndex]));
       return UriUtil.resolveToUri(baseUri, chunkUrl);
     }
 
+    private static long[] toArray(List<Long> values) {
+      long[] array = new long[values.size()];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = values.get(i);
+      }
+      return array;
+    }
+
   }
 
 }
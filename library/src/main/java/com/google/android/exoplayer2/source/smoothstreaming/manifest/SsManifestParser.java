@@ -25,6 +25,7 @@ import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.DrmInitData.SchemeData;
 import com.google.android.exoplayer2.extractor.mp4.PsshAtomUtil;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.ChunkStorage;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.ProtectionElement;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.StreamElement;
 import com.google.android.exoplayer2.upstream.ParsingLoadable;
@@ -35,6 +36,7 @@ import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -67,13 +69,32 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
       XmlPullParser xmlParser = xmlParserFactory.newPullParser();
       xmlParser.setInput(inputStream, null);
       SmoothStreamingMediaParser smoothStreamingMediaParser =
-          new SmoothStreamingMediaParser(null, uri.toString());
+          new SmoothStreamingMediaParser(null, uri.toString(), this);
       return (SsManifest) smoothStreamingMediaParser.parse(xmlParser);
     } catch (XmlPullParserException e) {
       throw new ParserException(e);
     }
   }
 
+  /**
+   * Builds a {@link StreamElement} from a parsed StreamIndex element.
+   *
+   * @param chunkStartTimes The parsed chunk start times, in units of the timescale. Only the
+   *     first {@code chunkCount} entries are valid. The array is not retained.
+   * @param chunkCount The number of parsed chunks.
+   * @param lastChunkDuration The duration of the last chunk, in units of the timescale.
+   * @return The built {@link StreamElement}.
+   */
+  protected StreamElement buildStreamElement(String baseUri, String chunkTemplate, int type,
+      String subType, long timescale, String name, int maxWidth, int maxHeight, int displayWidth,
+      int displayHeight, String language, Format[] formats, long[] chunkStartTimes, int chunkCount,
+      long lastChunkDuration) {
+    ChunkStorage chunkStorage = new ChunkStorage(timescale, chunkStartTimes, chunkCount);
+    return new StreamElement(baseUri, chunkTemplate, type, subType, timescale, name, maxWidth,
+        maxHeight, displayWidth, displayHeight, language, formats, chunkStorage, 0, chunkCount,
+        lastChunkDuration);
+  }
+
   /**
    * Thrown if a required field is missing.
    */
@@ -201,6 +222,13 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
       return parent == null ? null : parent.getNormalizedAttribute(key);
     }
 
+    /**
+     * Returns the {@link SsManifestParser} on whose behalf this {@link ElementParser} is parsing.
+     */
+    protected SsManifestParser getManifestParser() {
+      return parent.getManifestParser();
+    }
+
     /**
      * Whether this {@link ElementParser} parses a child element inline.
      *
@@ -330,6 +358,7 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
     private static final String KEY_LOOKAHEAD_COUNT = "LookaheadCount";
     private static final String KEY_IS_LIVE = "IsLive";
 
+    private final SsManifestParser manifestParser;
     private final List<StreamElement> streamElements;
 
     private int majorVersion;
@@ -341,8 +370,10 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
     private boolean isLive;
     private ProtectionElement protectionElement;
 
-    public SmoothStreamingMediaParser(ElementParser parent, String baseUri) {
+    public SmoothStreamingMediaParser(ElementParser parent, String baseUri,
+        SsManifestParser manifestParser) {
       super(parent, baseUri, TAG);
+      this.manifestParser = manifestParser;
       lookAheadCount = SsManifest.UNSET_LOOKAHEAD;
       protectionElement = null;
       streamElements = new LinkedList<>();
@@ -360,6 +391,11 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
       putNormalizedAttribute(KEY_TIME_SCALE, timescale);
     }
 
+    @Override
+    protected SsManifestParser getManifestParser() {
+      return manifestParser;
+    }
+
     @Override
     public void addChild(Object child) {
       if (child instanceof StreamElement) {
@@ -469,6 +505,8 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
     private static final String KEY_FRAGMENT_START_TIME = "t";
     private static final String KEY_FRAGMENT_REPEAT_COUNT = "r";
 
+    private static final int INITIAL_CHUNK_CAPACITY = 64;
+
     private final String baseUri;
     private final List<Format> formats;
 
@@ -482,7 +520,8 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
     private int displayWidth;
     private int displayHeight;
     private String language;
-    private ArrayList<Long> startTimes;
+    private long[] startTimes;
+    private int chunkCount;
 
     private long lastChunkDuration;
 
@@ -507,22 +546,20 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
     }
 
     private void parseStreamFragmentStartTag(XmlPullParser parser) throws ParserException {
-      int chunkIndex = startTimes.size();
       long startTime = parseLong(parser, KEY_FRAGMENT_START_TIME, C.TIME_UNSET);
       if (startTime == C.TIME_UNSET) {
-        if (chunkIndex == 0) {
+        if (chunkCount == 0) {
           // Assume the track starts at t = 0.
           startTime = 0;
         } else if (lastChunkDuration != C.INDEX_UNSET) {
           // Infer the start time from the previous chunk's start time and duration.
-          startTime = startTimes.get(chunkIndex - 1) + lastChunkDuration;
+          startTime = startTimes[chunkCount - 1] + lastChunkDuration;
         } else {
           // We don't have the start time, and we're unable to infer it.
           throw new ParserException("Unable to infer start time");
         }
       }
-      chunkIndex++;
-      startTimes.add(startTime);
+      addStartTime(startTime);
       lastChunkDuration = parseLong(parser, KEY_FRAGMENT_DURATION, C.TIME_UNSET);
       // Handle repeated chunks.
       long repeatCount = parseLong(parser, KEY_FRAGMENT_REPEAT_COUNT, 1L);
@@ -530,9 +567,15 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
         throw new ParserException("Repeated chunk with unspecified duration");
       }
       for (int i = 1; i < repeatCount; i++) {
-        chunkIndex++;
-        startTimes.add(startTime + (lastChunkDuration * i));
+        addStartTime(startTime + (lastChunkDuration * i));
+      }
+    }
+
+    private void addStartTime(long startTime) {
+      if (chunkCount == startTimes.length) {
+        startTimes = Arrays.copyOf(startTimes, chunkCount * 2);
       }
+      startTimes[chunkCount++] = startTime;
     }
 
     private void parseStreamElementStartTag(XmlPullParser parser) throws ParserException {
@@ -555,7 +598,8 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
       if (timescale == -1) {
         timescale = (Long) getNormalizedAttribute(KEY_TIME_SCALE);
       }
-      startTimes = new ArrayList<>();
+      startTimes = new long[INITIAL_CHUNK_CAPACITY];
+      chunkCount = 0;
     }
 
     private int parseType(XmlPullParser parser) throws ParserException {
@@ -585,8 +629,9 @@ public class SsManifestParser implements ParsingLoadable.Parser<SsManifest> {
     public Object build() {
       Format[] formatArray = new Format[formats.size()];
       formats.toArray(formatArray);
-      return new StreamElement(baseUri, url, type, subType, timescale, name, maxWidth, maxHeight,
-          displayWidth, displayHeight, language, formatArray, startTimes, lastChunkDuration);
+      return getManifestParser().buildStreamElement(baseUri, url, type, subType, timescale, name,
+          maxWidth, maxHeight, displayWidth, displayHeight, language, formatArray, startTimes,
+          chunkCount, lastChunkDuration);
     }
 
   }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.smoothstreaming.offline;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.offline.SegmentDownloader;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest.StreamElement;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downloads all of the tracks of a SmoothStreaming stream into a {@link Cache}, for offline
+ * playback.
+ */
+public final class SsDownloader extends SegmentDownloader<SsManifest> {
+
+  /**
+   * @param manifestUri The {@link Uri} of the manifest to be downloaded. "Manifest" is appended
+   *     to the uri if it's not already the last path segment, as for
+   *     {@link com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource}.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   */
+  public SsDownloader(Uri manifestUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory) {
+    this(manifestUri, cache, upstreamDataSourceFactory, DEFAULT_MAX_PARALLEL_DOWNLOADS);
+  }
+
+  /**
+   * @param manifestUri The {@link Uri} of the manifest to be downloaded. "Manifest" is appended
+   *     to the uri if it's not already the last path segment, as for
+   *     {@link com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource}.
+   * @param cache The {@link Cache} into which the content is downloaded.
+   * @param upstreamDataSourceFactory A {@link DataSource.Factory} for the upstream
+   *     {@link DataSource}s from which content is downloaded.
+   * @param maxParallelDownloads The maximum number of segments downloaded in parallel.
+   */
+  public SsDownloader(Uri manifestUri, Cache cache,
+      DataSource.Factory upstreamDataSourceFactory, int maxParallelDownloads) {
+    super(Util.toLowerInvariant(manifestUri.getLastPathSegment()).equals("manifest")
+        ? manifestUri : Uri.withAppendedPath(manifestUri, "Manifest"), cache,
+        upstreamDataSourceFactory, maxParallelDownloads);
+  }
+
+  @Override
+  protected SsManifest getManifest(DataSource dataSource, Uri uri)
+      throws IOException, InterruptedException {
+    return load(dataSource, uri, new SsManifestParser());
+  }
+
+  @Override
+  protected List<Segment> getSegments(DataSource dataSource, SsManifest manifest) {
+    ArrayList<Segment> segments = new ArrayList<>();
+    for (StreamElement streamElement : manifest.streamElements) {
+      for (int track = 0; track < streamElement.formats.length; track++) {
+        for (int chunk = 0; chunk < streamElement.chunkCount; chunk++) {
+          segments.add(new Segment(streamElement.getStartTimeUs(chunk),
+              new DataSpec(streamElement.buildRequestUri(track, chunk), 0, C.LENGTH_UNSET, null)));
+        }
+      }
+    }
+    return segments;
+  }
+
+}
@@ -66,6 +66,7 @@ public final class TextRenderer extends BaseRenderer implements Callback {
   private SubtitleOutputBuffer subtitle;
   private SubtitleOutputBuffer nextSubtitle;
   private int nextSubtitleEventIndex;
+  private boolean waitingForDecoder;
 
   /**
    * @param output The output.
@@ -125,6 +126,7 @@ public final class TextRenderer extends BaseRenderer implements Callback {
       nextSubtitle = null;
     }
     nextInputBuffer = null;
+    waitingForDecoder = false;
     clearOutput();
     decoder.flush();
   }
@@ -139,6 +141,9 @@ public final class TextRenderer extends BaseRenderer implements Callback {
       decoder.setPositionUs(positionUs);
       try {
         nextSubtitle = decoder.dequeueOutputBuffer();
+        if (nextSubtitle != null) {
+          waitingForDecoder = false;
+        }
       } catch (SubtitleDecoderException e) {
         throw ExoPlaybackException.createForRenderer(e, getIndex());
       }
@@ -203,6 +208,7 @@ public final class TextRenderer extends BaseRenderer implements Callback {
           }
           decoder.queueInputBuffer(nextInputBuffer);
           nextInputBuffer = null;
+          waitingForDecoder = true;
         } else if (result == C.RESULT_NOTHING_READ) {
           break;
         }
@@ -229,6 +235,24 @@ public final class TextRenderer extends BaseRenderer implements Callback {
     super.onDisabled();
   }
 
+  @Override
+  public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+    if (outputStreamEnded) {
+      return Long.MAX_VALUE;
+    } else if (nextSubtitle == null && waitingForDecoder) {
+      // The decoder runs on its own thread, so poll for its output.
+      return C.TIME_UNSET;
+    } else if (getState() != STATE_STARTED) {
+      return Long.MAX_VALUE;
+    }
+    long nextEventTimeUs = subtitle != null ? getNextEventTime() : Long.MAX_VALUE;
+    if (nextSubtitle != null) {
+      nextEventTimeUs = Math.min(nextEventTimeUs, nextSubtitle.timeUs);
+    }
+    return nextEventTimeUs == Long.MAX_VALUE ? Long.MAX_VALUE
+        : Math.max(0, nextEventTimeUs - positionUs);
+  }
+
   @Override
   public boolean isEnded() {
     return outputStreamEnded;
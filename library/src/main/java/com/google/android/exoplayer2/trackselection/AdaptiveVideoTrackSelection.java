@@ -15,12 +15,13 @@
  */
 package com.google.android.exoplayer2.trackselection;
 
-import android.os.SystemClock;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.SystemClock;
 import java.util.List;
 
 /**
@@ -94,6 +95,7 @@ public class AdaptiveVideoTrackSelection extends BaseTrackSelection {
   public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
 
   private final BandwidthMeter bandwidthMeter;
+  private final Clock clock;
   private final int maxInitialBitrate;
   private final long minDurationForQualityIncreaseUs;
   private final long maxDurationForQualityDecreaseUs;
@@ -140,8 +142,38 @@ public class AdaptiveVideoTrackSelection extends BaseTrackSelection {
       int maxInitialBitrate, long minDurationForQualityIncreaseMs,
       long maxDurationForQualityDecreaseMs, long minDurationToRetainAfterDiscardMs,
       float bandwidthFraction) {
+    this(group, tracks, bandwidthMeter, maxInitialBitrate, minDurationForQualityIncreaseMs,
+        maxDurationForQualityDecreaseMs, minDurationToRetainAfterDiscardMs, bandwidthFraction,
+        new SystemClock());
+  }
+
+  /**
+   * @param group The {@link TrackGroup}. Must not be null.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     null or empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when a
+   *     bandwidth estimate is unavailable.
+   * @param minDurationForQualityIncreaseMs The minimum duration of buffered data required for the
+   *     selected track to switch to one of higher quality.
+   * @param maxDurationForQualityDecreaseMs The maximum duration of buffered data required for the
+   *     selected track to switch to one of lower quality.
+   * @param minDurationToRetainAfterDiscardMs When switching to a track of significantly higher
+   *     quality, the selection may indicate that media already buffered at the lower quality can
+   *     be discarded to speed up the switch. This is the minimum duration of media that must be
+   *     retained at the lower quality.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use. Setting to a value less than 1 is recommended to account
+   *     for inaccuracies in the bandwidth estimator.
+   * @param clock The {@link Clock} used to determine whether tracks are blacklisted.
+   */
+  public AdaptiveVideoTrackSelection(TrackGroup group, int[] tracks, BandwidthMeter bandwidthMeter,
+      int maxInitialBitrate, long minDurationForQualityIncreaseMs,
+      long maxDurationForQualityDecreaseMs, long minDurationToRetainAfterDiscardMs,
+      float bandwidthFraction, Clock clock) {
     super(group, tracks);
     this.bandwidthMeter = bandwidthMeter;
+    this.clock = clock;
     this.maxInitialBitrate = maxInitialBitrate;
     this.minDurationForQualityIncreaseUs = minDurationForQualityIncreaseMs * 1000L;
     this.maxDurationForQualityDecreaseUs = maxDurationForQualityDecreaseMs * 1000L;
@@ -153,7 +185,7 @@ public class AdaptiveVideoTrackSelection extends BaseTrackSelection {
 
   @Override
   public void updateSelectedTrack(long bufferedDurationUs) {
-    long nowMs = SystemClock.elapsedRealtime();
+    long nowMs = clock.elapsedRealtime();
     // Get the current and ideal selections.
     int currentSelectedIndex = selectedIndex;
     Format currentFormat = getSelectedFormat();
@@ -206,7 +238,7 @@ public class AdaptiveVideoTrackSelection extends BaseTrackSelection {
     if (bufferedDurationUs < minDurationToRetainAfterDiscardUs) {
       return queueSize;
     }
-    int idealSelectedIndex = determineIdealSelectedIndex(SystemClock.elapsedRealtime());
+    int idealSelectedIndex = determineIdealSelectedIndex(clock.elapsedRealtime());
     Format idealFormat = getFormat(idealSelectedIndex);
     // Discard from the first SD chunk beyond minDurationToRetainAfterDiscardUs whose resolution and
     // bitrate are both lower than the ideal track.
@@ -226,7 +258,7 @@ public class AdaptiveVideoTrackSelection extends BaseTrackSelection {
   /**
    * Computes the ideal selected index ignoring buffer health.
    *
-   * @param nowMs The current time in the timebase of {@link SystemClock#elapsedRealtime()}, or
+   * @param nowMs The current time in the timebase of {@link Clock#elapsedRealtime()}, or
    *     {@link Long#MIN_VALUE} to ignore blacklisting.
    */
   private int determineIdealSelectedIndex(long nowMs) {
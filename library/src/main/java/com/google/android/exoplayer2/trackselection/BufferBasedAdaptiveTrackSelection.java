@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.SystemClock;
+import java.util.List;
+
+/**
+ * A hybrid buffer and bandwidth based adaptive {@link TrackSelection}, whose selected track is
+ * chosen primarily from the duration of buffered media.
+ * <p>
+ * Whilst the buffer is below {@code minBufferMs}, such as during startup and after a rebuffer, the
+ * selection switches down if the current track does not fit within the available bandwidth, but
+ * never switches up. Above this level the selection follows the BOLA utility rule, moving in
+ * log-bitrate from the lowest quality at {@code minBufferMs} to the highest at one chunk duration
+ * below {@code maxBufferMs}, which is the highest buffer level at which another chunk can be
+ * loaded. Two safeguards are applied on top of BOLA:
+ * <ul>
+ *   <li>Switches up are limited to the quality sustainable by the available bandwidth, which
+ *   prevents oscillation when the buffer hovers around a switching threshold.</li>
+ *   <li>The quality is stepped down if downloading the next chunk at the available bandwidth would
+ *   take longer than the duration of media buffered, which would otherwise cause a rebuffer when
+ *   the bandwidth drops suddenly.</li>
+ * </ul>
+ * The chunk duration is taken from the source via {@link #setChunkDurationUs(long)}, or is
+ * {@code defaultChunkDurationMs} until a chunk has been queued.
+ */
+public class BufferBasedAdaptiveTrackSelection extends BaseTrackSelection
+    implements TrackSelection.ChunkDurationAware {
+
+  /**
+   * Factory for {@link BufferBasedAdaptiveTrackSelection} instances.
+   */
+  public static final class Factory implements TrackSelection.Factory {
+
+    private final BandwidthMeter bandwidthMeter;
+    private final int maxInitialBitrate;
+    private final int minBufferMs;
+    private final int maxBufferMs;
+    private final int defaultChunkDurationMs;
+    private final float bandwidthFraction;
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     */
+    public Factory(BandwidthMeter bandwidthMeter) {
+      this(bandwidthMeter, DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_MIN_BUFFER_MS,
+          DEFAULT_MAX_BUFFER_MS, DEFAULT_CHUNK_DURATION_MS, DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed
+     *     when a bandwidth estimate is unavailable.
+     * @param minBufferMs The duration of buffered media below which the selection is based on the
+     *     available bandwidth, and at which the buffer based selection picks the lowest quality.
+     * @param maxBufferMs The duration of buffered media at which the buffer based selection picks
+     *     the highest quality. Should not exceed the maximum buffer duration of the
+     *     {@link com.google.android.exoplayer2.LoadControl}.
+     * @param defaultChunkDurationMs The chunk duration to assume until a chunk has been queued.
+     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+     *     consider available for use. Setting to a value less than 1 is recommended to account
+     *     for inaccuracies in the bandwidth estimator.
+     */
+    public Factory(BandwidthMeter bandwidthMeter, int maxInitialBitrate, int minBufferMs,
+        int maxBufferMs, int defaultChunkDurationMs, float bandwidthFraction) {
+      this.bandwidthMeter = bandwidthMeter;
+      this.maxInitialBitrate = maxInitialBitrate;
+      this.minBufferMs = minBufferMs;
+      this.maxBufferMs = maxBufferMs;
+      this.defaultChunkDurationMs = defaultChunkDurationMs;
+      this.bandwidthFraction = bandwidthFraction;
+    }
+
+    @Override
+    public BufferBasedAdaptiveTrackSelection createTrackSelection(TrackGroup group,
+        int... tracks) {
+      return new BufferBasedAdaptiveTrackSelection(group, tracks, bandwidthMeter,
+          maxInitialBitrate, minBufferMs, maxBufferMs, defaultChunkDurationMs, bandwidthFraction);
+    }
+
+  }
+
+  public static final int DEFAULT_MAX_INITIAL_BITRATE = 800000;
+  public static final int DEFAULT_MIN_BUFFER_MS = 10000;
+  public static final int DEFAULT_MAX_BUFFER_MS = 30000;
+  public static final int DEFAULT_CHUNK_DURATION_MS = 5000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final Clock clock;
+  private final int maxInitialBitrate;
+  private final long minBufferUs;
+  private final long maxBufferUs;
+  private final float bandwidthFraction;
+  /**
+   * The utility of each track, in the same order as the selection. The lowest quality track has a
+   * utility of 1.
+   */
+  private final double[] utilities;
+
+  private long chunkDurationUs;
+  /**
+   * The BOLA control parameter trading off buffer occupancy against utility, in microseconds.
+   */
+  private double bolaVUs;
+  /**
+   * The BOLA utility offset, chosen so that the lowest quality is selected at minBufferUs.
+   */
+  private double bolaGamma;
+  private int selectedIndex;
+  private int reason;
+
+  /**
+   * @param group The {@link TrackGroup}. Must not be null.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     null or empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   */
+  public BufferBasedAdaptiveTrackSelection(TrackGroup group, int[] tracks,
+      BandwidthMeter bandwidthMeter) {
+    this(group, tracks, bandwidthMeter, DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_MIN_BUFFER_MS,
+        DEFAULT_MAX_BUFFER_MS, DEFAULT_CHUNK_DURATION_MS, DEFAULT_BANDWIDTH_FRACTION);
+  }
+
+  /**
+   * @param group The {@link TrackGroup}. Must not be null.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     null or empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when a
+   *     bandwidth estimate is unavailable.
+   * @param minBufferMs The duration of buffered media below which the selection is based on the
+   *     available bandwidth, and at which the buffer based selection picks the lowest quality.
+   * @param maxBufferMs The duration of buffered media at which the buffer based selection picks
+   *     the highest quality. Must be greater than {@code minBufferMs}.
+   * @param defaultChunkDurationMs The chunk duration to assume until a chunk has been queued.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use. Setting to a value less than 1 is recommended to account
+   *     for inaccuracies in the bandwidth estimator.
+   */
+  public BufferBasedAdaptiveTrackSelection(TrackGroup group, int[] tracks,
+      BandwidthMeter bandwidthMeter, int maxInitialBitrate, long minBufferMs, long maxBufferMs,
+      long defaultChunkDurationMs, float bandwidthFraction) {
+    this(group, tracks, bandwidthMeter, maxInitialBitrate, minBufferMs, maxBufferMs,
+        defaultChunkDurationMs, bandwidthFraction, new SystemClock());
+  }
+
+  /**
+   * @param group The {@link TrackGroup}. Must not be null.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     null or empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when a
+   *     bandwidth estimate is unavailable.
+   * @param minBufferMs The duration of buffered media below which the selection is based on the
+   *     available bandwidth, and at which the buffer based selection picks the lowest quality.
+   * @param maxBufferMs The duration of buffered media at which the buffer based selection picks
+   *     the highest quality. Must be greater than {@code minBufferMs}.
+   * @param defaultChunkDurationMs The chunk duration to assume until a chunk has been queued.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use. Setting to a value less than 1 is recommended to account
+   *     for inaccuracies in the bandwidth estimator.
+   * @param clock The {@link Clock} used to determine whether tracks are blacklisted.
+   */
+  public BufferBasedAdaptiveTrackSelection(TrackGroup group, int[] tracks,
+      BandwidthMeter bandwidthMeter, int maxInitialBitrate, long minBufferMs, long maxBufferMs,
+      long defaultChunkDurationMs, float bandwidthFraction, Clock clock) {
+    super(group, tracks);
+    Assertions.checkArgument(minBufferMs > 0 && maxBufferMs > minBufferMs);
+    this.bandwidthMeter = bandwidthMeter;
+    this.clock = clock;
+    this.maxInitialBitrate = maxInitialBitrate;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.maxBufferUs = maxBufferMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+    utilities = new double[length];
+    int lowestBitrate = Math.max(1, getFormat(length - 1).bitrate);
+    for (int i = 0; i < length; i++) {
+      utilities[i] = Math.log((double) Math.max(1, getFormat(i).bitrate) / lowestBitrate) + 1;
+    }
+    setChunkDurationUs(defaultChunkDurationMs * 1000L);
+    selectedIndex = determineThroughputSelectedIndex(getEffectiveBitrate(), Long.MIN_VALUE);
+    reason = C.SELECTION_REASON_INITIAL;
+  }
+
+  @Override
+  public void updateSelectedTrack(long bufferedDurationUs) {
+    long nowMs = clock.elapsedRealtime();
+    int currentSelectedIndex = selectedIndex;
+    long effectiveBitrate = getEffectiveBitrate();
+    int throughputSelectedIndex = determineThroughputSelectedIndex(effectiveBitrate, nowMs);
+    if (bufferedDurationUs < minBufferUs) {
+      // Too little media is buffered to safely switch up, but switch down if the current track
+      // cannot be sustained.
+      selectedIndex = Math.max(throughputSelectedIndex, currentSelectedIndex);
+    } else {
+      selectedIndex = determineBufferSelectedIndex(bufferedDurationUs, nowMs);
+      if (selectedIndex < currentSelectedIndex) {
+        // Only switch up as far as the available bandwidth allows, if at all.
+        selectedIndex = Math.max(selectedIndex,
+            Math.min(throughputSelectedIndex, currentSelectedIndex));
+      }
+      if (bandwidthMeter.getBitrateEstimate() != BandwidthMeter.NO_ESTIMATE) {
+        selectedIndex = constrainToBufferedDuration(selectedIndex, bufferedDurationUs,
+            effectiveBitrate, nowMs);
+      }
+    }
+    if (isBlacklisted(selectedIndex, nowMs)) {
+      // The selection was constrained to a track that is blacklisted.
+      selectedIndex = throughputSelectedIndex;
+    }
+    // If we adapted, update the trigger.
+    if (selectedIndex != currentSelectedIndex) {
+      reason = C.SELECTION_REASON_ADAPTIVE;
+    }
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  public Object getSelectionData() {
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Buffered chunks are never discarded, since the buffer level is what drives selection of higher
+   * quality tracks. The duration of the last chunk in the queue is used as the chunk duration.
+   */
+  @Override
+  public int evaluateQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
+    if (!queue.isEmpty()) {
+      MediaChunk lastChunk = queue.get(queue.size() - 1);
+      if (lastChunk.endTimeUs > lastChunk.startTimeUs) {
+        setChunkDurationUs(lastChunk.endTimeUs - lastChunk.startTimeUs);
+      }
+    }
+    return queue.size();
+  }
+
+  // TrackSelection.ChunkDurationAware implementation.
+
+  @Override
+  public void setChunkDurationUs(long chunkDurationUs) {
+    if (chunkDurationUs <= 0 || chunkDurationUs == this.chunkDurationUs) {
+      return;
+    }
+    this.chunkDurationUs = chunkDurationUs;
+    // The highest utility is reached one chunk below maxBufferUs and the lowest at minBufferUs. If
+    // chunks are too long for this to be possible, the highest utility is reached at maxBufferUs.
+    long highestQualityBufferUs = maxBufferUs - chunkDurationUs;
+    if (highestQualityBufferUs <= minBufferUs) {
+      highestQualityBufferUs = maxBufferUs;
+    }
+    bolaGamma = (utilities[0] - 1) / ((double) highestQualityBufferUs / minBufferUs - 1);
+    bolaVUs = bolaGamma == 0 ? 0 : minBufferUs / bolaGamma;
+  }
+
+  private long getEffectiveBitrate() {
+    long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+    return bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+        ? maxInitialBitrate : (long) (bitrateEstimate * bandwidthFraction);
+  }
+
+  /**
+   * Computes the index of highest quality whose bitrate does not exceed the effective bitrate.
+   *
+   * @param effectiveBitrate The bitrate available for use, in bits per second.
+   * @param nowMs The current time in the timebase of {@link Clock#elapsedRealtime()}, or
+   *     {@link Long#MIN_VALUE} to ignore blacklisting.
+   */
+  private int determineThroughputSelectedIndex(long effectiveBitrate, long nowMs) {
+    int lowestBitrateNonBlacklistedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+        Format format = getFormat(i);
+        if (format.bitrate <= effectiveBitrate) {
+          return i;
+        } else {
+          lowestBitrateNonBlacklistedIndex = i;
+        }
+      }
+    }
+    return lowestBitrateNonBlacklistedIndex;
+  }
+
+  /**
+   * Computes the index maximizing the BOLA objective for the given buffer level, which is the
+   * utility gained per bit downloaded, offset by the buffer occupancy.
+   *
+   * @param bufferedDurationUs The duration of media currently buffered in microseconds.
+   * @param nowMs The current time in the timebase of {@link Clock#elapsedRealtime()}.
+   */
+  private int determineBufferSelectedIndex(long bufferedDurationUs, long nowMs) {
+    int bestIndex = C.INDEX_UNSET;
+    double bestScore = 0;
+    for (int i = 0; i < length; i++) {
+      if (isBlacklisted(i, nowMs)) {
+        continue;
+      }
+      double score = (bolaVUs * (utilities[i] + bolaGamma) - bufferedDurationUs)
+          / Math.max(1, getFormat(i).bitrate);
+      if (bestIndex == C.INDEX_UNSET || score > bestScore) {
+        bestIndex = i;
+        bestScore = score;
+      }
+    }
+    return bestIndex == C.INDEX_UNSET ? selectedIndex : bestIndex;
+  }
+
+  /**
+   * Steps down from the given index until the next chunk can be downloaded at the effective bitrate
+   * before the buffered media runs out, or until there are no lower quality tracks.
+   */
+  private int constrainToBufferedDuration(int index, long bufferedDurationUs,
+      long effectiveBitrate, long nowMs) {
+    int constrainedIndex = index;
+    for (int i = index; i < length; i++) {
+      if (isBlacklisted(i, nowMs)) {
+        continue;
+      }
+      constrainedIndex = i;
+      long downloadDurationUs = effectiveBitrate <= 0 ? Long.MAX_VALUE
+          : (long) ((double) chunkDurationUs * getFormat(i).bitrate / effectiveBitrate);
+      if (downloadDurationUs <= bufferedDurationUs) {
+        break;
+      }
+    }
+    return constrainedIndex;
+  }
+
+}
@@ -47,6 +47,23 @@ public interface TrackSelection {
 
   }
 
+  /**
+   * May be implemented by selections whose decisions depend on the duration of the media chunks
+   * being loaded. Sources that load media in discrete {@link MediaChunk}s pass the duration of the
+   * most recently queued chunk to such selections before calling
+   * {@link #updateSelectedTrack(long)}.
+   */
+  interface ChunkDurationAware {
+
+    /**
+     * Sets the duration of the most recently queued chunk.
+     *
+     * @param chunkDurationUs The duration of the chunk in microseconds.
+     */
+    void setChunkDurationUs(long chunkDurationUs);
+
+  }
+
   /**
    * Returns the {@link TrackGroup} to which the selected tracks belong.
    */
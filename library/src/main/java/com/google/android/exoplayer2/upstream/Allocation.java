@@ -15,8 +15,10 @@
  */
 package com.google.android.exoplayer2.upstream;
 
+import java.nio.ByteBuffer;
+
 /**
- * An allocation within a byte array.
+ * An allocation within a byte array, or within a direct {@link ByteBuffer}.
  * <p>
  * The allocation's length is obtained by calling {@link Allocator#getIndividualAllocationLength()}
  * on the {@link Allocator} from which it was obtained.
@@ -24,11 +26,22 @@ package com.google.android.exoplayer2.upstream;
 public final class Allocation {
 
   /**
-   * The array containing the allocated space. The allocated space might not be at the start of the
-   * array, and so {@link #translateOffset(int)} method must be used when indexing into it.
+   * The array containing the allocated space, or null if the allocation is backed by
+   * {@link #directData}. The allocated space might not be at the start of the array, and so
+   * {@link #translateOffset(int)} method must be used when indexing into it.
    */
   public final byte[] data;
 
+  /**
+   * The direct buffer containing the allocated space, or null if the allocation is backed by
+   * {@link #data}. The allocated space might not be at the start of the buffer, and so
+   * {@link #translateOffset(int)} method must be used when indexing into it.
+   * <p>
+   * The position and limit of the buffer may be modified only by the current holder of the
+   * allocation. Readers on other threads should operate on a {@link ByteBuffer#duplicate()}.
+   */
+  public final ByteBuffer directData;
+
   private final int offset;
 
   /**
@@ -37,14 +50,33 @@ public final class Allocation {
    */
   public Allocation(byte[] data, int offset) {
     this.data = data;
+    this.directData = null;
     this.offset = offset;
   }
 
   /**
-   * Translates a zero-based offset into the allocation to the corresponding {@link #data} offset.
+   * @param directData The direct buffer containing the allocated space.
+   * @param offset The offset of the allocated space within the buffer.
+   */
+  public Allocation(ByteBuffer directData, int offset) {
+    this.data = null;
+    this.directData = directData;
+    this.offset = offset;
+  }
+
+  /**
+   * Returns whether the allocation is backed by {@link #directData}.
+   */
+  public boolean isDirect() {
+    return directData != null;
+  }
+
+  /**
+   * Translates a zero-based offset into the allocation to the corresponding {@link #data} or
+   * {@link #directData} offset.
    *
    * @param offset The zero-based offset to translate.
-   * @return The corresponding offset in {@link #data}.
+   * @return The corresponding offset in {@link #data} or {@link #directData}.
    */
   public int translateOffset(int offset) {
     return this.offset + offset;
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.C;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DataSource} that can also read into {@link ByteBuffer}s, without copying data through
+ * an intermediate array.
+ */
+public interface ByteBufferDataSource extends DataSource {
+
+  /**
+   * Reads up to {@code length} bytes of data into a {@link ByteBuffer}, starting at its position.
+   * The position of the buffer is advanced by the number of bytes read.
+   * <p>
+   * This method blocks until at least one byte of data can be read, the end of the opened range is
+   * detected, or an exception is thrown.
+   *
+   * @param target The buffer into which the read data should be stored. Must have at least
+   *     {@code length} bytes remaining.
+   * @param length The maximum number of bytes to read.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT} if no data is available
+   *     because the end of the opened range has been reached.
+   * @throws IOException If an error occurs reading from the source.
+   */
+  int read(ByteBuffer target, int length) throws IOException;
+
+}
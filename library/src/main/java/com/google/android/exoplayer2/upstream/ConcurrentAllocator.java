@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link PoolingAllocator} that can be used concurrently from multiple threads without locking.
+ * <p>
+ * Released {@link Allocation}s are cached in small per-thread magazines. When a thread's magazine
+ * becomes full it's moved as a whole to a lock-free global depot, from which threads whose
+ * magazines are empty can refill. Since allocations are typically obtained on a loading thread and
+ * released on the playback thread, they tend to pass between threads a magazine at a time rather
+ * than each call contending on a shared monitor, as is the case for {@link DefaultAllocator}.
+ * <p>
+ * Allocations are pooled in a number of size classes, each half the length of the previous one.
+ * {@link #allocate()} returns an allocation from the largest size class, whose length is
+ * {@link #getIndividualAllocationLength()}. Allocations from smaller size classes can be obtained
+ * by calling {@link #allocate(int)}.
+ * <p>
+ * Allocations can optionally be backed by direct {@link ByteBuffer}s rather than byte arrays, in
+ * which case the media they hold does not count towards the Java heap, and can be copied directly
+ * into codec and native decoder input buffers. See {@link Allocation#directData}.
+ * <p>
+ * Note: Up to {@code magazineSize} allocations per size class may be cached by each thread that
+ * has used the allocator. Such allocations cannot be discarded by {@link #trim()} unless it's
+ * called from the thread that holds them.
+ */
+public final class ConcurrentAllocator implements PoolingAllocator {
+
+  /**
+   * The default number of size classes.
+   */
+  public static final int DEFAULT_SIZE_CLASS_COUNT = 4;
+
+  /**
+   * The default number of allocations that each thread caches per size class.
+   */
+  public static final int DEFAULT_MAGAZINE_SIZE = 16;
+
+  private final int individualAllocationSize;
+  private final int magazineSize;
+  private final boolean useDirectBuffers;
+  private final Depot[] depots;
+  private final ThreadLocal<Magazine[]> magazines;
+  private final AtomicInteger totalBytesAllocated;
+  private final AtomicInteger totalBytesPooled;
+
+  private volatile int targetBufferSize;
+
+  /**
+   * Constructs an instance with {@link #DEFAULT_SIZE_CLASS_COUNT} size classes and a magazine size
+   * of {@link #DEFAULT_MAGAZINE_SIZE}.
+   *
+   * @param individualAllocationSize The length of each {@link Allocation} in the largest size
+   *     class.
+   */
+  public ConcurrentAllocator(int individualAllocationSize) {
+    this(individualAllocationSize, DEFAULT_SIZE_CLASS_COUNT, DEFAULT_MAGAZINE_SIZE);
+  }
+
+  /**
+   * @param individualAllocationSize The length of each {@link Allocation} in the largest size
+   *     class.
+   * @param sizeClassCount The number of size classes. Each size class holds allocations of half
+   *     the length of the previous one, and so {@code individualAllocationSize >> (sizeClassCount
+   *     - 1)} must be greater than zero.
+   * @param magazineSize The number of allocations that each thread caches per size class.
+   */
+  public ConcurrentAllocator(int individualAllocationSize, int sizeClassCount, int magazineSize) {
+    this(individualAllocationSize, sizeClassCount, magazineSize, false);
+  }
+
+  /**
+   * @param individualAllocationSize The length of each {@link Allocation} in the largest size
+   *     class.
+   * @param sizeClassCount The number of size classes. Each size class holds allocations of half
+   *     the length of the previous one, and so {@code individualAllocationSize >> (sizeClassCount
+   *     - 1)} must be greater than zero.
+   * @param magazineSize The number of allocations that each thread caches per size class.
+   * @param useDirectBuffers Whether allocations should be backed by direct {@link ByteBuffer}s.
+   */
+  public ConcurrentAllocator(int individualAllocationSize, int sizeClassCount,
+      final int magazineSize, boolean useDirectBuffers) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    Assertions.checkArgument(sizeClassCount > 0 && sizeClassCount < 32
+        && (individualAllocationSize >> (sizeClassCount - 1)) > 0);
+    Assertions.checkArgument(magazineSize > 0);
+    this.individualAllocationSize = individualAllocationSize;
+    this.magazineSize = magazineSize;
+    this.useDirectBuffers = useDirectBuffers;
+    depots = new Depot[sizeClassCount];
+    for (int i = 0; i < sizeClassCount; i++) {
+      depots[i] = new Depot(individualAllocationSize >> i);
+    }
+    magazines = new ThreadLocal<Magazine[]>() {
+      @Override
+      protected Magazine[] initialValue() {
+        Magazine[] threadMagazines = new Magazine[depots.length];
+        for (int i = 0; i < threadMagazines.length; i++) {
+          threadMagazines[i] = new Magazine(magazineSize);
+        }
+        return threadMagazines;
+      }
+    };
+    totalBytesAllocated = new AtomicInteger();
+    totalBytesPooled = new AtomicInteger();
+  }
+
+  @Override
+  public void setTargetBufferSize(int targetBufferSize) {
+    boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+    this.targetBufferSize = targetBufferSize;
+    if (targetBufferSizeReduced) {
+      trim();
+    }
+  }
+
+  @Override
+  public Allocation allocate() {
+    return allocate(individualAllocationSize);
+  }
+
+  /**
+   * Obtains an {@link Allocation} from the smallest size class whose allocations are at least
+   * {@code minimumLength} bytes long.
+   * <p>
+   * The length of the returned allocation is the length of its {@link Allocation#data}, which may
+   * exceed {@code minimumLength}.
+   *
+   * @param minimumLength The minimum required length of the allocation. Must not exceed
+   *     {@link #getIndividualAllocationLength()}.
+   * @return The {@link Allocation}.
+   */
+  public Allocation allocate(int minimumLength) {
+    Assertions.checkArgument(minimumLength <= individualAllocationSize);
+    int sizeClass = depots.length - 1;
+    while (sizeClass > 0 && depots[sizeClass].allocationLength < minimumLength) {
+      sizeClass--;
+    }
+    Depot depot = depots[sizeClass];
+    Magazine magazine = magazines.get()[sizeClass];
+    if (magazine.count == 0) {
+      // Try and refill the magazine from the depot.
+      Node node = depot.pop();
+      if (node != null) {
+        totalBytesPooled.addAndGet(-node.count * depot.allocationLength);
+        magazine.allocations = node.allocations;
+        magazine.count = node.count;
+      }
+    }
+    Allocation allocation;
+    if (magazine.count > 0) {
+      allocation = magazine.allocations[--magazine.count];
+      magazine.allocations[magazine.count] = null;
+    } else if (useDirectBuffers) {
+      allocation = new Allocation(ByteBuffer.allocateDirect(depot.allocationLength), 0);
+    } else {
+      allocation = new Allocation(new byte[depot.allocationLength], 0);
+    }
+    totalBytesAllocated.addAndGet(depot.allocationLength);
+    return allocation;
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    Magazine[] threadMagazines = magazines.get();
+    releaseInternal(allocation, threadMagazines);
+  }
+
+  @Override
+  public void release(Allocation[] allocations) {
+    Magazine[] threadMagazines = magazines.get();
+    for (Allocation allocation : allocations) {
+      releaseInternal(allocation, threadMagazines);
+    }
+  }
+
+  @Override
+  public void trim() {
+    // Move allocations cached by the calling thread into the depots, so that they can be discarded.
+    Magazine[] threadMagazines = magazines.get();
+    for (int i = 0; i < depots.length; i++) {
+      Magazine magazine = threadMagazines[i];
+      if (magazine.count > 0) {
+        flushMagazine(magazine, depots[i]);
+      }
+    }
+    int targetBytesPooled = Math.max(0, targetBufferSize - totalBytesAllocated.get());
+    // Discard from the largest size class first, since doing so frees the most memory per node.
+    for (int i = 0; i < depots.length && totalBytesPooled.get() > targetBytesPooled; i++) {
+      Depot depot = depots[i];
+      Node node;
+      while (totalBytesPooled.get() > targetBytesPooled && (node = depot.pop()) != null) {
+        int bytesPooled = totalBytesPooled.addAndGet(-node.count * depot.allocationLength);
+        int retainCount = Math.min(node.count,
+            Math.max(0, targetBytesPooled - bytesPooled) / depot.allocationLength);
+        if (retainCount > 0) {
+          // Discarding the whole node would take us below the target. Retain part of it.
+          Arrays.fill(node.allocations, retainCount, node.count, null);
+          depot.push(node.allocations, retainCount);
+          totalBytesPooled.addAndGet(retainCount * depot.allocationLength);
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return totalBytesAllocated.get();
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  /**
+   * Returns the number of bytes held by the global depot for reuse. Allocations cached by
+   * individual threads are not included.
+   */
+  public int getTotalBytesPooled() {
+    return totalBytesPooled.get();
+  }
+
+  private void releaseInternal(Allocation allocation, Magazine[] threadMagazines) {
+    int sizeClass = getSizeClass(allocation);
+    Depot depot = depots[sizeClass];
+    Magazine magazine = threadMagazines[sizeClass];
+    if (magazine.count == magazineSize) {
+      flushMagazine(magazine, depot);
+    }
+    magazine.allocations[magazine.count++] = allocation;
+    totalBytesAllocated.addAndGet(-depot.allocationLength);
+  }
+
+  private void flushMagazine(Magazine magazine, Depot depot) {
+    depot.push(magazine.allocations, magazine.count);
+    totalBytesPooled.addAndGet(magazine.count * depot.allocationLength);
+    // The depot now owns the array, so we need a new one.
+    magazine.allocations = new Allocation[magazineSize];
+    magazine.count = 0;
+  }
+
+  private int getSizeClass(Allocation allocation) {
+    // Weak sanity check that the allocation probably originated from this pool.
+    Assertions.checkArgument(allocation.isDirect() == useDirectBuffers);
+    int length = useDirectBuffers ? allocation.directData.capacity() : allocation.data.length;
+    for (int i = 0; i < depots.length; i++) {
+      if (depots[i].allocationLength == length) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * Allocations cached by a single thread for a single size class. Only ever accessed by the
+   * owning thread.
+   */
+  private static final class Magazine {
+
+    public Allocation[] allocations;
+    public int count;
+
+    public Magazine(int magazineSize) {
+      allocations = new Allocation[magazineSize];
+    }
+
+  }
+
+  /**
+   * A lock-free stack of magazine contents for a single size class.
+   * <p>
+   * A new {@link Node} is created for every push, and nodes are never reused after being popped.
+   * Hence the stack is not susceptible to the ABA problem.
+   */
+  private static final class Depot {
+
+    public final int allocationLength;
+
+    private final AtomicReference<Node> head;
+
+    public Depot(int allocationLength) {
+      this.allocationLength = allocationLength;
+      head = new AtomicReference<>();
+    }
+
+    public void push(Allocation[] allocations, int count) {
+      Node node = new Node(allocations, count);
+      do {
+        node.next = head.get();
+      } while (!head.compareAndSet(node.next, node));
+    }
+
+    public Node pop() {
+      Node node;
+      do {
+        node = head.get();
+        if (node == null) {
+          return null;
+        }
+      } while (!head.compareAndSet(node, node.next));
+      return node;
+    }
+
+  }
+
+  private static final class Node {
+
+    public final Allocation[] allocations;
+    public final int count;
+
+    public Node next;
+
+    public Node(Allocation[] allocations, int count) {
+      this.allocations = allocations;
+      this.count = count;
+    }
+
+  }
+
+}
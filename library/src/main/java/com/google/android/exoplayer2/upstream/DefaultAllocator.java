@@ -22,7 +22,7 @@ import java.util.Arrays;
 /**
  * Default implementation of {@link Allocator}.
  */
-public final class DefaultAllocator implements Allocator {
+public final class DefaultAllocator implements PoolingAllocator {
 
   private static final int AVAILABLE_EXTRA_CAPACITY = 100;
 
@@ -70,6 +70,7 @@ public final class DefaultAllocator implements Allocator {
     singleAllocationReleaseHolder = new Allocation[1];
   }
 
+  @Override
   public synchronized void setTargetBufferSize(int targetBufferSize) {
     boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
     this.targetBufferSize = targetBufferSize;
@@ -25,10 +25,15 @@ import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.TraceUtil;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 /**
  * Manages the background loading of {@link Loadable}s.
+ * <p>
+ * By default a {@link Loader} performs one load at a time. A {@link Loader} created with
+ * {@link #Loader(String, int)} can keep several loads in flight, each on its own thread.
  */
 public final class Loader implements LoaderErrorThrower {
 
@@ -131,22 +136,36 @@ public final class Loader implements LoaderErrorThrower {
   private static final int MSG_FATAL_ERROR = 4;
 
   private final ExecutorService downloadExecutorService;
+  private final int maxParallelLoads;
+  private final List<LoadTask<? extends Loadable>> currentTasks;
 
-  private LoadTask<? extends Loadable> currentTask;
   private IOException fatalError;
 
   /**
    * @param threadName A name for the loader's thread.
    */
   public Loader(String threadName) {
-    this.downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+    this(threadName, 1);
+  }
+
+  /**
+   * @param threadName A name for the loader's threads.
+   * @param maxParallelLoads The maximum number of loads that may be in progress at any one time.
+   */
+  public Loader(String threadName, int maxParallelLoads) {
+    Assertions.checkArgument(maxParallelLoads > 0);
+    this.maxParallelLoads = maxParallelLoads;
+    this.downloadExecutorService = maxParallelLoads == 1 ? Util.newSingleThreadExecutor(threadName)
+        : Util.newFixedThreadPool(threadName, maxParallelLoads);
+    currentTasks = new ArrayList<>(maxParallelLoads);
   }
 
   /**
    * Starts loading a {@link Loadable}.
    * <p>
    * The calling thread must be a {@link Looper} thread, which is the thread on which the
-   * {@link Callback} will be called.
+   * {@link Callback} will be called. This method should only be called if
+   * {@link #canStartLoading()} returns true.
    *
    * @param <T> The type of the loadable.
    * @param loadable The {@link Loadable} to load.
@@ -160,6 +179,7 @@ public final class Loader implements LoaderErrorThrower {
       int defaultMinRetryCount) {
     Looper looper = Looper.myLooper();
     Assertions.checkState(looper != null);
+    Assertions.checkState(canStartLoading());
     long startTimeMs = SystemClock.elapsedRealtime();
     new LoadTask<>(looper, loadable, callback, defaultMinRetryCount, startTimeMs).start(0);
     return startTimeMs;
@@ -169,14 +189,33 @@ public final class Loader implements LoaderErrorThrower {
    * Returns whether the {@link Loader} is currently loading a {@link Loadable}.
    */
   public boolean isLoading() {
-    return currentTask != null;
+    return !currentTasks.isEmpty();
+  }
+
+  /**
+   * Returns whether the {@link Loader} is able to start another load, which is the case if fewer
+   * than the maximum number of parallel loads are in progress.
+   */
+  public boolean canStartLoading() {
+    return currentTasks.size() < maxParallelLoads;
   }
 
   /**
-   * Cancels the current load. This method should only be called when a load is in progress.
+   * Returns the number of loads that are currently in progress, including those waiting to be
+   * retried.
+   */
+  public int getLoadingCount() {
+    return currentTasks.size();
+  }
+
+  /**
+   * Cancels all current loads. This method should only be called when a load is in progress.
    */
   public void cancelLoading() {
-    currentTask.cancel(false);
+    Assertions.checkState(isLoading());
+    for (LoadTask<? extends Loadable> task : new ArrayList<>(currentTasks)) {
+      task.cancel(false);
+    }
   }
 
   /**
@@ -195,8 +234,8 @@ public final class Loader implements LoaderErrorThrower {
    *     {@link Loadable#load()} is no longer running.
    */
   public void release(Runnable postLoadAction) {
-    if (currentTask != null) {
-      currentTask.cancel(true);
+    for (LoadTask<? extends Loadable> task : new ArrayList<>(currentTasks)) {
+      task.cancel(true);
     }
     if (postLoadAction != null) {
       downloadExecutorService.submit(postLoadAction);
@@ -215,9 +254,11 @@ public final class Loader implements LoaderErrorThrower {
   public void maybeThrowError(int minRetryCount) throws IOException {
     if (fatalError != null) {
       throw fatalError;
-    } else if (currentTask != null) {
-      currentTask.maybeThrowError(minRetryCount == Integer.MIN_VALUE
-          ? currentTask.defaultMinRetryCount : minRetryCount);
+    }
+    for (int i = 0; i < currentTasks.size(); i++) {
+      LoadTask<? extends Loadable> task = currentTasks.get(i);
+      task.maybeThrowError(minRetryCount == Integer.MIN_VALUE ? task.defaultMinRetryCount
+          : minRetryCount);
     }
   }
 
@@ -255,8 +296,7 @@ public final class Loader implements LoaderErrorThrower {
     }
 
     public void start(long delayMillis) {
-      Assertions.checkState(currentTask == null);
-      currentTask = this;
+      currentTasks.add(this);
       if (delayMillis > 0) {
         sendEmptyMessageDelayed(MSG_START, delayMillis);
       } else {
@@ -369,11 +409,11 @@ public final class Loader implements LoaderErrorThrower {
 
     private void submitToExecutor() {
       currentError = null;
-      downloadExecutorService.submit(currentTask);
+      downloadExecutorService.submit(this);
     }
 
     private void finish() {
-      currentTask = null;
+      currentTasks.remove(this);
     }
 
     private long getRetryDelayMillis() {
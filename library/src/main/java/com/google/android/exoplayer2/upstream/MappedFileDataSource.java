@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link DataSource} for reading local files through memory mappings.
+ * <p>
+ * Reads are served directly from the mapped file, avoiding a system call and a copy through a
+ * kernel buffer per read. Reads into {@link ByteBuffer}s through {@link #read(ByteBuffer, int)}
+ * copy data from the mapping to the target without any intermediate array. Large ranges are mapped
+ * in windows of limited size, to avoid exhausting the address space of 32-bit processes.
+ * <p>
+ * The mappings are released by the garbage collector once the source is closed, rather than
+ * immediately. Hence address space and file handles may accumulate over long sessions, and this
+ * source should only be used where that's acceptable. It's not used by default for reading from a
+ * {@link com.google.android.exoplayer2.upstream.cache.Cache}, but can be passed to
+ * {@link com.google.android.exoplayer2.upstream.cache.CacheDataSource} for that purpose.
+ */
+public final class MappedFileDataSource implements ByteBufferDataSource {
+
+  /**
+   * The default maximum size of a single mapping.
+   */
+  public static final int DEFAULT_MAX_MAPPING_SIZE = 32 * 1024 * 1024;
+
+  private final TransferListener<? super MappedFileDataSource> listener;
+  private final int maxMappingSize;
+
+  private RandomAccessFile file;
+  private MappedByteBuffer mapping;
+  private Uri uri;
+  private long mappingEndPosition;
+  private long bytesRemaining;
+  private boolean opened;
+
+  public MappedFileDataSource() {
+    this(null);
+  }
+
+  /**
+   * @param listener An optional listener.
+   */
+  public MappedFileDataSource(TransferListener<? super MappedFileDataSource> listener) {
+    this(listener, DEFAULT_MAX_MAPPING_SIZE);
+  }
+
+  /**
+   * @param listener An optional listener.
+   * @param maxMappingSize The maximum size of a single mapping, in bytes.
+   */
+  public MappedFileDataSource(TransferListener<? super MappedFileDataSource> listener,
+      int maxMappingSize) {
+    Assertions.checkArgument(maxMappingSize > 0);
+    this.listener = listener;
+    this.maxMappingSize = maxMappingSize;
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws FileDataSource.FileDataSourceException {
+    try {
+      uri = dataSpec.uri;
+      file = new RandomAccessFile(dataSpec.uri.getPath(), "r");
+      bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? file.length() - dataSpec.position
+          : dataSpec.length;
+      if (bytesRemaining < 0 || dataSpec.position + bytesRemaining > file.length()) {
+        throw new EOFException();
+      }
+      mappingEndPosition = dataSpec.position;
+      mapping = null;
+    } catch (IOException e) {
+      throw new FileDataSource.FileDataSourceException(e);
+    }
+
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart(this, dataSpec);
+    }
+
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength)
+      throws FileDataSource.FileDataSourceException {
+    int bytesToRead = prepareRead(readLength);
+    if (bytesToRead == C.RESULT_END_OF_INPUT) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    mapping.get(buffer, offset, bytesToRead);
+    onBytesRead(bytesToRead);
+    return bytesToRead;
+  }
+
+  @Override
+  public int read(ByteBuffer target, int length) throws FileDataSource.FileDataSourceException {
+    int bytesToRead = prepareRead(length);
+    if (bytesToRead == C.RESULT_END_OF_INPUT) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int limit = mapping.limit();
+    mapping.limit(mapping.position() + bytesToRead);
+    target.put(mapping);
+    mapping.limit(limit);
+    onBytesRead(bytesToRead);
+    return bytesToRead;
+  }
+
+  @Override
+  public Uri getUri() {
+    return uri;
+  }
+
+  @Override
+  public void close() throws FileDataSource.FileDataSourceException {
+    uri = null;
+    mapping = null;
+    try {
+      if (file != null) {
+        file.close();
+      }
+    } catch (IOException e) {
+      throw new FileDataSource.FileDataSourceException(e);
+    } finally {
+      file = null;
+      if (opened) {
+        opened = false;
+        if (listener != null) {
+          listener.onTransferEnd(this);
+        }
+      }
+    }
+  }
+
+  /**
+   * Ensures that the current mapping has data remaining, mapping the next window of the file if
+   * necessary.
+   *
+   * @param length The requested length.
+   * @return The number of bytes that can be read from the current mapping, or
+   *     {@link C#RESULT_END_OF_INPUT}.
+   */
+  private int prepareRead(int length) throws FileDataSource.FileDataSourceException {
+    if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    if (mapping == null || !mapping.hasRemaining()) {
+      long mappingSize = Math.min(bytesRemaining, maxMappingSize);
+      try {
+        mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, mappingEndPosition,
+            mappingSize);
+      } catch (IOException e) {
+        throw new FileDataSource.FileDataSourceException(e);
+      }
+      mappingEndPosition += mappingSize;
+    }
+    return Math.min(mapping.remaining(), length);
+  }
+
+  private void onBytesRead(int bytesRead) {
+    bytesRemaining -= bytesRead;
+    if (listener != null) {
+      listener.onBytesTransferred(this, bytesRead);
+    }
+  }
+
+}
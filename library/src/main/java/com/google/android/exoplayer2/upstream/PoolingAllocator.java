@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * An {@link Allocator} that retains released {@link Allocation}s for reuse, and that can be told
+ * how many bytes it is expected to hold so that {@link #trim()} can discard the excess.
+ */
+public interface PoolingAllocator extends Allocator {
+
+  /**
+   * Sets the number of bytes that the allocator is expected to hold. Calls to {@link #trim()} will
+   * discard pooled {@link Allocation}s that are not required to satisfy this target.
+   *
+   * @param targetBufferSize The target buffer size in bytes.
+   */
+  void setTargetBufferSize(int targetBufferSize);
+
+}
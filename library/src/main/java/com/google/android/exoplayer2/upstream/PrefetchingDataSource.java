@@ -0,0 +1,582 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import android.net.Uri;
+import android.os.Looper;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A {@link DataSource} that can be told which requests it's expected to open next, and which loads
+ * them ahead of time, keeping several requests in flight at once. This hides the time to first
+ * byte of each request behind the loading of the ones before it.
+ * <p>
+ * Prefetched data is held in {@link Allocation}s until it's read. If the {@link Allocator} is the
+ * one used by the player's {@link com.google.android.exoplayer2.LoadControl}, prefetched data
+ * counts towards the buffer size that the load control allows. The data held for prefetches that
+ * are not being read is capped, and such prefetches pause when the cap is reached. A request that
+ * matches a prefetch is served from the prefetched data as it arrives. Any other request is passed
+ * to the upstream {@link DataSource}. Network transfers are reported to {@link TransferListener}s
+ * by the {@link DataSource}s performing the prefetches, and reads served from memory are not
+ * reported, so a bandwidth meter sees each transferred byte exactly once.
+ */
+public final class PrefetchingDataSource implements DataSource {
+
+  private final DataSource upstream;
+  private final DataSource.Factory prefetchDataSourceFactory;
+  private final int maxParallelLoads;
+  private final Allocator allocator;
+  private final Budget budget;
+  private final Loader loader;
+  private final LoaderCallback loaderCallback;
+  private final LinkedList<Prefetch> prefetches;
+
+  private Prefetch currentPrefetch;
+  private long currentPrefetchPosition;
+  private boolean upstreamOpened;
+
+  /**
+   * @param upstream The {@link DataSource} used to open requests that have not been prefetched.
+   * @param prefetchDataSourceFactory A factory of {@link DataSource}s used to perform prefetches.
+   *     Each prefetch uses its own instance.
+   * @param maxParallelLoads The maximum number of prefetches that may be in flight or held in
+   *     memory at any one time.
+   * @param allocator The {@link Allocator} from which memory for prefetched data is obtained.
+   * @param maxPrefetchBytes The maximum number of bytes that may be held for prefetches that are
+   *     not being read.
+   */
+  public PrefetchingDataSource(DataSource upstream, DataSource.Factory prefetchDataSourceFactory,
+      int maxParallelLoads, Allocator allocator, int maxPrefetchBytes) {
+    this.upstream = Assertions.checkNotNull(upstream);
+    this.prefetchDataSourceFactory = Assertions.checkNotNull(prefetchDataSourceFactory);
+    this.maxParallelLoads = maxParallelLoads;
+    this.allocator = Assertions.checkNotNull(allocator);
+    budget = new Budget(maxPrefetchBytes);
+    loader = new Loader("Loader:PrefetchingDataSource", maxParallelLoads);
+    loaderCallback = new LoaderCallback();
+    prefetches = new LinkedList<>();
+  }
+
+  /**
+   * Returns the maximum number of prefetches that may be in flight or held in memory.
+   */
+  public int getMaxParallelLoads() {
+    return maxParallelLoads;
+  }
+
+  /**
+   * Sets the requests that are expected to be opened next, in the order in which they're expected
+   * to be opened. Prefetches for requests that are no longer expected are canceled, and prefetches
+   * are started for as many of the remaining requests as capacity allows.
+   * <p>
+   * The calling thread must be a {@link Looper} thread. All calls to this method and to
+   * {@link #release()} must be made on the same thread.
+   *
+   * @param dataSpecs The requests that are expected to be opened next.
+   */
+  public void prefetch(List<DataSpec> dataSpecs) {
+    synchronized (prefetches) {
+      Iterator<Prefetch> iterator = prefetches.iterator();
+      while (iterator.hasNext()) {
+        Prefetch prefetch = iterator.next();
+        if (!containsMatch(dataSpecs, prefetch.dataSpec)) {
+          prefetch.discard();
+          iterator.remove();
+        }
+      }
+      for (int i = 0; i < dataSpecs.size() && prefetches.size() < maxParallelLoads
+          && loader.canStartLoading(); i++) {
+        DataSpec dataSpec = dataSpecs.get(i);
+        if (findPrefetch(dataSpec) == null) {
+          Prefetch prefetch = new Prefetch(dataSpec, prefetchDataSourceFactory.createDataSource(),
+              allocator, budget);
+          prefetches.add(prefetch);
+          loader.startLoading(prefetch, loaderCallback, 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancels all prefetches that have not yet been opened.
+   * <p>
+   * Must be called on the thread that calls {@link #prefetch(List)}.
+   */
+  public void cancelPrefetches() {
+    synchronized (prefetches) {
+      for (Prefetch prefetch : prefetches) {
+        prefetch.discard();
+      }
+      prefetches.clear();
+    }
+  }
+
+  /**
+   * Releases the source, canceling all prefetches. This method should be called when the source is
+   * no longer required.
+   * <p>
+   * Must be called on the thread that calls {@link #prefetch(List)}.
+   */
+  public void release() {
+    cancelPrefetches();
+    loader.release();
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    Prefetch prefetch;
+    synchronized (prefetches) {
+      prefetch = findPrefetch(dataSpec);
+      if (prefetch != null) {
+        prefetches.remove(prefetch);
+      }
+    }
+    if (prefetch != null) {
+      // The prefetch is no longer subject to the cap, since it's freed as it's read.
+      prefetch.setReading();
+      long length = prefetch.blockUntilOpened();
+      if (length != Prefetch.OPEN_FAILED) {
+        currentPrefetch = prefetch;
+        currentPrefetchPosition = 0;
+        return length;
+      }
+      // The prefetch failed before any data was available. Fall back to the upstream source.
+      prefetch.discard();
+    }
+    upstreamOpened = true;
+    return upstream.open(dataSpec);
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (currentPrefetch == null) {
+      return upstream.read(buffer, offset, readLength);
+    }
+    int bytesRead = currentPrefetch.read(currentPrefetchPosition, buffer, offset, readLength);
+    if (bytesRead != C.RESULT_END_OF_INPUT) {
+      currentPrefetchPosition += bytesRead;
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public Uri getUri() {
+    return currentPrefetch != null ? currentPrefetch.getUri() : upstream.getUri();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (currentPrefetch != null) {
+      // The prefetch may still be loading if the reader gave up early.
+      currentPrefetch.discard();
+      currentPrefetch = null;
+    }
+    if (upstreamOpened) {
+      upstreamOpened = false;
+      upstream.close();
+    }
+  }
+
+  // Internal methods.
+
+  private Prefetch findPrefetch(DataSpec dataSpec) {
+    for (Prefetch prefetch : prefetches) {
+      if (matches(prefetch.dataSpec, dataSpec)) {
+        return prefetch;
+      }
+    }
+    return null;
+  }
+
+  private static boolean containsMatch(List<DataSpec> dataSpecs, DataSpec dataSpec) {
+    for (int i = 0; i < dataSpecs.size(); i++) {
+      if (matches(dataSpecs.get(i), dataSpec)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matches(DataSpec a, DataSpec b) {
+    return a.uri.equals(b.uri) && a.absoluteStreamPosition == b.absoluteStreamPosition
+        && a.length == b.length && a.flags == b.flags && Util.areEqual(a.key, b.key)
+        && Arrays.equals(a.postBody, b.postBody);
+  }
+
+  private final class LoaderCallback implements Loader.Callback<Prefetch> {
+
+    @Override
+    public void onLoadCompleted(Prefetch loadable, long elapsedRealtimeMs, long loadDurationMs) {
+      // Do nothing. The data remains available until it's read or the prefetch is canceled.
+    }
+
+    @Override
+    public void onLoadCanceled(Prefetch loadable, long elapsedRealtimeMs, long loadDurationMs,
+        boolean released) {
+      // Do nothing.
+    }
+
+    @Override
+    public int onLoadError(Prefetch loadable, long elapsedRealtimeMs, long loadDurationMs,
+        IOException error) {
+      // A failed prefetch is discarded so that a subsequent open goes to the upstream source,
+      // which is then subject to the caller's own retry logic. A prefetch that has already been
+      // opened is discarded by the reader instead.
+      synchronized (prefetches) {
+        if (prefetches.remove(loadable)) {
+          loadable.discard();
+        }
+      }
+      return Loader.DONT_RETRY;
+    }
+
+  }
+
+  /**
+   * Caps the number of bytes held by prefetches that are not being read.
+   */
+  /* package */ static final class Budget {
+
+    private final int maxBytes;
+
+    private int bytes;
+
+    /**
+     * @param maxBytes The maximum number of bytes that may be held.
+     */
+    public Budget(int maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Blocks until {@code length} bytes can be held by {@code prefetch}, then accounts for them.
+     * A prefetch that is being read does not wait. The first bytes held are always granted.
+     *
+     * @param prefetch The prefetch that will hold the bytes.
+     * @param length The number of bytes.
+     * @return Whether the bytes were granted. False if the prefetch was canceled whilst waiting.
+     * @throws InterruptedException If the calling thread is interrupted whilst waiting.
+     */
+    public synchronized boolean acquire(Prefetch prefetch, int length)
+        throws InterruptedException {
+      while (bytes > 0 && bytes + length > maxBytes && !prefetch.isReading()
+          && !prefetch.isLoadCanceled()) {
+        wait();
+      }
+      if (prefetch.isLoadCanceled()) {
+        return false;
+      }
+      bytes += length;
+      return true;
+    }
+
+    /**
+     * Accounts for bytes that are no longer held.
+     *
+     * @param length The number of bytes.
+     */
+    public synchronized void release(int length) {
+      bytes -= length;
+      notifyAll();
+    }
+
+    /**
+     * Wakes prefetches waiting in {@link #acquire(Prefetch, int)} to re-evaluate their state.
+     */
+    public synchronized void wake() {
+      notifyAll();
+    }
+
+    /**
+     * Returns the number of bytes currently held.
+     */
+    public synchronized int getBytes() {
+      return bytes;
+    }
+
+  }
+
+  /**
+   * Loads a single request into memory, allowing it to be read whilst the load is in progress.
+   */
+  /* package */ static final class Prefetch implements Loader.Loadable {
+
+    /**
+     * Returned by {@link #blockUntilOpened()} if the prefetch failed or was canceled before it was
+     * opened.
+     */
+    public static final long OPEN_FAILED = Long.MIN_VALUE;
+
+    public final DataSpec dataSpec;
+
+    private final DataSource dataSource;
+    private final Allocator allocator;
+    private final Budget budget;
+    private final int allocationLength;
+
+    private volatile boolean loadCanceled;
+    private volatile boolean reading;
+
+    // The fields below are guarded by this object's lock. Allocations before
+    // releasedAllocationCount have been returned to the allocator and replaced by null.
+    private final ArrayList<Allocation> allocations;
+    private int releasedAllocationCount;
+    private long size;
+    private boolean opened;
+    private long length;
+    private Uri uri;
+    private boolean finished;
+    private boolean discarded;
+    private IOException error;
+
+    // Accessed only by the loading thread.
+    private byte[] writeScratch;
+
+    /**
+     * @param dataSpec The request to load.
+     * @param dataSource The {@link DataSource} used to load the request.
+     * @param allocator The {@link Allocator} from which memory for the loaded data is obtained.
+     * @param budget The budget that caps the data held whilst the prefetch is not being read.
+     */
+    public Prefetch(DataSpec dataSpec, DataSource dataSource, Allocator allocator,
+        Budget budget) {
+      this.dataSpec = dataSpec;
+      this.dataSource = dataSource;
+      this.allocator = allocator;
+      this.budget = budget;
+      allocationLength = allocator.getIndividualAllocationLength();
+      allocations = new ArrayList<>();
+    }
+
+    /**
+     * Marks the prefetch as being read, exempting it from the cap. Memory is returned to the
+     * allocator as the data is read.
+     */
+    public void setReading() {
+      reading = true;
+      budget.wake();
+    }
+
+    /**
+     * Returns whether {@link #setReading()} has been called.
+     */
+    public boolean isReading() {
+      return reading;
+    }
+
+    /**
+     * Cancels the prefetch and returns its memory to the allocator. The memory is returned once the
+     * load has finished if it's still in progress. The prefetch must not be read afterwards.
+     */
+    public void discard() {
+      cancelLoad();
+      synchronized (this) {
+        discarded = true;
+        if (finished) {
+          releaseAllocations(allocations.size());
+        }
+      }
+    }
+
+    /**
+     * Blocks until the prefetch has opened its request.
+     *
+     * @return The value returned by {@link DataSource#open(DataSpec)}, or {@link #OPEN_FAILED}.
+     * @throws InterruptedIOException If the calling thread is interrupted whilst waiting.
+     */
+    public synchronized long blockUntilOpened() throws InterruptedIOException {
+      while (!opened && !finished) {
+        waitForProgress();
+      }
+      return opened ? length : OPEN_FAILED;
+    }
+
+    /**
+     * Reads data that has been prefetched, blocking until data at {@code position} is available,
+     * the end of the request is reached, or the prefetch fails. Reads must be sequential. Memory
+     * holding data before {@code position} is returned to the allocator.
+     *
+     * @param position The position in the request from which to read.
+     * @param buffer The buffer into which the read data should be stored.
+     * @param offset The start offset into {@code buffer} at which data should be written.
+     * @param readLength The maximum number of bytes to read.
+     * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT}.
+     * @throws IOException If the prefetch failed or was canceled before reaching the end of the
+     *     request.
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int readLength)
+        throws IOException {
+      if (readLength == 0) {
+        return 0;
+      }
+      while (position >= size && !finished) {
+        waitForProgress();
+      }
+      if (position < size) {
+        int allocationIndex = (int) (position / allocationLength);
+        int allocationOffset = (int) (position % allocationLength);
+        releaseAllocations(allocationIndex);
+        Allocation allocation = allocations.get(allocationIndex);
+        int bytesRead = (int) Math.min(Math.min(readLength, size - position),
+            allocationLength - allocationOffset);
+        if (allocation.isDirect()) {
+          ByteBuffer source = allocation.directData.duplicate();
+          source.position(allocation.translateOffset(allocationOffset));
+          source.get(buffer, offset, bytesRead);
+        } else {
+          System.arraycopy(allocation.data, allocation.translateOffset(allocationOffset), buffer,
+              offset, bytesRead);
+        }
+        return bytesRead;
+      } else if (error != null) {
+        throw error;
+      } else if (loadCanceled) {
+        throw new InterruptedIOException("Prefetch canceled");
+      }
+      return C.RESULT_END_OF_INPUT;
+    }
+
+    /**
+     * Returns the uri of the opened request, or the requested uri if it hasn't been opened.
+     */
+    public synchronized Uri getUri() {
+      return uri != null ? uri : dataSpec.uri;
+    }
+
+    // Loader.Loadable implementation.
+
+    @Override
+    public void cancelLoad() {
+      loadCanceled = true;
+      budget.wake();
+    }
+
+    @Override
+    public boolean isLoadCanceled() {
+      return loadCanceled;
+    }
+
+    @Override
+    public void load() throws IOException, InterruptedException {
+      try {
+        long openedLength = dataSource.open(dataSpec);
+        synchronized (this) {
+          length = openedLength;
+          uri = dataSource.getUri();
+          opened = true;
+          notifyAll();
+        }
+        Allocation allocation = null;
+        int allocationOffset = 0;
+        long loadedBytes = 0;
+        while (!loadCanceled && (openedLength == C.LENGTH_UNSET || loadedBytes < openedLength)) {
+          if (allocation == null || allocationOffset == allocationLength) {
+            if (!budget.acquire(this, allocationLength)) {
+              break;
+            }
+            allocation = allocator.allocate();
+            allocationOffset = 0;
+            synchronized (this) {
+              allocations.add(allocation);
+            }
+          }
+          int readLength = allocationLength - allocationOffset;
+          if (openedLength != C.LENGTH_UNSET) {
+            readLength = (int) Math.min(readLength, openedLength - loadedBytes);
+          }
+          // Only this thread writes to the allocation, so the read can proceed without holding the
+          // lock. Readers never access data beyond size.
+          int bytesRead = readIntoAllocation(allocation, allocationOffset, readLength);
+          if (bytesRead == C.RESULT_END_OF_INPUT) {
+            break;
+          }
+          allocationOffset += bytesRead;
+          loadedBytes += bytesRead;
+          synchronized (this) {
+            size = loadedBytes;
+            notifyAll();
+          }
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          error = e;
+        }
+        throw e;
+      } finally {
+        Util.closeQuietly(dataSource);
+        synchronized (this) {
+          finished = true;
+          if (discarded) {
+            releaseAllocations(allocations.size());
+          }
+          notifyAll();
+        }
+      }
+    }
+
+    private int readIntoAllocation(Allocation allocation, int allocationOffset, int readLength)
+        throws IOException {
+      if (!allocation.isDirect()) {
+        return dataSource.read(allocation.data, allocation.translateOffset(allocationOffset),
+            readLength);
+      }
+      // Data sources can only read into arrays, so read via a scratch array.
+      if (writeScratch == null) {
+        writeScratch = new byte[allocationLength];
+      }
+      int bytesRead = dataSource.read(writeScratch, 0, readLength);
+      if (bytesRead != C.RESULT_END_OF_INPUT) {
+        ByteBuffer target = allocation.directData.duplicate();
+        target.position(allocation.translateOffset(allocationOffset));
+        target.put(writeScratch, 0, bytesRead);
+      }
+      return bytesRead;
+    }
+
+    /**
+     * Returns allocations with indices before {@code endIndex} to the allocator.
+     */
+    private void releaseAllocations(int endIndex) {
+      for (int i = releasedAllocationCount; i < endIndex; i++) {
+        allocator.release(allocations.get(i));
+        allocations.set(i, null);
+        budget.release(allocationLength);
+      }
+      releasedAllocationCount = Math.max(releasedAllocationCount, endIndex);
+    }
+
+    private void waitForProgress() throws InterruptedIOException {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+  }
+
+}
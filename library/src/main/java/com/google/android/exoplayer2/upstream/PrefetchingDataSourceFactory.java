@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * A {@link DataSource.Factory} that produces {@link PrefetchingDataSource}s.
+ */
+public final class PrefetchingDataSourceFactory implements DataSource.Factory {
+
+  private final DataSource.Factory upstreamFactory;
+  private final int maxParallelLoads;
+  private final Allocator allocator;
+  private final int maxPrefetchBytes;
+
+  /**
+   * @param upstreamFactory A factory of {@link DataSource}s used both for requests that have not
+   *     been prefetched and to perform the prefetches.
+   * @param maxParallelLoads The maximum number of prefetches that may be in flight or held in
+   *     memory at any one time, per created {@link PrefetchingDataSource}.
+   * @param allocator The {@link Allocator} from which memory for prefetched data is obtained.
+   *     Normally the allocator of the player's {@link com.google.android.exoplayer2.LoadControl}.
+   * @param maxPrefetchBytes The maximum number of bytes that may be held for prefetches that are
+   *     not being read, per created {@link PrefetchingDataSource}.
+   */
+  public PrefetchingDataSourceFactory(DataSource.Factory upstreamFactory, int maxParallelLoads,
+      Allocator allocator, int maxPrefetchBytes) {
+    this.upstreamFactory = upstreamFactory;
+    this.maxParallelLoads = maxParallelLoads;
+    this.allocator = allocator;
+    this.maxPrefetchBytes = maxPrefetchBytes;
+  }
+
+  @Override
+  public PrefetchingDataSource createDataSource() {
+    return new PrefetchingDataSource(upstreamFactory.createDataSource(), upstreamFactory,
+        maxParallelLoads, allocator, maxPrefetchBytes);
+  }
+
+}
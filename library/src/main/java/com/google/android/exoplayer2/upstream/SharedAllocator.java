@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An allocator that enforces a single memory budget across multiple players.
+ * <p>
+ * Each player obtains its own {@link Client} by calling {@link #register(int)}, and uses it as the
+ * {@link Allocator} for its {@link com.google.android.exoplayer2.LoadControl}. Allocations made by
+ * all clients are served from a single shared pool, so memory released by one player can be reused
+ * by another.
+ * <p>
+ * The budget is split between clients by priority. Clients of the highest priority receive as much
+ * of the budget as they request through {@link Client#setTargetBufferSize(int)}. Whatever remains
+ * is offered to clients of the next highest priority, and so on. Clients of equal priority split
+ * what's available to them fairly, with no client receiving more than it requests. A client whose
+ * allocations exceed its share is expected to stop loading until they fall back under it, which
+ * {@link com.google.android.exoplayer2.SharedLoadControl} does. When the total number of bytes
+ * allocated exceeds the budget, registered {@link ReclaimListener}s of clients that are over their
+ * share are notified, allowing buffered media held by low priority players to be released.
+ * {@link com.google.android.exoplayer2.SharedLoadControl} responds by suspending loading until the
+ * player's buffer has drained.
+ * <p>
+ * Since loads that are already in progress are not interrupted, the budget may be exceeded by up to
+ * one chunk per client.
+ */
+public final class SharedAllocator {
+
+  /**
+   * Listener notified when a client should give up memory.
+   */
+  public interface ReclaimListener {
+
+    /**
+     * Called when the total number of bytes allocated exceeds the budget, and the client holds
+     * more than its share of it. Called on the thread whose allocation caused the budget to be
+     * exceeded, or on the thread that changed the shares. The {@link SharedAllocator}'s lock is not
+     * held, so the listener may release allocations or clients.
+     *
+     * @param client The client that should give up memory.
+     * @param bytesOverShare The number of bytes by which the client exceeds its share.
+     */
+    void onReclaimRequested(Client client, int bytesOverShare);
+
+  }
+
+  /**
+   * The priority of a player that's visible to the user.
+   */
+  public static final int PRIORITY_FOREGROUND = 1;
+  /**
+   * The priority of a player that's buffering ahead of being shown to the user.
+   */
+  public static final int PRIORITY_PREFETCH = 0;
+
+  private final int budgetBytes;
+  private final ConcurrentAllocator pool;
+  private final AtomicInteger totalBytesAllocated;
+
+  // Guarded by this.
+  private final List<Client> clients;
+  private int totalTargetBufferSize;
+
+  // Written only when holding this.
+  private volatile boolean overBudget;
+
+  /**
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param budgetBytes The maximum number of bytes that all clients may allocate in total.
+   */
+  public SharedAllocator(int individualAllocationSize, int budgetBytes) {
+    Assertions.checkArgument(budgetBytes > 0);
+    this.budgetBytes = budgetBytes;
+    pool = new ConcurrentAllocator(individualAllocationSize, 1,
+        ConcurrentAllocator.DEFAULT_MAGAZINE_SIZE);
+    totalBytesAllocated = new AtomicInteger();
+    clients = new ArrayList<>();
+  }
+
+  /**
+   * Registers a new client. The client must be released by calling {@link Client#release()} when
+   * it's no longer used.
+   *
+   * @param priority The priority of the client. Higher values take precedence. Typical values are
+   *     {@link #PRIORITY_FOREGROUND} and {@link #PRIORITY_PREFETCH}.
+   * @return The {@link Client}.
+   */
+  public synchronized Client register(int priority) {
+    Client client = new Client(priority);
+    clients.add(client);
+    return client;
+  }
+
+  /**
+   * Returns the maximum number of bytes that all clients may allocate in total.
+   */
+  public int getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /**
+   * Returns the total number of bytes currently allocated by all clients.
+   */
+  public int getTotalBytesAllocated() {
+    return totalBytesAllocated.get();
+  }
+
+  /**
+   * Returns the number of registered clients.
+   */
+  public synchronized int getClientCount() {
+    return clients.size();
+  }
+
+  private void onAllocated(int bytes) {
+    int total = totalBytesAllocated.addAndGet(bytes);
+    if (total > budgetBytes && !overBudget) {
+      dispatchReclaimRequests(maybeRequestReclaim());
+    }
+  }
+
+  private void onReleased(int bytes) {
+    int total = totalBytesAllocated.addAndGet(-bytes);
+    if (total <= budgetBytes && overBudget) {
+      updateOverBudget();
+    }
+  }
+
+  private void onSharesChanged() {
+    dispatchReclaimRequests(updateShares());
+  }
+
+  private synchronized void updateOverBudget() {
+    overBudget = totalBytesAllocated.get() > budgetBytes;
+  }
+
+  private synchronized List<Client> maybeRequestReclaim() {
+    if (overBudget) {
+      // Reclaim has already been requested.
+      return Collections.emptyList();
+    }
+    overBudget = true;
+    return getClientsToReclaimFrom();
+  }
+
+  private synchronized List<Client> updateShares() {
+    // Sort by descending priority, then by ascending target so that equal priority clients whose
+    // targets are smaller than a fair split are satisfied first.
+    Client[] sortedClients = clients.toArray(new Client[clients.size()]);
+    Arrays.sort(sortedClients, new Comparator<Client>() {
+      @Override
+      public int compare(Client lhs, Client rhs) {
+        if (lhs.priority != rhs.priority) {
+          return rhs.priority > lhs.priority ? 1 : -1;
+        }
+        return lhs.targetBufferSize - rhs.targetBufferSize;
+      }
+    });
+    int remainingBytes = budgetBytes;
+    totalTargetBufferSize = 0;
+    int levelStartIndex = 0;
+    while (levelStartIndex < sortedClients.length) {
+      int priority = sortedClients[levelStartIndex].priority;
+      int levelEndIndex = levelStartIndex;
+      while (levelEndIndex < sortedClients.length
+          && sortedClients[levelEndIndex].priority == priority) {
+        levelEndIndex++;
+      }
+      int levelRemainingBytes = remainingBytes;
+      for (int i = levelStartIndex; i < levelEndIndex; i++) {
+        Client client = sortedClients[i];
+        int fairShare = levelRemainingBytes / (levelEndIndex - i);
+        client.shareBytes = Math.min(client.targetBufferSize, fairShare);
+        levelRemainingBytes -= client.shareBytes;
+        totalTargetBufferSize += client.shareBytes;
+      }
+      remainingBytes = levelRemainingBytes;
+      levelStartIndex = levelEndIndex;
+    }
+    pool.setTargetBufferSize(totalTargetBufferSize);
+    overBudget = totalBytesAllocated.get() > budgetBytes;
+    return overBudget ? getClientsToReclaimFrom() : Collections.<Client>emptyList();
+  }
+
+  /**
+   * Returns the clients that are over their share and have a listener, lowest priority first. Must
+   * be called when holding this. The listeners are invoked by
+   * {@link #dispatchReclaimRequests(List)} once the lock has been released, so that they're free to
+   * call back into the allocator.
+   */
+  private List<Client> getClientsToReclaimFrom() {
+    List<Client> clientsToReclaimFrom = new ArrayList<>();
+    for (Client client : clients) {
+      if (client.getBytesOverShare() > 0 && client.reclaimListener != null) {
+        client.reclaimRequestCount.incrementAndGet();
+        clientsToReclaimFrom.add(client);
+      }
+    }
+    Collections.sort(clientsToReclaimFrom, new Comparator<Client>() {
+      @Override
+      public int compare(Client lhs, Client rhs) {
+        return lhs.priority < rhs.priority ? -1 : (lhs.priority == rhs.priority ? 0 : 1);
+      }
+    });
+    return clientsToReclaimFrom;
+  }
+
+  private static void dispatchReclaimRequests(List<Client> clientsToReclaimFrom) {
+    for (int i = 0; i < clientsToReclaimFrom.size(); i++) {
+      Client client = clientsToReclaimFrom.get(i);
+      ReclaimListener reclaimListener = client.reclaimListener;
+      int bytesOverShare = client.getBytesOverShare();
+      if (reclaimListener != null && bytesOverShare > 0) {
+        reclaimListener.onReclaimRequested(client, bytesOverShare);
+      }
+    }
+  }
+
+  private void unregister(Client client) {
+    synchronized (this) {
+      clients.remove(client);
+    }
+    onSharesChanged();
+  }
+
+  /**
+   * A single player's view of the {@link SharedAllocator}.
+   */
+  public final class Client implements PoolingAllocator {
+
+    private final int priority;
+    private final AtomicInteger bytesAllocated;
+    private final AtomicInteger peakBytesAllocated;
+    private final AtomicInteger reclaimRequestCount;
+
+    private volatile int targetBufferSize;
+    private volatile int shareBytes;
+    private volatile ReclaimListener reclaimListener;
+
+    private Client(int priority) {
+      this.priority = priority;
+      bytesAllocated = new AtomicInteger();
+      peakBytesAllocated = new AtomicInteger();
+      reclaimRequestCount = new AtomicInteger();
+    }
+
+    /**
+     * Sets a listener to be notified when the client should give up memory.
+     *
+     * @param reclaimListener The listener, or null to clear the listener.
+     */
+    public void setReclaimListener(ReclaimListener reclaimListener) {
+      this.reclaimListener = reclaimListener;
+    }
+
+    /**
+     * Returns the priority of the client.
+     */
+    public int getPriority() {
+      return priority;
+    }
+
+    /**
+     * Returns the number of bytes that the client may currently allocate, given the budget and the
+     * requirements of other clients.
+     */
+    public int getShareBytes() {
+      return shareBytes;
+    }
+
+    /**
+     * Returns the number of bytes by which the client's allocations exceed its share, or zero if
+     * they do not.
+     */
+    public int getBytesOverShare() {
+      return Math.max(0, bytesAllocated.get() - shareBytes);
+    }
+
+    /**
+     * Returns whether the client's allocations have reached its share of the budget.
+     */
+    public boolean isShareExhausted() {
+      return bytesAllocated.get() >= shareBytes;
+    }
+
+    /**
+     * Returns the largest number of bytes that the client has had allocated at any one time.
+     */
+    public int getPeakBytesAllocated() {
+      return peakBytesAllocated.get();
+    }
+
+    /**
+     * Returns the number of times that the client has been asked to give up memory.
+     */
+    public int getReclaimRequestCount() {
+      return reclaimRequestCount.get();
+    }
+
+    /**
+     * Unregisters the client, returning its share of the budget to other clients. Any allocations
+     * still held by the client should have been released.
+     */
+    public void release() {
+      unregister(this);
+    }
+
+    @Override
+    public void setTargetBufferSize(int targetBufferSize) {
+      this.targetBufferSize = targetBufferSize;
+      onSharesChanged();
+    }
+
+    @Override
+    public Allocation allocate() {
+      Allocation allocation = pool.allocate();
+      int length = pool.getIndividualAllocationLength();
+      int allocated = bytesAllocated.addAndGet(length);
+      int peak;
+      while (allocated > (peak = peakBytesAllocated.get())
+          && !peakBytesAllocated.compareAndSet(peak, allocated)) {
+        // Retry.
+      }
+      onAllocated(length);
+      return allocation;
+    }
+
+    @Override
+    public void release(Allocation allocation) {
+      pool.release(allocation);
+      bytesAllocated.addAndGet(-pool.getIndividualAllocationLength());
+      onReleased(pool.getIndividualAllocationLength());
+    }
+
+    @Override
+    public void release(Allocation[] allocations) {
+      pool.release(allocations);
+      int length = allocations.length * pool.getIndividualAllocationLength();
+      bytesAllocated.addAndGet(-length);
+      onReleased(length);
+    }
+
+    @Override
+    public void trim() {
+      pool.trim();
+    }
+
+    @Override
+    public int getTotalBytesAllocated() {
+      return bytesAllocated.get();
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+      return pool.getIndividualAllocationLength();
+    }
+
+  }
+
+}
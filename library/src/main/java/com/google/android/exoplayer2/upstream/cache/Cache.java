@@ -200,4 +200,26 @@ public interface Cache {
    */
   long getContentLength(String key);
 
+  /**
+   * Sets a named item of metadata for the content with the given key, replacing any previous value
+   * with the same name. Metadata is persisted along with the content, and is removed when the
+   * content's last span is removed.
+   *
+   * @param key The cache key for the data.
+   * @param name The name of the metadata.
+   * @param value The value of the metadata. Must not be modified after it's been set.
+   * @return Whether the metadata was set. Returns false if the cache contains nothing for the key.
+   */
+  boolean setContentMetadata(String key, String name, byte[] value);
+
+  /**
+   * Returns a named item of metadata for the content with the given key if it's set, or null
+   * otherwise.
+   *
+   * @param key The cache key for the data.
+   * @param name The name of the metadata.
+   * @return The value of the metadata, which must not be modified, or null.
+   */
+  byte[] getContentMetadata(String key, String name);
+
 }
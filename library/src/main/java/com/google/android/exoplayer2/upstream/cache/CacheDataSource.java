@@ -18,22 +18,29 @@ package com.google.android.exoplayer2.upstream.cache;
 import android.net.Uri;
 import android.util.Log;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.ByteBufferDataSource;
 import com.google.android.exoplayer2.upstream.DataSink;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSourceException;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.MappedFileDataSource;
 import com.google.android.exoplayer2.upstream.TeeDataSource;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSink.CacheDataSinkException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link DataSource} that reads and writes a {@link Cache}. Requests are fulfilled from the cache
  * when possible. When data is not cached it is requested from an upstream {@link DataSource} and
  * written into the cache.
+ * <p>
+ * Reads into {@link ByteBuffer}s are passed through to the current source if it's a
+ * {@link ByteBufferDataSource}. For example a {@link MappedFileDataSource} can be passed as the
+ * cache read source, so that such reads are served directly from mapped cache files.
  */
-public final class CacheDataSource implements DataSource {
+public final class CacheDataSource implements ByteBufferDataSource {
 
   /**
    * Default maximum single cache file size.
@@ -101,6 +108,7 @@ public final class CacheDataSource implements DataSource {
   private boolean seenCacheError;
   private boolean currentRequestIgnoresCache;
   private long totalCachedBytesRead;
+  private byte[] readScratch;
 
   /**
    * Constructs an instance with default {@link DataSource} and {@link DataSink} instances for
@@ -162,7 +170,7 @@ public final class CacheDataSource implements DataSource {
     try {
       uri = dataSpec.uri;
       flags = dataSpec.flags;
-      key = dataSpec.key;
+      key = CacheUtil.getKey(dataSpec);
       readPosition = dataSpec.position;
       currentRequestIgnoresCache = (ignoreCacheOnError && seenCacheError)
           || (bypassUnboundedRequests && dataSpec.length == C.LENGTH_UNSET);
@@ -184,11 +192,33 @@ public final class CacheDataSource implements DataSource {
 
   @Override
   public int read(byte[] buffer, int offset, int max) throws IOException {
+    return read(buffer, offset, null, max);
+  }
+
+  @Override
+  public int read(ByteBuffer target, int length) throws IOException {
+    return read(null, 0, target, length);
+  }
+
+  /**
+   * Reads into either an array or a {@link ByteBuffer}.
+   *
+   * @param buffer The array into which data should be read, or null if reading into
+   *     {@code target}.
+   * @param offset The offset into {@code buffer}.
+   * @param target The {@link ByteBuffer} into which data should be read, or null if reading into
+   *     {@code buffer}.
+   * @param max The maximum number of bytes to read.
+   * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT}.
+   * @throws IOException If an error occurs reading from the current source.
+   */
+  private int read(byte[] buffer, int offset, ByteBuffer target, int max) throws IOException {
     if (bytesRemaining == 0) {
       return C.RESULT_END_OF_INPUT;
     }
     try {
-      int bytesRead = currentDataSource.read(buffer, offset, max);
+      int bytesRead = target == null ? currentDataSource.read(buffer, offset, max)
+          : readFromCurrentSource(target, max);
       if (bytesRead >= 0) {
         if (currentDataSource == cacheReadDataSource) {
           totalCachedBytesRead += bytesRead;
@@ -207,7 +237,7 @@ public final class CacheDataSource implements DataSource {
         closeCurrentSource();
         if (bytesRemaining > 0 || bytesRemaining == C.LENGTH_UNSET) {
           if (openNextSource(false)) {
-            return read(buffer, offset, max);
+            return read(buffer, offset, target, max);
           }
         }
       }
@@ -235,6 +265,20 @@ public final class CacheDataSource implements DataSource {
     }
   }
 
+  private int readFromCurrentSource(ByteBuffer target, int length) throws IOException {
+    if (currentDataSource instanceof ByteBufferDataSource) {
+      return ((ByteBufferDataSource) currentDataSource).read(target, length);
+    }
+    if (readScratch == null || readScratch.length < length) {
+      readScratch = new byte[length];
+    }
+    int bytesRead = currentDataSource.read(readScratch, 0, length);
+    if (bytesRead > 0) {
+      target.put(readScratch, 0, bytesRead);
+    }
+    return bytesRead;
+  }
+
   /**
    * Opens the next source. If the cache contains data spanning the current read position then
    * {@link #cacheReadDataSource} is opened to read from it. Else {@link #upstreamDataSource} is
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.util.NavigableSet;
+
+/**
+ * Caching related utility methods.
+ */
+public final class CacheUtil {
+
+  /**
+   * Counters used during caching. Instances should be updated by one thread at a time.
+   */
+  public static final class CachingCounters {
+
+    /**
+     * Total number of already cached bytes found.
+     */
+    public volatile long alreadyCachedBytes;
+    /**
+     * Total number of downloaded bytes.
+     */
+    public volatile long downloadedBytes;
+
+    /**
+     * Returns the sum of {@link #alreadyCachedBytes} and {@link #downloadedBytes}.
+     */
+    public long totalCachedBytes() {
+      return alreadyCachedBytes + downloadedBytes;
+    }
+
+  }
+
+  /**
+   * The default buffer size used when caching.
+   */
+  public static final int DEFAULT_BUFFER_SIZE_BYTES = 128 * 1024;
+
+  /**
+   * Returns the key to use when caching the data defined by a {@link DataSpec}. This is
+   * {@link DataSpec#key} if it's set, and the string representation of {@link DataSpec#uri}
+   * otherwise.
+   *
+   * @param dataSpec The {@link DataSpec}.
+   * @return The cache key.
+   */
+  public static String getKey(DataSpec dataSpec) {
+    return dataSpec.key != null ? dataSpec.key : dataSpec.uri.toString();
+  }
+
+  /**
+   * Returns the number of bytes that are cached contiguously from a position, or the negated length
+   * of the hole at the position if it's not cached.
+   *
+   * @param cache The cache.
+   * @param key The cache key.
+   * @param position The position.
+   * @param length The maximum length to consider, or {@link C#LENGTH_UNSET} if unbounded.
+   * @return The number of cached bytes, at most {@code length}. Else the negated length of the
+   *     hole, at most {@code length}, which is {@code -Long.MAX_VALUE} if the hole is unbounded.
+   */
+  public static long getCachedBytes(Cache cache, String key, long position, long length) {
+    long endPosition = length == C.LENGTH_UNSET ? Long.MAX_VALUE : position + length;
+    if (length != C.LENGTH_UNSET && cache.isCached(key, position, length)) {
+      return length;
+    }
+    NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+    CacheSpan floorSpan = spans == null ? null
+        : spans.floor(CacheSpan.createLookup(key, position));
+    if (floorSpan == null || floorSpan.position + floorSpan.length <= position) {
+      // The position is in a hole, which extends to the next span or to the end.
+      CacheSpan ceilingSpan = spans == null ? null
+          : spans.ceiling(CacheSpan.createLookup(key, position));
+      if (ceilingSpan == null || ceilingSpan.position >= endPosition) {
+        return length == C.LENGTH_UNSET ? -Long.MAX_VALUE : -length;
+      }
+      return position - ceilingSpan.position;
+    }
+    long cachedEndPosition = floorSpan.position + floorSpan.length;
+    for (CacheSpan span : spans.tailSet(floorSpan, false)) {
+      if (span.position > cachedEndPosition || cachedEndPosition >= endPosition) {
+        break;
+      }
+      cachedEndPosition = Math.max(cachedEndPosition, span.position + span.length);
+    }
+    return Math.min(cachedEndPosition, endPosition) - position;
+  }
+
+  /**
+   * Returns the number of bytes of the data defined by a {@link DataSpec} that are cached.
+   *
+   * @param dataSpec Defines the data.
+   * @param cache The cache.
+   * @return The number of cached bytes.
+   */
+  public static long getCached(DataSpec dataSpec, Cache cache) {
+    String key = getKey(dataSpec);
+    long position = dataSpec.absoluteStreamPosition;
+    long left = getRequestLength(dataSpec, cache, key);
+    long cachedBytes = 0;
+    while (left != 0) {
+      long blockLength = getCachedBytes(cache, key, position, left);
+      if (blockLength == -Long.MAX_VALUE) {
+        break;
+      } else if (blockLength > 0) {
+        cachedBytes += blockLength;
+      }
+      blockLength = Math.abs(blockLength);
+      position += blockLength;
+      left -= left == C.LENGTH_UNSET ? 0 : blockLength;
+    }
+    return cachedBytes;
+  }
+
+  /**
+   * Caches the data defined by a {@link DataSpec}, downloading only the parts that are not already
+   * cached.
+   *
+   * @param dataSpec Defines the data to be cached.
+   * @param cache The cache.
+   * @param dataSource A {@link CacheDataSource} that writes to {@code cache}, through which holes
+   *     are read.
+   * @param buffer A buffer used when reading.
+   * @param counters Counters that are updated as data is cached, or null.
+   * @throws IOException If an error occurs reading from the source.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  public static void cache(DataSpec dataSpec, Cache cache, CacheDataSource dataSource,
+      byte[] buffer, CachingCounters counters) throws IOException, InterruptedException {
+    String key = getKey(dataSpec);
+    long position = dataSpec.absoluteStreamPosition;
+    long left = getRequestLength(dataSpec, cache, key);
+    while (left != 0) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long blockLength = getCachedBytes(cache, key, position, left);
+      if (blockLength > 0) {
+        if (counters != null) {
+          counters.alreadyCachedBytes += blockLength;
+        }
+      } else {
+        // Read the hole through the data source, which writes it into the cache.
+        long holeLength = blockLength == -Long.MAX_VALUE ? C.LENGTH_UNSET : -blockLength;
+        blockLength = readAndDiscard(dataSpec, position, holeLength, key, dataSource, buffer,
+            counters);
+        if (holeLength == C.LENGTH_UNSET || blockLength < holeLength) {
+          // The end of the data has been reached.
+          break;
+        }
+      }
+      position += blockLength;
+      left -= left == C.LENGTH_UNSET ? 0 : blockLength;
+    }
+  }
+
+  /**
+   * Removes all of the data cached for a key.
+   *
+   * @param cache The cache.
+   * @param key The cache key.
+   */
+  public static void remove(Cache cache, String key) {
+    NavigableSet<CacheSpan> spans = cache.getCachedSpans(key);
+    if (spans == null) {
+      return;
+    }
+    for (CacheSpan span : spans) {
+      cache.removeSpan(span);
+    }
+  }
+
+  private static long getRequestLength(DataSpec dataSpec, Cache cache, String key) {
+    if (dataSpec.length != C.LENGTH_UNSET) {
+      return dataSpec.length;
+    }
+    long contentLength = cache.getContentLength(key);
+    return contentLength == C.LENGTH_UNSET ? C.LENGTH_UNSET
+        : contentLength - dataSpec.absoluteStreamPosition;
+  }
+
+  private static long readAndDiscard(DataSpec dataSpec, long position, long length, String key,
+      DataSource dataSource, byte[] buffer, CachingCounters counters) throws IOException {
+    DataSpec holeDataSpec = new DataSpec(dataSpec.uri, position, length, key, dataSpec.flags);
+    long totalRead = 0;
+    try {
+      dataSource.open(holeDataSpec);
+      while (true) {
+        int read = dataSource.read(buffer, 0, length == C.LENGTH_UNSET ? buffer.length
+            : (int) Math.min(buffer.length, length - totalRead));
+        if (read == C.RESULT_END_OF_INPUT) {
+          break;
+        }
+        totalRead += read;
+        if (counters != null) {
+          counters.downloadedBytes += read;
+        }
+      }
+    } finally {
+      Util.closeQuietly(dataSource);
+    }
+    return totalRead;
+  }
+
+  private CacheUtil() {}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.C;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The state held by a {@link SimpleCache} for a single key.
+ * <p>
+ * The cached spans, content length and metadata may be read without synchronization.
+ * Modifications to them, and all access to the write lock and listeners, must be synchronized on
+ * this instance. Threads waiting for the write lock also wait on this instance.
+ */
+/* package */ final class CachedContent {
+
+  /**
+   * The cache key.
+   */
+  public final String key;
+  /**
+   * The cached spans, keyed by position.
+   */
+  public final ConcurrentSkipListMap<Long, CacheSpan> spans;
+
+  /**
+   * The content length, or {@link C#LENGTH_UNSET} if unknown.
+   */
+  public volatile long length;
+  /**
+   * The metadata, keyed by name, or null if none is set. The map is replaced rather than modified,
+   * so that it can be read without synchronization.
+   */
+  public volatile Map<String, byte[]> metadata;
+  /**
+   * The hole span held by the writer that holds the write lock, or null if the lock is not held.
+   */
+  public CacheSpan lockedSpan;
+  /**
+   * The registered listeners. The list is replaced rather than modified, so that pending events
+   * can hold on to the listeners that were registered when they occurred.
+   */
+  public ArrayList<Cache.Listener> listeners;
+
+  /**
+   * @param key The cache key.
+   */
+  public CachedContent(String key) {
+    this.key = key;
+    spans = new ConcurrentSkipListMap<>();
+    length = C.LENGTH_UNSET;
+  }
+
+  /**
+   * Returns whether the content is visible through {@link Cache#getKeys()}, which is the case if
+   * it has cached spans or a known content length.
+   */
+  public boolean isPresent() {
+    return !spans.isEmpty() || length != C.LENGTH_UNSET;
+  }
+
+  /**
+   * Returns the cache {@link CacheSpan} corresponding to the provided position.
+   * <p>
+   * If the position is contained by a cached span then it's returned. Otherwise the returned
+   * {@link CacheSpan} defines the maximum extents of the hole in the cache. Whether the file of a
+   * returned cached span still exists is not checked.
+   *
+   * @param position The position.
+   * @return The corresponding {@link CacheSpan}.
+   */
+  public CacheSpan getSpan(long position) {
+    Map.Entry<Long, CacheSpan> floorEntry = spans.floorEntry(position);
+    if (floorEntry != null) {
+      CacheSpan floorSpan = floorEntry.getValue();
+      if (floorSpan.position + floorSpan.length > position) {
+        return floorSpan;
+      }
+    }
+    Long ceilingPosition = spans.ceilingKey(position);
+    return ceilingPosition == null ? CacheSpan.createOpenHole(key, position)
+        : CacheSpan.createClosedHole(key, position, ceilingPosition - position);
+  }
+
+  /**
+   * Queries if a range is entirely available in the cache.
+   *
+   * @param position The starting position of the data.
+   * @param length The length of the data.
+   * @return Whether the range is cached.
+   */
+  public boolean isCached(long position, long length) {
+    Map.Entry<Long, CacheSpan> floorEntry = spans.floorEntry(position);
+    if (floorEntry == null) {
+      // We don't have a span covering the start of the queried region.
+      return false;
+    }
+    CacheSpan floorSpan = floorEntry.getValue();
+    long queryEndPosition = position + length;
+    long currentEndPosition = floorSpan.position + floorSpan.length;
+    if (currentEndPosition <= position) {
+      // We don't have a span covering the start of the queried region.
+      return false;
+    } else if (currentEndPosition >= queryEndPosition) {
+      // floorSpan covers the queried region.
+      return true;
+    }
+    Iterator<CacheSpan> iterator =
+        spans.tailMap(floorSpan.position, false).values().iterator();
+    while (iterator.hasNext()) {
+      CacheSpan next = iterator.next();
+      if (next.position > currentEndPosition) {
+        // There's a hole in the cache within the queried region.
+        return false;
+      }
+      // We expect currentEndPosition to always equal (next.position + next.length), but
+      // perform a max check anyway to guard against the existence of overlapping spans.
+      currentEndPosition = Math.max(currentEndPosition, next.position + next.length);
+      if (currentEndPosition >= queryEndPosition) {
+        // We've found spans covering the queried region.
+        return true;
+      }
+    }
+    // We ran out of spans before covering the queried region.
+    return false;
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.util.Assertions;
+
+/**
+ * A count-min sketch that estimates how often cache spans have been accessed, using a fixed
+ * amount of memory regardless of how many distinct spans are seen.
+ * <p>
+ * Counters saturate at {@link #MAX_FREQUENCY}. Once the number of recorded accesses reaches ten
+ * times the width of the sketch all of the counters are halved, so that the estimates favor
+ * recent popularity and spans that were once popular don't stay in the cache forever.
+ */
+/* package */ final class FrequencySketch {
+
+  /**
+   * The maximum frequency that can be estimated.
+   */
+  public static final int MAX_FREQUENCY = 15;
+
+  private static final int DEPTH = 4;
+  private static final int[] SEEDS = new int[] {0x97cb3127, 0xb34acd6f, 0x5e9f2d1b, 0xc3a5c85d};
+
+  private final byte[][] counters;
+  private final int mask;
+  private final int sampleSize;
+
+  private int additions;
+  private int resetCount;
+
+  /**
+   * @param width The number of counters in each row of the sketch, which is rounded up to a power
+   *     of two. Should be at least the number of spans expected to be in the cache.
+   */
+  public FrequencySketch(int width) {
+    Assertions.checkArgument(width > 0);
+    int roundedWidth = Integer.highestOneBit(width);
+    if (roundedWidth < width) {
+      roundedWidth <<= 1;
+    }
+    counters = new byte[DEPTH][roundedWidth];
+    mask = roundedWidth - 1;
+    sampleSize = 10 * roundedWidth;
+  }
+
+  /**
+   * Records an access to the span at a position of a key.
+   *
+   * @param key The cache key.
+   * @param position The position of the span.
+   * @return Whether all of the counters were halved as a result of the access.
+   */
+  public boolean increment(String key, long position) {
+    int hash = hash(key, position);
+    int minimum = getFrequency(hash);
+    if (minimum == MAX_FREQUENCY) {
+      return false;
+    }
+    // Conservative update: only the counters holding the minimum need to be incremented.
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      if (counters[i][index] == minimum) {
+        counters[i][index]++;
+      }
+    }
+    if (++additions == sampleSize) {
+      reset();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the estimated access frequency of the span at a position of a key.
+   *
+   * @param key The cache key.
+   * @param position The position of the span.
+   * @return The estimated frequency, which is never less than the actual number of accesses since
+   *     the last time the counters were halved, capped at {@link #MAX_FREQUENCY}.
+   */
+  public int getFrequency(String key, long position) {
+    return getFrequency(hash(key, position));
+  }
+
+  /**
+   * Returns the number of times the counters have been halved.
+   */
+  public int getResetCount() {
+    return resetCount;
+  }
+
+  private int getFrequency(int hash) {
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < DEPTH; i++) {
+      frequency = Math.min(frequency, counters[i][indexOf(hash, i)]);
+    }
+    return frequency;
+  }
+
+  private int indexOf(int hash, int row) {
+    int rowHash = (hash ^ SEEDS[row]) * SEEDS[row];
+    rowHash ^= rowHash >>> 16;
+    return rowHash & mask;
+  }
+
+  private void reset() {
+    for (byte[] row : counters) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = (byte) (row[i] >> 1);
+      }
+    }
+    additions /= 2;
+    resetCount++;
+  }
+
+  private static int hash(String key, long position) {
+    int hash = 31 * key.hashCode() + (int) (position ^ (position >>> 32));
+    // Spread the bits, since keys often differ only in their last few characters.
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 15);
+  }
+
+}
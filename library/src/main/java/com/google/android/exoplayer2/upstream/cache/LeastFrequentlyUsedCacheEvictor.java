@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Evicts least frequently used cache files first, using recency to break ties.
+ * <p>
+ * Access frequencies are estimated by a {@link FrequencySketch} that also remembers spans that
+ * have been evicted, and which periodically ages its estimates. When space is needed for new data,
+ * cached spans are only evicted if they are used less frequently than the new data. If the new
+ * data is the least frequently used once it's been written, then it's evicted itself. This means
+ * that a single large piece of content that's played once, such as a title that's binge watched,
+ * cannot flush small pieces of content that are played repeatedly, such as intros and ads.
+ */
+public final class LeastFrequentlyUsedCacheEvictor implements CacheEvictor, Comparator<CacheSpan> {
+
+  /**
+   * The default number of spans that the cache is expected to hold.
+   */
+  public static final int DEFAULT_EXPECTED_SPAN_COUNT = 4096;
+
+  private final long maxBytes;
+  private final FrequencySketch sketch;
+  private final TreeMap<CacheSpan, Integer> frequencies;
+  private final TreeSet<CacheSpan> leastFrequentlyUsed;
+
+  private long currentSize;
+
+  /**
+   * @param maxBytes The maximum size of the cache in bytes.
+   */
+  public LeastFrequentlyUsedCacheEvictor(long maxBytes) {
+    this(maxBytes, DEFAULT_EXPECTED_SPAN_COUNT);
+  }
+
+  /**
+   * @param maxBytes The maximum size of the cache in bytes.
+   * @param expectedSpanCount The number of spans that the cache is expected to hold, which
+   *     determines the size of the frequency sketch.
+   */
+  public LeastFrequentlyUsedCacheEvictor(long maxBytes, int expectedSpanCount) {
+    this.maxBytes = maxBytes;
+    this.sketch = new FrequencySketch(expectedSpanCount);
+    // Spans are identified by key and position. The frequency recorded for a span when it's added
+    // is used to order it, since estimates for other spans can change when the sketch is updated.
+    this.frequencies = new TreeMap<>();
+    this.leastFrequentlyUsed = new TreeSet<>(this);
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // Do nothing.
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long maxLength) {
+    recordAccess(key, position);
+    int frequency = sketch.getFrequency(key, position);
+    // Only make space by evicting spans that are used less often than the new data. If there
+    // isn't enough space afterwards, onSpanAdded will decide whether the new data is admitted.
+    while (currentSize + maxLength > maxBytes && !leastFrequentlyUsed.isEmpty()) {
+      CacheSpan victim = leastFrequentlyUsed.first();
+      if (frequencies.get(victim) >= frequency) {
+        break;
+      }
+      cache.removeSpan(victim);
+    }
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    add(span);
+    evictCache(cache);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    if (frequencies.containsKey(span)) {
+      // The span must be removed from the set before its frequency, which the set is ordered by.
+      leastFrequentlyUsed.remove(span);
+      frequencies.remove(span);
+      currentSize -= span.length;
+    }
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    onSpanRemoved(cache, oldSpan);
+    recordAccess(newSpan.key, newSpan.position);
+    add(newSpan);
+    evictCache(cache);
+  }
+
+  @Override
+  public int compare(CacheSpan lhs, CacheSpan rhs) {
+    int frequencyDelta = frequencies.get(lhs) - frequencies.get(rhs);
+    if (frequencyDelta != 0) {
+      return frequencyDelta;
+    }
+    if (lhs.lastAccessTimestamp != rhs.lastAccessTimestamp) {
+      return lhs.lastAccessTimestamp < rhs.lastAccessTimestamp ? -1 : 1;
+    }
+    // Use the standard compareTo method as a tie-break.
+    return lhs.compareTo(rhs);
+  }
+
+  private void add(CacheSpan span) {
+    frequencies.put(span, sketch.getFrequency(span.key, span.position));
+    leastFrequentlyUsed.add(span);
+    currentSize += span.length;
+  }
+
+  private void recordAccess(String key, long position) {
+    if (sketch.increment(key, position)) {
+      // The estimates have been aged, so reorder the cached spans using the new estimates.
+      ArrayList<CacheSpan> spans = new ArrayList<>(leastFrequentlyUsed);
+      leastFrequentlyUsed.clear();
+      for (CacheSpan span : spans) {
+        frequencies.put(span, sketch.getFrequency(span.key, span.position));
+      }
+      leastFrequentlyUsed.addAll(spans);
+    }
+  }
+
+  private void evictCache(Cache cache) {
+    while (currentSize > maxBytes) {
+      cache.removeSpan(leastFrequentlyUsed.first());
+    }
+  }
+
+}
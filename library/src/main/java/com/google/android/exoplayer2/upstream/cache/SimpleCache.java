@@ -16,8 +16,6 @@
 package com.google.android.exoplayer2.upstream.cache;
 
 import android.os.ConditionVariable;
-
-import android.util.Pair;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.util.Assertions;
 import java.io.File;
@@ -25,125 +23,197 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A {@link Cache} implementation that maintains an in-memory representation.
+ * <p>
+ * Locking is per key, so operations on different keys proceed in parallel. Queries do not lock
+ * at all. Events are queued whilst holding the lock for their key, and are delivered to listeners
+ * and the {@link CacheEvictor} in order once the lock has been released, so that listeners are
+ * free to call back into the cache for any key.
  */
 public final class SimpleCache implements Cache {
 
+  private static final int EVENT_SPAN_ADDED = 0;
+  private static final int EVENT_SPAN_REMOVED = 1;
+  private static final int EVENT_SPAN_TOUCHED = 2;
+
   private final File cacheDir;
   private final CacheEvictor evictor;
-  private final HashMap<String, CacheSpan> lockedSpans;
-  private final HashMap<String, Pair<Long, TreeSet<CacheSpan>>> cachedSpans;
-  private final HashMap<String, ArrayList<Listener>> listeners;
-  private long totalSpace = 0;
+  private final ConcurrentHashMap<String, CachedContent> contents;
+  private final SimpleCacheIndex index;
+  private final AtomicLong totalSpace;
+  private final ConcurrentLinkedQueue<Event> pendingEvents;
+  private final ReentrantLock eventLock;
+  private final ConditionVariable initializedCondition;
+
+  private volatile boolean initialized;
+  private volatile boolean staleSpansDetected;
 
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
    * the directory cannot be used to store other files.
+   * <p>
+   * The cache's spans are persisted in an index within the directory, so that initialization does
+   * not need to scan the directory. The directory is only scanned if the index is missing or
+   * corrupt. Otherwise files that are not in the index, which are left behind if the process is
+   * killed while modifying the cache, are deleted in the background after initialization.
    *
    * @param cacheDir A dedicated cache directory.
    */
   public SimpleCache(File cacheDir, CacheEvictor evictor) {
     this.cacheDir = cacheDir;
     this.evictor = evictor;
-    this.lockedSpans = new HashMap<>();
-    this.cachedSpans = new HashMap<>();
-    this.listeners = new HashMap<>();
-    // Start cache initialization.
-    final ConditionVariable conditionVariable = new ConditionVariable();
+    this.contents = new ConcurrentHashMap<>();
+    this.index = new SimpleCacheIndex(cacheDir, contents.values());
+    this.totalSpace = new AtomicLong();
+    this.pendingEvents = new ConcurrentLinkedQueue<>();
+    this.eventLock = new ReentrantLock();
+    this.initializedCondition = new ConditionVariable();
+    // Start cache initialization. Calls into the cache block until it's complete.
     new Thread("SimpleCache.initialize()") {
       @Override
       public void run() {
-        synchronized (SimpleCache.this) {
-          conditionVariable.open();
-          initialize();
+        boolean indexLoaded = initialize();
+        if (indexLoaded) {
+          removeUnindexedFiles();
         }
       }
     }.start();
-    conditionVariable.block();
+  }
+
+  /**
+   * Writes changes that have yet to be persisted to the index, blocking until they've been
+   * written. Changes are otherwise persisted in the background, so this method should be called
+   * when the cache is no longer required. The cache must not be used after it's been released.
+   */
+  public void release() {
+    blockUntilInitialized();
+    index.flush();
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> addListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey == null) {
-      listenersForKey = new ArrayList<>();
-      listeners.put(key, listenersForKey);
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+    blockUntilInitialized();
+    CachedContent content = getOrAddContent(key);
+    // Holding the event lock ensures no events for the key are delivered whilst the listener is
+    // being added. Events that are already pending are not delivered to the new listener.
+    eventLock.lock();
+    try {
+      synchronized (content) {
+        ArrayList<Listener> listeners = content.listeners == null ? new ArrayList<Listener>()
+            : new ArrayList<>(content.listeners);
+        listeners.add(listener);
+        content.listeners = listeners;
+        return getCachedSpans(content);
+      }
+    } finally {
+      eventLock.unlock();
+      deliverPendingEvents();
     }
-    listenersForKey.add(listener);
-    return getCachedSpans(key);
   }
 
   @Override
-  public synchronized void removeListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey != null) {
-      listenersForKey.remove(listener);
-      if (listenersForKey.isEmpty()) {
-        listeners.remove(key);
+  public void removeListener(String key, Listener listener) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(key);
+    if (content == null) {
+      return;
+    }
+    synchronized (content) {
+      if (content.listeners != null && content.listeners.contains(listener)) {
+        ArrayList<Listener> listeners = new ArrayList<>(content.listeners);
+        listeners.remove(listener);
+        content.listeners = listeners.isEmpty() ? null : listeners;
       }
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
-    TreeSet<CacheSpan> spansForKey = getSpansForKey(key);
-    return spansForKey == null ? null : new TreeSet<>(spansForKey);
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
+    blockUntilInitialized();
+    return getCachedSpans(contents.get(key));
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
-    return new HashSet<>(cachedSpans.keySet());
+  public Set<String> getKeys() {
+    blockUntilInitialized();
+    HashSet<String> keys = new HashSet<>();
+    for (CachedContent content : contents.values()) {
+      if (content.isPresent()) {
+        keys.add(content.key);
+      }
+    }
+    return keys;
   }
 
   @Override
-  public synchronized long getCacheSpace() {
-    return totalSpace;
+  public long getCacheSpace() {
+    blockUntilInitialized();
+    return totalSpace.get();
   }
 
   @Override
-  public synchronized CacheSpan startReadWrite(String key, long position)
-      throws InterruptedException {
-    CacheSpan lookupSpan = CacheSpan.createLookup(key, position);
-    while (true) {
-      CacheSpan span = startReadWriteNonBlocking(lookupSpan);
-      if (span != null) {
-        return span;
-      } else {
-        // Write case, lock not available. We'll be woken up when a locked span is released (if the
-        // released lock is for the requested key then we'll be able to make progress) or when a
-        // span is added to the cache (if the span is for the requested key and covers the requested
-        // position, then we'll become a read and be able to make progress).
-        wait();
+  public CacheSpan startReadWrite(String key, long position) throws InterruptedException {
+    blockUntilInitialized();
+    CachedContent content = getOrAddContent(key);
+    try {
+      synchronized (content) {
+        while (true) {
+          CacheSpan span = startReadWriteNonBlocking(content, position);
+          if (span != null) {
+            return span;
+          } else {
+            // Write case, lock not available. We'll be woken up when the locked span is released
+            // (at which point we'll be able to make progress) or when a span is added for the key
+            // (if the span covers the requested position, then we'll become a read and be able to
+            // make progress).
+            content.wait();
+          }
+        }
       }
+    } finally {
+      onOperationEnded();
     }
   }
 
   @Override
-  public synchronized CacheSpan startReadWriteNonBlocking(String key, long position) {
-    return startReadWriteNonBlocking(CacheSpan.createLookup(key, position));
+  public CacheSpan startReadWriteNonBlocking(String key, long position) {
+    blockUntilInitialized();
+    CachedContent content = getOrAddContent(key);
+    try {
+      synchronized (content) {
+        return startReadWriteNonBlocking(content, position);
+      }
+    } finally {
+      onOperationEnded();
+    }
   }
 
-  private synchronized CacheSpan startReadWriteNonBlocking(CacheSpan lookupSpan) {
-    CacheSpan cacheSpan = getSpan(lookupSpan);
+  private CacheSpan startReadWriteNonBlocking(CachedContent content, long position) {
+    CacheSpan cacheSpan = getSpan(content, position);
 
     // Read case.
     if (cacheSpan.isCached) {
       // Obtain a new span with updated last access timestamp.
       CacheSpan newCacheSpan = cacheSpan.touch();
-      replaceSpan(cacheSpan, newCacheSpan);
-      notifySpanTouched(cacheSpan, newCacheSpan);
+      content.spans.put(newCacheSpan.position, newCacheSpan);
+      index.onSpanTouched(newCacheSpan);
+      queueEvent(content, EVENT_SPAN_TOUCHED, cacheSpan, newCacheSpan);
       return newCacheSpan;
     }
 
     // Write case, lock available.
-    if (!lockedSpans.containsKey(lookupSpan.key)) {
-      lockedSpans.put(lookupSpan.key, cacheSpan);
+    if (content.lockedSpan == null) {
+      content.lockedSpan = cacheSpan;
       return cacheSpan;
     }
 
@@ -152,96 +222,252 @@ public final class SimpleCache implements Cache {
   }
 
   @Override
-  public synchronized File startFile(String key, long position, long maxLength) {
-    Assertions.checkState(lockedSpans.containsKey(key));
+  public File startFile(String key, long position, long maxLength) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(key);
+    Assertions.checkState(content != null);
+    synchronized (content) {
+      Assertions.checkState(content.lockedSpan != null);
+    }
     if (!cacheDir.exists()) {
       // For some reason the cache directory doesn't exist. Make a best effort to create it.
       removeStaleSpans();
       cacheDir.mkdirs();
+      index.rewrite();
     }
-    evictor.onStartFile(this, key, position, maxLength);
+    eventLock.lock();
+    try {
+      dispatchPendingEvents();
+      evictor.onStartFile(this, key, position, maxLength);
+    } finally {
+      eventLock.unlock();
+    }
+    onOperationEnded();
     return CacheSpan.getCacheFileName(cacheDir, key, position, System.currentTimeMillis());
   }
 
   @Override
-  public synchronized void commitFile(File file) {
+  public void commitFile(File file) {
+    blockUntilInitialized();
     CacheSpan span = CacheSpan.createCacheEntry(file);
     Assertions.checkState(span != null);
-    Assertions.checkState(lockedSpans.containsKey(span.key));
-    // If the file doesn't exist, don't add it to the in-memory representation.
-    if (!file.exists()) {
-      return;
+    CachedContent content = contents.get(span.key);
+    Assertions.checkState(content != null);
+    try {
+      synchronized (content) {
+        Assertions.checkState(content.lockedSpan != null);
+        // If the file doesn't exist, don't add it to the in-memory representation.
+        if (!file.exists()) {
+          return;
+        }
+        // If the file has length 0, delete it and don't add it to the in-memory representation.
+        if (file.length() == 0) {
+          file.delete();
+          return;
+        }
+        // Check if the span conflicts with the set content length
+        long length = content.length;
+        if (length != C.LENGTH_UNSET) {
+          Assertions.checkState((span.position + span.length) <= length);
+        }
+        addSpan(content, span);
+        index.onSpanAdded(span);
+        content.notifyAll();
+      }
+    } finally {
+      onOperationEnded();
     }
-    // If the file has length 0, delete it and don't add it to the in-memory representation.
-    if (file.length() == 0) {
-      file.delete();
-      return;
+  }
+
+  @Override
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(holeSpan.key);
+    Assertions.checkState(content != null);
+    synchronized (content) {
+      Assertions.checkState(holeSpan == content.lockedSpan);
+      content.lockedSpan = null;
+      content.notifyAll();
     }
-    // Check if the span conflicts with the set content length
-    Long length = getContentLength(span.key);
-    if (length != C.LENGTH_UNSET) {
-      Assertions.checkState((span.position + span.length) <= length);
+  }
+
+  @Override
+  public void removeSpan(CacheSpan span) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(span.key);
+    try {
+      if (content == null) {
+        return;
+      }
+      synchronized (content) {
+        // The span may have been touched or removed by another thread since it was obtained, in
+        // which case the events that will bring the caller up to date are still pending.
+        CacheSpan currentSpan = content.spans.get(span.position);
+        if (currentSpan == null || currentSpan.lastAccessTimestamp != span.lastAccessTimestamp) {
+          return;
+        }
+        removeSpan(content, currentSpan);
+        currentSpan.file.delete();
+      }
+    } finally {
+      onOperationEnded();
     }
-    addSpan(span);
-    notifyAll();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
-    Assertions.checkState(holeSpan == lockedSpans.remove(holeSpan.key));
-    notifyAll();
+  public boolean isCached(String key, long position, long length) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(key);
+    return content != null && content.isCached(position, length);
+  }
+
+  @Override
+  public boolean setContentLength(String key, long length) {
+    blockUntilInitialized();
+    CachedContent content = getOrAddContent(key);
+    try {
+      synchronized (content) {
+        if (!content.spans.isEmpty()) {
+          CacheSpan last = content.spans.lastEntry().getValue();
+          long end = last.position + last.length;
+          if (end > length) {
+            return false;
+          }
+        }
+        content.length = length;
+        index.onContentLengthSet(key, length);
+        return true;
+      }
+    } finally {
+      onOperationEnded();
+    }
+  }
+
+  @Override
+  public long getContentLength(String key) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(key);
+    return content == null ? C.LENGTH_UNSET : content.length;
+  }
+
+  @Override
+  public boolean setContentMetadata(String key, String name, byte[] value) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(key);
+    if (content == null) {
+      return false;
+    }
+    try {
+      synchronized (content) {
+        if (!content.isPresent()) {
+          return false;
+        }
+        HashMap<String, byte[]> metadata = content.metadata == null
+            ? new HashMap<String, byte[]>() : new HashMap<>(content.metadata);
+        metadata.put(name, value);
+        content.metadata = metadata;
+        index.onContentMetadataSet(key, name, value);
+        return true;
+      }
+    } finally {
+      onOperationEnded();
+    }
+  }
+
+  @Override
+  public byte[] getContentMetadata(String key, String name) {
+    blockUntilInitialized();
+    CachedContent content = contents.get(key);
+    Map<String, byte[]> metadata = content == null ? null : content.metadata;
+    return metadata == null ? null : metadata.get(name);
   }
 
   /**
-   * Returns the cache {@link CacheSpan} corresponding to the provided lookup {@link CacheSpan}.
+   * Returns the cache {@link CacheSpan} corresponding to the provided position. Must be called
+   * whilst synchronized on the content.
    * <p>
-   * If the lookup position is contained by an existing entry in the cache, then the returned
-   * {@link CacheSpan} defines the file in which the data is stored. If the lookup position is not
+   * If the position is contained by an existing entry in the cache, then the returned
+   * {@link CacheSpan} defines the file in which the data is stored. If the position is not
    * contained by an existing entry, then the returned {@link CacheSpan} defines the maximum extents
    * of the hole in the cache.
    *
-   * @param lookupSpan A lookup {@link CacheSpan} specifying a key and position.
+   * @param content The content for the key.
+   * @param position The lookup position.
    * @return The corresponding cache {@link CacheSpan}.
    */
-  private CacheSpan getSpan(CacheSpan lookupSpan) {
-    String key = lookupSpan.key;
-    long offset = lookupSpan.position;
-    TreeSet<CacheSpan> entries = getSpansForKey(key);
-    if (entries == null) {
-      return CacheSpan.createOpenHole(key, lookupSpan.position);
-    }
-    CacheSpan floorSpan = entries.floor(lookupSpan);
-    if (floorSpan != null &&
-        floorSpan.position <= offset && offset < floorSpan.position + floorSpan.length) {
-      // The lookup position is contained within floorSpan.
-      if (floorSpan.file.exists()) {
-        return floorSpan;
-      } else {
-        // The file has been deleted from under us. It's likely that other files will have been
-        // deleted too, so scan the whole in-memory representation.
-        removeStaleSpans();
-        return getSpan(lookupSpan);
-      }
+  private CacheSpan getSpan(CachedContent content, long position) {
+    CacheSpan span = content.getSpan(position);
+    if (span.isCached && !span.file.exists()) {
+      // The file has been deleted from under us. It's likely that other files will have been
+      // deleted too, so remove the stale spans for this key, and all other keys once the lock has
+      // been released.
+      removeStaleSpans(content);
+      staleSpansDetected = true;
+      return content.getSpan(position);
     }
-    CacheSpan ceilEntry = entries.ceiling(lookupSpan);
-    return ceilEntry == null ? CacheSpan.createOpenHole(key, lookupSpan.position) :
-        CacheSpan.createClosedHole(key, lookupSpan.position,
-            ceilEntry.position - lookupSpan.position);
+    return span;
   }
 
   /**
    * Ensures that the cache's in-memory representation has been initialized.
+   *
+   * @return Whether the in-memory representation was loaded from the index.
    */
-  private void initialize() {
+  private boolean initialize() {
     if (!cacheDir.exists()) {
       cacheDir.mkdirs();
     }
+    boolean indexLoaded = index.load(new SimpleCacheIndex.Callback() {
+      @Override
+      public void onSpanRestored(CacheSpan span) {
+        addSpan(getOrAddContent(span.key), span);
+      }
+      @Override
+      public void onContentLengthRestored(String key, long length) {
+        getOrAddContent(key).length = length;
+      }
+      @Override
+      public void onContentMetadataRestored(String key, String name, byte[] value) {
+        CachedContent content = getOrAddContent(key);
+        if (content.metadata == null) {
+          content.metadata = new HashMap<>();
+        }
+        content.metadata.put(name, value);
+      }
+    });
+    if (!indexLoaded) {
+      rebuildFromDirectory();
+      index.rewrite();
+    } else if (index.needsCompaction()) {
+      index.rewrite();
+    }
+    // Hold the event lock whilst opening the cache, so that other threads' events are delivered
+    // after those of the spans that were added during initialization.
+    eventLock.lock();
+    try {
+      initialized = true;
+      initializedCondition.open();
+      dispatchPendingEvents();
+      evictor.onCacheInitialized();
+    } finally {
+      eventLock.unlock();
+    }
+    deliverPendingEvents();
+    return indexLoaded;
+  }
+
+  /**
+   * Builds the in-memory representation by scanning the cache directory.
+   */
+  private void rebuildFromDirectory() {
     File[] files = cacheDir.listFiles();
     if (files == null) {
       return;
     }
     for (File file : files) {
-      if (file.length() == 0) {
+      if (SimpleCacheIndex.isIndexFile(file)) {
+        continue;
+      } else if (file.length() == 0) {
         file.delete();
       } else {
         file = CacheSpan.upgradeIfNeeded(file);
@@ -249,181 +475,209 @@ public final class SimpleCache implements Cache {
         if (span == null) {
           file.delete();
         } else {
-          addSpan(span);
+          addSpan(getOrAddContent(span.key), span);
         }
       }
     }
-    evictor.onCacheInitialized();
   }
 
   /**
-   * Adds a cached span to the in-memory representation.
-   *
-   * @param span The span to be added.
+   * Deletes files in the cache directory that are not part of the in-memory representation, other
+   * than those that may be being written. The directory is listed without holding any locks, and
+   * each file is then checked whilst holding the lock for its key, so the cache remains usable
+   * throughout.
    */
-  private void addSpan(CacheSpan span) {
-    Pair<Long, TreeSet<CacheSpan>> entryForKey = cachedSpans.get(span.key);
-    TreeSet<CacheSpan> spansForKey;
-    if (entryForKey == null) {
-      spansForKey = new TreeSet<>();
-      setKeyValue(span.key, C.LENGTH_UNSET, spansForKey);
-    } else {
-      spansForKey = entryForKey.second;
+  private void removeUnindexedFiles() {
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (SimpleCacheIndex.isIndexFile(file)) {
+        continue;
+      }
+      CacheSpan span = CacheSpan.createCacheEntry(file);
+      if (span == null) {
+        file.delete();
+        continue;
+      }
+      // A file can only be being written if the content for its key exists.
+      CachedContent content = contents.get(span.key);
+      if (content == null) {
+        file.delete();
+        continue;
+      }
+      synchronized (content) {
+        CacheSpan indexedSpan = content.spans.get(span.position);
+        if (content.lockedSpan == null && (indexedSpan == null
+            || indexedSpan.lastAccessTimestamp != span.lastAccessTimestamp)) {
+          file.delete();
+        }
+      }
     }
-    spansForKey.add(span);
-    totalSpace += span.length;
-    notifySpanAdded(span);
   }
 
-  @Override
-  public synchronized void removeSpan(CacheSpan span) {
-    TreeSet<CacheSpan> spansForKey = getSpansForKey(span.key);
-    totalSpace -= span.length;
-    Assertions.checkState(spansForKey.remove(span));
-    span.file.delete();
-    if (spansForKey.isEmpty()) {
-      cachedSpans.remove(span.key);
+  private void blockUntilInitialized() {
+    if (!initialized) {
+      initializedCondition.block();
     }
-    notifySpanRemoved(span);
   }
 
   /**
-   * Scans all of the cached spans in the in-memory representation, removing any for which files
-   * no longer exist.
+   * Performs the work deferred by an operation until it has released the lock for its key.
    */
-  private void removeStaleSpans() {
-    Iterator<Entry<String, Pair<Long, TreeSet<CacheSpan>>>> iterator =
-        cachedSpans.entrySet().iterator();
-    while (iterator.hasNext()) {
-      Entry<String, Pair<Long, TreeSet<CacheSpan>>> next = iterator.next();
-      Iterator<CacheSpan> spanIterator = next.getValue().second.iterator();
-      boolean isEmpty = true;
-      while (spanIterator.hasNext()) {
-        CacheSpan span = spanIterator.next();
-        if (!span.file.exists()) {
-          spanIterator.remove();
-          if (span.isCached) {
-            totalSpace -= span.length;
-          }
-          notifySpanRemoved(span);
-        } else {
-          isEmpty = false;
-        }
-      }
-      if (isEmpty) {
-        iterator.remove();
-      }
+  private void onOperationEnded() {
+    if (staleSpansDetected) {
+      staleSpansDetected = false;
+      removeStaleSpans();
     }
+    deliverPendingEvents();
   }
 
-  private void notifySpanRemoved(CacheSpan span) {
-    ArrayList<Listener> keyListeners = listeners.get(span.key);
-    if (keyListeners != null) {
-      for (int i = keyListeners.size() - 1; i >= 0; i--) {
-        keyListeners.get(i).onSpanRemoved(this, span);
+  /**
+   * Delivers pending events, unless another thread is already doing so.
+   * <p>
+   * If another thread is delivering events then it will deliver ours too, so there's no need to
+   * wait for it. Every thread that holds {@link #eventLock} calls this method after releasing it,
+   * so events queued whilst the lock was held are not left undelivered.
+   */
+  private void deliverPendingEvents() {
+    while (!pendingEvents.isEmpty() && eventLock.tryLock()) {
+      try {
+        dispatchPendingEvents();
+      } finally {
+        eventLock.unlock();
       }
     }
-    evictor.onSpanRemoved(this, span);
   }
 
-  private void notifySpanAdded(CacheSpan span) {
-    ArrayList<Listener> keyListeners = listeners.get(span.key);
-    if (keyListeners != null) {
-      for (int i = keyListeners.size() - 1; i >= 0; i--) {
-        keyListeners.get(i).onSpanAdded(this, span);
+  private CachedContent getOrAddContent(String key) {
+    CachedContent content = contents.get(key);
+    if (content == null) {
+      content = new CachedContent(key);
+      CachedContent existingContent = contents.putIfAbsent(key, content);
+      if (existingContent != null) {
+        content = existingContent;
       }
     }
-    evictor.onSpanAdded(this, span);
+    return content;
   }
 
-  private void notifySpanTouched(CacheSpan oldSpan, CacheSpan newSpan) {
-    ArrayList<Listener> keyListeners = listeners.get(oldSpan.key);
-    if (keyListeners != null) {
-      for (int i = keyListeners.size() - 1; i >= 0; i--) {
-        keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
-      }
-    }
-    evictor.onSpanTouched(this, oldSpan, newSpan);
+  private static NavigableSet<CacheSpan> getCachedSpans(CachedContent content) {
+    return content == null || !content.isPresent() ? null
+        : new TreeSet<>(content.spans.values());
   }
 
-  @Override
-  public synchronized boolean isCached(String key, long position, long length) {
-    TreeSet<CacheSpan> entries = getSpansForKey(key);
-    if (entries == null) {
-      return false;
-    }
-    CacheSpan lookupSpan = CacheSpan.createLookup(key, position);
-    CacheSpan floorSpan = entries.floor(lookupSpan);
-    if (floorSpan == null || floorSpan.position + floorSpan.length <= position) {
-      // We don't have a span covering the start of the queried region.
-      return false;
-    }
-    long queryEndPosition = position + length;
-    long currentEndPosition = floorSpan.position + floorSpan.length;
-    if (currentEndPosition >= queryEndPosition) {
-      // floorSpan covers the queried region.
-      return true;
+  /**
+   * Adds a cached span to the in-memory representation. Must be called whilst synchronized on the
+   * content, except during initialization.
+   *
+   * @param content The content for the span's key.
+   * @param span The span to be added.
+   */
+  private void addSpan(CachedContent content, CacheSpan span) {
+    content.spans.put(span.position, span);
+    totalSpace.addAndGet(span.length);
+    queueEvent(content, EVENT_SPAN_ADDED, span, null);
+  }
+
+  /**
+   * Removes a cached span from the in-memory representation. Must be called whilst synchronized on
+   * the content.
+   *
+   * @param content The content for the span's key.
+   * @param span The span to be removed.
+   */
+  private void removeSpan(CachedContent content, CacheSpan span) {
+    content.spans.remove(span.position);
+    totalSpace.addAndGet(-span.length);
+    if (content.spans.isEmpty()) {
+      // Forget the content length and metadata along with the last span.
+      content.length = C.LENGTH_UNSET;
+      content.metadata = null;
     }
-    for (CacheSpan next : entries.tailSet(floorSpan, false)) {
-      if (next.position > currentEndPosition) {
-        // There's a hole in the cache within the queried region.
-        return false;
+    index.onSpanRemoved(span);
+    queueEvent(content, EVENT_SPAN_REMOVED, span, null);
+  }
+
+  /**
+   * Scans all of the cached spans in the in-memory representation, removing any for which files
+   * no longer exist.
+   */
+  private void removeStaleSpans() {
+    for (CachedContent content : contents.values()) {
+      synchronized (content) {
+        removeStaleSpans(content);
       }
-      // We expect currentEndPosition to always equal (next.position + next.length), but
-      // perform a max check anyway to guard against the existence of overlapping spans.
-      currentEndPosition = Math.max(currentEndPosition, next.position + next.length);
-      if (currentEndPosition >= queryEndPosition) {
-        // We've found spans covering the queried region.
-        return true;
+    }
+  }
+
+  /**
+   * Removes the cached spans of a content for which files no longer exist. Must be called whilst
+   * synchronized on the content.
+   */
+  private void removeStaleSpans(CachedContent content) {
+    Iterator<CacheSpan> spanIterator = content.spans.values().iterator();
+    while (spanIterator.hasNext()) {
+      CacheSpan span = spanIterator.next();
+      if (!span.file.exists()) {
+        removeSpan(content, span);
       }
     }
-    // We ran out of spans before covering the queried region.
-    return false;
   }
 
-  @Override
-  public synchronized boolean setContentLength(String key, long length) {
-    Pair<Long, TreeSet<CacheSpan>> entryForKey = cachedSpans.get(key);
-    TreeSet<CacheSpan> entries;
-    if (entryForKey != null) {
-      entries = entryForKey.second;
-      if (entries != null && !entries.isEmpty()) {
-        CacheSpan last = entries.last();
-        long end = last.position + last.length;
-        if (end > length) {
-          return false;
+  private void queueEvent(CachedContent content, int type, CacheSpan span, CacheSpan newSpan) {
+    pendingEvents.add(new Event(type, span, newSpan, content.listeners));
+  }
+
+  /**
+   * Delivers pending events in the order in which they occurred. Must be called whilst holding
+   * {@link #eventLock}, and without holding the lock for any key. Listeners that
+   * modify the cache cause events to be delivered re-entrantly, so that the evictor observes the
+   * effects of its own removals before they return.
+   */
+  private void dispatchPendingEvents() {
+    Event event;
+    while ((event = pendingEvents.poll()) != null) {
+      if (event.listeners != null) {
+        for (int i = event.listeners.size() - 1; i >= 0; i--) {
+          event.dispatch(this, event.listeners.get(i));
         }
       }
-    } else {
-      entries = new TreeSet<>();
+      event.dispatch(this, evictor);
     }
-    // TODO persist the length value
-    setKeyValue(key, length, entries);
-    return true;
   }
 
-  @Override
-  public synchronized long getContentLength(String key) {
-    Pair<Long, TreeSet<CacheSpan>> entryForKey = cachedSpans.get(key);
-    return entryForKey == null ? C.LENGTH_UNSET : entryForKey.first;
-  }
+  private static final class Event {
 
+    public final int type;
+    public final CacheSpan span;
+    public final CacheSpan newSpan;
+    public final ArrayList<Listener> listeners;
 
-  private TreeSet<CacheSpan> getSpansForKey(String key) {
-    Pair<Long, TreeSet<CacheSpan>> entryForKey = cachedSpans.get(key);
-    return entryForKey != null ? entryForKey.second : null;
-  }
+    public Event(int type, CacheSpan span, CacheSpan newSpan, ArrayList<Listener> listeners) {
+      this.type = type;
+      this.span = span;
+      this.newSpan = newSpan;
+      this.listeners = listeners;
+    }
 
-  private void setKeyValue(String key, long length, TreeSet<CacheSpan> entries) {
-    cachedSpans.put(key, Pair.create(length, entries));
-  }
+    public void dispatch(Cache cache, Listener listener) {
+      switch (type) {
+        case EVENT_SPAN_ADDED:
+          listener.onSpanAdded(cache, span);
+          break;
+        case EVENT_SPAN_REMOVED:
+          listener.onSpanRemoved(cache, span);
+          break;
+        case EVENT_SPAN_TOUCHED:
+          listener.onSpanTouched(cache, span, newSpan);
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
 
-  private void replaceSpan(CacheSpan oldSpan, CacheSpan newSpan) {
-    // Remove the old span from the in-memory representation.
-    TreeSet<CacheSpan> spansForKey = getSpansForKey(oldSpan.key);
-    Assertions.checkState(spansForKey.remove(oldSpan));
-    // Add the updated span back into the in-memory representation.
-    spansForKey.add(newSpan);
   }
 
 }
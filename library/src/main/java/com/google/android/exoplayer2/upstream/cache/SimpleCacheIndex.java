@@ -0,0 +1,728 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.util.Log;
+import com.google.android.exoplayer2.C;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A persistent index of the spans held by a {@link SimpleCache}, stored as a binary journal in the
+ * cache directory.
+ * <p>
+ * The journal starts with a version header, followed by a sequence of checksummed records. Each
+ * record defines a key, adds, removes or touches a span, or sets the content length or an item of
+ * metadata of a key.
+ * Loading the index is a single sequential read, which avoids listing the cache directory, parsing
+ * each file name and querying each file length.
+ * <p>
+ * Recording a mutation only encodes it into an in-memory buffer, so that callers never wait for
+ * disk I/O. Touches are coalesced, so that repeatedly reading a span records only its latest
+ * access. Buffered records are appended to the journal on a background thread, which also rewrites
+ * the journal from the in-memory state once it has grown to be mostly obsolete records. Buffered
+ * records are lost if the process is killed before they're written. The cache remains consistent
+ * in that case, since spans whose files are missing are removed when they're next read, and files
+ * that are missing from the index are deleted when the cache is next initialized.
+ * <p>
+ * If the journal is missing or corrupt then {@link #load(Callback)} fails, and the owner is
+ * expected to rebuild its state from the directory and call {@link #rewrite()}.
+ * <p>
+ * Mutations may be recorded from multiple threads. A rewrite may run concurrently with a mutation
+ * that's been applied in memory but not yet recorded. Hence owners must apply each mutation in
+ * memory before recording it, and removals and touches of spans that are not in the journal are
+ * ignored when it's loaded.
+ */
+/* package */ final class SimpleCacheIndex {
+
+  /**
+   * Receives the state restored by {@link #load(Callback)}.
+   */
+  public interface Callback {
+
+    /**
+     * Called for each cached span in the index.
+     *
+     * @param span The restored span.
+     */
+    void onSpanRestored(CacheSpan span);
+
+    /**
+     * Called for each key whose content length is set.
+     *
+     * @param key The cache key.
+     * @param length The content length.
+     */
+    void onContentLengthRestored(String key, long length);
+
+    /**
+     * Called for each item of metadata that's set.
+     *
+     * @param key The cache key.
+     * @param name The name of the metadata.
+     * @param value The value of the metadata.
+     */
+    void onContentMetadataRestored(String key, String name, byte[] value);
+
+  }
+
+  /**
+   * The name of the index file within the cache directory.
+   */
+  public static final String FILE_NAME = "cached_spans.exi";
+
+  private static final String TAG = "SimpleCacheIndex";
+
+  private static final int VERSION = 1;
+
+  private static final int RECORD_TYPE_KEY = 0;
+  private static final int RECORD_TYPE_ADD_SPAN = 1;
+  private static final int RECORD_TYPE_REMOVE_SPAN = 2;
+  private static final int RECORD_TYPE_TOUCH_SPAN = 3;
+  private static final int RECORD_TYPE_CONTENT_LENGTH = 4;
+  private static final int RECORD_TYPE_CONTENT_METADATA = 5;
+
+  /**
+   * The minimum number of records in the journal before it's considered for compaction.
+   */
+  private static final int MIN_COMPACTION_RECORD_COUNT = 1024;
+
+  /**
+   * How long the background thread is kept alive whilst there's nothing to write.
+   */
+  private static final int WRITER_KEEP_ALIVE_MS = 1000;
+
+  private final File cacheDir;
+  private final File file;
+  private final File tempFile;
+  private final Collection<CachedContent> contents;
+  private final Executor writeExecutor;
+  private final Runnable writeRunnable;
+  /**
+   * Held whilst writing to the journal. Acquired before the index's own monitor where both are
+   * held, so that records are appended in the order in which they were buffered.
+   */
+  private final Object writeLock;
+
+  // Guarded by this.
+  private final HashMap<String, Integer> keyIds;
+  private final ByteArrayOutputStream recordBuffer;
+  private final DataOutputStream recordOutput;
+  private final ByteArrayOutputStream pendingRecords;
+  private final HashMap<String, HashMap<Long, Long>> pendingTouches;
+  private final CRC32 crc;
+  private int pendingRecordCount;
+  private boolean writeScheduled;
+  private boolean writeFailed;
+  private int journalRecordCount;
+  private int spanCount;
+
+  // Guarded by writeLock.
+  private DataOutputStream output;
+
+  /**
+   * @param cacheDir The cache directory in which the index is stored.
+   * @param contents The cache's in-memory representation, from which the journal is rewritten.
+   */
+  public SimpleCacheIndex(File cacheDir, Collection<CachedContent> contents) {
+    this.cacheDir = cacheDir;
+    this.contents = contents;
+    file = new File(cacheDir, FILE_NAME);
+    tempFile = new File(cacheDir, FILE_NAME + ".tmp");
+    writeLock = new Object();
+    keyIds = new HashMap<>();
+    recordBuffer = new ByteArrayOutputStream();
+    recordOutput = new DataOutputStream(recordBuffer);
+    pendingRecords = new ByteArrayOutputStream();
+    pendingTouches = new HashMap<>();
+    crc = new CRC32();
+    // The writer thread exits when idle, so an index that's never flushed doesn't leak it.
+    writeExecutor = new ThreadPoolExecutor(0, 1, WRITER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "SimpleCacheIndex");
+          }
+        });
+    writeRunnable = new Runnable() {
+      @Override
+      public void run() {
+        flush();
+        if (needsCompaction()) {
+          rewrite();
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns whether the given file is used by the index.
+   */
+  public static boolean isIndexFile(File file) {
+    String name = file.getName();
+    return name.equals(FILE_NAME) || name.equals(FILE_NAME + ".tmp");
+  }
+
+  /**
+   * Loads the index, passing the restored state to the callback.
+   * <p>
+   * If the journal ends with a partially written record, as happens if the process is killed
+   * during an append, then the complete records are restored and the journal is reported as
+   * needing compaction.
+   *
+   * @param callback Receives the restored state.
+   * @return Whether the index was loaded. False if the index does not exist or is corrupt, in which
+   *     case the callback will not have been invoked.
+   */
+  public synchronized boolean load(Callback callback) {
+    if (!file.exists()) {
+      return false;
+    }
+    HashMap<String, Long> contentLengths = new HashMap<>();
+    HashMap<String, HashMap<String, byte[]>> contentMetadata = new HashMap<>();
+    HashMap<String, TreeMap<Long, long[]>> spans = new HashMap<>();
+    boolean truncated = false;
+    InputStream inputStream = null;
+    try {
+      inputStream = new BufferedInputStream(new FileInputStream(file));
+      DataInputStream rawInput = new DataInputStream(inputStream);
+      CheckedInputStream checkedInputStream = new CheckedInputStream(inputStream, crc);
+      DataInputStream input = new DataInputStream(checkedInputStream);
+      if (rawInput.readInt() != VERSION) {
+        return false;
+      }
+      HashMap<Integer, String> keys = new HashMap<>();
+      int type;
+      while (true) {
+        crc.reset();
+        type = checkedInputStream.read();
+        if (type == -1) {
+          break;
+        }
+        try {
+          if (!readRecord(type, input, keys, spans, contentLengths, contentMetadata)
+              || (int) crc.getValue() != rawInput.readInt()) {
+            Log.w(TAG, "Corrupt cache index");
+            return false;
+          }
+        } catch (EOFException e) {
+          truncated = true;
+          break;
+        }
+        journalRecordCount++;
+      }
+      for (Map.Entry<Integer, String> entry : keys.entrySet()) {
+        keyIds.put(entry.getValue(), entry.getKey());
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to load cache index", e);
+      return false;
+    } finally {
+      closeQuietly(inputStream);
+    }
+
+    for (Map.Entry<String, TreeMap<Long, long[]>> entry : spans.entrySet()) {
+      String key = entry.getKey();
+      for (Map.Entry<Long, long[]> spanEntry : entry.getValue().entrySet()) {
+        long position = spanEntry.getKey();
+        long[] lengthAndTimestamp = spanEntry.getValue();
+        File spanFile = CacheSpan.getCacheFileName(cacheDir, key, position, lengthAndTimestamp[1]);
+        callback.onSpanRestored(new CacheSpan(key, position, lengthAndTimestamp[0], true,
+            lengthAndTimestamp[1], spanFile));
+        spanCount++;
+      }
+    }
+    for (Map.Entry<String, Long> entry : contentLengths.entrySet()) {
+      callback.onContentLengthRestored(entry.getKey(), entry.getValue());
+    }
+    for (Map.Entry<String, HashMap<String, byte[]>> entry : contentMetadata.entrySet()) {
+      for (Map.Entry<String, byte[]> metadataEntry : entry.getValue().entrySet()) {
+        callback.onContentMetadataRestored(entry.getKey(), metadataEntry.getKey(),
+            metadataEntry.getValue());
+      }
+    }
+    if (truncated) {
+      // Force the journal to be rewritten so that future appends follow a complete record.
+      journalRecordCount = Integer.MAX_VALUE;
+    }
+    return true;
+  }
+
+  /**
+   * Records that a span has been added to the cache.
+   *
+   * @param span The added span.
+   */
+  public synchronized void onSpanAdded(CacheSpan span) {
+    if (writeFailed) {
+      return;
+    }
+    removePendingTouch(span);
+    try {
+      writeAddSpan(getOrWriteKeyId(span.key), span);
+    } catch (IOException e) {
+      // Never thrown when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    spanCount++;
+    scheduleWrite();
+  }
+
+  /**
+   * Records that a span has been removed from the cache.
+   *
+   * @param span The removed span.
+   */
+  public synchronized void onSpanRemoved(CacheSpan span) {
+    if (writeFailed) {
+      return;
+    }
+    // A touch must not be written after the removal, since a span may be re-added at the same
+    // position.
+    removePendingTouch(span);
+    try {
+      int keyId = getOrWriteKeyId(span.key);
+      recordOutput.writeByte(RECORD_TYPE_REMOVE_SPAN);
+      recordOutput.writeInt(keyId);
+      recordOutput.writeLong(span.position);
+      writeRecord();
+    } catch (IOException e) {
+      // Never thrown when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    spanCount--;
+    scheduleWrite();
+  }
+
+  /**
+   * Records that a span has been touched.
+   *
+   * @param newSpan The span with its updated last access timestamp.
+   */
+  public synchronized void onSpanTouched(CacheSpan newSpan) {
+    if (writeFailed) {
+      return;
+    }
+    HashMap<Long, Long> touchesForKey = pendingTouches.get(newSpan.key);
+    if (touchesForKey == null) {
+      touchesForKey = new HashMap<>();
+      pendingTouches.put(newSpan.key, touchesForKey);
+    }
+    touchesForKey.put(newSpan.position, newSpan.lastAccessTimestamp);
+    scheduleWrite();
+  }
+
+  /**
+   * Records that the content length of a key has been set.
+   *
+   * @param key The cache key.
+   * @param length The content length.
+   */
+  public synchronized void onContentLengthSet(String key, long length) {
+    if (writeFailed) {
+      return;
+    }
+    try {
+      writeContentLength(getOrWriteKeyId(key), length);
+    } catch (IOException e) {
+      // Never thrown when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * Records that an item of metadata has been set for a key.
+   *
+   * @param key The cache key.
+   * @param name The name of the metadata.
+   * @param value The value of the metadata.
+   */
+  public synchronized void onContentMetadataSet(String key, String name, byte[] value) {
+    if (writeFailed) {
+      return;
+    }
+    try {
+      writeContentMetadata(getOrWriteKeyId(key), name, value);
+    } catch (IOException e) {
+      // Never thrown when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    scheduleWrite();
+  }
+
+  /**
+   * Appends buffered records to the journal, blocking until they've been written.
+   */
+  public void flush() {
+    synchronized (writeLock) {
+      byte[] records;
+      int recordCount;
+      synchronized (this) {
+        writeScheduled = false;
+        writePendingTouches();
+        if (writeFailed || pendingRecordCount == 0) {
+          return;
+        }
+        records = pendingRecords.toByteArray();
+        recordCount = pendingRecordCount;
+        pendingRecords.reset();
+        pendingRecordCount = 0;
+      }
+      try {
+        if (output == null) {
+          output = openJournal();
+        }
+        output.write(records);
+        output.flush();
+        synchronized (this) {
+          journalRecordCount += recordCount;
+        }
+      } catch (IOException e) {
+        onWriteError(e);
+      }
+    }
+  }
+
+  /**
+   * Returns whether enough of the journal is obsolete that it should be rewritten.
+   */
+  public synchronized boolean needsCompaction() {
+    return !writeFailed && journalRecordCount > MIN_COMPACTION_RECORD_COUNT
+        && journalRecordCount > 2 * (spanCount + keyIds.size());
+  }
+
+  /**
+   * Replaces the journal with one describing the cache's in-memory representation, blocking until
+   * it's been written. Buffered records are discarded, since their effects are already in memory.
+   * <p>
+   * The new journal is written to a temporary file that's then renamed over the old one, so the
+   * old journal remains intact if the process is killed part way through.
+   */
+  public void rewrite() {
+    synchronized (writeLock) {
+      closeQuietly(output);
+      output = null;
+      byte[] records;
+      synchronized (this) {
+        writeScheduled = false;
+        writeFailed = false;
+        keyIds.clear();
+        pendingRecords.reset();
+        pendingRecordCount = 0;
+        pendingTouches.clear();
+        journalRecordCount = 0;
+        spanCount = 0;
+        if (!hasPresentContent(contents)) {
+          // Don't leave an index in an otherwise empty directory. A missing index is rebuilt
+          // trivially.
+          file.delete();
+          return;
+        }
+        // Encode the state whilst holding the monitor, so that mutations recorded afterwards are
+        // appended to the new journal using the same key identifiers.
+        try {
+          for (CachedContent content : contents) {
+            if (!content.isPresent()) {
+              continue;
+            }
+            int keyId = getOrWriteKeyId(content.key);
+            long length = content.length;
+            if (length != C.LENGTH_UNSET) {
+              writeContentLength(keyId, length);
+            }
+            Map<String, byte[]> metadata = content.metadata;
+            if (metadata != null) {
+              for (Map.Entry<String, byte[]> entry : metadata.entrySet()) {
+                writeContentMetadata(keyId, entry.getKey(), entry.getValue());
+              }
+            }
+            for (CacheSpan span : content.spans.values()) {
+              writeAddSpan(keyId, span);
+              spanCount++;
+            }
+          }
+        } catch (IOException e) {
+          // Never thrown when writing to memory.
+          throw new IllegalStateException(e);
+        }
+        records = pendingRecords.toByteArray();
+        journalRecordCount = pendingRecordCount;
+        pendingRecords.reset();
+        pendingRecordCount = 0;
+      }
+      try {
+        DataOutputStream tempOutput =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        tempOutput.writeInt(VERSION);
+        tempOutput.write(records);
+        tempOutput.close();
+        if (!tempFile.renameTo(file)) {
+          throw new IOException("Failed to replace " + file);
+        }
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      } catch (IOException e) {
+        onWriteError(e);
+      }
+    }
+  }
+
+  private void scheduleWrite() {
+    if (!writeScheduled) {
+      writeScheduled = true;
+      writeExecutor.execute(writeRunnable);
+    }
+  }
+
+  private void removePendingTouch(CacheSpan span) {
+    HashMap<Long, Long> touchesForKey = pendingTouches.get(span.key);
+    if (touchesForKey != null) {
+      touchesForKey.remove(span.position);
+    }
+  }
+
+  /**
+   * Encodes the coalesced touches into {@link #pendingRecords}. Each touched span's addition has
+   * already been buffered or written, and a removal would have discarded its pending touch.
+   */
+  private void writePendingTouches() {
+    try {
+      for (Map.Entry<String, HashMap<Long, Long>> entry : pendingTouches.entrySet()) {
+        if (entry.getValue().isEmpty()) {
+          continue;
+        }
+        int keyId = getOrWriteKeyId(entry.getKey());
+        for (Map.Entry<Long, Long> touch : entry.getValue().entrySet()) {
+          recordOutput.writeByte(RECORD_TYPE_TOUCH_SPAN);
+          recordOutput.writeInt(keyId);
+          recordOutput.writeLong(touch.getKey());
+          recordOutput.writeLong(touch.getValue());
+          writeRecord();
+        }
+      }
+    } catch (IOException e) {
+      // Never thrown when writing to memory.
+      throw new IllegalStateException(e);
+    }
+    pendingTouches.clear();
+  }
+
+  private static boolean hasPresentContent(Collection<CachedContent> contents) {
+    for (CachedContent content : contents) {
+      if (content.isPresent()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int getOrWriteKeyId(String key) throws IOException {
+    Integer keyId = keyIds.get(key);
+    if (keyId != null) {
+      return keyId;
+    }
+    int newKeyId = keyIds.size();
+    recordOutput.writeByte(RECORD_TYPE_KEY);
+    recordOutput.writeInt(newKeyId);
+    recordOutput.writeUTF(key);
+    writeRecord();
+    keyIds.put(key, newKeyId);
+    return newKeyId;
+  }
+
+  private void writeAddSpan(int keyId, CacheSpan span) throws IOException {
+    recordOutput.writeByte(RECORD_TYPE_ADD_SPAN);
+    recordOutput.writeInt(keyId);
+    recordOutput.writeLong(span.position);
+    recordOutput.writeLong(span.length);
+    recordOutput.writeLong(span.lastAccessTimestamp);
+    writeRecord();
+  }
+
+  private void writeContentLength(int keyId, long length) throws IOException {
+    recordOutput.writeByte(RECORD_TYPE_CONTENT_LENGTH);
+    recordOutput.writeInt(keyId);
+    recordOutput.writeLong(length);
+    writeRecord();
+  }
+
+  private void writeContentMetadata(int keyId, String name, byte[] value) throws IOException {
+    recordOutput.writeByte(RECORD_TYPE_CONTENT_METADATA);
+    recordOutput.writeInt(keyId);
+    recordOutput.writeUTF(name);
+    recordOutput.writeInt(value.length);
+    recordOutput.write(value);
+    writeRecord();
+  }
+
+  /**
+   * Appends the record in {@link #recordBuffer} to {@link #pendingRecords}, followed by its
+   * checksum.
+   */
+  private void writeRecord() throws IOException {
+    crc.reset();
+    crc.update(recordBuffer.toByteArray(), 0, recordBuffer.size());
+    recordBuffer.writeTo(pendingRecords);
+    int checksum = (int) crc.getValue();
+    pendingRecords.write(checksum >>> 24);
+    pendingRecords.write(checksum >>> 16);
+    pendingRecords.write(checksum >>> 8);
+    pendingRecords.write(checksum);
+    recordBuffer.reset();
+    pendingRecordCount++;
+  }
+
+  private DataOutputStream openJournal() throws IOException {
+    boolean exists = file.exists();
+    DataOutputStream output;
+    try {
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    } catch (FileNotFoundException e) {
+      // The cache directory may have been deleted. Make a best effort to recreate it.
+      cacheDir.mkdirs();
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+    if (!exists) {
+      output.writeInt(VERSION);
+    }
+    return output;
+  }
+
+  /**
+   * Must be called whilst holding {@link #writeLock}.
+   */
+  private void onWriteError(IOException e) {
+    // Delete the journal rather than leaving it inconsistent with the cache, and stop appending to
+    // it. The index will be rebuilt from the cache directory when the cache is next initialized.
+    Log.e(TAG, "Failed to write cache index", e);
+    closeQuietly(output);
+    output = null;
+    synchronized (this) {
+      writeFailed = true;
+      pendingRecords.reset();
+      pendingRecordCount = 0;
+      pendingTouches.clear();
+    }
+    file.delete();
+    tempFile.delete();
+  }
+
+  private boolean readRecord(int type, DataInputStream input, HashMap<Integer, String> keys,
+      HashMap<String, TreeMap<Long, long[]>> spans, HashMap<String, Long> contentLengths,
+      HashMap<String, HashMap<String, byte[]>> contentMetadata) throws IOException {
+    if (type == RECORD_TYPE_KEY) {
+      int keyId = input.readInt();
+      String key = input.readUTF();
+      return keys.put(keyId, key) == null;
+    }
+    String key = keys.get(input.readInt());
+    if (key == null) {
+      return false;
+    }
+    TreeMap<Long, long[]> spansForKey = spans.get(key);
+    long position;
+    long lastAccessTimestamp;
+    switch (type) {
+      case RECORD_TYPE_ADD_SPAN:
+        position = input.readLong();
+        long length = input.readLong();
+        lastAccessTimestamp = input.readLong();
+        if (spansForKey == null) {
+          spansForKey = new TreeMap<>();
+          spans.put(key, spansForKey);
+        }
+        spansForKey.put(position, new long[] {length, lastAccessTimestamp});
+        return true;
+      case RECORD_TYPE_REMOVE_SPAN:
+        position = input.readLong();
+        if (spansForKey == null || spansForKey.remove(position) == null) {
+          // The span was removed while the journal was being rewritten.
+          return true;
+        }
+        if (spansForKey.isEmpty()) {
+          // Mirror SimpleCache, which forgets a key's content length and metadata with its last
+          // span.
+          spans.remove(key);
+          contentLengths.remove(key);
+          contentMetadata.remove(key);
+        }
+        return true;
+      case RECORD_TYPE_TOUCH_SPAN:
+        position = input.readLong();
+        lastAccessTimestamp = input.readLong();
+        long[] lengthAndTimestamp = spansForKey == null ? null : spansForKey.get(position);
+        if (lengthAndTimestamp != null) {
+          lengthAndTimestamp[1] = lastAccessTimestamp;
+        }
+        // Else the span was removed while the journal was being rewritten.
+        return true;
+      case RECORD_TYPE_CONTENT_LENGTH:
+        contentLengths.put(key, input.readLong());
+        return true;
+      case RECORD_TYPE_CONTENT_METADATA:
+        String name = input.readUTF();
+        int valueLength = input.readInt();
+        if (valueLength < 0 || valueLength > file.length()) {
+          // The length is corrupt. Don't attempt to allocate it.
+          return false;
+        }
+        byte[] value = new byte[valueLength];
+        input.readFully(value);
+        HashMap<String, byte[]> metadataForKey = contentMetadata.get(key);
+        if (metadataForKey == null) {
+          metadataForKey = new HashMap<>();
+          contentMetadata.put(key, metadataForKey);
+        }
+        metadataForKey.put(name, value);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      if (closeable != null) {
+        closeable.close();
+      }
+    } catch (IOException e) {
+      // Ignore.
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import com.google.android.exoplayer2.util.SystemClock;
+import com.google.android.exoplayer2.util.WallClock;
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Evicts cache files once they've been in the cache for longer than a time-to-live, and delegates
+ * to another {@link CacheEvictor} to limit the size of the cache.
+ * <p>
+ * The age of a span is measured from when it was first written, and is not reset when the span is
+ * read. Spans that were already in the cache when it was initialized are aged from their last
+ * access time, since that's the only time that's persisted. Expired spans are removed when the
+ * cache is next written to or read from, except that a span that's being read is not removed
+ * until a later operation.
+ */
+public final class TimeToLiveCacheEvictor implements CacheEvictor, Comparator<CacheSpan> {
+
+  private final long timeToLiveMs;
+  private final CacheEvictor delegate;
+  private final WallClock clock;
+  private final TreeMap<CacheSpan, Long> creationTimes;
+  private final TreeSet<CacheSpan> oldestFirst;
+
+  /**
+   * @param timeToLiveMs The time for which spans are kept in the cache after they're written, in
+   *     milliseconds.
+   */
+  public TimeToLiveCacheEvictor(long timeToLiveMs) {
+    this(timeToLiveMs, new NoOpCacheEvictor());
+  }
+
+  /**
+   * @param timeToLiveMs The time for which spans are kept in the cache after they're written, in
+   *     milliseconds.
+   * @param delegate An evictor to which all events are forwarded, which can be used to limit the
+   *     size of the cache.
+   */
+  public TimeToLiveCacheEvictor(long timeToLiveMs, CacheEvictor delegate) {
+    this(timeToLiveMs, delegate, new SystemClock());
+  }
+
+  /**
+   * @param timeToLiveMs The time for which spans are kept in the cache after they're written, in
+   *     milliseconds.
+   * @param delegate An evictor to which all events are forwarded, which can be used to limit the
+   *     size of the cache.
+   * @param clock The {@link WallClock} used to determine the age of spans.
+   */
+  public TimeToLiveCacheEvictor(long timeToLiveMs, CacheEvictor delegate, WallClock clock) {
+    this.timeToLiveMs = timeToLiveMs;
+    this.delegate = delegate;
+    this.clock = clock;
+    this.creationTimes = new TreeMap<>();
+    this.oldestFirst = new TreeSet<>(this);
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    delegate.onCacheInitialized();
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long maxLength) {
+    evictExpired(cache, null);
+    delegate.onStartFile(cache, key, position, maxLength);
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    // The last access time of a newly written span is the time at which writing started.
+    add(span, Math.min(span.lastAccessTimestamp, clock.currentTimeMillis()));
+    delegate.onSpanAdded(cache, span);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    if (creationTimes.containsKey(span)) {
+      // The span must be removed from the set before its creation time, which the set is ordered
+      // by.
+      oldestFirst.remove(span);
+      creationTimes.remove(span);
+    }
+    delegate.onSpanRemoved(cache, span);
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    Long creationTime = creationTimes.get(oldSpan);
+    if (creationTime != null) {
+      oldestFirst.remove(oldSpan);
+      creationTimes.remove(oldSpan);
+      add(newSpan, creationTime);
+    }
+    delegate.onSpanTouched(cache, oldSpan, newSpan);
+    evictExpired(cache, newSpan);
+  }
+
+  @Override
+  public int compare(CacheSpan lhs, CacheSpan rhs) {
+    long lhsCreationTime = creationTimes.get(lhs);
+    long rhsCreationTime = creationTimes.get(rhs);
+    if (lhsCreationTime != rhsCreationTime) {
+      return lhsCreationTime < rhsCreationTime ? -1 : 1;
+    }
+    // Use the standard compareTo method as a tie-break.
+    return lhs.compareTo(rhs);
+  }
+
+  private void add(CacheSpan span, long creationTime) {
+    creationTimes.put(span, creationTime);
+    oldestFirst.add(span);
+  }
+
+  private void evictExpired(Cache cache, CacheSpan spanInUse) {
+    long expiryTime = clock.currentTimeMillis() - timeToLiveMs;
+    while (!oldestFirst.isEmpty()) {
+      CacheSpan oldest = oldestFirst.first();
+      if (spanInUse != null && oldest.compareTo(spanInUse) == 0) {
+        oldest = oldestFirst.higher(oldest);
+      }
+      if (oldest == null || creationTimes.get(oldest) > expiryTime) {
+        return;
+      }
+      cache.removeSpan(oldest);
+    }
+  }
+
+}
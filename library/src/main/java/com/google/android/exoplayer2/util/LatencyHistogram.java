@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with logarithmically sized buckets, in the style of HdrHistogram.
+ * <p>
+ * Values below {@code 2^precisionBits} are counted exactly. Larger values are counted in buckets
+ * whose width is at most {@code 2^-(precisionBits - 1)} of their lower bound, so the relative
+ * error of reported values is bounded regardless of magnitude. Values above the maximum trackable
+ * value are counted in the last bucket.
+ * <p>
+ * The histogram supports a single writer and any number of concurrent readers, without locking.
+ * Values recorded concurrently with a read may or may not be reflected in its result.
+ */
+public final class LatencyHistogram {
+
+  /**
+   * The default number of bits of precision.
+   */
+  public static final int DEFAULT_PRECISION_BITS = 5;
+  /**
+   * The default base two logarithm of the maximum trackable value.
+   */
+  public static final int DEFAULT_MAX_VALUE_BITS = 32;
+
+  private final int precisionBits;
+  private final int subBucketCount;
+  private final int halfSubBucketCount;
+  private final long maxTrackableValue;
+  private final AtomicLongArray counts;
+  private final AtomicLong totalCount;
+  private final AtomicLong totalValue;
+  private final AtomicLong maxValue;
+
+  public LatencyHistogram() {
+    this(DEFAULT_PRECISION_BITS, DEFAULT_MAX_VALUE_BITS);
+  }
+
+  /**
+   * @param precisionBits The number of bits of precision. Must be in the range [1, 16].
+   * @param maxValueBits The base two logarithm of the maximum trackable value. Must be in the
+   *     range [{@code precisionBits}, 62].
+   */
+  public LatencyHistogram(int precisionBits, int maxValueBits) {
+    Assertions.checkArgument(precisionBits >= 1 && precisionBits <= 16);
+    Assertions.checkArgument(maxValueBits >= precisionBits && maxValueBits <= 62);
+    this.precisionBits = precisionBits;
+    subBucketCount = 1 << precisionBits;
+    halfSubBucketCount = subBucketCount / 2;
+    maxTrackableValue = (1L << maxValueBits) - 1;
+    counts = new AtomicLongArray(getBucketIndex(maxTrackableValue) + 1);
+    totalCount = new AtomicLong();
+    totalValue = new AtomicLong();
+    maxValue = new AtomicLong();
+  }
+
+  /**
+   * Records a value. Must only be called by a single thread.
+   *
+   * @param value The value to record. Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    int index = getBucketIndex(Math.min(value, maxTrackableValue));
+    // With a single writer there is no need to compare and set.
+    counts.lazySet(index, counts.get(index) + 1);
+    totalValue.lazySet(totalValue.get() + value);
+    if (value > maxValue.get()) {
+      maxValue.lazySet(value);
+    }
+    totalCount.lazySet(totalCount.get() + 1);
+  }
+
+  /**
+   * Returns the number of recorded values.
+   */
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * Returns the largest recorded value, or 0 if no values have been recorded.
+   */
+  public long getMaxValue() {
+    return maxValue.get();
+  }
+
+  /**
+   * Returns the mean of the recorded values, or 0 if no values have been recorded.
+   */
+  public double getMean() {
+    long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalValue.get() / count;
+  }
+
+  /**
+   * Returns the number of recorded values greater than a threshold. Values in the bucket containing
+   * the threshold are not counted, so the result may undercount by the size of that bucket.
+   *
+   * @param threshold The threshold.
+   * @return The number of recorded values greater than the threshold.
+   */
+  public long getCountAbove(long threshold) {
+    if (threshold >= maxTrackableValue) {
+      return 0;
+    }
+    long count = 0;
+    for (int i = getBucketIndex(Math.max(threshold, 0)) + 1; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns an upper bound of the value at a percentile of the recorded values.
+   *
+   * @param percentile The percentile, in the range [0, 100].
+   * @return The highest value in the bucket containing the percentile, capped at the largest
+   *     recorded value, or 0 if no values have been recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long[] snapshot = new long[counts.length()];
+    long count = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long targetCount = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long cumulativeCount = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      cumulativeCount += snapshot[i];
+      if (cumulativeCount >= targetCount) {
+        return Math.min(getBucketUpperBound(i), maxValue.get());
+      }
+    }
+    return maxValue.get();
+  }
+
+  private int getBucketIndex(long value) {
+    if (value < subBucketCount) {
+      return (int) value;
+    }
+    // The shift that brings the value into [subBucketCount / 2, subBucketCount).
+    int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+    int subBucketIndex = (int) (value >> shift) - halfSubBucketCount;
+    return subBucketCount + (shift - 1) * halfSubBucketCount + subBucketIndex;
+  }
+
+  private long getBucketUpperBound(int index) {
+    if (index < subBucketCount) {
+      return index;
+    }
+    int offset = index - subBucketCount;
+    int shift = offset / halfSubBucketCount + 1;
+    long subBucketValue = offset % halfSubBucketCount + halfSubBucketCount;
+    return ((subBucketValue + 1) << shift) - 1;
+  }
+
+}
@@ -400,21 +400,35 @@ public final class NalUnitUtil {
     }
 
     int limit = endOffset - 1;
+    int unrolledLimit = limit - 9;
     // We're looking for the NAL unit start code prefix 0x000001. The value of i tracks the index of
     // the third byte.
-    for (int i = startOffset + 2; i < limit; i += 3) {
+    int i = startOffset + 2;
+    while (i < limit) {
+      // Every byte of a NAL prefix is 0 or 1, so if every third byte is neither then there's no
+      // prefix. Check four such bytes per iteration, which skips twelve bytes at a time.
+      while (i < unrolledLimit && (data[i] & 0xFE) != 0 && (data[i + 3] & 0xFE) != 0
+          && (data[i + 6] & 0xFE) != 0 && (data[i + 9] & 0xFE) != 0) {
+        i += 12;
+      }
+      if (i >= limit) {
+        break;
+      }
       if ((data[i] & 0xFE) != 0) {
-        // There isn't a NAL prefix here, or at the next two positions. Do nothing and let the
-        // loop advance the index by three.
-      } else if (data[i - 2] == 0 && data[i - 1] == 0 && data[i] == 1) {
-        if (prefixFlags != null) {
-          clearPrefixFlags(prefixFlags);
+        // There isn't a NAL prefix here, or at the next two positions.
+        i += 3;
+      } else if (data[i] == 1) {
+        if (data[i - 2] == 0 && data[i - 1] == 0) {
+          if (prefixFlags != null) {
+            clearPrefixFlags(prefixFlags);
+          }
+          return i - 2;
         }
-        return i - 2;
+        // A NAL prefix at either of the next two positions would require this byte to be 0.
+        i += 3;
       } else {
-        // There isn't a NAL prefix here, but there might be at the next position. We should
-        // only skip forward by one. The loop will skip forward by three, so subtract two here.
-        i -= 2;
+        // There isn't a NAL prefix here, but there might be at the next position.
+        i++;
       }
     }
 
@@ -16,13 +16,18 @@
 package com.google.android.exoplayer2.util;
 
 /**
- * The standard implementation of {@link Clock}.
+ * The standard implementation of {@link Clock} and {@link WallClock}.
  */
-public final class SystemClock implements Clock {
+public final class SystemClock implements Clock, WallClock {
 
   @Override
   public long elapsedRealtime() {
     return android.os.SystemClock.elapsedRealtime();
   }
 
+  @Override
+  public long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
 }
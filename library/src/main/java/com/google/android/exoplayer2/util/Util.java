@@ -222,6 +222,23 @@ public final class Util {
     });
   }
 
+  /**
+   * Instantiates a new fixed size thread pool whose threads are all named using the specified
+   * name.
+   *
+   * @param threadName The name of the threads.
+   * @param threadCount The number of threads in the pool.
+   * @return The executor.
+   */
+  public static ExecutorService newFixedThreadPool(final String threadName, int threadCount) {
+    return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        return new Thread(r, threadName);
+      }
+    });
+  }
+
   /**
    * Closes a {@link DataSource}, suppressing any {@link IOException} that may occur.
    *
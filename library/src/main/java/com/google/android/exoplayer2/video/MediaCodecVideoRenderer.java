@@ -66,6 +66,7 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
   private Surface surface;
   private boolean renderedFirstFrame;
   private long joiningDeadlineMs;
+  private long earlyFrameRenderDelayUs;
   private long droppedFrameAccumulationStartTimeMs;
   private int droppedFrames;
   private int consecutiveDroppedFrameCount;
@@ -158,6 +159,7 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     eventDispatcher = new EventDispatcher(eventHandler, eventListener);
     deviceNeedsAutoFrcWorkaround = deviceNeedsAutoFrcWorkaround();
     joiningDeadlineMs = C.TIME_UNSET;
+    earlyFrameRenderDelayUs = C.TIME_UNSET;
     currentWidth = Format.NO_VALUE;
     currentHeight = Format.NO_VALUE;
     currentPixelWidthHeightRatio = Format.NO_VALUE;
@@ -228,6 +230,18 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
         ? (SystemClock.elapsedRealtime() + allowedJoiningTimeMs) : C.TIME_UNSET;
   }
 
+  @Override
+  public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+    earlyFrameRenderDelayUs = C.TIME_UNSET;
+    super.render(positionUs, elapsedRealtimeUs);
+  }
+
+  @Override
+  public long getMaxRenderDelayUs(long positionUs, long elapsedRealtimeUs) {
+    return earlyFrameRenderDelayUs != C.TIME_UNSET ? Math.max(0, earlyFrameRenderDelayUs)
+        : super.getMaxRenderDelayUs(positionUs, elapsedRealtimeUs);
+  }
+
   @Override
   public boolean isReady() {
     if ((renderedFirstFrame || super.shouldInitCodec()) && super.isReady()) {
@@ -432,7 +446,9 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
       }
     }
 
-    // We're either not playing, or it's not time to render the frame yet.
+    // We're either not playing, or it's not time to render the frame yet. Render again when the
+    // frame can be released.
+    earlyFrameRenderDelayUs = earlyUs - (Util.SDK_INT >= 21 ? 50000 : 30000);
     return false;
   }
 
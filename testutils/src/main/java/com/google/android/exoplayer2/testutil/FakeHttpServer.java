@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import android.net.Uri;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal HTTP server that serves in-memory resources over the loopback interface, for testing
+ * components that load data through HTTP.
+ * <p>
+ * Only GET requests are supported. Range requests of the form {@code bytes=start-} and
+ * {@code bytes=start-end} are served with partial content responses. Every connection is closed
+ * after a single response.
+ */
+public final class FakeHttpServer {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final Pattern REQUEST_LINE = Pattern.compile("GET (\\S+) HTTP/1\\.[01]");
+  private static final Pattern RANGE_HEADER =
+      Pattern.compile("(?i)range:\\s*bytes=(\\d+)-(\\d*)");
+
+  private final HashMap<String, byte[]> resources;
+  private final HashMap<String, Integer> requestCounts;
+  private final HashMap<String, Long> requestedBytes;
+
+  private ServerSocket serverSocket;
+  private Thread thread;
+
+  public FakeHttpServer() {
+    resources = new HashMap<>();
+    requestCounts = new HashMap<>();
+    requestedBytes = new HashMap<>();
+  }
+
+  /**
+   * Sets the data served at a path.
+   *
+   * @param path The path, starting with '/'.
+   * @param data The data.
+   */
+  public synchronized void setResource(String path, byte[] data) {
+    resources.put(path, data);
+  }
+
+  /**
+   * Removes the data served at a path, so that subsequent requests fail with a 404 response.
+   *
+   * @param path The path, starting with '/'.
+   */
+  public synchronized void removeResource(String path) {
+    resources.remove(path);
+  }
+
+  /**
+   * Returns the number of requests received for a path.
+   */
+  public synchronized int getRequestCount(String path) {
+    Integer count = requestCounts.get(path);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Returns the total number of bytes served for a path.
+   */
+  public synchronized long getServedBytes(String path) {
+    Long bytes = requestedBytes.get(path);
+    return bytes == null ? 0 : bytes;
+  }
+
+  /**
+   * Returns the total number of requests received.
+   */
+  public synchronized int getTotalRequestCount() {
+    int total = 0;
+    for (int count : requestCounts.values()) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Starts the server on an ephemeral port.
+   *
+   * @throws IOException If the server socket cannot be opened.
+   */
+  public void start() throws IOException {
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    thread = new Thread("FakeHttpServer") {
+      @Override
+      public void run() {
+        acceptConnections();
+      }
+    };
+    thread.start();
+  }
+
+  /**
+   * Stops the server.
+   */
+  public void stop() throws InterruptedException {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // Do nothing.
+    }
+    thread.join();
+  }
+
+  /**
+   * Returns the {@link Uri} at which a path is served.
+   *
+   * @param path The path, starting with '/'.
+   */
+  public Uri getUri(String path) {
+    return Uri.parse("http://127.0.0.1:" + serverSocket.getLocalPort() + path);
+  }
+
+  private void acceptConnections() {
+    while (true) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        // The server has been stopped.
+        return;
+      }
+      new Thread("FakeHttpServer:Connection") {
+        @Override
+        public void run() {
+          try {
+            handleConnection(socket);
+          } catch (IOException e) {
+            // The client closed the connection.
+          } finally {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // Do nothing.
+            }
+          }
+        }
+      }.start();
+    }
+  }
+
+  private void handleConnection(Socket socket) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII));
+    Matcher requestLine = REQUEST_LINE.matcher(String.valueOf(reader.readLine()));
+    long rangeStart = 0;
+    long rangeEnd = -1;
+    boolean isRangeRequest = false;
+    String line;
+    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+      Matcher range = RANGE_HEADER.matcher(line);
+      if (range.matches()) {
+        isRangeRequest = true;
+        rangeStart = Long.parseLong(range.group(1));
+        rangeEnd = range.group(2).isEmpty() ? -1 : Long.parseLong(range.group(2));
+      }
+    }
+    OutputStream out = socket.getOutputStream();
+    if (!requestLine.matches()) {
+      writeHeaders(out, "400 Bad Request", 0, null);
+      return;
+    }
+    String path = requestLine.group(1);
+    byte[] data;
+    synchronized (this) {
+      Integer count = requestCounts.get(path);
+      requestCounts.put(path, count == null ? 1 : count + 1);
+      data = resources.get(path);
+    }
+    if (data == null) {
+      writeHeaders(out, "404 Not Found", 0, null);
+      return;
+    }
+    if (rangeEnd == -1 || rangeEnd >= data.length) {
+      rangeEnd = data.length - 1;
+    }
+    if (isRangeRequest && rangeStart >= data.length) {
+      writeHeaders(out, "416 Requested Range Not Satisfiable", 0,
+          "Content-Range: bytes */" + data.length);
+      return;
+    }
+    int start = (int) rangeStart;
+    int length = (int) (rangeEnd - rangeStart + 1);
+    if (isRangeRequest) {
+      writeHeaders(out, "206 Partial Content", length,
+          "Content-Range: bytes " + start + "-" + rangeEnd + "/" + data.length);
+    } else {
+      writeHeaders(out, "200 OK", length, null);
+    }
+    synchronized (this) {
+      Long bytes = requestedBytes.get(path);
+      requestedBytes.put(path, (bytes == null ? 0 : bytes) + length);
+    }
+    try {
+      out.write(data, start, length);
+      out.flush();
+    } catch (SocketException e) {
+      // The client closed the connection before reading all of the data.
+    }
+  }
+
+  private static void writeHeaders(OutputStream out, String status, int contentLength,
+      String extraHeader) throws IOException {
+    StringBuilder headers = new StringBuilder();
+    headers.append("HTTP/1.1 ").append(status).append("\r\n");
+    headers.append("Content-Length: ").append(contentLength).append("\r\n");
+    headers.append("Connection: close\r\n");
+    if (extraHeader != null) {
+      headers.append(extraHeader).append("\r\n");
+    }
+    headers.append("\r\n");
+    out.write(headers.toString().getBytes(ASCII));
+  }
+
+}